@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Smooths images with a 3x3 Gaussian filter, e.g. to suppress noise before detecting edges. The
+ * filter is applied as a horizontal and a vertical pass, and pixels outside of the image are
+ * taken to be equal to the nearest pixel inside. Each pass processes rows in bands in parallel on
+ * the common {@link ForkJoinPool}.
+ */
+public class BlurStage implements ImageStage {
+  private final RowBands horizontalBands = new RowBands(this::filterRowsHorizontally);
+  private final RowBands verticalBands = new RowBands(this::filterRowsVertically);
+
+  // The horizontally filtered rows, scaled by 4.
+  private short[] horizontal = new short[0];
+
+  // The image being processed.
+  private int width;
+  private int height;
+  private byte[] in;
+  private byte[] out;
+
+  @Override
+  public String getName() {
+    return "blur";
+  }
+
+  @Override
+  public GrayImage process(GrayImage input, ImagePool pool) {
+    width = input.width;
+    height = input.height;
+    if (horizontal.length != width * height) {
+      horizontal = new short[width * height];
+    }
+    GrayImage output = pool.acquire(width, height);
+    in = input.pixels;
+    out = output.pixels;
+    try {
+      // The vertical pass reads the horizontally filtered rows of the neighbouring bands, so it
+      // only starts once the horizontal pass is done.
+      horizontalBands.run(0, height);
+      verticalBands.run(0, height);
+    } finally {
+      in = null;
+      out = null;
+    }
+    return output;
+  }
+
+  /**
+   * Horizontal pass over the given rows:
+   *
+   * <pre>
+   *   1, 2, 1
+   * </pre>
+   */
+  private void filterRowsHorizontally(int firstRow, int endRow) {
+    for (int j = firstRow; j < endRow; j++) {
+      int row = j * width;
+      for (int i = 0; i < width; i++) {
+        int left = in[row + Math.max(i - 1, 0)] & 0xFF;
+        int right = in[row + Math.min(i + 1, width - 1)] & 0xFF;
+        horizontal[row + i] = (short) (left + (2 * (in[row + i] & 0xFF)) + right);
+      }
+    }
+  }
+
+  /** Vertical pass over the given rows, normalizing by the sum of the weights of both passes. */
+  private void filterRowsVertically(int firstRow, int endRow) {
+    for (int j = firstRow; j < endRow; j++) {
+      int row = j * width;
+      int rowAbove = Math.max(j - 1, 0) * width;
+      int rowBelow = Math.min(j + 1, height - 1) * width;
+      for (int i = 0; i < width; i++) {
+        int sum = horizontal[rowAbove + i] + (2 * horizontal[row + i]) + horizontal[rowBelow + i];
+        out[row + i] = (byte) ((sum + 8) / 16);
+      }
+    }
+  }
+}
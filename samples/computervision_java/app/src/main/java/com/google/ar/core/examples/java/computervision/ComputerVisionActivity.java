@@ -51,7 +51,6 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -67,8 +66,13 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
           + "\n\tPrincipal Point: (%.2f, %.2f)"
           + "\n\t%s Image Dimensions: (%d, %d)"
           + "\n\tUnrotated Field of View: (%.2f˚, %.2f˚)"
-          + "\n\tRender frame time: %.1f ms (%.0ffps)"
-          + "\n\tCPU image frame time: %.1f ms (%.0ffps)";
+          + "\n\tRender frame time: p50 %.1f / p90 %.1f / p99 %.1f / max %.1f ms (%.0ffps)"
+          + "\n\tJanky frames: %d of %d"
+          + "\n\tp99 update %.1f / acquire %.1f / process %.1f / render %.1f ms"
+          + "\n\tCPU image frame time: p50 %.1f / p99 %.1f ms (%.0ffps)"
+          + "\n\tImage pipeline latency: p50 %.1f / p99 %.1f ms, %d processed, %d dropped";
+  // Interval at which frame metrics are written to logcat.
+  private static final long FRAME_METRICS_LOG_INTERVAL_NANOS = 10_000_000_000L;
   private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
 
   // This app demonstrates two approaches to obtaining image data accessible on CPU:
@@ -103,7 +107,17 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private CpuImageDisplayRotationHelper cpuImageDisplayRotationHelper;
   private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
   private final CpuImageRenderer cpuImageRenderer = new CpuImageRenderer();
-  private final EdgeDetector edgeDetector = new EdgeDetector();
+  // Edges are detected off the rendering thread. The Sobel operator is given images no wider than
+  // MAX_EDGE_DETECTION_WIDTH.
+  private final ImagePipeline imagePipeline =
+      new ImagePipeline(
+          new DownscaleStage(MAX_EDGE_DETECTION_WIDTH),
+          new SobelStage(),
+          new ThresholdStage(
+              SOBEL_EDGE_THRESHOLD,
+              /* aboveValue= */ 0xFF,
+              /* otherValue= */ 0x1F,
+              /* border= */ 1));
 
   // This lock prevents changing resolution as the frame is being rendered. ARCore requires all
   // CPU images to be released before changing resolution.
@@ -114,7 +128,6 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
   // The fields below are used for the GPU_DOWNLOAD image acquisition path.
   private final TextureReader textureReader = new TextureReader();
-  private int gpuDownloadFrameBufferIndex = -1;
 
   // ARCore full resolution GL texture typically has a size of 1920 x 1080.
   private static final int TEXTURE_WIDTH = 1920;
@@ -124,6 +137,11 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private static final int IMAGE_WIDTH = 1280;
   private static final int IMAGE_HEIGHT = 720;
 
+  // Images wider than this are downscaled before detecting edges.
+  private static final int MAX_EDGE_DETECTION_WIDTH = 1280;
+  // Pixels with a gradient magnitude above this are shown as edges.
+  private static final int SOBEL_EDGE_THRESHOLD = 128;
+
   // For Camera Configuration APIs usage.
   private CameraConfig cpuLowResolutionCameraConfig;
   private CameraConfig cpuMediumResolutionCameraConfig;
@@ -133,8 +151,9 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private boolean isCVModeOn = true;
   private Switch focusModeSwitch;
 
-  private final FrameTimeHelper renderFrameTimeHelper = new FrameTimeHelper();
-  private final FrameTimeHelper cpuImageFrameTimeHelper = new FrameTimeHelper();
+  private final FrameMetrics renderFrameMetrics = new FrameMetrics();
+  private final FrameMetrics cpuImageFrameMetrics = new FrameMetrics();
+  private long lastFrameMetricsLogTime;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -158,8 +177,9 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
 
-    getLifecycle().addObserver(renderFrameTimeHelper);
-    getLifecycle().addObserver(cpuImageFrameTimeHelper);
+    getLifecycle().addObserver(renderFrameMetrics);
+    getLifecycle().addObserver(cpuImageFrameMetrics);
+    getLifecycle().addObserver(imagePipeline);
 
     installRequested = false;
   }
@@ -238,6 +258,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       session = null;
       return;
     }
+    updateTargetFrameRate();
     surfaceView.onResume();
     cpuImageDisplayRotationHelper.onResume();
   }
@@ -319,15 +340,16 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       cpuImageDisplayRotationHelper.updateSessionIfNeeded(session);
 
       try {
+        renderFrameMetrics.beginFrame();
         session.setCameraTextureName(cpuImageRenderer.getTextureId());
+        renderFrameMetrics.beginStage(FrameMetrics.Stage.SESSION_UPDATE);
         final Frame frame = session.update();
+        renderFrameMetrics.endStage(FrameMetrics.Stage.SESSION_UPDATE);
         final Camera camera = frame.getCamera();
 
         // Keep the screen unlocked while tracking, but allow it to lock when tracking stops.
         trackingStateHelper.updateKeepScreenOnFlag(camera.getTrackingState());
 
-        renderFrameTimeHelper.nextFrame();
-
         switch (imageAcquisitionPath) {
           case CPU_DIRECT_ACCESS:
             renderProcessedImageCpuDirectAccess(frame);
@@ -339,6 +361,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
         // Update the camera intrinsics' text.
         runOnUiThread(() -> cameraIntrinsicsTextView.setText(getCameraIntrinsicsText(frame)));
+        maybeLogFrameMetrics();
       } catch (Exception t) {
         // Avoid crashing the application due to unhandled exceptions.
         Log.e(TAG, "Exception on the OpenGL thread", t);
@@ -348,75 +371,100 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
   /* Demonstrates how to access a CPU image directly from ARCore. */
   private void renderProcessedImageCpuDirectAccess(Frame frame) {
-    try (Image image = frame.acquireCameraImage()) {
+    try (Image image = acquireCameraImage(frame)) {
       if (image.getFormat() != ImageFormat.YUV_420_888) {
         throw new IllegalArgumentException(
             "Expected image in YUV_420_888 format, got format " + image.getFormat());
       }
 
-      ByteBuffer processedImageBytesGrayscale = null;
       // Do not process the image with edge dectection algorithm if it is not being displayed.
       if (isCVModeOn) {
-        processedImageBytesGrayscale =
-            edgeDetector.detect(
-                image.getWidth(),
-                image.getHeight(),
-                image.getPlanes()[0].getRowStride(),
-                image.getPlanes()[0].getBuffer());
+        renderFrameMetrics.beginStage(FrameMetrics.Stage.CPU_PROCESSING);
+        imagePipeline.submit(
+            image.getWidth(),
+            image.getHeight(),
+            image.getPlanes()[0].getRowStride(),
+            image.getPlanes()[0].getBuffer());
+        renderFrameMetrics.endStage(FrameMetrics.Stage.CPU_PROCESSING);
       }
 
-      cpuImageRenderer.drawWithCpuImage(
-          frame,
-          image.getWidth(),
-          image.getHeight(),
-          processedImageBytesGrayscale,
-          cpuImageDisplayRotationHelper.getViewportAspectRatio(),
-          cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
+      drawWithLatestProcessedImage(frame);
 
       // Measure frame time since last successful execution of drawWithCpuImage().
-      cpuImageFrameTimeHelper.nextFrame();
+      cpuImageFrameMetrics.beginFrame();
     } catch (NotYetAvailableException e) {
       // This exception will routinely happen during startup, and is expected. cpuImageRenderer
       // will handle null image properly, and will just render the background.
+      renderFrameMetrics.beginStage(FrameMetrics.Stage.RENDER);
       cpuImageRenderer.drawWithoutCpuImage();
+      renderFrameMetrics.endStage(FrameMetrics.Stage.RENDER);
     }
   }
 
-  /* Demonstrates how to access a CPU image using a download from GPU. */
-  private void renderProcessedImageGpuDownload(Frame frame) {
-    // If there is a frame being requested previously, acquire the pixels and process it.
-    if (gpuDownloadFrameBufferIndex >= 0) {
-      TextureReaderImage image = textureReader.acquireFrame(gpuDownloadFrameBufferIndex);
-
-      if (image.format != TextureReaderImage.IMAGE_FORMAT_I8) {
-        throw new IllegalArgumentException(
-            "Expected image in I8 format, got format " + image.format);
-      }
-
-      ByteBuffer processedImageBytesGrayscale =
-          edgeDetector.detect(image.width, image.height, /* stride= */ image.width, image.buffer);
-
-      // You should always release frame buffer after using. Otherwise the next call to
-      // submitFrame() may fail.
-      textureReader.releaseFrame(gpuDownloadFrameBufferIndex);
-
+  /**
+   * Draws the background, updating the processed image shown if a new one is available. Otherwise
+   * the last processed image is shown again.
+   */
+  private void drawWithLatestProcessedImage(Frame frame) {
+    GrayImage processedImage = imagePipeline.acquireResult();
+    renderFrameMetrics.beginStage(FrameMetrics.Stage.RENDER);
+    if (processedImage != null) {
       cpuImageRenderer.drawWithCpuImage(
           frame,
-          IMAGE_WIDTH,
-          IMAGE_HEIGHT,
-          processedImageBytesGrayscale,
+          processedImage.width,
+          processedImage.height,
+          processedImage.asByteBuffer(),
           cpuImageDisplayRotationHelper.getViewportAspectRatio(),
           cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
-
-      // Measure frame time since last successful execution of drawWithCpuImage().
-      cpuImageFrameTimeHelper.nextFrame();
+      imagePipeline.releaseResult(processedImage);
     } else {
-      cpuImageRenderer.drawWithoutCpuImage();
+      cpuImageRenderer.drawWithCpuImage(
+          frame,
+          /* imageWidth= */ 0,
+          /* imageHeight= */ 0,
+          /* processedImageBytesGrayscale= */ null,
+          cpuImageDisplayRotationHelper.getViewportAspectRatio(),
+          cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
     }
+    renderFrameMetrics.endStage(FrameMetrics.Stage.RENDER);
+  }
+
+  private Image acquireCameraImage(Frame frame) throws NotYetAvailableException {
+    renderFrameMetrics.beginStage(FrameMetrics.Stage.IMAGE_ACQUISITION);
+    try {
+      return frame.acquireCameraImage();
+    } finally {
+      renderFrameMetrics.endStage(FrameMetrics.Stage.IMAGE_ACQUISITION);
+    }
+  }
+
+  /* Demonstrates how to access a CPU image using a download from GPU. */
+  private void renderProcessedImageGpuDownload(Frame frame) {
+    // Process the frames requested previously whose pixels the GPU has finished reading. Frames
+    // still being read are left for a later call, rather than waiting for them.
+    renderFrameMetrics.beginStage(FrameMetrics.Stage.IMAGE_ACQUISITION);
+    textureReader.pollFrames(this::processGpuDownloadImage);
+    renderFrameMetrics.endStage(FrameMetrics.Stage.IMAGE_ACQUISITION);
+
+    drawWithLatestProcessedImage(frame);
 
-    // Submit request for the texture from the current frame.
-    gpuDownloadFrameBufferIndex =
-        textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+    // Submit request for the texture from the current frame. The request is skipped if all frame
+    // buffers are still being read, i.e. if the GPU falls behind.
+    textureReader.trySubmitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+  }
+
+  /* Processes an image downloaded from GPU. The image is only valid during this call. */
+  private void processGpuDownloadImage(TextureReaderImage image) {
+    if (image.format != TextureReaderImage.IMAGE_FORMAT_I8) {
+      throw new IllegalArgumentException("Expected image in I8 format, got format " + image.format);
+    }
+
+    renderFrameMetrics.beginStage(FrameMetrics.Stage.CPU_PROCESSING);
+    imagePipeline.submit(image.width, image.height, /* rowStride= */ image.width, image.buffer);
+    renderFrameMetrics.endStage(FrameMetrics.Stage.CPU_PROCESSING);
+
+    // Measure frame time since the last downloaded image.
+    cpuImageFrameMetrics.beginFrame();
   }
 
   public void onLowResolutionRadioButtonClicked(View view) {
@@ -477,6 +525,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
           return;
         }
       }
+      updateTargetFrameRate();
 
       // Let the user know that the camera config is set.
       String toastMessage =
@@ -491,6 +540,17 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     }
   }
 
+  // Frames are paced by the camera, since Session.update() waits for the next camera frame, so a
+  // frame is only janky if it is late with respect to the camera frame rate.
+  private void updateTargetFrameRate() {
+    float refreshRate = getWindowManager().getDefaultDisplay().getRefreshRate();
+    int cameraFrameRate = session.getCameraConfig().getFpsRange().getUpper();
+    renderFrameMetrics.setDisplayRefreshRate(refreshRate);
+    renderFrameMetrics.setTargetFrameRate(cameraFrameRate);
+    cpuImageFrameMetrics.setDisplayRefreshRate(refreshRate);
+    cpuImageFrameMetrics.setTargetFrameRate(cameraFrameRate);
+  }
+
   // Obtains the supported camera configs and build the list of radio button one for each camera
   // config.
   private void obtainCameraConfigs() {
@@ -574,6 +634,10 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     float[] principalPoint = intrinsics.getPrincipalPoint();
     int[] imageSize = intrinsics.getImageDimensions();
 
+    FrameMetrics.Snapshot renderMetrics = renderFrameMetrics.getSnapshot();
+    FrameMetrics.Snapshot cpuImageMetrics = cpuImageFrameMetrics.getSnapshot();
+    ImagePipeline.Snapshot pipelineMetrics = imagePipeline.getSnapshot();
+
     float fovX = (float) (2 * Math.atan2((double) imageSize[0], (double) (2 * focalLength[0])));
     float fovY = (float) (2 * Math.atan2((double) imageSize[1], (double) (2 * focalLength[1])));
     fovX *= RADIANS_TO_DEGREES;
@@ -592,9 +656,41 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
         imageSize[1],
         fovX,
         fovY,
-        renderFrameTimeHelper.getSmoothedFrameTime(),
-        renderFrameTimeHelper.getSmoothedFrameRate(),
-        cpuImageFrameTimeHelper.getSmoothedFrameTime(),
-        cpuImageFrameTimeHelper.getSmoothedFrameRate());
+        renderMetrics.frameTime.p50Millis,
+        renderMetrics.frameTime.p90Millis,
+        renderMetrics.frameTime.p99Millis,
+        renderMetrics.frameTime.maxMillis,
+        renderMetrics.getFrameRate(),
+        renderMetrics.jankyFrameCount,
+        renderMetrics.frameTime.count,
+        renderMetrics.getStage(FrameMetrics.Stage.SESSION_UPDATE).p99Millis,
+        renderMetrics.getStage(FrameMetrics.Stage.IMAGE_ACQUISITION).p99Millis,
+        renderMetrics.getStage(FrameMetrics.Stage.CPU_PROCESSING).p99Millis,
+        renderMetrics.getStage(FrameMetrics.Stage.RENDER).p99Millis,
+        cpuImageMetrics.frameTime.p50Millis,
+        cpuImageMetrics.frameTime.p99Millis,
+        cpuImageMetrics.getFrameRate(),
+        pipelineMetrics.latency.p50Millis,
+        pipelineMetrics.latency.p99Millis,
+        pipelineMetrics.processedImageCount,
+        pipelineMetrics.droppedImageCount);
+  }
+
+  /** Writes the frame metrics to logcat every {@link #FRAME_METRICS_LOG_INTERVAL_NANOS}. */
+  private void maybeLogFrameMetrics() {
+    long now = System.nanoTime();
+    if (lastFrameMetricsLogTime != 0
+        && now - lastFrameMetricsLogTime < FRAME_METRICS_LOG_INTERVAL_NANOS) {
+      return;
+    }
+    if (lastFrameMetricsLogTime != 0) {
+      Log.i(TAG, "Render frame metrics:\n" + renderFrameMetrics.getSnapshot());
+      Log.i(TAG, "CPU image frame metrics:\n" + cpuImageFrameMetrics.getSnapshot());
+      Log.i(TAG, "Image pipeline metrics:\n" + imagePipeline.getSnapshot());
+      if (imageAcquisitionPath == ImageAcquisitionPath.GPU_DOWNLOAD) {
+        Log.i(TAG, "GPU download metrics:\n" + textureReader.getStats());
+      }
+    }
+    lastFrameMetricsLogTime = now;
   }
 }
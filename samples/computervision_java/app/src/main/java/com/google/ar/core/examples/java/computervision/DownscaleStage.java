@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Halves the size of images by averaging 2x2 pixels, as long as they are wider than a given width.
+ * Output rows are processed in bands in parallel on the common {@link ForkJoinPool}.
+ */
+public class DownscaleStage implements ImageStage {
+  private final int maxWidth;
+  private final RowBands bands = new RowBands(this::downscaleRows);
+
+  // The images being downscaled from and to.
+  private int inputWidth;
+  private int outputWidth;
+  private byte[] in;
+  private byte[] out;
+
+  /** @param maxWidth images wider than this are downscaled, possibly repeatedly. */
+  public DownscaleStage(int maxWidth) {
+    if (maxWidth < 1) {
+      throw new IllegalArgumentException("Maximum width must be positive: " + maxWidth);
+    }
+    this.maxWidth = maxWidth;
+  }
+
+  @Override
+  public String getName() {
+    return "downscale";
+  }
+
+  @Override
+  public GrayImage process(GrayImage input, ImagePool pool) {
+    GrayImage image = input;
+    while (image.width > maxWidth && image.height > 1) {
+      GrayImage output = pool.acquire(image.width / 2, image.height / 2);
+      downscale(image, output);
+      if (image != input) {
+        pool.release(image);
+      }
+      image = output;
+    }
+    return image;
+  }
+
+  private void downscale(GrayImage input, GrayImage output) {
+    inputWidth = input.width;
+    outputWidth = output.width;
+    in = input.pixels;
+    out = output.pixels;
+    try {
+      bands.run(0, output.height);
+    } finally {
+      in = null;
+      out = null;
+    }
+  }
+
+  /** Downscales the given output rows. May be called concurrently for different rows. */
+  private void downscaleRows(int firstRow, int endRow) {
+    for (int j = firstRow; j < endRow; j++) {
+      int row = 2 * j * inputWidth;
+      int rowBelow = row + inputWidth;
+      for (int i = 0; i < outputWidth; i++) {
+        int sum =
+            (in[row + 2 * i] & 0xFF)
+                + (in[row + 2 * i + 1] & 0xFF)
+                + (in[rowBelow + 2 * i] & 0xFF)
+                + (in[rowBelow + 2 * i + 1] & 0xFF);
+        out[(j * outputWidth) + i] = (byte) ((sum + 2) / 4);
+      }
+    }
+  }
+}
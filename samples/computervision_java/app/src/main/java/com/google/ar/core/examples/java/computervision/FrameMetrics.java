@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import java.util.Locale;
+
+/**
+ * Measures frame pacing: the time between frames, which frames are janky, and how long each stage
+ * of a frame takes. Durations are kept in {@link LatencyHistogram}s, so that tail latencies such as
+ * the 99th percentile can be reported rather than only an average.
+ *
+ * <p>Measurements are taken on the rendering thread, and may be read from any thread with {@link
+ * #getSnapshot}. They are reset whenever the activity is resumed.
+ */
+public class FrameMetrics implements DefaultLifecycleObserver {
+
+  /** The stages of a frame whose durations are measured. */
+  public enum Stage {
+    SESSION_UPDATE("update"),
+    IMAGE_ACQUISITION("acquire"),
+    CPU_PROCESSING("process"),
+    RENDER("render");
+
+    private final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+  }
+
+  /** Percentiles and other statistics of a {@link LatencyHistogram}, in milliseconds. */
+  public static class Summary {
+    public final long count;
+    public final float meanMillis;
+    public final float p50Millis;
+    public final float p90Millis;
+    public final float p99Millis;
+    public final float maxMillis;
+
+    Summary(LatencyHistogram histogram) {
+      count = histogram.getCount();
+      meanMillis = toMillis(histogram.getMeanNanos());
+      p50Millis = toMillis(histogram.getPercentileNanos(50));
+      p90Millis = toMillis(histogram.getPercentileNanos(90));
+      p99Millis = toMillis(histogram.getPercentileNanos(99));
+      maxMillis = toMillis(histogram.getMaxNanos());
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "p50 %.1f / p90 %.1f / p99 %.1f / max %.1f ms (n=%d)",
+          p50Millis,
+          p90Millis,
+          p99Millis,
+          maxMillis,
+          count);
+    }
+  }
+
+  /** The measurements of a {@link FrameMetrics} at one point in time. */
+  public static class Snapshot {
+    /** Statistics of the time between the starts of consecutive frames. */
+    public final Summary frameTime;
+    /** The number of frames which were shown at least one display refresh later than targeted. */
+    public final long jankyFrameCount;
+    /** The number of display refreshes missed by janky frames in total. */
+    public final long missedRefreshCount;
+
+    private final Summary[] stages;
+
+    private Snapshot(FrameMetrics metrics) {
+      frameTime = new Summary(metrics.frameTimeHistogram);
+      jankyFrameCount = metrics.jankyFrameCount;
+      missedRefreshCount = metrics.missedRefreshCount;
+      stages = new Summary[Stage.values().length];
+      for (Stage stage : Stage.values()) {
+        stages[stage.ordinal()] = new Summary(metrics.stageHistograms[stage.ordinal()]);
+      }
+    }
+
+    /** Returns statistics of the durations of the given stage. */
+    public Summary getStage(Stage stage) {
+      return stages[stage.ordinal()];
+    }
+
+    /** Returns the frame rate corresponding to the mean frame time, or zero if unknown. */
+    public float getFrameRate() {
+      return frameTime.meanMillis == 0f ? 0f : MILLISECONDS_PER_SECOND / frameTime.meanMillis;
+    }
+
+    /** Returns a multi-line description of all measurements, e.g. to write them to logcat. */
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder
+          .append(String.format(Locale.US, "frame time: %s, %.1f fps", frameTime, getFrameRate()))
+          .append(
+              String.format(
+                  Locale.US,
+                  "\njanky frames: %d (%d refreshes missed)",
+                  jankyFrameCount,
+                  missedRefreshCount));
+      for (Stage stage : Stage.values()) {
+        Summary summary = getStage(stage);
+        if (summary.count > 0) {
+          builder.append('\n').append(stage.label).append(": ").append(summary);
+        }
+      }
+      return builder.toString();
+    }
+  }
+
+  // Number of milliseconds in one second.
+  private static final float MILLISECONDS_PER_SECOND = 1000f;
+  private static final float NANOSECONDS_PER_MILLISECOND = 1_000_000f;
+  private static final long NANOSECONDS_PER_SECOND = 1_000_000_000L;
+
+  // Assumed until the display refresh rate is set.
+  private static final float DEFAULT_REFRESH_RATE = 60f;
+
+  private final LatencyHistogram frameTimeHistogram = new LatencyHistogram();
+  private final LatencyHistogram[] stageHistograms = new LatencyHistogram[Stage.values().length];
+  // Start times of the stages which are in progress, or zero.
+  private final long[] stageStartTimes = new long[Stage.values().length];
+
+  private long refreshPeriodNanos = (long) (NANOSECONDS_PER_SECOND / DEFAULT_REFRESH_RATE);
+  private long targetFramePeriodNanos = refreshPeriodNanos;
+
+  // System.nanoTime() at the start of the last frame, or zero if no frame has started yet.
+  private long previousFrameStartTime;
+  private long jankyFrameCount;
+  private long missedRefreshCount;
+
+  public FrameMetrics() {
+    for (int i = 0; i < stageHistograms.length; ++i) {
+      stageHistograms[i] = new LatencyHistogram();
+    }
+  }
+
+  @Override
+  public void onResume(@NonNull LifecycleOwner owner) {
+    // Reset measurements during initialization and after app pause.
+    reset();
+  }
+
+  /**
+   * Sets the refresh rate of the display the frames are shown on. Frames are targeted to be shown
+   * every refresh, unless set otherwise with {@link #setTargetFrameRate}.
+   */
+  public synchronized void setDisplayRefreshRate(float refreshRate) {
+    if (refreshRate <= 0) {
+      throw new IllegalArgumentException("Refresh rate must be positive: " + refreshRate);
+    }
+    refreshPeriodNanos = (long) (NANOSECONDS_PER_SECOND / refreshRate);
+    targetFramePeriodNanos = refreshPeriodNanos;
+  }
+
+  /**
+   * Sets the rate at which frames are intended to be shown, e.g. the camera frame rate when frames
+   * are paced by the camera. Since frames can only be shown at display refreshes, the frame period
+   * is rounded to the nearest whole number of refresh periods. Must be called after {@link
+   * #setDisplayRefreshRate}.
+   */
+  public synchronized void setTargetFrameRate(float frameRate) {
+    if (frameRate <= 0) {
+      throw new IllegalArgumentException("Frame rate must be positive: " + frameRate);
+    }
+    long periodNanos = (long) (NANOSECONDS_PER_SECOND / frameRate);
+    long refreshes = Math.max(1, (periodNanos + refreshPeriodNanos / 2) / refreshPeriodNanos);
+    targetFramePeriodNanos = refreshes * refreshPeriodNanos;
+  }
+
+  /** Marks the start of a frame, measuring the time since the start of the previous one. */
+  public synchronized void beginFrame() {
+    long now = System.nanoTime();
+    if (previousFrameStartTime != 0) {
+      long frameTime = now - previousFrameStartTime;
+      frameTimeHistogram.record(frameTime);
+      // A frame is janky if it took long enough to miss the display refresh it was targeted at,
+      // allowing for half a refresh period of scheduling noise.
+      long lateness = frameTime - targetFramePeriodNanos;
+      if (lateness > refreshPeriodNanos / 2) {
+        ++jankyFrameCount;
+        missedRefreshCount += (lateness + refreshPeriodNanos / 2) / refreshPeriodNanos;
+      }
+    }
+    previousFrameStartTime = now;
+  }
+
+  /** Marks the start of the given stage of the current frame. */
+  public synchronized void beginStage(Stage stage) {
+    stageStartTimes[stage.ordinal()] = System.nanoTime();
+  }
+
+  /**
+   * Marks the end of the given stage of the current frame, measuring its duration. Does nothing if
+   * the stage was not begun.
+   */
+  public synchronized void endStage(Stage stage) {
+    long startTime = stageStartTimes[stage.ordinal()];
+    if (startTime == 0) {
+      return;
+    }
+    stageHistograms[stage.ordinal()].record(System.nanoTime() - startTime);
+    stageStartTimes[stage.ordinal()] = 0;
+  }
+
+  /** Returns the current measurements. May be called from any thread. */
+  public synchronized Snapshot getSnapshot() {
+    return new Snapshot(this);
+  }
+
+  /** Forgets all measurements. */
+  public synchronized void reset() {
+    previousFrameStartTime = 0;
+    jankyFrameCount = 0;
+    missedRefreshCount = 0;
+    frameTimeHistogram.reset();
+    for (int i = 0; i < stageHistograms.length; ++i) {
+      stageHistograms[i].reset();
+      stageStartTimes[i] = 0;
+    }
+  }
+
+  private static float toMillis(long nanos) {
+    return nanos / NANOSECONDS_PER_MILLISECOND;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single channel 8-bit image whose rows are tightly packed, processed by {@link ImageStage}s.
+ * Images are obtained from and given back to an {@link ImagePool}.
+ */
+public final class GrayImage {
+  public final int width;
+  public final int height;
+  /** The pixels, row by row, of size width * height. Values are unsigned. */
+  public final byte[] pixels;
+
+  GrayImage(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.pixels = new byte[width * height];
+  }
+
+  /** Returns a buffer wrapping the pixels, e.g. to upload them to a texture. */
+  public ByteBuffer asByteBuffer() {
+    return ByteBuffer.wrap(pixels);
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Processes camera images with a chain of {@link ImageStage}s off the rendering thread.
+ *
+ * <p>The rendering thread submits images with {@link #submit}, which only copies their luminance
+ * into a pooled {@link GrayImage}, converting them to grayscale, and returns. A worker thread runs
+ * the stages on the latest submitted image, one image at a time, and the stages split the rows of
+ * each image into bands processed in parallel on the common {@link
+ * java.util.concurrent.ForkJoinPool}. Submitting and taking results never wait for processing:
+ *
+ * <ul>
+ *   <li>An image still waiting for the worker when a newer one is submitted is dropped.
+ *   <li>A result not taken with {@link #acquireResult} before the next one is ready is dropped.
+ * </ul>
+ *
+ * <p>Thus results lag behind the camera by the processing time, and are produced at the rate the
+ * stages can sustain. The duration of each stage, the time from submission to result and the
+ * number of dropped images are reported by {@link #getSnapshot}. Measurements are reset whenever
+ * the activity is resumed, and the worker is stopped when the activity is destroyed.
+ */
+public class ImagePipeline implements DefaultLifecycleObserver {
+  private static final String TAG = ImagePipeline.class.getSimpleName();
+
+  /** The measurements of an {@link ImagePipeline} at one point in time. */
+  public static class Snapshot {
+    /** The number of images processed, whose results were made available. */
+    public final long processedImageCount;
+    /** The number of submitted images which were not processed, or whose result was not taken. */
+    public final long droppedImageCount;
+    /** Statistics of the time from the submission of an image to its result being available. */
+    public final FrameMetrics.Summary latency;
+
+    private final String[] stageNames;
+    private final FrameMetrics.Summary[] stages;
+
+    private Snapshot(ImagePipeline pipeline) {
+      processedImageCount = pipeline.processedImageCount;
+      droppedImageCount = pipeline.droppedImageCount;
+      latency = new FrameMetrics.Summary(pipeline.latencyHistogram);
+      stageNames = new String[pipeline.stages.length];
+      stages = new FrameMetrics.Summary[pipeline.stages.length];
+      for (int i = 0; i < stages.length; ++i) {
+        stageNames[i] = pipeline.stages[i].getName();
+        stages[i] = new FrameMetrics.Summary(pipeline.stageHistograms[i]);
+      }
+    }
+
+    /** Returns the number of stages of the pipeline. */
+    public int getStageCount() {
+      return stages.length;
+    }
+
+    /** Returns the name of the stage at the given index. */
+    public String getStageName(int index) {
+      return stageNames[index];
+    }
+
+    /** Returns statistics of the durations of the stage at the given index. */
+    public FrameMetrics.Summary getStage(int index) {
+      return stages[index];
+    }
+
+    /** Returns a multi-line description of all measurements, e.g. to write them to logcat. */
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(
+          String.format(
+              Locale.US,
+              "processed: %d, dropped: %d\nlatency: %s",
+              processedImageCount,
+              droppedImageCount,
+              latency));
+      for (int i = 0; i < stages.length; ++i) {
+        builder.append('\n').append(stageNames[i]).append(": ").append(stages[i]);
+      }
+      return builder.toString();
+    }
+  }
+
+  private final ImageStage[] stages;
+  private final ImagePool pool = new ImagePool();
+  private final ExecutorService worker =
+      Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, TAG));
+
+  // The fields below are guarded by this.
+  private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+  private final LatencyHistogram[] stageHistograms;
+  private long processedImageCount;
+  private long droppedImageCount;
+
+  // The latest submitted image which the worker has not started processing, or null.
+  private GrayImage pendingImage;
+  private long pendingImageSubmitTime;
+  // The latest result which has not been taken, or null.
+  private GrayImage result;
+  private boolean isWorkerScheduled;
+  private boolean isClosed;
+
+  /** Creates a pipeline which runs the given stages in order. */
+  public ImagePipeline(ImageStage... stages) {
+    this.stages = stages.clone();
+    stageHistograms = new LatencyHistogram[stages.length];
+    for (int i = 0; i < stageHistograms.length; ++i) {
+      stageHistograms[i] = new LatencyHistogram();
+    }
+  }
+
+  @Override
+  public void onResume(@NonNull LifecycleOwner owner) {
+    // Reset measurements during initialization and after app pause.
+    resetMetrics();
+  }
+
+  @Override
+  public void onDestroy(@NonNull LifecycleOwner owner) {
+    close();
+  }
+
+  /**
+   * Submits a single channel 8-bit image, such as the Y plane of a YUV_420_888 image, for
+   * processing. The pixels are copied, so the buffer may be reused once this returns. Does nothing
+   * once the pipeline is closed.
+   *
+   * @param rowStride number of bytes per row, equal to width if there is no row padding. The last
+   *     row may be shorter than rowStride, but not shorter than width.
+   */
+  public void submit(int width, int height, int rowStride, ByteBuffer pixels) {
+    long submitTime = System.nanoTime();
+    GrayImage image = pool.acquire(width, height);
+    ByteBuffer rows = pixels.duplicate();
+    if (rowStride == width) {
+      rows.position(0);
+      rows.get(image.pixels);
+    } else {
+      for (int j = 0; j < height; j++) {
+        rows.position(j * rowStride);
+        rows.get(image.pixels, j * width, width);
+      }
+    }
+
+    synchronized (this) {
+      if (isClosed) {
+        pool.release(image);
+        return;
+      }
+      if (pendingImage != null) {
+        pool.release(pendingImage);
+        ++droppedImageCount;
+      }
+      pendingImage = image;
+      pendingImageSubmitTime = submitTime;
+      if (!isWorkerScheduled) {
+        isWorkerScheduled = true;
+        worker.execute(this::processPendingImages);
+      }
+    }
+  }
+
+  /**
+   * Returns the result of the latest processed image if it has not been taken yet, or null. The
+   * result must be given back with {@link #releaseResult} once no longer used.
+   */
+  public synchronized GrayImage acquireResult() {
+    GrayImage latestResult = result;
+    result = null;
+    return latestResult;
+  }
+
+  /** Gives back a result obtained from {@link #acquireResult}, which must no longer be used. */
+  public void releaseResult(GrayImage image) {
+    pool.release(image);
+  }
+
+  /** Returns the current measurements. May be called from any thread. */
+  public synchronized Snapshot getSnapshot() {
+    return new Snapshot(this);
+  }
+
+  /** Forgets all measurements. */
+  public synchronized void resetMetrics() {
+    processedImageCount = 0;
+    droppedImageCount = 0;
+    latencyHistogram.reset();
+    for (LatencyHistogram histogram : stageHistograms) {
+      histogram.reset();
+    }
+  }
+
+  /**
+   * Stops the worker once it finishes the image it is processing, if any, and drops all images.
+   */
+  public synchronized void close() {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    pendingImage = null;
+    result = null;
+    worker.shutdown();
+    pool.clear();
+  }
+
+  /** Runs on the worker until no image is pending. */
+  private void processPendingImages() {
+    while (true) {
+      GrayImage image;
+      long submitTime;
+      synchronized (this) {
+        image = pendingImage;
+        submitTime = pendingImageSubmitTime;
+        pendingImage = null;
+        if (image == null || isClosed) {
+          isWorkerScheduled = false;
+          return;
+        }
+      }
+
+      GrayImage output = runStages(image);
+
+      synchronized (this) {
+        if (output == null || isClosed) {
+          continue;
+        }
+        if (result != null) {
+          pool.release(result);
+          ++droppedImageCount;
+        }
+        result = output;
+        ++processedImageCount;
+        latencyHistogram.record(System.nanoTime() - submitTime);
+      }
+    }
+  }
+
+  /** Returns the result of running all stages on the given image, or null if a stage failed. */
+  private GrayImage runStages(GrayImage input) {
+    GrayImage image = input;
+    for (int i = 0; i < stages.length; ++i) {
+      long startTime = System.nanoTime();
+      GrayImage output;
+      try {
+        output = stages[i].process(image, pool);
+      } catch (RuntimeException e) {
+        // Avoid stopping the pipeline due to a failure on a single image.
+        Log.e(TAG, "Exception in image stage " + stages[i].getName(), e);
+        pool.release(image);
+        synchronized (this) {
+          ++droppedImageCount;
+        }
+        return null;
+      }
+      long duration = System.nanoTime() - startTime;
+      synchronized (this) {
+        stageHistograms[i].record(duration);
+      }
+      if (output != image) {
+        pool.release(image);
+      }
+      image = output;
+    }
+    return image;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of {@link GrayImage}s, so that images of the sizes used from frame to frame are only
+ * allocated once. May be used from any thread.
+ */
+public class ImagePool {
+  // The number of unused images of each size kept for reuse. Others are left to the garbage
+  // collector.
+  private static final int MAX_FREE_IMAGES_PER_SIZE = 4;
+
+  private final Map<Long, ArrayDeque<GrayImage>> freeImages = new HashMap<>();
+
+  /** Returns an image of the given size with undefined contents. */
+  public synchronized GrayImage acquire(int width, int height) {
+    ArrayDeque<GrayImage> images = freeImages.get(getKey(width, height));
+    GrayImage image = images == null ? null : images.poll();
+    return image != null ? image : new GrayImage(width, height);
+  }
+
+  /** Gives back an image obtained from {@link #acquire}, which must no longer be used. */
+  public synchronized void release(GrayImage image) {
+    long key = getKey(image.width, image.height);
+    ArrayDeque<GrayImage> images = freeImages.get(key);
+    if (images == null) {
+      images = new ArrayDeque<>();
+      freeImages.put(key, images);
+    }
+    if (images.size() < MAX_FREE_IMAGES_PER_SIZE) {
+      images.add(image);
+    }
+  }
+
+  /** Drops all unused images. */
+  public synchronized void clear() {
+    freeImages.clear();
+  }
+
+  private static long getKey(int width, int height) {
+    return ((long) width << 32) | height;
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * One step of an {@link ImagePipeline}, e.g. a filter.
+ *
+ * <p>Stages are only called from the pipeline's worker thread, so they may keep state between
+ * images without synchronization.
+ */
+public interface ImageStage {
+  /** Returns the name under which the latency of the stage is reported. */
+  String getName();
+
+  /**
+   * Processes an image and returns the result. The result is either {@code input}, modified in
+   * place, or a new image obtained from {@code pool}, in which case the pipeline gives {@code
+   * input} back to the pool.
+   */
+  GrayImage process(GrayImage input, ImagePool pool);
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations with a fixed memory footprint, from which percentiles can be read.
+ *
+ * <p>Durations are recorded with microsecond resolution into log-linear buckets: each power of two
+ * is split into {@link #SUB_BUCKETS} equally wide buckets, so a percentile is accurate to within
+ * 1/{@link #SUB_BUCKETS} of its value. Durations up to several hours fit into the {@link
+ * #NUMBER_OF_BUCKETS} buckets; longer ones are counted in the last bucket. Recording a duration
+ * neither allocates nor depends on the number of recorded durations.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Covers durations below 2^34 microseconds, i.e. about 4.8 hours.
+  private static final int MAX_EXPONENT = 33;
+  private static final int NUMBER_OF_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+  private static final long NANOSECONDS_PER_MICROSECOND = 1000;
+
+  private final long[] counts = new long[NUMBER_OF_BUCKETS];
+  private long totalCount;
+  private long totalNanos;
+  private long maxNanos;
+
+  /** Records a duration. Negative durations are recorded as zero. */
+  public void record(long nanos) {
+    nanos = Math.max(0, nanos);
+    ++counts[getBucketIndex(nanos / NANOSECONDS_PER_MICROSECOND)];
+    ++totalCount;
+    totalNanos += nanos;
+    maxNanos = Math.max(maxNanos, nanos);
+  }
+
+  /** Forgets all recorded durations. */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    totalCount = 0;
+    totalNanos = 0;
+    maxNanos = 0;
+  }
+
+  /** Returns the number of recorded durations. */
+  public long getCount() {
+    return totalCount;
+  }
+
+  /** Returns the mean of the recorded durations, or zero if there are none. */
+  public long getMeanNanos() {
+    return totalCount == 0 ? 0 : totalNanos / totalCount;
+  }
+
+  /** Returns the longest recorded duration, or zero if there are none. */
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  /**
+   * Returns the duration which {@code percentile} percent of the recorded durations do not exceed,
+   * or zero if there are none. The result is the upper bound of the bucket the duration is in, but
+   * never more than {@link #getMaxNanos}.
+   */
+  public long getPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+    }
+    if (totalCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+      seen += counts[i];
+      if (seen >= rank) {
+        long upperBoundNanos = (getBucketUpperBound(i) + 1) * NANOSECONDS_PER_MICROSECOND - 1;
+        return Math.min(upperBoundNanos, maxNanos);
+      }
+    }
+    return maxNanos;
+  }
+
+  /** Returns the bucket of the given number of microseconds. */
+  private static int getBucketIndex(long micros) {
+    if (micros < 2 * SUB_BUCKETS) {
+      // Small values have a bucket each.
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return NUMBER_OF_BUCKETS - 1;
+    }
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** Returns the largest number of microseconds in the given bucket. */
+  private static long getBucketUpperBound(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int subBucket = index % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (SUB_BUCKETS + subBucket + 1) * width - 1;
+  }
+}
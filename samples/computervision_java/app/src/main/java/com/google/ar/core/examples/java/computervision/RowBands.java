@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs an operation on the rows of an image, split into bands which are processed in parallel on
+ * the common {@link ForkJoinPool}. The bands are allocated once per row range and reused.
+ *
+ * <p>Must only be used from one thread at a time.
+ */
+final class RowBands {
+  /** An operation on a range of rows. May be called concurrently for different ranges. */
+  interface Operation {
+    void processRows(int firstRow, int endRow);
+  }
+
+  // The number of rows processed by each task.
+  private static final int ROWS_PER_BAND = 32;
+
+  private final class Band extends RecursiveAction {
+    final int firstRow;
+    final int endRow;
+
+    Band(int firstRow, int endRow) {
+      this.firstRow = firstRow;
+      this.endRow = endRow;
+    }
+
+    @Override
+    protected void compute() {
+      operation.processRows(firstRow, endRow);
+    }
+  }
+
+  private final Operation operation;
+  private final RecursiveAction allBands =
+      new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(bands);
+        }
+      };
+
+  // Layout for the current row range.
+  private int firstRow;
+  private int endRow;
+  private Band[] bands = new Band[0];
+
+  RowBands(Operation operation) {
+    this.operation = operation;
+  }
+
+  /** Runs the operation on the rows from {@code firstRow} until {@code endRow}, and waits. */
+  void run(int firstRow, int endRow) {
+    prepareLayout(firstRow, endRow);
+    if (bands.length == 1) {
+      bands[0].compute();
+    } else if (bands.length > 1) {
+      for (Band band : bands) {
+        band.reinitialize();
+      }
+      allBands.reinitialize();
+      ForkJoinPool.commonPool().invoke(allBands);
+    }
+  }
+
+  /** Sets up the bands if the row range changed. */
+  private void prepareLayout(int newFirstRow, int newEndRow) {
+    if (newFirstRow == firstRow && newEndRow == endRow) {
+      return;
+    }
+    firstRow = newFirstRow;
+    endRow = newEndRow;
+    bands = new Band[Math.max(endRow - firstRow + ROWS_PER_BAND - 1, 0) / ROWS_PER_BAND];
+    for (int i = 0; i < bands.length; ++i) {
+      int bandFirstRow = firstRow + i * ROWS_PER_BAND;
+      bands[i] = new Band(bandFirstRow, Math.min(bandFirstRow + ROWS_PER_BAND, endRow));
+    }
+  }
+}
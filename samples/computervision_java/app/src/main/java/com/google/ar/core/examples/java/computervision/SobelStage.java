@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Computes the strength of the edge at each pixel of images with the Sobel operator. The result is
+ * the magnitude of the image gradient, rounded up and clamped to 255. Border pixels, which lack
+ * neighbours, are set to zero. Rows are processed in bands in parallel on the common {@link
+ * ForkJoinPool}.
+ */
+public class SobelStage implements ImageStage {
+  private final RowBands bands = new RowBands(this::processRows);
+
+  // The image being processed.
+  private int width;
+  private int height;
+  private byte[] in;
+  private byte[] out;
+
+  @Override
+  public String getName() {
+    return "sobel";
+  }
+
+  @Override
+  public GrayImage process(GrayImage input, ImagePool pool) {
+    GrayImage output = pool.acquire(input.width, input.height);
+    width = input.width;
+    height = input.height;
+    in = input.pixels;
+    out = output.pixels;
+    try {
+      bands.run(0, height);
+    } finally {
+      in = null;
+      out = null;
+    }
+    return output;
+  }
+
+  /** Processes the given rows. May be called concurrently for different rows. */
+  private void processRows(int firstRow, int endRow) {
+    for (int j = firstRow; j < endRow; j++) {
+      int row = j * width;
+      // Border rows and columns.
+      if (j == 0 || j == height - 1) {
+        Arrays.fill(out, row, row + width, (byte) 0);
+        continue;
+      }
+      out[row] = 0;
+      out[row + width - 1] = 0;
+
+      for (int i = 1; i < width - 1; i++) {
+        // Offset of the pixel at [i, j] of the input image.
+        int offset = row + i;
+
+        // Neighbour pixels around the pixel at [i, j].
+        int a00 = in[offset - width - 1] & 0xFF;
+        int a01 = in[offset - width] & 0xFF;
+        int a02 = in[offset - width + 1] & 0xFF;
+        int a10 = in[offset - 1] & 0xFF;
+        int a12 = in[offset + 1] & 0xFF;
+        int a20 = in[offset + width - 1] & 0xFF;
+        int a21 = in[offset + width] & 0xFF;
+        int a22 = in[offset + width + 1] & 0xFF;
+
+        // Sobel X filter:
+        //   -1, 0, 1,
+        //   -2, 0, 2,
+        //   -1, 0, 1
+        int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+
+        // Sobel Y filter:
+        //    1, 2, 1,
+        //    0, 0, 0,
+        //   -1, -2, -1
+        int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+
+        // Rounded up, so that the magnitude is above an integer threshold exactly when the result
+        // is.
+        int magnitude = (int) Math.ceil(Math.sqrt((xSum * xSum) + (ySum * ySum)));
+        out[offset] = (byte) Math.min(magnitude, 0xFF);
+      }
+    }
+  }
+}
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLES30;
+import android.util.Log;
 import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -57,6 +58,19 @@ import java.nio.IntBuffer;
  *
  * <p>releaseFrame(bufferIndex);
  *
+ * <p>(C) Polling method: this method never blocks the caller thread on the GPU. Each frame, you
+ * call pollFrames() to receive the frames whose reading has finished, in the order they were
+ * submitted, and then trySubmitFrame() to submit a new request, which is skipped if all frame
+ * buffers are still in use:
+ *
+ * <p>pollFrames(listener); trySubmitFrame(textureId, textureWidth, textureHeight);
+ *
+ * <p>A fence is inserted after each reading request, so that it is known when the GPU finished
+ * writing the pixels. acquireFrame() waits for the fence before mapping the pixels, rather than
+ * leaving the driver to block in glMapBufferRange(), and pollFrames() only checks it. The time the
+ * caller is blocked waiting for the GPU, the latency from submission to delivery of the pixels and
+ * the number of skipped requests are reported by getStats().
+ *
  * <p>Note: To use any of the above two methods, you need to call create() routine to initialize the
  * reader before calling any of the reading routine. You will also need to call destroy() method to
  * release the internal resource when you are done with the reader.
@@ -64,17 +78,66 @@ import java.nio.IntBuffer;
 public class TextureReader {
   private static final String TAG = TextureReader.class.getSimpleName();
 
-  // By default, we create only two internal buffers. So you can only hold more than one buffer
-  // index in your app without releasing it. If you need to hold more than one buffers, you can
-  // increase the bufferCount member.
-  private final int bufferCount = 2;
+  /**
+   * Receives the frames delivered by {@link TextureReader#pollFrames}, on the thread calling it.
+   */
+  public interface FrameListener {
+    /**
+     * Called with the pixels of a frame. The image maps to an internal buffer, and must not be used
+     * after this returns, so consumers on other threads should copy the pixels.
+     */
+    void onFrameAvailable(TextureReaderImage image);
+  }
+
+  /** Statistics of the reading requests of a {@link TextureReader}. */
+  public static class Stats {
+    /** Statistics of the time from submitting a request to the pixels being mapped. */
+    public final FrameMetrics.Summary latency;
+    /** Statistics of the time the caller was blocked waiting for the GPU, when it was. */
+    public final FrameMetrics.Summary stalls;
+    /** The number of requests skipped by trySubmitFrame() since all frame buffers were in use. */
+    public final long skippedFrameCount;
+
+    private Stats(TextureReader reader) {
+      latency = new FrameMetrics.Summary(reader.latencyHistogram);
+      stalls = new FrameMetrics.Summary(reader.stallHistogram);
+      skippedFrameCount = reader.skippedFrameCount;
+    }
+
+    @Override
+    public String toString() {
+      return "latency: " + latency + "\nstalls: " + stalls + "\nskipped: " + skippedFrameCount;
+    }
+  }
+
+  // By default, we create three internal buffers, so that requests of the last two frames can be
+  // in flight while the app holds one buffer index without releasing it. If you need more, pass
+  // the buffer count to the constructor.
+  private static final int DEFAULT_BUFFER_COUNT = 3;
+
+  // The states of a frame buffer.
+  private static final int BUFFER_FREE = 0;
+  // A request was submitted, and the frame has not been acquired yet.
+  private static final int BUFFER_SUBMITTED = 1;
+  private static final int BUFFER_ACQUIRED = 2;
+
+  private final int bufferCount;
   private int[] frameBuffer;
   private int[] texture;
   private int[] pbo;
-  private Boolean[] bufferUsed;
+  private int[] bufferState;
+  // The fence inserted after the reading request of each buffer, or 0 once it has been waited for.
+  private long[] fences;
+  // System.nanoTime() when the request of each buffer was submitted.
+  private long[] submitTimes;
   private int frontIndex = -1;
   private int backIndex = -1;
 
+  // The fields below are guarded by this, as the stats may be read from any thread.
+  private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+  private final LatencyHistogram stallHistogram = new LatencyHistogram();
+  private long skippedFrameCount;
+
   // By default, the output image format is set to RGBA. You can also set it to IMAGE_FORMAT_I8.
   private int imageFormat = TextureReaderImage.IMAGE_FORMAT_RGBA;
   private int imageWidth = 0;
@@ -108,6 +171,21 @@ public class TextureReader {
         1.0f, 1.0f,
       };
 
+  public TextureReader() {
+    this(DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * @param bufferCount the number of internal frame buffers, i.e. the number of requests which can
+   *     be submitted and not yet released at any time.
+   */
+  public TextureReader(int bufferCount) {
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException("Buffer count must be positive: " + bufferCount);
+    }
+    this.bufferCount = bufferCount;
+  }
+
   /**
    * Creates the texture reader. This function needs to be called from the OpenGL rendering thread.
    *
@@ -132,6 +210,7 @@ public class TextureReader {
     imageHeight = height;
     frontIndex = -1;
     backIndex = -1;
+    resetStats();
 
     if (imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA) {
       pixelBufferSize = imageWidth * imageHeight * 4;
@@ -143,13 +222,15 @@ public class TextureReader {
     pbo = new int[bufferCount];
     frameBuffer = new int[bufferCount];
     texture = new int[bufferCount];
-    bufferUsed = new Boolean[bufferCount];
+    bufferState = new int[bufferCount];
+    fences = new long[bufferCount];
+    submitTimes = new long[bufferCount];
     GLES30.glGenBuffers(bufferCount, pbo, 0);
     GLES20.glGenFramebuffers(bufferCount, frameBuffer, 0);
     GLES20.glGenTextures(bufferCount, texture, 0);
 
     for (int i = 0; i < bufferCount; i++) {
-      bufferUsed[i] = false;
+      bufferState[i] = BUFFER_FREE;
       GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[i]);
 
       GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[i]);
@@ -235,6 +316,11 @@ public class TextureReader {
 
   /** Destroy the texture reader. */
   public void destroy() {
+    if (fences != null) {
+      for (int i = 0; i < bufferCount; i++) {
+        deleteFence(i);
+      }
+    }
     if (frameBuffer != null) {
       GLES20.glDeleteFramebuffers(bufferCount, frameBuffer, 0);
       frameBuffer = null;
@@ -264,16 +350,31 @@ public class TextureReader {
    *     releaseBuffer() routine after using of the frame.
    */
   public int submitFrame(int textureId, int textureWidth, int textureHeight) {
+    int bufferIndex = trySubmitFrame(textureId, textureWidth, textureHeight);
+    if (bufferIndex == -1) {
+      throw new RuntimeException("No buffer available.");
+    }
+    return bufferIndex;
+  }
+
+  /**
+   * Same as submitFrame(), but skips the request and returns -1 if there is no frame buffer
+   * available, i.e. if all frame buffers are in flight or held by the app.
+   */
+  public int trySubmitFrame(int textureId, int textureWidth, int textureHeight) {
     // Find next buffer.
     int bufferIndex = -1;
     for (int i = 0; i < bufferCount; i++) {
-      if (!bufferUsed[i]) {
+      if (bufferState[i] == BUFFER_FREE) {
         bufferIndex = i;
         break;
       }
     }
     if (bufferIndex == -1) {
-      throw new RuntimeException("No buffer available.");
+      synchronized (this) {
+        ++skippedFrameCount;
+      }
+      return -1;
     }
 
     // Bind both read and write to framebuffer.
@@ -306,10 +407,86 @@ public class TextureReader {
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
 
-    bufferUsed[bufferIndex] = true;
+    // Signaled once the GPU has written the pixels to the PBO. Flush so that the fence, and the
+    // reading before it, are sent to the GPU without waiting for the end of the frame.
+    fences[bufferIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    GLES20.glFlush();
+
+    submitTimes[bufferIndex] = System.nanoTime();
+    bufferState[bufferIndex] = BUFFER_SUBMITTED;
     return bufferIndex;
   }
 
+  /**
+   * Returns whether the GPU has finished reading the frame requested earlier, so that
+   * acquireFrame() will not block. Does not block.
+   *
+   * @param bufferIndex the index to the frame buffer. It has to be a frame index returned from
+   *     submitFrame().
+   */
+  public boolean isFrameReady(int bufferIndex) {
+    checkBufferIndex(bufferIndex);
+    if (fences[bufferIndex] == 0) {
+      return true;
+    }
+    int status = GLES30.glClientWaitSync(fences[bufferIndex], 0, /* timeout= */ 0);
+    if (status == GLES30.GL_WAIT_FAILED) {
+      throw new RuntimeException("Failed to check fence with error " + GLES20.glGetError());
+    }
+    if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+      return false;
+    }
+    deleteFence(bufferIndex);
+    return true;
+  }
+
+  /**
+   * Delivers the frames requested earlier whose reading has finished to the listener, in the order
+   * they were submitted, and releases their frame buffers. Frames which were acquired with
+   * acquireFrame() are not delivered. Does not block.
+   *
+   * @return the number of frames delivered.
+   */
+  public int pollFrames(FrameListener listener) {
+    int deliveredCount = 0;
+    while (true) {
+      // Find the oldest submitted frame. Later frames are not delivered before it, even if ready.
+      int bufferIndex = -1;
+      for (int i = 0; i < bufferCount; i++) {
+        if (bufferState[i] == BUFFER_SUBMITTED
+            && (bufferIndex == -1 || submitTimes[i] < submitTimes[bufferIndex])) {
+          bufferIndex = i;
+        }
+      }
+      if (bufferIndex == -1 || !isFrameReady(bufferIndex)) {
+        return deliveredCount;
+      }
+      TextureReaderImage image = acquireFrame(bufferIndex);
+      if (image == null) {
+        // The frame could not be mapped and its buffer has already been released.
+        continue;
+      }
+      try {
+        listener.onFrameAvailable(image);
+      } finally {
+        releaseFrame(bufferIndex);
+      }
+      ++deliveredCount;
+    }
+  }
+
+  /** Returns the current statistics. May be called from any thread. */
+  public synchronized Stats getStats() {
+    return new Stats(this);
+  }
+
+  /** Forgets all statistics. */
+  public synchronized void resetStats() {
+    latencyHistogram.reset();
+    stallHistogram.reset();
+    skippedFrameCount = 0;
+  }
+
   /**
    * Acquires the frame requested earlier. This routine returns a TextureReaderImage object that
    * contains the pixels mapped to the frame buffer requested previously through submitFrame().
@@ -318,11 +495,17 @@ public class TextureReader {
    *
    * @param bufferIndex the index to the frame buffer to be acquired. It has to be a frame index
    *     returned from submitFrame().
-   * @return a TextureReaderImage object if succeed. Null otherwise.
+   * @return a TextureReaderImage object if succeed. Null if the pixel buffer could not be mapped,
+   *     in which case the frame buffer has been released.
    */
   public TextureReaderImage acquireFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
-      throw new RuntimeException("Invalid buffer index.");
+    checkBufferIndex(bufferIndex);
+    if (bufferState[bufferIndex] == BUFFER_ACQUIRED) {
+      throw new RuntimeException("Frame already acquired.");
+    }
+    waitForFence(bufferIndex);
+    synchronized (this) {
+      latencyHistogram.record(System.nanoTime() - submitTimes[bufferIndex]);
     }
 
     // Bind the current PB and acquire the pixel buffer.
@@ -331,6 +514,13 @@ public class TextureReader {
         (ByteBuffer)
             GLES30.glMapBufferRange(
                 GLES30.GL_PIXEL_PACK_BUFFER, 0, pixelBufferSize, GLES30.GL_MAP_READ_BIT);
+    if (mapped == null) {
+      Log.e(TAG, "Failed to map the pixel buffer with error " + GLES20.glGetError());
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+      releaseFrame(bufferIndex);
+      return null;
+    }
+    bufferState[bufferIndex] = BUFFER_ACQUIRED;
 
     // Wrap the mapped buffer into TextureReaderImage object.
     TextureReaderImage buffer =
@@ -347,13 +537,14 @@ public class TextureReader {
    *     returned from submitFrame().
    */
   public void releaseFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
-      throw new RuntimeException("Invalid buffer index.");
+    checkBufferIndex(bufferIndex);
+    if (bufferState[bufferIndex] == BUFFER_ACQUIRED) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
+      GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
     }
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
-    bufferUsed[bufferIndex] = false;
+    deleteFence(bufferIndex);
+    bufferState[bufferIndex] = BUFFER_FREE;
   }
 
   /**
@@ -381,12 +572,48 @@ public class TextureReader {
 
     // Acquire frame from the new front buffer.
     if (frontIndex != -1) {
-      return acquireFrame(frontIndex);
+      TextureReaderImage image = acquireFrame(frontIndex);
+      if (image == null) {
+        // acquireFrame() has already released the buffer.
+        frontIndex = -1;
+      }
+      return image;
     }
 
     return null;
   }
 
+  private void checkBufferIndex(int bufferIndex) {
+    if (bufferIndex < 0 || bufferIndex >= bufferCount || bufferState[bufferIndex] == BUFFER_FREE) {
+      throw new RuntimeException("Invalid buffer index.");
+    }
+  }
+
+  /** Blocks until the GPU has finished reading the frame, measuring the stall if it had not. */
+  private void waitForFence(int bufferIndex) {
+    if (isFrameReady(bufferIndex)) {
+      return;
+    }
+    long startTime = System.nanoTime();
+    int status =
+        GLES30.glClientWaitSync(
+            fences[bufferIndex], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, GLES30.GL_TIMEOUT_IGNORED);
+    synchronized (this) {
+      stallHistogram.record(System.nanoTime() - startTime);
+    }
+    if (status == GLES30.GL_WAIT_FAILED) {
+      throw new RuntimeException("Failed to wait for fence with error " + GLES20.glGetError());
+    }
+    deleteFence(bufferIndex);
+  }
+
+  private void deleteFence(int bufferIndex) {
+    if (fences[bufferIndex] != 0) {
+      GLES30.glDeleteSync(fences[bufferIndex]);
+      fences[bufferIndex] = 0;
+    }
+  }
+
   /** Draws texture to full screen. */
   private void drawTexture(int textureId, int textureWidth, int textureHeight) {
     // Disable features that we don't use.
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Classifies the pixels of images, in place, as above or not above a threshold, e.g. to show the
+ * strong edges found by a {@link SobelStage}. Pixels within a given border are left unchanged. Rows
+ * are processed in bands in parallel on the common {@link ForkJoinPool}.
+ */
+public class ThresholdStage implements ImageStage {
+  private final int threshold;
+  private final byte aboveValue;
+  private final byte otherValue;
+  private final int border;
+  private final RowBands bands = new RowBands(this::processRows);
+
+  // The image being processed.
+  private int width;
+  private byte[] pixels;
+
+  /**
+   * @param threshold pixels with a value above this are set to {@code aboveValue}, others to {@code
+   *     otherValue}.
+   * @param border width in pixels of the border which is left unchanged, e.g. 1 to keep the zero
+   *     border of a {@link SobelStage}.
+   */
+  public ThresholdStage(int threshold, int aboveValue, int otherValue, int border) {
+    if (border < 0) {
+      throw new IllegalArgumentException("Border must not be negative: " + border);
+    }
+    this.threshold = threshold;
+    this.aboveValue = (byte) aboveValue;
+    this.otherValue = (byte) otherValue;
+    this.border = border;
+  }
+
+  @Override
+  public String getName() {
+    return "threshold";
+  }
+
+  @Override
+  public GrayImage process(GrayImage input, ImagePool pool) {
+    width = input.width;
+    pixels = input.pixels;
+    try {
+      bands.run(border, Math.max(input.height - border, border));
+    } finally {
+      pixels = null;
+    }
+    return input;
+  }
+
+  /** Processes the given rows. May be called concurrently for different rows. */
+  private void processRows(int firstRow, int endRow) {
+    for (int j = firstRow; j < endRow; j++) {
+      for (int i = j * width + border; i < (j + 1) * width - border; i++) {
+        pixels[i] = (pixels[i] & 0xFF) > threshold ? aboveValue : otherValue;
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RowBandsTest {
+  private static final int ROW_COUNT = 2000;
+
+  private final AtomicIntegerArray timesProcessed = new AtomicIntegerArray(ROW_COUNT);
+  private final RowBands bands =
+      new RowBands(
+          (firstRow, endRow) -> {
+            for (int row = firstRow; row < endRow; ++row) {
+              timesProcessed.incrementAndGet(row);
+            }
+          });
+
+  @Test
+  public void run_processesEachRowOnce() {
+    bands.run(0, 1080);
+
+    assertTimesProcessed(expectRun(new int[ROW_COUNT], 0, 1080));
+  }
+
+  @Test
+  public void run_rangeNotMultipleOfBand_processesEachRowOnce() {
+    bands.run(1, 1079);
+
+    assertTimesProcessed(expectRun(new int[ROW_COUNT], 1, 1079));
+  }
+
+  @Test
+  public void run_singleBand_processesEachRowOnce() {
+    bands.run(3, 10);
+
+    assertTimesProcessed(expectRun(new int[ROW_COUNT], 3, 10));
+  }
+
+  @Test
+  public void run_emptyRange_processesNothing() {
+    bands.run(5, 5);
+    bands.run(7, 6);
+
+    assertTimesProcessed(new int[ROW_COUNT]);
+  }
+
+  @Test
+  public void run_repeatedAndChangedRange_processesEachRowOncePerRun() {
+    bands.run(0, 480);
+    bands.run(0, 480);
+    bands.run(100, 1180);
+
+    int[] expected = new int[ROW_COUNT];
+    expectRun(expected, 0, 480);
+    expectRun(expected, 0, 480);
+    expectRun(expected, 100, 1180);
+    assertTimesProcessed(expected);
+  }
+
+  /** Adds a run over the rows from {@code firstRow} until {@code endRow} to {@code expected}. */
+  private static int[] expectRun(int[] expected, int firstRow, int endRow) {
+    for (int row = firstRow; row < endRow; ++row) {
+      ++expected[row];
+    }
+    return expected;
+  }
+
+  private void assertTimesProcessed(int[] expected) {
+    for (int row = 0; row < ROW_COUNT; ++row) {
+      assertEquals("Row " + row, expected[row], timesProcessed.get(row));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SobelStageTest {
+  private static final int[][] SOBEL_X = {{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}};
+  private static final int[][] SOBEL_Y = {{1, 2, 1}, {0, 0, 0}, {-1, -2, -1}};
+
+  private final ImagePool pool = new ImagePool();
+  private final SobelStage stage = new SobelStage();
+
+  @Test
+  public void process_matchesReference_cameraImageSize() {
+    GrayImage input = createImage(640, 480, /* seed= */ 1);
+
+    assertArrayEquals(computeReference(input), stage.process(input, pool).pixels);
+  }
+
+  @Test
+  public void process_matchesReference_fullHdImageSize() {
+    GrayImage input = createImage(1920, 1080, /* seed= */ 2);
+
+    assertArrayEquals(computeReference(input), stage.process(input, pool).pixels);
+  }
+
+  @Test
+  public void process_matchesReference_afterSizeChange() {
+    stage.process(createImage(640, 480, /* seed= */ 3), pool);
+    // Fewer rows than a band, and a height which is not a multiple of the band height.
+    GrayImage small = createImage(50, 7, /* seed= */ 4);
+    GrayImage odd = createImage(33, 101, /* seed= */ 5);
+
+    assertArrayEquals(computeReference(small), stage.process(small, pool).pixels);
+    assertArrayEquals(computeReference(odd), stage.process(odd, pool).pixels);
+  }
+
+  @Test
+  public void process_overwritesReusedOutput() {
+    GrayImage input = createImage(640, 480, /* seed= */ 6);
+    // Leave an image with other contents in the pool, which becomes the output.
+    GrayImage previous = new GrayImage(640, 480);
+    Arrays.fill(previous.pixels, (byte) 0x7F);
+    pool.release(previous);
+
+    GrayImage output = stage.process(input, pool);
+
+    assertSame(previous, output);
+    assertArrayEquals(computeReference(input), output.pixels);
+  }
+
+  @Test
+  public void process_uniformImage_hasNoEdges() {
+    GrayImage input = new GrayImage(64, 64);
+    Arrays.fill(input.pixels, (byte) 200);
+
+    GrayImage output = stage.process(input, pool);
+
+    assertArrayEquals(new byte[64 * 64], output.pixels);
+  }
+
+  @Test
+  public void process_stepEdge_hasRoundedUpMagnitude() {
+    // A vertical edge from 0 to 1 between the second and third column.
+    GrayImage input = new GrayImage(4, 3);
+    for (int j = 0; j < 3; ++j) {
+      input.pixels[j * 4 + 2] = 1;
+      input.pixels[j * 4 + 3] = 1;
+    }
+
+    GrayImage output = stage.process(input, pool);
+
+    // Both inner pixels of the middle row see a gradient of 4 along x.
+    assertEquals(4, output.pixels[4 + 1]);
+    assertEquals(4, output.pixels[4 + 2]);
+  }
+
+  /**
+   * Applies the Sobel operator to each inner pixel, one pixel after the other, by convolution with
+   * the kernels.
+   */
+  private static byte[] computeReference(GrayImage input) {
+    byte[] output = new byte[input.width * input.height];
+    for (int y = 1; y < input.height - 1; ++y) {
+      for (int x = 1; x < input.width - 1; ++x) {
+        int xSum = 0;
+        int ySum = 0;
+        for (int dy = -1; dy <= 1; ++dy) {
+          for (int dx = -1; dx <= 1; ++dx) {
+            int value = input.pixels[(y + dy) * input.width + x + dx] & 0xFF;
+            xSum += SOBEL_X[dy + 1][dx + 1] * value;
+            ySum += SOBEL_Y[dy + 1][dx + 1] * value;
+          }
+        }
+        double magnitude = Math.hypot(xSum, ySum);
+        output[y * input.width + x] = (byte) Math.min((int) Math.ceil(magnitude), 255);
+      }
+    }
+    return output;
+  }
+
+  /**
+   * Returns an image of noise over smooth gradients, so that the edges cover the whole range of
+   * magnitudes.
+   */
+  static GrayImage createImage(int width, int height, long seed) {
+    Random random = new Random(seed);
+    GrayImage image = new GrayImage(width, height);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        int gradient = (x * 255 / width + y * 255 / height) / 2;
+        int noise = random.nextInt(16) == 0 ? random.nextInt(256) : random.nextInt(9) - 4;
+        image.pixels[y * width + x] = (byte) Math.max(0, Math.min(gradient + noise, 255));
+      }
+    }
+    return image;
+  }
+}
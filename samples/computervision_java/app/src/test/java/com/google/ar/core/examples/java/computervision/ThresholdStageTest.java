@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ThresholdStageTest {
+  private static final int THRESHOLD = 128;
+  private static final int ABOVE_VALUE = 0xFF;
+  private static final int OTHER_VALUE = 0x00;
+
+  private final ImagePool pool = new ImagePool();
+
+  @Test
+  public void process_matchesReference_cameraImageSize() {
+    assertMatchesReference(640, 480, /* border= */ 1);
+  }
+
+  @Test
+  public void process_matchesReference_fullHdImageSize() {
+    assertMatchesReference(1920, 1080, /* border= */ 1);
+  }
+
+  @Test
+  public void process_matchesReference_withoutBorder() {
+    assertMatchesReference(33, 101, /* border= */ 0);
+  }
+
+  @Test
+  public void process_imageWithinBorder_isUnchanged() {
+    assertMatchesReference(3, 3, /* border= */ 2);
+  }
+
+  private void assertMatchesReference(int width, int height, int border) {
+    ThresholdStage stage = new ThresholdStage(THRESHOLD, ABOVE_VALUE, OTHER_VALUE, border);
+    GrayImage input = SobelStageTest.createImage(width, height, /* seed= */ width);
+    byte[] expected = computeReference(input, border);
+
+    GrayImage output = stage.process(input, pool);
+
+    assertSame(input, output);
+    assertArrayEquals(expected, output.pixels);
+  }
+
+  /** Classifies each pixel outside of the border, one pixel after the other. */
+  private static byte[] computeReference(GrayImage input, int border) {
+    byte[] output = input.pixels.clone();
+    for (int y = border; y < input.height - border; ++y) {
+      for (int x = border; x < input.width - border; ++x) {
+        int i = y * input.width + x;
+        output[i] = (byte) ((output[i] & 0xFF) > THRESHOLD ? ABOVE_VALUE : OTHER_VALUE);
+      }
+    }
+    return output;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores linked shader program binaries on disk, so that they do not need to be compiled again on
+ * the next launch.
+ *
+ * <p>Each binary is stored in its own file named after its key, which is a hash of everything the
+ * binary depends on. Once the total size of the files exceeds the configured limit, the least
+ * recently used files are deleted. This class does not use OpenGL; see {@link ShaderCache} for how
+ * the binaries are retrieved from and given to the driver.
+ */
+class ProgramBinaryCache {
+  private static final String FILE_SUFFIX = ".bin";
+  // "SRPB", for SampleRender Program Binary.
+  private static final int MAGIC = 0x53525042;
+  private static final int VERSION = 1;
+  // magic, version, binary format, binary length
+  private static final int HEADER_SIZE = 4 * 4;
+
+  /** A program binary and the driver specific format it is in. */
+  static class Entry {
+    final int format;
+    final ByteBuffer binary;
+
+    Entry(int format, ByteBuffer binary) {
+      this.format = format;
+      this.binary = binary;
+    }
+  }
+
+  private final File directory;
+  private final long maxSizeBytes;
+
+  ProgramBinaryCache(File directory, long maxSizeBytes) {
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Returns the {@code defines} as a string which is the same for equal maps regardless of their
+   * iteration order. A null map is equivalent to an empty one.
+   */
+  static String canonicalizeDefines(Map<String, String> defines) {
+    StringBuilder builder = new StringBuilder();
+    if (defines != null) {
+      for (Map.Entry<String, String> entry : new TreeMap<>(defines).entrySet()) {
+        builder.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Returns the key of the program built from the given shader code and defines by the given
+   * driver. Any change to one of them results in a different key.
+   *
+   * @param driver A description of the driver and its version, as binaries are only valid for the
+   *     driver which produced them
+   */
+  static String createKey(
+      String vertexShaderCode,
+      String fragmentShaderCode,
+      Map<String, String> defines,
+      String driver) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+    for (String part :
+        new String[] {
+          vertexShaderCode, fragmentShaderCode, canonicalizeDefines(defines), driver
+        }) {
+      byte[] bytes = part.getBytes(UTF_8);
+      // Prefix each part with its length so that parts can not run into each other.
+      digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+      digest.update(bytes);
+    }
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(String.format("%02x", b));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns the program binary stored with the given key in a direct buffer, or null if there is
+   * none or it can not be read.
+   */
+  Entry load(String key) throws IOException {
+    File file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+    try (FileInputStream stream = new FileInputStream(file);
+        FileChannel channel = stream.getChannel()) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+      readFully(channel, header);
+      header.flip();
+      int format = 0;
+      int length = -1;
+      if (header.remaining() == HEADER_SIZE
+          && header.getInt() == MAGIC
+          && header.getInt() == VERSION) {
+        format = header.getInt();
+        length = header.getInt();
+      }
+      if (length < 0 || length != channel.size() - HEADER_SIZE) {
+        // Written by a different version, or truncated.
+        remove(key);
+        return null;
+      }
+      ByteBuffer binary = ByteBuffer.allocateDirect(length);
+      readFully(channel, binary);
+      binary.flip();
+      // Mark the file as recently used.
+      file.setLastModified(System.currentTimeMillis());
+      return new Entry(format, binary);
+    }
+  }
+
+  /**
+   * Stores the remaining contents of {@code binary} with the given key, then evicts the least
+   * recently used binaries if the cache grew too large.
+   */
+  void store(String key, int format, ByteBuffer binary) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create directory " + directory);
+    }
+    // Write to a temporary file first so that a partially written file is never loaded.
+    File temporaryFile = new File(directory, key + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(temporaryFile);
+        FileChannel channel = stream.getChannel()) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(binary.remaining()).flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      while (binary.hasRemaining()) {
+        channel.write(binary);
+      }
+    }
+    if (!temporaryFile.renameTo(getFile(key))) {
+      temporaryFile.delete();
+      throw new IOException("Failed to move program binary into place");
+    }
+    evict();
+  }
+
+  /** Deletes the binary stored with the given key, e.g. because the driver rejected it. */
+  void remove(String key) {
+    getFile(key).delete();
+  }
+
+  /** Deletes the least recently used binaries until their total size fits within the limit. */
+  void evict() {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+    long totalSize = 0;
+    for (File file : files) {
+      totalSize += file.length();
+      if (totalSize > maxSizeBytes) {
+        file.delete();
+      }
+    }
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + FILE_SUFFIX);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * A pool of {@link Framebuffer}s which are only needed for part of a frame, such as the target the
+ * virtual scene is rendered to before it is composed with the camera image.
+ *
+ * <p>Targets are reused by size, so that a target whose size changes from frame to frame, e.g.
+ * with {@link DynamicResolutionController}, does not reallocate its attachments every time. All
+ * {@link Framebuffer}s have the same RGBA8 color and 32-bit float depth format, so the size is the
+ * only key. Released targets are freed once they have not been used for {@link
+ * #MAX_IDLE_FRAMES} frames, or when more than {@link #MAX_IDLE_TARGETS} are idle.
+ *
+ * <p>Use {@link SampleRender#getRenderTargetPool} to get the pool of a {@link SampleRender}.
+ */
+public class RenderTargetPool {
+  private static final int MAX_IDLE_FRAMES = 120;
+  private static final int MAX_IDLE_TARGETS = 4;
+
+  private static class IdleTarget {
+    final Framebuffer framebuffer;
+    final long releaseFrameNumber;
+
+    IdleTarget(Framebuffer framebuffer, long releaseFrameNumber) {
+      this.framebuffer = framebuffer;
+      this.releaseFrameNumber = releaseFrameNumber;
+    }
+  }
+
+  private final SampleRender render;
+  // Ordered from least to most recently released.
+  private final ArrayList<IdleTarget> idleTargets = new ArrayList<>();
+  private long frameNumber;
+
+  /* package-private */
+  RenderTargetPool(SampleRender render) {
+    this.render = render;
+  }
+
+  /**
+   * Returns a {@link Framebuffer} of the given size, which is reused if one was released recently.
+   * Its contents are undefined. The framebuffer must be given back with {@link #release} once it
+   * is no longer needed, and must not be resized or closed.
+   */
+  public Framebuffer acquire(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid render target size " + width + "x" + height);
+    }
+    // The most recently released target is the most likely to be reused again, so that the others
+    // can age out.
+    for (int i = idleTargets.size() - 1; i >= 0; --i) {
+      Framebuffer framebuffer = idleTargets.get(i).framebuffer;
+      if (framebuffer.getWidth() == width && framebuffer.getHeight() == height) {
+        idleTargets.remove(i);
+        return framebuffer;
+      }
+    }
+    return new Framebuffer(render, width, height);
+  }
+
+  /** Returns a {@link Framebuffer} obtained from {@link #acquire} to the pool. */
+  public void release(Framebuffer framebuffer) {
+    idleTargets.add(new IdleTarget(framebuffer, frameNumber));
+    while (idleTargets.size() > MAX_IDLE_TARGETS) {
+      idleTargets.remove(0).framebuffer.close();
+    }
+  }
+
+  /** Frees all idle targets. */
+  public void clear() {
+    for (IdleTarget idleTarget : idleTargets) {
+      idleTarget.framebuffer.close();
+    }
+    idleTargets.clear();
+  }
+
+  /** Frees the targets which have been idle for too long. Called by {@link SampleRender}. */
+  /* package-private */
+  void onFrameEnd() {
+    ++frameNumber;
+    Iterator<IdleTarget> iterator = idleTargets.iterator();
+    while (iterator.hasNext()) {
+      IdleTarget idleTarget = iterator.next();
+      if (frameNumber - idleTarget.releaseFrameNumber <= MAX_IDLE_FRAMES) {
+        break;
+      }
+      idleTarget.framebuffer.close();
+      iterator.remove();
+    }
+  }
+}
@@ -15,11 +15,7 @@
  */
 package com.google.ar.core.examples.java.common.samplerender;
 
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.opengl.GLES11Ext;
-import android.opengl.GLES30;
-import android.util.Log;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -28,8 +24,10 @@ import java.nio.ByteBuffer;
 public class Texture implements Closeable {
   private static final String TAG = Texture.class.getSimpleName();
 
+  private final GLBackend backend;
   private final int[] textureId = {0};
   private final Target target;
+  private boolean loaded = true;
 
   /**
    * Describes the way the texture's edges are rendered.
@@ -38,9 +36,9 @@ public class Texture implements Closeable {
    *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glTexParameter.xhtml">GL_TEXTURE_WRAP_S</a>.
    */
   public enum WrapMode {
-    CLAMP_TO_EDGE(GLES30.GL_CLAMP_TO_EDGE),
-    MIRRORED_REPEAT(GLES30.GL_MIRRORED_REPEAT),
-    REPEAT(GLES30.GL_REPEAT);
+    CLAMP_TO_EDGE(GLBackend.GL_CLAMP_TO_EDGE),
+    MIRRORED_REPEAT(GLBackend.GL_MIRRORED_REPEAT),
+    REPEAT(GLBackend.GL_REPEAT);
 
     /* package-private */
     final int glesEnum;
@@ -57,9 +55,9 @@ public class Texture implements Closeable {
    *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glBindTexture.xhtml">glBindTexture</a>.
    */
   public enum Target {
-    TEXTURE_2D(GLES30.GL_TEXTURE_2D),
-    TEXTURE_EXTERNAL_OES(GLES11Ext.GL_TEXTURE_EXTERNAL_OES),
-    TEXTURE_CUBE_MAP(GLES30.GL_TEXTURE_CUBE_MAP);
+    TEXTURE_2D(GLBackend.GL_TEXTURE_2D),
+    TEXTURE_EXTERNAL_OES(GLBackend.GL_TEXTURE_EXTERNAL_OES),
+    TEXTURE_CUBE_MAP(GLBackend.GL_TEXTURE_CUBE_MAP);
 
     final int glesEnum;
 
@@ -75,8 +73,8 @@ public class Texture implements Closeable {
    *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glTexImage2D.xhtml">glTexImage2d</a>.
    */
   public enum ColorFormat {
-    LINEAR(GLES30.GL_RGBA8),
-    SRGB(GLES30.GL_SRGB8_ALPHA8);
+    LINEAR(GLBackend.GL_RGBA8),
+    SRGB(GLBackend.GL_SRGB8_ALPHA8);
 
     final int glesEnum;
 
@@ -97,82 +95,141 @@ public class Texture implements Closeable {
   }
 
   public Texture(SampleRender render, Target target, WrapMode wrapMode, boolean useMipmaps) {
+    this.backend = render.getBackend();
     this.target = target;
 
-    GLES30.glGenTextures(1, textureId, 0);
-    GLError.maybeThrowGLException("Texture creation failed", "glGenTextures");
+    backend.glGenTextures(1, textureId, 0);
+    backend.maybeThrowGLException("Texture creation failed", "glGenTextures");
 
-    int minFilter = useMipmaps ? GLES30.GL_LINEAR_MIPMAP_LINEAR : GLES30.GL_LINEAR;
+    int minFilter = useMipmaps ? GLBackend.GL_LINEAR_MIPMAP_LINEAR : GLBackend.GL_LINEAR;
 
     try {
-      GLES30.glBindTexture(target.glesEnum, textureId[0]);
-      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
-      GLES30.glTexParameteri(target.glesEnum, GLES30.GL_TEXTURE_MIN_FILTER, minFilter);
-      GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
-      GLES30.glTexParameteri(target.glesEnum, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
-      GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
-
-      GLES30.glTexParameteri(target.glesEnum, GLES30.GL_TEXTURE_WRAP_S, wrapMode.glesEnum);
-      GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
-      GLES30.glTexParameteri(target.glesEnum, GLES30.GL_TEXTURE_WRAP_T, wrapMode.glesEnum);
-      GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+      backend.glBindTexture(target.glesEnum, textureId[0]);
+      backend.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+      backend.glTexParameteri(target.glesEnum, GLBackend.GL_TEXTURE_MIN_FILTER, minFilter);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+      backend.glTexParameteri(
+          target.glesEnum, GLBackend.GL_TEXTURE_MAG_FILTER, GLBackend.GL_LINEAR);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+
+      backend.glTexParameteri(target.glesEnum, GLBackend.GL_TEXTURE_WRAP_S, wrapMode.glesEnum);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+      backend.glTexParameteri(target.glesEnum, GLBackend.GL_TEXTURE_WRAP_T, wrapMode.glesEnum);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
     } catch (Throwable t) {
       close();
       throw t;
     }
   }
 
-  /** Create a texture from the given asset file name. */
+  /**
+   * Create a texture from the given asset file name.
+   *
+   * <p>Assets ending with {@code .ktx} are read as <a
+   * href="https://registry.khronos.org/KTX/specs/1.0/ktxspec.v1.html">KTX</a> files containing a
+   * compressed image, e.g. in the ETC2 or ASTC format, which is uploaded without being decoded.
+   * Mipmaps are not generated for compressed images, so they should be included in the file. Any
+   * other asset is decoded with {@link BitmapFactory}.
+   */
   public static Texture createFromAsset(
       SampleRender render, String assetFileName, WrapMode wrapMode, ColorFormat colorFormat)
       throws IOException {
     Texture texture = new Texture(render, Target.TEXTURE_2D, wrapMode);
-    Bitmap bitmap = null;
     try {
-      // The following lines up to glTexImage2D could technically be replaced with
-      // GLUtils.texImage2d, but this method does not allow for loading sRGB images.
-
-      // Load and convert the bitmap and copy its contents to a direct ByteBuffer. Despite its name,
-      // the ARGB_8888 config is actually stored in RGBA order.
-      bitmap =
-          convertBitmapToConfig(
-              BitmapFactory.decodeStream(render.getAssets().open(assetFileName)),
-              Bitmap.Config.ARGB_8888);
-      ByteBuffer buffer = ByteBuffer.allocateDirect(bitmap.getByteCount());
-      bitmap.copyPixelsToBuffer(buffer);
-      buffer.rewind();
-
-      GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.getTextureId());
-      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
-      GLES30.glTexImage2D(
-          GLES30.GL_TEXTURE_2D,
-          /*level=*/ 0,
-          colorFormat.glesEnum,
-          bitmap.getWidth(),
-          bitmap.getHeight(),
-          /*border=*/ 0,
-          GLES30.GL_RGBA,
-          GLES30.GL_UNSIGNED_BYTE,
-          buffer);
-      GLError.maybeThrowGLException("Failed to populate texture data", "glTexImage2D");
-      GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_2D);
-      GLError.maybeThrowGLException("Failed to generate mipmaps", "glGenerateMipmap");
+      texture.upload(TextureLoader.decode(render.getAssets(), assetFileName), colorFormat);
     } catch (Throwable t) {
       texture.close();
       throw t;
-    } finally {
-      if (bitmap != null) {
-        bitmap.recycle();
-      }
     }
     return texture;
   }
 
+  /**
+   * Create a texture from the given asset file name, without waiting for it to be loaded.
+   *
+   * <p>The asset is read and decoded on a worker thread, and uploaded by {@link SampleRender}
+   * before one of the following frames is drawn. Until then, the texture is incomplete and samples
+   * as black, and {@link #isLoaded} returns false. If the asset fails to load, an error is logged
+   * and the texture is never loaded.
+   *
+   * <p>This avoids stalling the GL thread while textures are loaded, e.g. when the surface is
+   * created or resumed.
+   *
+   * @see #createFromAsset
+   */
+  public static Texture createFromAssetAsync(
+      SampleRender render, String assetFileName, WrapMode wrapMode, ColorFormat colorFormat) {
+    Texture texture = new Texture(render, Target.TEXTURE_2D, wrapMode);
+    texture.loaded = false;
+    render.getTextureLoader().loadAsync(texture, assetFileName, colorFormat);
+    return texture;
+  }
+
+  /**
+   * Returns false if the texture was created with {@link #createFromAssetAsync} and its image has
+   * not been uploaded yet, and true otherwise.
+   */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /** Uploads the given image as the texture's contents. Must be called on the GL thread. */
+  /* package-private */
+  void upload(TextureLoader.Image image, ColorFormat colorFormat) {
+    if (textureId[0] == 0) {
+      // Closed before an asynchronously loaded image was ready.
+      return;
+    }
+    backend.glBindTexture(GLBackend.GL_TEXTURE_2D, textureId[0]);
+    backend.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+    if (image.compressed == null) {
+      // This could technically be replaced with GLUtils.texImage2d, but this method does not allow
+      // for loading sRGB images.
+      backend.glTexImage2D(
+          GLBackend.GL_TEXTURE_2D,
+          /*level=*/ 0,
+          colorFormat.glesEnum,
+          image.width,
+          image.height,
+          /*border=*/ 0,
+          GLBackend.GL_RGBA,
+          GLBackend.GL_UNSIGNED_BYTE,
+          image.pixels);
+      backend.maybeThrowGLException("Failed to populate texture data", "glTexImage2D");
+      backend.glGenerateMipmap(GLBackend.GL_TEXTURE_2D);
+      backend.maybeThrowGLException("Failed to generate mipmaps", "glGenerateMipmap");
+    } else {
+      KtxImage compressed = image.compressed;
+      int internalFormat = compressed.getInternalFormat(colorFormat);
+      for (int level = 0; level < compressed.levels.length; ++level) {
+        ByteBuffer data = compressed.levels[level];
+        backend.glCompressedTexImage2D(
+            GLBackend.GL_TEXTURE_2D,
+            level,
+            internalFormat,
+            Math.max(1, compressed.width >> level),
+            Math.max(1, compressed.height >> level),
+            /*border=*/ 0,
+            data.remaining(),
+            data);
+        backend.maybeThrowGLException(
+            "Failed to populate compressed texture data", "glCompressedTexImage2D");
+      }
+      // Mipmaps can not be generated for compressed textures, so limit sampling to the levels
+      // present in the file to keep the texture complete.
+      backend.glTexParameteri(
+          GLBackend.GL_TEXTURE_2D, GLBackend.GL_TEXTURE_MAX_LEVEL, compressed.levels.length - 1);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+    }
+    loaded = true;
+  }
+
   @Override
   public void close() {
     if (textureId[0] != 0) {
-      GLES30.glDeleteTextures(1, textureId, 0);
-      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free texture", "glDeleteTextures");
+      backend.glDeleteTextures(1, textureId, 0);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to free texture", "glDeleteTextures");
       textureId[0] = 0;
     }
   }
@@ -186,15 +243,4 @@ public class Texture implements Closeable {
   Target getTarget() {
     return target;
   }
-
-  private static Bitmap convertBitmapToConfig(Bitmap bitmap, Bitmap.Config config) {
-    // We use this method instead of BitmapFactory.Options.outConfig to support a minimum of Android
-    // API level 24.
-    if (bitmap.getConfig() == config) {
-      return bitmap;
-    }
-    Bitmap result = bitmap.copy(config, /*isMutable=*/ false);
-    bitmap.recycle();
-    return result;
-  }
 }
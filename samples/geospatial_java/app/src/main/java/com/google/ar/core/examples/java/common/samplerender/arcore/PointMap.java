@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender.arcore;
+
+import com.google.ar.core.PointCloud;
+import com.google.ar.core.examples.java.common.samplerender.GLBackend;
+import com.google.ar.core.examples.java.common.samplerender.Mesh;
+import com.google.ar.core.examples.java.common.samplerender.SampleRender;
+import com.google.ar.core.examples.java.common.samplerender.Shader;
+import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A map of the feature points ARCore has observed, accumulated over all frames rather than only
+ * those of the current {@link PointCloud}.
+ *
+ * <p>Space is divided into cubic voxels, each of which holds at most one point. Observations of a
+ * point are merged into the voxel it was first seen in, identified by its ARCore point ID, and new
+ * points falling into an occupied voxel are merged into its point. The position of a point is the
+ * confidence-weighted average of its observations, and its confidence, passed to shaders as the
+ * fourth component of the position, grows as observations accumulate. The number of points is
+ * bounded, so the map's memory is too; points of new voxels are dropped once it is full.
+ *
+ * <p>The points are kept in a vertex buffer which is only partially updated: points are stored in
+ * blocks, and only the blocks changed since the last draw are uploaded.
+ */
+public class PointMap implements Closeable {
+  private static final String TAG = PointMap.class.getSimpleName();
+
+  private static final int FLOATS_PER_POINT = 4; // x, y, z, confidence
+  private static final int POINTS_PER_BLOCK = 256;
+  // Accumulated confidence at which a point is considered certain. Capping the weight at this value
+  // also keeps points responsive to ARCore's refinements of their position.
+  private static final float MAX_WEIGHT = 8.0f;
+  // Bits per voxel coordinate in voxel keys, i.e. the map extends 2^20 voxels in each direction.
+  private static final int VOXEL_COORDINATE_BITS = 21;
+  private static final long VOXEL_COORDINATE_MASK = (1L << VOXEL_COORDINATE_BITS) - 1;
+  // More point IDs than points are remembered, since several IDs may share a voxel.
+  private static final int IDS_PER_POINT = 4;
+  private static final int NO_POINT = -1;
+
+  private final GLBackend backend;
+  private final float voxelSize;
+  private final int maxPoints;
+  private final LongIntHashMap pointsById;
+  private final LongIntHashMap pointsByVoxel;
+  private final FloatBuffer points;
+  private final float[] weights;
+  private final boolean[] dirtyBlocks;
+  private final VertexBuffer vertexBuffer;
+  private final Mesh mesh;
+  private int pointCount;
+  private long lastTimestamp = -1;
+  private boolean hasLoggedFull;
+
+  /**
+   * Constructs an empty {@link PointMap}.
+   *
+   * @param voxelSize Edge length of the voxels in meters, i.e. the minimum distance between points
+   * @param maxPoints Maximum number of points
+   */
+  public PointMap(SampleRender render, float voxelSize, int maxPoints) {
+    if (voxelSize <= 0 || maxPoints <= 0) {
+      throw new IllegalArgumentException(
+          "Voxel size and maximum number of points must be positive");
+    }
+    this.backend = render.getBackend();
+    this.voxelSize = voxelSize;
+    this.maxPoints = maxPoints;
+    pointsById = new LongIntHashMap(IDS_PER_POINT * maxPoints);
+    pointsByVoxel = new LongIntHashMap(maxPoints);
+    points =
+        ByteBuffer.allocateDirect(maxPoints * FLOATS_PER_POINT * Float.BYTES)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    weights = new float[maxPoints];
+    dirtyBlocks = new boolean[(maxPoints + POINTS_PER_BLOCK - 1) / POINTS_PER_BLOCK];
+
+    // The buffer is allocated at its full size once, so that blocks can be updated in place.
+    vertexBuffer = new VertexBuffer(render, FLOATS_PER_POINT, points);
+    mesh =
+        new Mesh(
+            render,
+            Mesh.PrimitiveMode.POINTS,
+            /*indexBuffer=*/ null,
+            new VertexBuffer[] {vertexBuffer});
+  }
+
+  /**
+   * Merges the points of the given {@link PointCloud} into the map. Point clouds which have already
+   * been merged, i.e. with the same timestamp as the last one, are ignored.
+   */
+  public void update(PointCloud pointCloud) {
+    if (pointCloud.getTimestamp() == lastTimestamp) {
+      return;
+    }
+    lastTimestamp = pointCloud.getTimestamp();
+    FloatBuffer cloudPoints = pointCloud.getPoints();
+    IntBuffer cloudIds = pointCloud.getIds();
+    int count = cloudPoints.remaining() / FLOATS_PER_POINT;
+    for (int i = 0; i < count; ++i) {
+      int base = cloudPoints.position() + i * FLOATS_PER_POINT;
+      float confidence = cloudPoints.get(base + 3);
+      if (confidence <= 0) {
+        continue;
+      }
+      int point = findOrAddPoint(cloudIds.get(cloudIds.position() + i), cloudPoints, base);
+      if (point != NO_POINT) {
+        mergeObservation(
+            point,
+            cloudPoints.get(base),
+            cloudPoints.get(base + 1),
+            cloudPoints.get(base + 2),
+            confidence);
+      }
+    }
+  }
+
+  /** Uploads the points changed since the last call and draws them with the given shader. */
+  public void draw(SampleRender render, Shader shader) {
+    uploadDirtyBlocks();
+    if (pointCount > 0) {
+      render.drawRange(mesh, shader, /*framebuffer=*/ null, /*first=*/ 0, pointCount);
+    }
+  }
+
+  /** Returns the number of points in the map. */
+  public int getPointCount() {
+    return pointCount;
+  }
+
+  /** Removes all points, e.g. when the session is reset. */
+  public void clear() {
+    pointsById.clear();
+    pointsByVoxel.clear();
+    pointCount = 0;
+    lastTimestamp = -1;
+    hasLoggedFull = false;
+  }
+
+  @Override
+  public void close() {
+    mesh.close();
+    vertexBuffer.close();
+  }
+
+  private int findOrAddPoint(int id, FloatBuffer cloudPoints, int base) {
+    long idKey = id & 0xFFFFFFFFL;
+    int point = pointsById.get(idKey, NO_POINT);
+    if (point != NO_POINT) {
+      return point;
+    }
+    long voxelKey =
+        getVoxelKey(cloudPoints.get(base), cloudPoints.get(base + 1), cloudPoints.get(base + 2));
+    point = pointsByVoxel.get(voxelKey, NO_POINT);
+    if (point == NO_POINT) {
+      if (pointCount == maxPoints) {
+        if (!hasLoggedFull) {
+          backend.log(GLBackend.LOG_WARN, TAG, "Point map is full, new points are dropped");
+          hasLoggedFull = true;
+        }
+        return NO_POINT;
+      }
+      point = pointCount++;
+      weights[point] = 0;
+      pointsByVoxel.put(voxelKey, point);
+    }
+    // If too many IDs are known, the point is found by its voxel the next time instead.
+    pointsById.put(idKey, point);
+    return point;
+  }
+
+  private void mergeObservation(int point, float x, float y, float z, float confidence) {
+    int base = point * FLOATS_PER_POINT;
+    float weight = weights[point];
+    float newWeight = weight + confidence;
+    float blend = confidence / newWeight;
+    points.put(base, points.get(base) + (x - points.get(base)) * blend);
+    points.put(base + 1, points.get(base + 1) + (y - points.get(base + 1)) * blend);
+    points.put(base + 2, points.get(base + 2) + (z - points.get(base + 2)) * blend);
+    weights[point] = Math.min(newWeight, MAX_WEIGHT);
+    points.put(base + 3, weights[point] / MAX_WEIGHT);
+    dirtyBlocks[point / POINTS_PER_BLOCK] = true;
+  }
+
+  private void uploadDirtyBlocks() {
+    // Consecutive dirty blocks are uploaded together.
+    int block = 0;
+    while (block < dirtyBlocks.length) {
+      if (!dirtyBlocks[block]) {
+        ++block;
+        continue;
+      }
+      int firstBlock = block;
+      while (block < dirtyBlocks.length && dirtyBlocks[block]) {
+        dirtyBlocks[block++] = false;
+      }
+      int firstPoint = firstBlock * POINTS_PER_BLOCK;
+      int endPoint = Math.min(block * POINTS_PER_BLOCK, maxPoints);
+      FloatBuffer range = points.duplicate();
+      range.limit(endPoint * FLOATS_PER_POINT);
+      range.position(firstPoint * FLOATS_PER_POINT);
+      vertexBuffer.setRange(firstPoint, range.slice());
+    }
+  }
+
+  private long getVoxelKey(float x, float y, float z) {
+    long voxelX = (long) Math.floor(x / voxelSize) & VOXEL_COORDINATE_MASK;
+    long voxelY = (long) Math.floor(y / voxelSize) & VOXEL_COORDINATE_MASK;
+    long voxelZ = (long) Math.floor(z / voxelSize) & VOXEL_COORDINATE_MASK;
+    return (voxelX << (2 * VOXEL_COORDINATE_BITS)) | (voxelY << VOXEL_COORDINATE_BITS) | voxelZ;
+  }
+}
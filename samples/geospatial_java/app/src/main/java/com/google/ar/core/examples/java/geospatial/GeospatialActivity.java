@@ -68,7 +68,9 @@ import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
 import com.google.ar.core.examples.java.common.helpers.LocationPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
+import com.google.ar.core.examples.java.common.samplerender.BoundingBox;
 import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
+import com.google.ar.core.examples.java.common.samplerender.FrustumCuller;
 import com.google.ar.core.examples.java.common.samplerender.IndexBuffer;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
@@ -87,6 +89,7 @@ import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 import com.google.ar.core.exceptions.UnsupportedConfigurationException;
+import java.io.File;
 import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
@@ -253,6 +256,9 @@ public class GeospatialActivity extends AppCompatActivity
   // A set of planes representing building outlines and floors.
   private final Map<StreetscapeGeometry, Mesh> streetscapeGeometryToMeshes = new HashMap<>();
 
+  // Skips planes, Streetscape Geometries and anchors which are off-screen.
+  private final FrustumCuller frustumCuller = new FrustumCuller();
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -291,7 +297,8 @@ public class GeospatialActivity extends AppCompatActivity
     displayRotationHelper = new DisplayRotationHelper(/* activity= */ this);
 
     // Set up renderer.
-    render = new SampleRender(surfaceView, this, getAssets());
+    render =
+        new SampleRender(surfaceView, this, getAssets(), new File(getCacheDir(), "shaders"));
 
     installRequested = false;
     clearedAnchorsAmount = null;
@@ -544,7 +551,7 @@ public class GeospatialActivity extends AppCompatActivity
 
       // Virtual object to render (ARCore geospatial)
       Texture virtualObjectTexture =
-          Texture.createFromAsset(
+          Texture.createFromAssetAsync(
               render,
               "models/spatial_marker_baked.png",
               Texture.WrapMode.CLAMP_TO_EDGE,
@@ -561,7 +568,7 @@ public class GeospatialActivity extends AppCompatActivity
 
       // Virtual object to render (Terrain anchor marker)
       Texture terrainAnchorVirtualObjectTexture =
-          Texture.createFromAsset(
+          Texture.createFromAssetAsync(
               render,
               "models/spatial_marker_yellow.png",
               Texture.WrapMode.CLAMP_TO_EDGE,
@@ -745,6 +752,7 @@ public class GeospatialActivity extends AppCompatActivity
 
     // Get camera matrix and draw.
     camera.getViewMatrix(viewMatrix, 0);
+    frustumCuller.update(viewMatrix, projectionMatrix);
 
     // Visualize tracked points.
     // Use try-with-resources to automatically release the point cloud.
@@ -763,7 +771,8 @@ public class GeospatialActivity extends AppCompatActivity
         render,
         session.getAllTrackables(Plane.class),
         camera.getDisplayOrientedPose(),
-        projectionMatrix);
+        projectionMatrix,
+        frustumCuller);
 
     // Visualize anchors created by touch.
     render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f);
@@ -779,6 +788,13 @@ public class GeospatialActivity extends AppCompatActivity
         Mesh mesh = set.getValue();
         Pose pose = streetscapeGeometry.getMeshPose();
         pose.toMatrix(modelMatrix, 0);
+        if (!frustumCuller.isVisible(mesh, modelMatrix)) {
+          if (streetscapeGeometry.getType() == StreetscapeGeometry.Type.BUILDING) {
+            // Keep the colors of the other buildings stable.
+            index += 1;
+          }
+          continue;
+        }
 
         // Calculate model/view/projection matrices
         Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
@@ -824,6 +840,9 @@ public class GeospatialActivity extends AppCompatActivity
         Matrix.setRotateM(rotationMatrix, 0, 180, 0.0f, 1.0f, 0.0f);
         float[] rotationModelMatrix = new float[16];
         Matrix.multiplyMM(rotationModelMatrix, 0, modelMatrix, 0, rotationMatrix, 0);
+        if (!frustumCuller.isVisible(virtualObjectMesh, rotationModelMatrix)) {
+          continue;
+        }
         // Calculate model/view/projection matrices
         Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, rotationModelMatrix, 0);
         Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
@@ -884,11 +903,15 @@ public class GeospatialActivity extends AppCompatActivity
     IndexBuffer meshIndexBuffer =
         new IndexBuffer(render, streetscapeGeometry.getMesh().getIndexList());
     final VertexBuffer[] meshVertexBuffers = {meshVertexBuffer};
-    return new Mesh(
-        render,
-        Mesh.PrimitiveMode.TRIANGLES,
-        /* indexBuffer= */ meshIndexBuffer,
-        meshVertexBuffers);
+    Mesh mesh =
+        new Mesh(
+            render,
+            Mesh.PrimitiveMode.TRIANGLES,
+            /* indexBuffer= */ meshIndexBuffer,
+            meshVertexBuffers);
+    mesh.setBoundingBox(
+        BoundingBox.fromVertices(streetscapeGeometryBuffer, /* numberOfEntriesPerVertex= */ 3));
+    return mesh;
   }
 
   /** Configures the session with feature settings. */
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.nio.FloatBuffer;
+
+/**
+ * An axis-aligned box bounding the vertices of a {@link Mesh} in its local coordinates, used by
+ * {@link FrustumCuller} to skip drawing meshes which are not visible.
+ */
+public class BoundingBox {
+  /* package-private */
+  final float[] min;
+  /* package-private */
+  final float[] max;
+
+  /** Constructs a {@link BoundingBox} with the given minimum and maximum corners. */
+  public BoundingBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+    if (minX > maxX || minY > maxY || minZ > maxZ) {
+      throw new IllegalArgumentException("Bounding box minimum must not exceed its maximum");
+    }
+    this.min = new float[] {minX, minY, minZ};
+    this.max = new float[] {maxX, maxY, maxZ};
+  }
+
+  /**
+   * Constructs the smallest {@link BoundingBox} containing the given vertex positions.
+   *
+   * <p>The first three entries of each vertex in {@code entries} are taken as its x, y and z
+   * coordinates, starting from the beginning of the buffer (not the current cursor position).
+   * Returns null if {@code entries} holds no vertices.
+   */
+  public static BoundingBox fromVertices(FloatBuffer entries, int numberOfEntriesPerVertex) {
+    if (numberOfEntriesPerVertex < 3) {
+      throw new IllegalArgumentException("Vertices must have at least three entries");
+    }
+    int numberOfVertices = entries.limit() / numberOfEntriesPerVertex;
+    if (numberOfVertices == 0) {
+      return null;
+    }
+    float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+    float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    for (int i = 0; i < numberOfVertices; ++i) {
+      for (int axis = 0; axis < 3; ++axis) {
+        float value = entries.get(i * numberOfEntriesPerVertex + axis);
+        min[axis] = Math.min(min[axis], value);
+        max[axis] = Math.max(max[axis], value);
+      }
+    }
+    return new BoundingBox(min[0], min[1], min[2], max[0], max[1], max[2]);
+  }
+}
@@ -0,0 +1,683 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link GLBackend} which does not render anything, but counts the calls made to it, the bytes
+ * uploaded to buffers and textures, and the GL objects created and deleted.
+ *
+ * <p>This allows SampleRender and the renderers built on it to run without a GPU or GL context,
+ * e.g. to measure their CPU overhead on a host machine, or to check how many calls a frame takes.
+ * Every call succeeds: shaders compile, programs link, framebuffers are complete, fences are
+ * signaled and queries are available immediately. Program binaries are not supported.
+ *
+ * <p>Messages are logged to {@link System#err}, and GL errors, which are never reported, would be
+ * thrown as {@link IllegalStateException}s. No Android classes are used, so this backend runs on a
+ * plain JVM.
+ *
+ * <p>Like a GL context, a {@link RecordingGLBackend} must only be used from one thread at a time.
+ */
+public class RecordingGLBackend extends GLBackend {
+  // The value reported for GL_MAX_COLOR_ATTACHMENTS, the minimum required by OpenGL ES 3.0.
+  private static final int MAX_COLOR_ATTACHMENTS = 4;
+
+  private final HashMap<String, long[]> callCounts = new HashMap<>();
+  private final HashMap<String, Integer> uniformLocations = new HashMap<>();
+  private ByteBuffer mappedBuffer = ByteBuffer.allocateDirect(0);
+  private int nextObjectName = 1;
+  private long totalCallCount;
+  private long drawCallCount;
+  private long bytesUploaded;
+  private long createdObjectCount;
+  private long liveObjectCount;
+
+  /** Returns the number of calls made to the GL function with the given name, e.g. "glClear". */
+  public long getCallCount(String function) {
+    long[] count = callCounts.get(function);
+    return count == null ? 0 : count[0];
+  }
+
+  /** Returns the number of calls made to each GL function which was called, sorted by name. */
+  public Map<String, Long> getCallCounts() {
+    TreeMap<String, Long> result = new TreeMap<>();
+    for (Map.Entry<String, long[]> entry : callCounts.entrySet()) {
+      result.put(entry.getKey(), entry.getValue()[0]);
+    }
+    return result;
+  }
+
+  /** Returns the number of calls made to all GL functions. */
+  public long getTotalCallCount() {
+    return totalCallCount;
+  }
+
+  /** Returns the number of draw calls, instanced or not. */
+  public long getDrawCallCount() {
+    return drawCallCount;
+  }
+
+  /**
+   * Returns the number of bytes uploaded with glBufferData, glBufferSubData, glTexImage2D and
+   * glCompressedTexImage2D, or written to buffers mapped with glMapBufferRange.
+   */
+  public long getBytesUploaded() {
+    return bytesUploaded;
+  }
+
+  /** Returns the number of GL objects created, including shaders, programs and fences. */
+  public long getCreatedObjectCount() {
+    return createdObjectCount;
+  }
+
+  /** Returns the number of GL objects which were created and not deleted yet. */
+  public long getLiveObjectCount() {
+    return liveObjectCount;
+  }
+
+  /**
+   * Resets the call, draw call, upload and creation counters, e.g. at the start of a measured
+   * frame. The number of live objects is not affected.
+   */
+  public void resetCounters() {
+    callCounts.clear();
+    totalCallCount = 0;
+    drawCallCount = 0;
+    bytesUploaded = 0;
+    createdObjectCount = 0;
+  }
+
+  @Override
+  public void log(int priority, String tag, String message, Throwable throwable) {
+    System.err.println(getPriorityLetter(priority) + "/" + tag + ": " + message);
+    if (throwable != null) {
+      throwable.printStackTrace();
+    }
+  }
+
+  @Override
+  public String getErrorString(int error) {
+    switch (error) {
+      case GL_NO_ERROR:
+        return "no error";
+      case GL_INVALID_ENUM:
+        return "invalid enum";
+      case GL_INVALID_VALUE:
+        return "invalid value";
+      case GL_INVALID_OPERATION:
+        return "invalid operation";
+      case GL_OUT_OF_MEMORY:
+        return "out of memory";
+      case GL_INVALID_FRAMEBUFFER_OPERATION:
+        return "invalid framebuffer operation";
+      default:
+        return "unknown error";
+    }
+  }
+
+  @Override
+  public RuntimeException newGLException(int error, String message) {
+    return new IllegalStateException(message);
+  }
+
+  private static char getPriorityLetter(int priority) {
+    switch (priority) {
+      case LOG_INFO:
+        return 'I';
+      case LOG_WARN:
+        return 'W';
+      case LOG_ERROR:
+        return 'E';
+      default:
+        return 'D';
+    }
+  }
+
+  private void record(String function) {
+    ++totalCallCount;
+    long[] count = callCounts.get(function);
+    if (count == null) {
+      count = new long[1];
+      callCounts.put(function, count);
+    }
+    ++count[0];
+  }
+
+  private int createObject() {
+    ++createdObjectCount;
+    ++liveObjectCount;
+    return nextObjectName++;
+  }
+
+  private void deleteObject(long name) {
+    // Like GL, ignore zero names.
+    if (name != 0) {
+      --liveObjectCount;
+    }
+  }
+
+  private static long getByteCount(Buffer buffer) {
+    int bytesPerElement;
+    if (buffer instanceof ByteBuffer) {
+      bytesPerElement = 1;
+    } else if (buffer instanceof ShortBuffer) {
+      bytesPerElement = 2;
+    } else if (buffer instanceof IntBuffer || buffer instanceof FloatBuffer) {
+      bytesPerElement = 4;
+    } else if (buffer instanceof LongBuffer || buffer instanceof DoubleBuffer) {
+      bytesPerElement = 8;
+    } else {
+      bytesPerElement = 1;
+    }
+    return (long) buffer.remaining() * bytesPerElement;
+  }
+
+  @Override
+  public void glActiveTexture(int texture) {
+    record("glActiveTexture");
+  }
+
+  @Override
+  public void glAttachShader(int program, int shader) {
+    record("glAttachShader");
+  }
+
+  @Override
+  public void glBeginQuery(int target, int id) {
+    record("glBeginQuery");
+  }
+
+  @Override
+  public void glBindBuffer(int target, int buffer) {
+    record("glBindBuffer");
+  }
+
+  @Override
+  public void glBindFramebuffer(int target, int framebuffer) {
+    record("glBindFramebuffer");
+  }
+
+  @Override
+  public void glBindTexture(int target, int texture) {
+    record("glBindTexture");
+  }
+
+  @Override
+  public void glBindVertexArray(int array) {
+    record("glBindVertexArray");
+  }
+
+  @Override
+  public void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+    record("glBlendFuncSeparate");
+  }
+
+  @Override
+  public void glBufferData(int target, int size, Buffer data, int usage) {
+    record("glBufferData");
+    if (data != null) {
+      bytesUploaded += size;
+    }
+  }
+
+  @Override
+  public void glBufferSubData(int target, int offset, int size, Buffer data) {
+    record("glBufferSubData");
+    bytesUploaded += size;
+  }
+
+  @Override
+  public int glCheckFramebufferStatus(int target) {
+    record("glCheckFramebufferStatus");
+    return GL_FRAMEBUFFER_COMPLETE;
+  }
+
+  @Override
+  public void glClear(int mask) {
+    record("glClear");
+  }
+
+  @Override
+  public void glClearColor(float red, float green, float blue, float alpha) {
+    record("glClearColor");
+  }
+
+  @Override
+  public int glClientWaitSync(long sync, int flags, long timeout) {
+    record("glClientWaitSync");
+    // The GPU is never behind.
+    return GL_ALREADY_SIGNALED;
+  }
+
+  @Override
+  public void glCompileShader(int shader) {
+    record("glCompileShader");
+  }
+
+  @Override
+  public void glCompressedTexImage2D(
+      int target,
+      int level,
+      int internalformat,
+      int width,
+      int height,
+      int border,
+      int imageSize,
+      Buffer data) {
+    record("glCompressedTexImage2D");
+    bytesUploaded += imageSize;
+  }
+
+  @Override
+  public void glCopyBufferSubData(
+      int readTarget, int writeTarget, int readOffset, int writeOffset, int size) {
+    record("glCopyBufferSubData");
+  }
+
+  @Override
+  public int glCreateProgram() {
+    record("glCreateProgram");
+    return createObject();
+  }
+
+  @Override
+  public int glCreateShader(int type) {
+    record("glCreateShader");
+    return createObject();
+  }
+
+  @Override
+  public void glDeleteBuffers(int n, int[] buffers, int offset) {
+    record("glDeleteBuffers");
+    for (int i = 0; i < n; ++i) {
+      deleteObject(buffers[offset + i]);
+    }
+  }
+
+  @Override
+  public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+    record("glDeleteFramebuffers");
+    for (int i = 0; i < n; ++i) {
+      deleteObject(framebuffers[offset + i]);
+    }
+  }
+
+  @Override
+  public void glDeleteProgram(int program) {
+    record("glDeleteProgram");
+    deleteObject(program);
+  }
+
+  @Override
+  public void glDeleteQueries(int n, int[] ids, int offset) {
+    record("glDeleteQueries");
+    for (int i = 0; i < n; ++i) {
+      deleteObject(ids[offset + i]);
+    }
+  }
+
+  @Override
+  public void glDeleteShader(int shader) {
+    record("glDeleteShader");
+    deleteObject(shader);
+  }
+
+  @Override
+  public void glDeleteSync(long sync) {
+    record("glDeleteSync");
+    deleteObject(sync);
+  }
+
+  @Override
+  public void glDeleteTextures(int n, int[] textures, int offset) {
+    record("glDeleteTextures");
+    for (int i = 0; i < n; ++i) {
+      deleteObject(textures[offset + i]);
+    }
+  }
+
+  @Override
+  public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+    record("glDeleteVertexArrays");
+    for (int i = 0; i < n; ++i) {
+      deleteObject(arrays[offset + i]);
+    }
+  }
+
+  @Override
+  public void glDepthMask(boolean flag) {
+    record("glDepthMask");
+  }
+
+  @Override
+  public void glDisable(int cap) {
+    record("glDisable");
+  }
+
+  @Override
+  public void glDrawArrays(int mode, int first, int count) {
+    record("glDrawArrays");
+    ++drawCallCount;
+  }
+
+  @Override
+  public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+    record("glDrawArraysInstanced");
+    ++drawCallCount;
+  }
+
+  @Override
+  public void glDrawBuffers(int n, int[] bufs, int offset) {
+    record("glDrawBuffers");
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, int offset) {
+    record("glDrawElements");
+    ++drawCallCount;
+  }
+
+  @Override
+  public void glDrawElementsInstanced(
+      int mode, int count, int type, int indicesOffset, int instanceCount) {
+    record("glDrawElementsInstanced");
+    ++drawCallCount;
+  }
+
+  @Override
+  public void glEnable(int cap) {
+    record("glEnable");
+  }
+
+  @Override
+  public void glEnableVertexAttribArray(int index) {
+    record("glEnableVertexAttribArray");
+  }
+
+  @Override
+  public void glEndQuery(int target) {
+    record("glEndQuery");
+  }
+
+  @Override
+  public long glFenceSync(int condition, int flags) {
+    record("glFenceSync");
+    return createObject();
+  }
+
+  @Override
+  public void glFramebufferTexture2D(
+      int target, int attachment, int textarget, int texture, int level) {
+    record("glFramebufferTexture2D");
+  }
+
+  @Override
+  public void glGenBuffers(int n, int[] buffers, int offset) {
+    record("glGenBuffers");
+    for (int i = 0; i < n; ++i) {
+      buffers[offset + i] = createObject();
+    }
+  }
+
+  @Override
+  public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+    record("glGenFramebuffers");
+    for (int i = 0; i < n; ++i) {
+      framebuffers[offset + i] = createObject();
+    }
+  }
+
+  @Override
+  public void glGenQueries(int n, int[] ids, int offset) {
+    record("glGenQueries");
+    for (int i = 0; i < n; ++i) {
+      ids[offset + i] = createObject();
+    }
+  }
+
+  @Override
+  public void glGenTextures(int n, int[] textures, int offset) {
+    record("glGenTextures");
+    for (int i = 0; i < n; ++i) {
+      textures[offset + i] = createObject();
+    }
+  }
+
+  @Override
+  public void glGenVertexArrays(int n, int[] arrays, int offset) {
+    record("glGenVertexArrays");
+    for (int i = 0; i < n; ++i) {
+      arrays[offset + i] = createObject();
+    }
+  }
+
+  @Override
+  public void glGenerateMipmap(int target) {
+    record("glGenerateMipmap");
+  }
+
+  @Override
+  public int glGetError() {
+    record("glGetError");
+    return GL_NO_ERROR;
+  }
+
+  @Override
+  public void glGetIntegerv(int pname, int[] params, int offset) {
+    record("glGetIntegerv");
+    params[offset] = pname == GL_MAX_COLOR_ATTACHMENTS ? MAX_COLOR_ATTACHMENTS : 0;
+  }
+
+  @Override
+  public void glGetProgramBinary(
+      int program,
+      int bufSize,
+      int[] length,
+      int lengthOffset,
+      int[] binaryFormat,
+      int binaryFormatOffset,
+      Buffer binary) {
+    record("glGetProgramBinary");
+    length[lengthOffset] = 0;
+    binaryFormat[binaryFormatOffset] = 0;
+  }
+
+  @Override
+  public String glGetProgramInfoLog(int program) {
+    record("glGetProgramInfoLog");
+    return "";
+  }
+
+  @Override
+  public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+    record("glGetProgramiv");
+    params[offset] = pname == GL_LINK_STATUS ? GL_TRUE : 0;
+  }
+
+  @Override
+  public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+    record("glGetQueryObjectuiv");
+    params[offset] = pname == GL_QUERY_RESULT_AVAILABLE ? GL_TRUE : 0;
+  }
+
+  @Override
+  public String glGetShaderInfoLog(int shader) {
+    record("glGetShaderInfoLog");
+    return "";
+  }
+
+  @Override
+  public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+    record("glGetShaderiv");
+    params[offset] = pname == GL_COMPILE_STATUS ? GL_TRUE : 0;
+  }
+
+  @Override
+  public String glGetString(int name) {
+    record("glGetString");
+    return name == GL_EXTENSIONS ? "" : "RecordingGLBackend";
+  }
+
+  @Override
+  public int glGetUniformLocation(int program, String name) {
+    record("glGetUniformLocation");
+    Integer location = uniformLocations.get(name);
+    if (location == null) {
+      location = uniformLocations.size();
+      uniformLocations.put(name, location);
+    }
+    return location;
+  }
+
+  @Override
+  public void glLinkProgram(int program) {
+    record("glLinkProgram");
+  }
+
+  @Override
+  public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+    record("glMapBufferRange");
+    bytesUploaded += length;
+    if (mappedBuffer.capacity() < length) {
+      mappedBuffer = ByteBuffer.allocateDirect(Math.max(length, 2 * mappedBuffer.capacity()));
+    }
+    mappedBuffer.clear();
+    mappedBuffer.limit(length);
+    return mappedBuffer;
+  }
+
+  @Override
+  public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+    record("glProgramBinary");
+  }
+
+  @Override
+  public void glProgramParameteri(int program, int pname, int value) {
+    record("glProgramParameteri");
+  }
+
+  @Override
+  public void glShaderSource(int shader, String string) {
+    record("glShaderSource");
+  }
+
+  @Override
+  public void glTexImage2D(
+      int target,
+      int level,
+      int internalformat,
+      int width,
+      int height,
+      int border,
+      int format,
+      int type,
+      Buffer pixels) {
+    record("glTexImage2D");
+    if (pixels != null) {
+      bytesUploaded += getByteCount(pixels);
+    }
+  }
+
+  @Override
+  public void glTexParameteri(int target, int pname, int param) {
+    record("glTexParameteri");
+  }
+
+  @Override
+  public void glUniform1fv(int location, int count, float[] v, int offset) {
+    record("glUniform1fv");
+  }
+
+  @Override
+  public void glUniform1i(int location, int x) {
+    record("glUniform1i");
+  }
+
+  @Override
+  public void glUniform1iv(int location, int count, int[] v, int offset) {
+    record("glUniform1iv");
+  }
+
+  @Override
+  public void glUniform2fv(int location, int count, float[] v, int offset) {
+    record("glUniform2fv");
+  }
+
+  @Override
+  public void glUniform3fv(int location, int count, float[] v, int offset) {
+    record("glUniform3fv");
+  }
+
+  @Override
+  public void glUniform4fv(int location, int count, float[] v, int offset) {
+    record("glUniform4fv");
+  }
+
+  @Override
+  public void glUniformMatrix2fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    record("glUniformMatrix2fv");
+  }
+
+  @Override
+  public void glUniformMatrix3fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    record("glUniformMatrix3fv");
+  }
+
+  @Override
+  public void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    record("glUniformMatrix4fv");
+  }
+
+  @Override
+  public boolean glUnmapBuffer(int target) {
+    record("glUnmapBuffer");
+    return true;
+  }
+
+  @Override
+  public void glUseProgram(int program) {
+    record("glUseProgram");
+  }
+
+  @Override
+  public void glVertexAttribDivisor(int index, int divisor) {
+    record("glVertexAttribDivisor");
+  }
+
+  @Override
+  public void glVertexAttribPointer(
+      int indx, int size, int type, boolean normalized, int stride, int offset) {
+    record("glVertexAttribPointer");
+  }
+
+  @Override
+  public void glViewport(int x, int y, int width, int height) {
+    record("glViewport");
+  }
+}
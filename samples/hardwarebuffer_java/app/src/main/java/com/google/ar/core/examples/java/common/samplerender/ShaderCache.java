@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Avoids compiling shader programs which have been compiled before.
+ *
+ * <p>Programs of {@link Shader}s created with {@link Shader#createFromAssets} are kept when the
+ * {@link Shader} is closed, and reused by the next {@link Shader} created from the same assets and
+ * defines. This makes switching back and forth between shader variants free.
+ *
+ * <p>If a cache directory was given to {@link SampleRender}, the binaries of newly linked programs
+ * are also stored there with glGetProgramBinary, and loaded with glProgramBinary instead of being
+ * compiled on the next launch.
+ */
+class ShaderCache {
+  private static final String TAG = ShaderCache.class.getSimpleName();
+
+  private static final long MAX_PROGRAM_BINARY_CACHE_SIZE_BYTES = 8 * 1024 * 1024;
+
+  private final GLBackend backend;
+  // Linked programs not in use by any Shader, by asset names and defines.
+  private final Map<String, ArrayDeque<Integer>> idlePrograms = new HashMap<>();
+  private final ProgramBinaryCache programBinaryCache;
+  private final String driver;
+
+  /** Must be called with the GL context current. */
+  ShaderCache(GLBackend backend, File programBinaryCacheDirectory) {
+    this.backend = backend;
+    if (programBinaryCacheDirectory == null) {
+      programBinaryCache = null;
+      driver = null;
+      return;
+    }
+    programBinaryCache =
+        new ProgramBinaryCache(programBinaryCacheDirectory, MAX_PROGRAM_BINARY_CACHE_SIZE_BYTES);
+    driver =
+        backend.glGetString(GLBackend.GL_VENDOR)
+            + "\n"
+            + backend.glGetString(GLBackend.GL_RENDERER)
+            + "\n"
+            + backend.glGetString(GLBackend.GL_VERSION);
+    backend.maybeLogGLError(
+        GLBackend.LOG_WARN, TAG, "Failed to query driver version", "glGetString");
+  }
+
+  /** Returns the key of a shader variant, which is the same for equal {@code defines} maps. */
+  static String getVariantKey(
+      String vertexShaderFileName, String fragmentShaderFileName, Map<String, String> defines) {
+    return vertexShaderFileName
+        + "\n"
+        + fragmentShaderFileName
+        + "\n"
+        + ProgramBinaryCache.canonicalizeDefines(defines);
+  }
+
+  /**
+   * Returns a linked program of the given variant which is not in use by any {@link Shader}, or 0
+   * if there is none.
+   */
+  int takeIdleProgram(String variantKey) {
+    ArrayDeque<Integer> programs = idlePrograms.get(variantKey);
+    if (programs == null || programs.isEmpty()) {
+      return 0;
+    }
+    return programs.removeLast();
+  }
+
+  /** Keeps a program of the given variant which is no longer in use, for later reuse. */
+  void releaseProgram(String variantKey, int programId) {
+    ArrayDeque<Integer> programs = idlePrograms.get(variantKey);
+    if (programs == null) {
+      programs = new ArrayDeque<>();
+      idlePrograms.put(variantKey, programs);
+    }
+    programs.addLast(programId);
+  }
+
+  /** Returns the key of the program binary built from the given code and defines. */
+  String getProgramBinaryKey(
+      String vertexShaderCode, String fragmentShaderCode, Map<String, String> defines) {
+    if (programBinaryCache == null) {
+      return null;
+    }
+    return ProgramBinaryCache.createKey(vertexShaderCode, fragmentShaderCode, defines, driver);
+  }
+
+  /**
+   * Creates a program from the binary stored with the given key, or returns 0 if there is none or
+   * the driver rejects it.
+   */
+  int loadProgramBinary(String programBinaryKey) {
+    if (programBinaryCache == null) {
+      return 0;
+    }
+    ProgramBinaryCache.Entry entry;
+    try {
+      entry = programBinaryCache.load(programBinaryKey);
+    } catch (IOException e) {
+      backend.log(GLBackend.LOG_WARN, TAG, "Failed to read program binary", e);
+      return 0;
+    }
+    if (entry == null) {
+      return 0;
+    }
+
+    int programId = backend.glCreateProgram();
+    backend.maybeThrowGLException("Shader program creation failed", "glCreateProgram");
+    backend.glProgramBinary(programId, entry.format, entry.binary, entry.binary.remaining());
+    backend.maybeLogGLError(
+        GLBackend.LOG_WARN, TAG, "Failed to load program binary", "glProgramBinary");
+    final int[] linkStatus = new int[1];
+    backend.glGetProgramiv(programId, GLBackend.GL_LINK_STATUS, linkStatus, 0);
+    if (linkStatus[0] == GLBackend.GL_FALSE) {
+      // The driver may reject binaries, e.g. after it has been updated.
+      backend.log(
+          GLBackend.LOG_INFO, TAG, "Program binary was rejected, compiling from source instead");
+      backend.glDeleteProgram(programId);
+      programBinaryCache.remove(programBinaryKey);
+      return 0;
+    }
+    return programId;
+  }
+
+  /**
+   * Stores the binary of the given linked program with the given key. The program must have been
+   * linked with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set.
+   */
+  void storeProgramBinary(String programBinaryKey, int programId) {
+    if (programBinaryCache == null) {
+      return;
+    }
+    final int[] binaryLength = new int[1];
+    backend.glGetProgramiv(programId, GLBackend.GL_PROGRAM_BINARY_LENGTH, binaryLength, 0);
+    if (binaryLength[0] == 0) {
+      // The driver does not support program binaries.
+      return;
+    }
+    ByteBuffer binary = ByteBuffer.allocateDirect(binaryLength[0]);
+    final int[] length = new int[1];
+    final int[] format = new int[1];
+    backend.glGetProgramBinary(programId, binaryLength[0], length, 0, format, 0, binary);
+    backend.maybeLogGLError(
+        GLBackend.LOG_WARN, TAG, "Failed to retrieve program binary", "glGetProgramBinary");
+    if (length[0] == 0) {
+      return;
+    }
+    binary.limit(length[0]);
+    try {
+      programBinaryCache.store(programBinaryKey, format[0], binary);
+    } catch (IOException e) {
+      backend.log(GLBackend.LOG_WARN, TAG, "Failed to write program binary", e);
+    }
+  }
+
+  /** Whether programs should be linked with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set. */
+  boolean isStoringProgramBinaries() {
+    return programBinaryCache != null;
+  }
+}
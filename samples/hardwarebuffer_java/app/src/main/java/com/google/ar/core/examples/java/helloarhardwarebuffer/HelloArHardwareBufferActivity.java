@@ -76,6 +76,7 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -192,7 +193,8 @@ public class HelloArHardwareBufferActivity extends AppCompatActivity
     surfaceView.setOnTouchListener(tapHelper);
 
     // Set up renderer.
-    render = new SampleRender(surfaceView, this, getAssets());
+    render =
+        new SampleRender(surfaceView, this, getAssets(), new File(getCacheDir(), "shaders"));
 
     installRequested = false;
 
@@ -409,25 +411,25 @@ public class HelloArHardwareBufferActivity extends AppCompatActivity
 
       // Virtual object to render (ARCore pawn)
       virtualObjectAlbedoTexture =
-          Texture.createFromAsset(
+          Texture.createFromAssetAsync(
               render,
               "models/pawn_albedo.png",
               Texture.WrapMode.CLAMP_TO_EDGE,
               Texture.ColorFormat.SRGB);
       virtualObjectAlbedoInstantPlacementTexture =
-          Texture.createFromAsset(
+          Texture.createFromAssetAsync(
               render,
               "models/pawn_albedo_instant_placement.png",
               Texture.WrapMode.CLAMP_TO_EDGE,
               Texture.ColorFormat.SRGB);
       Texture virtualObjectPbrTexture =
-          Texture.createFromAsset(
+          Texture.createFromAssetAsync(
               render,
               "models/pawn_roughness_metallic_ao.png",
               Texture.WrapMode.CLAMP_TO_EDGE,
               Texture.ColorFormat.LINEAR);
 
-      virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.obj");
+      virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.mesh");
       virtualObjectShader =
           Shader.createFromAssets(
                   render,
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+
+/**
+ * Shadows the OpenGL state changed by {@link SampleRender} draws, so that state changes which
+ * would not change anything can be skipped.
+ *
+ * <p>All state changes made through {@link SampleRender}, {@link Shader} and {@link Framebuffer}
+ * go through the {@link GLStateCache} of the {@link SampleRender} they were created with. Code
+ * which changes the same state with OpenGL directly must either use the methods of this class to
+ * do so, or call {@link #invalidate} afterwards.
+ *
+ * <p>The number of state changes issued and skipped are counted per frame; the counters are reset
+ * by {@link SampleRender} before each call to {@link SampleRender.Renderer#onDrawFrame}.
+ */
+public class GLStateCache {
+  private static final int UNKNOWN = -1;
+
+  private final GLBackend backend;
+  private int program;
+  private int framebuffer;
+  private int viewportWidth;
+  private int viewportHeight;
+  private int depthTest;
+  private int depthMask;
+  private int cullFace;
+  private int sourceRgbBlend;
+  private int destRgbBlend;
+  private int sourceAlphaBlend;
+  private int destAlphaBlend;
+
+  private int issuedStateChanges;
+  private int skippedStateChanges;
+
+  /* package-private */
+  GLStateCache(GLBackend backend) {
+    this.backend = backend;
+    invalidate();
+  }
+
+  /**
+   * Forgets all shadowed state, so that the next change of each state is issued unconditionally.
+   *
+   * <p>This must be called whenever the tracked state was changed without going through this
+   * class, and is called automatically when the GL context is (re-)created.
+   */
+  public void invalidate() {
+    program = UNKNOWN;
+    framebuffer = UNKNOWN;
+    viewportWidth = UNKNOWN;
+    viewportHeight = UNKNOWN;
+    depthTest = UNKNOWN;
+    depthMask = UNKNOWN;
+    cullFace = UNKNOWN;
+    sourceRgbBlend = UNKNOWN;
+    destRgbBlend = UNKNOWN;
+    sourceAlphaBlend = UNKNOWN;
+    destAlphaBlend = UNKNOWN;
+  }
+
+  /** Returns the number of state changes issued to OpenGL during the current frame. */
+  public int getIssuedStateChanges() {
+    return issuedStateChanges;
+  }
+
+  /** Returns the number of redundant state changes skipped during the current frame. */
+  public int getSkippedStateChanges() {
+    return skippedStateChanges;
+  }
+
+  /**
+   * Binds the given shader program. Don't call this directly unless you are doing low level OpenGL
+   * code.
+   *
+   * @see <a
+   *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glUseProgram.xhtml">glUseProgram</a>
+   */
+  public void useProgram(int programId) {
+    if (program == programId) {
+      ++skippedStateChanges;
+      return;
+    }
+    backend.glUseProgram(programId);
+    backend.maybeThrowGLException("Failed to use shader program", "glUseProgram");
+    program = programId;
+    ++issuedStateChanges;
+  }
+
+  /**
+   * Binds the given framebuffer and sets the viewport to cover it. Don't call this directly unless
+   * you are doing low level OpenGL code.
+   *
+   * @see <a
+   *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glBindFramebuffer.xhtml">glBindFramebuffer</a>
+   */
+  public void bindFramebuffer(int framebufferId, int width, int height) {
+    bindFramebuffer(framebufferId);
+    if (viewportWidth == width && viewportHeight == height) {
+      ++skippedStateChanges;
+      return;
+    }
+    backend.glViewport(0, 0, width, height);
+    backend.maybeThrowGLException("Failed to set viewport dimensions", "glViewport");
+    viewportWidth = width;
+    viewportHeight = height;
+    ++issuedStateChanges;
+  }
+
+  /**
+   * Binds the given framebuffer without changing the viewport. Don't call this directly unless you
+   * are doing low level OpenGL code.
+   */
+  public void bindFramebuffer(int framebufferId) {
+    if (framebuffer == framebufferId) {
+      ++skippedStateChanges;
+      return;
+    }
+    backend.glBindFramebuffer(GLBackend.GL_FRAMEBUFFER, framebufferId);
+    backend.maybeThrowGLException("Failed to bind framebuffer", "glBindFramebuffer");
+    framebuffer = framebufferId;
+    ++issuedStateChanges;
+  }
+
+  /** Sets depth test state. Don't call this directly unless you are doing low level OpenGL code. */
+  public void setDepthTest(boolean enabled) {
+    depthTest = setCapability(GLBackend.GL_DEPTH_TEST, depthTest, enabled);
+  }
+
+  /** Sets cull face state. Don't call this directly unless you are doing low level OpenGL code. */
+  public void setCullFace(boolean enabled) {
+    cullFace = setCapability(GLBackend.GL_CULL_FACE, cullFace, enabled);
+  }
+
+  /**
+   * Sets depth write state. Don't call this directly unless you are doing low level OpenGL code.
+   */
+  public void setDepthMask(boolean depthWrite) {
+    int value = depthWrite ? 1 : 0;
+    if (depthMask == value) {
+      ++skippedStateChanges;
+      return;
+    }
+    backend.glDepthMask(depthWrite);
+    backend.maybeThrowGLException("Failed to set depth write mask", "glDepthMask");
+    depthMask = value;
+    ++issuedStateChanges;
+  }
+
+  /**
+   * Sets the blending functions for the RGB and alpha channels. Don't call this directly unless you
+   * are doing low level OpenGL code.
+   */
+  public void setBlendFunc(
+      int sourceRgbBlend, int destRgbBlend, int sourceAlphaBlend, int destAlphaBlend) {
+    if (this.sourceRgbBlend == sourceRgbBlend
+        && this.destRgbBlend == destRgbBlend
+        && this.sourceAlphaBlend == sourceAlphaBlend
+        && this.destAlphaBlend == destAlphaBlend) {
+      ++skippedStateChanges;
+      return;
+    }
+    backend.glBlendFuncSeparate(sourceRgbBlend, destRgbBlend, sourceAlphaBlend, destAlphaBlend);
+    backend.maybeThrowGLException("Failed to set blend mode", "glBlendFuncSeparate");
+    this.sourceRgbBlend = sourceRgbBlend;
+    this.destRgbBlend = destRgbBlend;
+    this.sourceAlphaBlend = sourceAlphaBlend;
+    this.destAlphaBlend = destAlphaBlend;
+    ++issuedStateChanges;
+  }
+
+  /* package-private */
+  void onProgramDeleted(int programId) {
+    // A new program may be given the same name, so it must not be considered bound anymore.
+    if (program == programId) {
+      program = UNKNOWN;
+    }
+  }
+
+  /**
+   * Notifies the cache that the given framebuffer was deleted. Don't call this directly unless you
+   * are doing low level OpenGL code.
+   */
+  public void onFramebufferDeleted(int framebufferId) {
+    // Deleting the bound framebuffer reverts the binding to the default framebuffer.
+    if (framebuffer == framebufferId) {
+      framebuffer = 0;
+    }
+  }
+
+  /* package-private */
+  void resetCounters() {
+    issuedStateChanges = 0;
+    skippedStateChanges = 0;
+  }
+
+  private int setCapability(int capability, int current, boolean enabled) {
+    int value = enabled ? 1 : 0;
+    if (current == value) {
+      ++skippedStateChanges;
+      return current;
+    }
+    if (enabled) {
+      backend.glEnable(capability);
+      backend.maybeThrowGLException("Failed to enable capability", "glEnable");
+    } else {
+      backend.glDisable(capability);
+      backend.maybeThrowGLException("Failed to disable capability", "glDisable");
+    }
+    ++issuedStateChanges;
+    return value;
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A large GPU-side buffer used as a ring to stream data which changes every frame.
+ *
+ * <p>Data is written to ranges of the buffer which the GPU is known to be done with, so uploading
+ * never waits for draws of previous frames to complete. Each frame's ranges are guarded by a <a
+ * href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glFenceSync.xhtml">fence</a>,
+ * and are only reused once the fence has been signaled. If the GPU is too far behind for the data
+ * to fit, the buffer is grown instead of waiting.
+ *
+ * <p>Data written to a {@link StreamingBuffer} is only valid until the end of the frame it was
+ * written in. Use {@link VertexBuffer#createStreaming} and {@link IndexBuffer#createStreaming} to
+ * create buffers backed by the {@link StreamingBuffer} of a {@link SampleRender}.
+ */
+class StreamingBuffer {
+  private static final String TAG = StreamingBuffer.class.getSimpleName();
+
+  private static final int INITIAL_CAPACITY = 256 * 1024;
+  // Offsets are aligned so that any vertex attribute or index type may start at them.
+  private static final int ALIGNMENT = 16;
+
+  private static class PendingFrame {
+    final long fence;
+    final int start;
+
+    PendingFrame(long fence, int start) {
+      this.fence = fence;
+      this.start = start;
+    }
+  }
+
+  private final GLBackend backend;
+  private final int[] bufferId = {0};
+  private final ArrayDeque<PendingFrame> pendingFrames = new ArrayDeque<>();
+  private int capacity;
+  private int head;
+  private int frameStart;
+  private long frameNumber;
+
+  /* package-private */
+  StreamingBuffer(GLBackend backend) {
+    this.backend = backend;
+    capacity = INITIAL_CAPACITY;
+    bufferId[0] = createBuffer(capacity);
+  }
+
+  /* package-private */
+  int getBufferId() {
+    return bufferId[0];
+  }
+
+  /* package-private */
+  long getFrameNumber() {
+    return frameNumber;
+  }
+
+  /**
+   * Copies the contents of the <i>direct</i> buffer {@code entries} to a free range of the GPU
+   * buffer, starting from the beginning of {@code entries}, and returns the byte offset of the
+   * range.
+   */
+  /* package-private */
+  int allocate(Buffer entries, int numberOfBytesPerEntry) {
+    int size = entries.limit() * numberOfBytesPerEntry;
+    retireCompletedFrames();
+
+    int offset = align(head);
+    boolean inFlight = !pendingFrames.isEmpty() || frameStart != head;
+    int tail = pendingFrames.isEmpty() ? frameStart : pendingFrames.peekFirst().start;
+    if (!inFlight) {
+      if (offset + size > capacity) {
+        offset = 0;
+      }
+    } else if (head >= tail) {
+      // The data in flight is [tail, head); the free range wraps around the end of the buffer.
+      if (offset + size > capacity) {
+        offset = 0;
+      }
+      if (offset == 0 && size >= tail) {
+        offset = grow(size);
+      }
+    } else if (offset + size >= tail) {
+      // The data in flight is [tail, capacity) and [0, head); the free range is [head, tail).
+      offset = grow(size);
+    }
+    if (offset + size > capacity) {
+      offset = grow(size);
+    }
+
+    write(offset, entries, size);
+    head = offset + size;
+    return offset;
+  }
+
+  /**
+   * Marks the end of a frame. Data written during the frame is kept until the GPU has finished
+   * executing the commands issued before this call.
+   */
+  /* package-private */
+  void onFrameEnd() {
+    if (frameStart != head) {
+      long fence = backend.glFenceSync(GLBackend.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+      backend.maybeThrowGLException("Failed to create fence", "glFenceSync");
+      pendingFrames.addLast(new PendingFrame(fence, frameStart));
+      frameStart = head;
+    }
+    ++frameNumber;
+  }
+
+  /* package-private */
+  void free() {
+    deletePendingFrames();
+    if (bufferId[0] != 0) {
+      backend.glDeleteBuffers(1, bufferId, 0);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to free buffer object", "glDeleteBuffers");
+      bufferId[0] = 0;
+    }
+  }
+
+  private void retireCompletedFrames() {
+    while (!pendingFrames.isEmpty()) {
+      PendingFrame frame = pendingFrames.peekFirst();
+      int status = backend.glClientWaitSync(frame.fence, /*flags=*/ 0, /*timeout=*/ 0);
+      backend.maybeThrowGLException("Failed to query fence", "glClientWaitSync");
+      if (status != GLBackend.GL_ALREADY_SIGNALED && status != GLBackend.GL_CONDITION_SATISFIED) {
+        return;
+      }
+      backend.glDeleteSync(frame.fence);
+      backend.maybeLogGLError(GLBackend.LOG_WARN, TAG, "Failed to delete fence", "glDeleteSync");
+      pendingFrames.removeFirst();
+    }
+  }
+
+  /**
+   * Replaces the GPU buffer with a larger one that can hold {@code size} more bytes, and returns
+   * the offset at which they can be written.
+   *
+   * <p>The contents written during the current frame are copied over at the same offsets, since
+   * they may not have been drawn yet. The new buffer is not in use by any previous frame, so all of
+   * it except for the copied contents is free.
+   */
+  private int grow(int size) {
+    int newCapacity = Math.max(2 * capacity, capacity + size + ALIGNMENT);
+    backend.log(GLBackend.LOG_INFO, TAG, "Growing streaming buffer to " + newCapacity + " bytes");
+    int newBufferId = createBuffer(newCapacity);
+    if (frameStart != head) {
+      backend.glBindBuffer(GLBackend.GL_COPY_READ_BUFFER, bufferId[0]);
+      backend.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+      backend.glCopyBufferSubData(
+          GLBackend.GL_COPY_READ_BUFFER, GLBackend.GL_COPY_WRITE_BUFFER, 0, 0, capacity);
+      backend.maybeThrowGLException("Failed to copy buffer object", "glCopyBufferSubData");
+    }
+    free();
+    bufferId[0] = newBufferId;
+
+    // Conservatively consider all of the old contents to be in use by the current frame.
+    int offset = align(capacity);
+    capacity = newCapacity;
+    frameStart = 0;
+    head = offset;
+    return offset;
+  }
+
+  private void write(int offset, Buffer entries, int size) {
+    backend.glBindBuffer(GLBackend.GL_COPY_WRITE_BUFFER, bufferId[0]);
+    backend.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+    // The range is not in use by the GPU, so there is no need for the driver to synchronize.
+    ByteBuffer range =
+        (ByteBuffer)
+            backend.glMapBufferRange(
+                GLBackend.GL_COPY_WRITE_BUFFER,
+                offset,
+                size,
+                GLBackend.GL_MAP_WRITE_BIT
+                    | GLBackend.GL_MAP_INVALIDATE_RANGE_BIT
+                    | GLBackend.GL_MAP_UNSYNCHRONIZED_BIT);
+    backend.maybeThrowGLException("Failed to map buffer object", "glMapBufferRange");
+    range.order(ByteOrder.nativeOrder());
+    entries.rewind();
+    if (entries instanceof FloatBuffer) {
+      range.asFloatBuffer().put((FloatBuffer) entries);
+    } else if (entries instanceof IntBuffer) {
+      range.asIntBuffer().put((IntBuffer) entries);
+    } else {
+      range.put((ByteBuffer) entries);
+    }
+    if (!backend.glUnmapBuffer(GLBackend.GL_COPY_WRITE_BUFFER)) {
+      backend.log(GLBackend.LOG_WARN, TAG, "Streaming buffer contents were lost while mapped");
+    }
+    backend.maybeThrowGLException("Failed to unmap buffer object", "glUnmapBuffer");
+  }
+
+  private void deletePendingFrames() {
+    for (PendingFrame frame : pendingFrames) {
+      backend.glDeleteSync(frame.fence);
+      backend.maybeLogGLError(GLBackend.LOG_WARN, TAG, "Failed to delete fence", "glDeleteSync");
+    }
+    pendingFrames.clear();
+  }
+
+  /** Creates a buffer object of the given size, leaving it bound to GL_COPY_WRITE_BUFFER. */
+  private int createBuffer(int capacity) {
+    int[] id = {0};
+    backend.glGenBuffers(1, id, 0);
+    backend.maybeThrowGLException("Failed to generate buffers", "glGenBuffers");
+    backend.glBindBuffer(GLBackend.GL_COPY_WRITE_BUFFER, id[0]);
+    backend.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+    backend.glBufferData(GLBackend.GL_COPY_WRITE_BUFFER, capacity, null, GLBackend.GL_STREAM_DRAW);
+    backend.maybeThrowGLException("Failed to allocate buffer object", "glBufferData");
+    return id[0];
+  }
+
+  private static int align(int offset) {
+    return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+}
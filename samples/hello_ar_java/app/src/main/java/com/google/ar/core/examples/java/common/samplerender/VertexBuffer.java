@@ -15,7 +15,6 @@
  */
 package com.google.ar.core.examples.java.common.samplerender;
 
-import android.opengl.GLES30;
 import java.io.Closeable;
 import java.nio.FloatBuffer;
 
@@ -54,7 +53,32 @@ public class VertexBuffer implements Closeable {
     }
 
     this.numberOfEntriesPerVertex = numberOfEntriesPerVertex;
-    buffer = new GpuBuffer(GLES30.GL_ARRAY_BUFFER, GpuBuffer.FLOAT_SIZE, entries);
+    buffer =
+        new GpuBuffer(
+            render.getBackend(), GLBackend.GL_ARRAY_BUFFER, GpuBuffer.FLOAT_SIZE, entries);
+  }
+
+  private VertexBuffer(int numberOfEntriesPerVertex, GpuBuffer buffer) {
+    this.numberOfEntriesPerVertex = numberOfEntriesPerVertex;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Construct an empty {@link VertexBuffer} for data which changes every frame.
+   *
+   * <p>The data is written to the {@link StreamingBuffer} of the {@link SampleRender}, so that
+   * {@link #set} does not need to wait for the GPU to finish drawing with previous data. Data set
+   * this way is only valid for the current frame, so {@link #set} must be called again every frame
+   * before drawing.
+   */
+  public static VertexBuffer createStreaming(SampleRender render, int numberOfEntriesPerVertex) {
+    return new VertexBuffer(
+        numberOfEntriesPerVertex,
+        new GpuBuffer(
+            render.getBackend(),
+            GLBackend.GL_ARRAY_BUFFER,
+            GpuBuffer.FLOAT_SIZE,
+            render.getStreamingBuffer()));
   }
 
   /**
@@ -79,6 +103,23 @@ public class VertexBuffer implements Closeable {
     buffer.set(entries);
   }
 
+  /**
+   * Replaces part of the data, starting at vertex {@code firstVertex}, with the contents of the
+   * <i>direct</i> buffer {@code entries} from its position to its limit. The number of vertices in
+   * the buffer does not change, and the range must lie within it.
+   *
+   * <p>Unlike {@link #set}, this only uploads the given data, so a large buffer of which little
+   * changes at a time can be kept up to date cheaply. Buffers created with {@link
+   * #createStreaming} do not support this.
+   */
+  public void setRange(int firstVertex, FloatBuffer entries) {
+    if (entries.remaining() % numberOfEntriesPerVertex != 0) {
+      throw new IllegalArgumentException(
+          "Vertex buffer data must be divisible by the number of data points per vertex");
+    }
+    buffer.setRange(firstVertex * numberOfEntriesPerVertex, entries);
+  }
+
   @Override
   public void close() {
     buffer.free();
@@ -89,6 +130,11 @@ public class VertexBuffer implements Closeable {
     return buffer.getBufferId();
   }
 
+  /* package-private */
+  int getOffset() {
+    return buffer.getOffset();
+  }
+
   /* package-private */
   int getNumberOfEntriesPerVertex() {
     return numberOfEntriesPerVertex;
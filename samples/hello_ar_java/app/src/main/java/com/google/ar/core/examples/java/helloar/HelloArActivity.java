@@ -55,15 +55,21 @@ import com.google.ar.core.examples.java.common.helpers.SineEnvelope;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TapHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
+import com.google.ar.core.examples.java.common.samplerender.ChromeTraceWriter;
+import com.google.ar.core.examples.java.common.samplerender.DynamicResolutionController;
 import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
+import com.google.ar.core.examples.java.common.samplerender.FrustumCuller;
 import com.google.ar.core.examples.java.common.samplerender.GLError;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
+import com.google.ar.core.examples.java.common.samplerender.RenderPassTimer;
+import com.google.ar.core.examples.java.common.samplerender.RenderTargetPool;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
 import com.google.ar.core.examples.java.common.samplerender.arcore.BackgroundRenderer;
 import com.google.ar.core.examples.java.common.samplerender.arcore.PlaneRenderer;
+import com.google.ar.core.examples.java.common.samplerender.arcore.PointMap;
 import com.google.ar.core.examples.java.common.samplerender.arcore.SpecularCubemapFilter;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
@@ -79,9 +85,12 @@ import com.jsyn.unitgen.EnvelopeDAHDSR;
 import com.jsyn.unitgen.LineOut;
 import com.softsynth.math.AudioMath;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -115,6 +124,14 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
   private static final float Z_NEAR = 0.1f;
   private static final float Z_FAR = 100f;
 
+  // Points closer together than this are merged in the point map, which holds at most as many
+  // points as given.
+  private static final float POINT_MAP_VOXEL_SIZE = 0.02f;
+  private static final int POINT_MAP_MAX_POINTS = 65536;
+
+  // The frame rate the virtual scene resolution is scaled to keep, that of the camera.
+  private static final float TARGET_FRAMES_PER_SECOND = 30f;
+
   private static final int CUBEMAP_RESOLUTION = 16;
   private static final int CUBEMAP_NUMBER_OF_IMPORTANCE_SAMPLES = 32;
 
@@ -134,27 +151,41 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
   private PlaneRenderer planeRenderer;
   private BackgroundRenderer backgroundRenderer;
-  private Framebuffer virtualSceneFramebuffer;
+  // The virtual scene is rendered to a target from the render target pool at a resolution scaled
+  // to keep the target frame rate, and upsampled when composed with the background.
+  private final DynamicResolutionController virtualSceneResolution =
+      new DynamicResolutionController(TARGET_FRAMES_PER_SECOND);
+  private int viewportWidth = 1;
+  private int viewportHeight = 1;
   private boolean hasSetTextureNames = false;
 
   private final DepthSettings depthSettings = new DepthSettings();
   private boolean[] depthSettingsMenuDialogCheckboxes = new boolean[2];
 
   // Point Cloud
-  private VertexBuffer pointCloudVertexBuffer;
-  private Mesh pointCloudMesh;
+  private PointMap pointMap;
   private Shader pointCloudShader;
-  // Keep track of the last point cloud rendered to avoid updating the VBO if point cloud
-  // was not changed.  Do this using the timestamp since we can't compare PointCloud objects.
-  private long lastPointCloudTimestamp = 0;
+  private Shader.FloatUniform pointCloudModelViewProjectionUniform;
 
   // Virtual object (ARCore pawn)
   private Mesh virtualObjectMesh;
   private Shader virtualObjectShader;
   private Texture virtualObjectAlbedoTexture;
+  private Shader.FloatUniform virtualObjectViewUniform;
+  private Shader.FloatUniform virtualObjectProjectionUniform;
+  // Model matrices of the anchors to draw, uploaded once per frame so that all anchors can be drawn
+  // with a single instanced draw call.
+  private VertexBuffer virtualObjectInstanceBuffer;
+  private FloatBuffer virtualObjectModelMatrices =
+      ByteBuffer.allocateDirect(2 * 16 * Float.BYTES)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
 
   private final List<WrappedAnchor> wrappedAnchors = new ArrayList<>();
 
+  // Skips planes and anchors which are off-screen.
+  private final FrustumCuller frustumCuller = new FrustumCuller();
+
   // Environmental HDR
   private Texture dfgTexture;
   private SpecularCubemapFilter cubemapFilter;
@@ -163,7 +194,6 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
   private final float[] modelMatrix = new float[16];
   private final float[] viewMatrix = new float[16];
   private final float[] projectionMatrix = new float[16];
-  private final float[] modelViewMatrix = new float[16]; // view x model
   private final float[] modelViewProjectionMatrix = new float[16]; // projection x view x model
   private final float[] sphericalHarmonicsCoefficients = new float[9 * 3];
   private final float[] viewInverseMatrix = new float[16];
@@ -206,7 +236,8 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     });
 
     // Set up renderer.
-    render = new SampleRender(surfaceView, this, getAssets());
+    render =
+        new SampleRender(surfaceView, this, getAssets(), new File(getCacheDir(), "shaders"));
 
     installRequested = false;
 
@@ -334,6 +365,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
       surfaceView.onPause();
       session.pause();
     }
+    exportRenderTrace();
     if (synth != null) {
       synth.stop();
       synth = null;
@@ -346,6 +378,23 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     }
   }
 
+  /**
+   * Writes the render pass timings of the last few seconds to {@code render_trace.json} in the
+   * app's external files directory, from where it can be pulled with adb and opened in Perfetto.
+   */
+  private void exportRenderTrace() {
+    File directory = getExternalFilesDir(/*type=*/ null);
+    if (render == null || directory == null) {
+      return;
+    }
+    File file = new File(directory, "render_trace.json");
+    try {
+      ChromeTraceWriter.writeToFile(render.getRenderSpans().snapshot(), file);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write render trace to " + file, e);
+    }
+  }
+
   @Override
   public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] results) {
     super.onRequestPermissionsResult(requestCode, permissions, results);
@@ -374,7 +423,6 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     try {
       planeRenderer = new PlaneRenderer(render);
       backgroundRenderer = new BackgroundRenderer(render);
-      virtualSceneFramebuffer = new Framebuffer(render, /* width= */ 1, /* height= */ 1);
 
       cubemapFilter =
           new SpecularCubemapFilter(
@@ -421,29 +469,30 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
               .setVec4(
                   "u_Color", new float[] {31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f})
               .setFloat("u_PointSize", 5.0f);
-      // four entries per vertex: X, Y, Z, confidence
-      pointCloudVertexBuffer =
-          new VertexBuffer(render, /* numberOfEntriesPerVertex= */ 4, /* entries= */ null);
-      final VertexBuffer[] pointCloudVertexBuffers = {pointCloudVertexBuffer};
-      pointCloudMesh =
-          new Mesh(
-              render, Mesh.PrimitiveMode.POINTS, /* indexBuffer= */ null, pointCloudVertexBuffers);
+      pointCloudModelViewProjectionUniform =
+          pointCloudShader.getMat4Uniform("u_ModelViewProjection");
+      // The points of all frames are accumulated, and only those which changed are uploaded.
+      pointMap = new PointMap(render, POINT_MAP_VOXEL_SIZE, POINT_MAP_MAX_POINTS);
 
       // Virtual object to render (ARCore pawn)
       virtualObjectAlbedoTexture =
-          Texture.createFromAsset(
+          Texture.createFromAssetAsync(
               render,
               "models/pawn_albedo.png",
               Texture.WrapMode.CLAMP_TO_EDGE,
               Texture.ColorFormat.SRGB);
       Texture virtualObjectPbrTexture =
-          Texture.createFromAsset(
+          Texture.createFromAssetAsync(
               render,
               "models/pawn_roughness_metallic_ao.png",
               Texture.WrapMode.CLAMP_TO_EDGE,
               Texture.ColorFormat.LINEAR);
 
-      virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.obj");
+      virtualObjectInstanceBuffer =
+          new VertexBuffer(render, /* numberOfEntriesPerVertex= */ 16, /* entries= */ null);
+      virtualObjectMesh =
+          Mesh.createFromAsset(
+              render, "models/pawn.mesh", new VertexBuffer[] {virtualObjectInstanceBuffer});
       virtualObjectShader =
           Shader.createFromAssets(
                   render,
@@ -454,12 +503,15 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                       put(
                           "NUMBER_OF_MIPMAP_LEVELS",
                           Integer.toString(cubemapFilter.getNumberOfMipmapLevels()));
+                      put("USE_INSTANCING", "1");
                     }
                   })
               .setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture)
               .setTexture("u_RoughnessMetallicAmbientOcclusionTexture", virtualObjectPbrTexture)
               .setTexture("u_Cubemap", cubemapFilter.getFilteredCubemapTexture())
               .setTexture("u_DfgTexture", dfgTexture);
+      virtualObjectViewUniform = virtualObjectShader.getMat4Uniform("u_View");
+      virtualObjectProjectionUniform = virtualObjectShader.getMat4Uniform("u_Projection");
     } catch (IOException e) {
       Log.e(TAG, "Failed to read a required asset file", e);
       messageSnackbarHelper.showError(this, "Failed to read a required asset file: " + e);
@@ -469,7 +521,8 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
   @Override
   public void onSurfaceChanged(SampleRender render, int width, int height) {
     displayRotationHelper.onSurfaceChanged(width, height);
-    virtualSceneFramebuffer.resize(width, height);
+    viewportWidth = width;
+    viewportHeight = height;
   }
 
   @Override
@@ -477,6 +530,8 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     if (session == null) {
       return;
     }
+    RenderPassTimer passTimer = render.getRenderPassTimer();
+    virtualSceneResolution.onFrameStart();
 
     // Texture names should only be set once on a GL thread unless they change. This is done during
     // onDrawFrame rather than onSurfaceCreated since the session is not guaranteed to have been
@@ -574,7 +629,9 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     if (frame.getTimestamp() != 0) {
       // Suppress rendering if the camera did not produce the first frame yet. This is to avoid
       // drawing possible leftover data from previous sessions if the texture is reused.
+      passTimer.beginPass("background");
       backgroundRenderer.drawBackground(render);
+      passTimer.endPass();
     }
 
     // If not tracking, don't draw 3D objects.
@@ -589,25 +646,28 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
     // Get camera matrix and draw.
     camera.getViewMatrix(viewMatrix, 0);
+    frustumCuller.update(viewMatrix, projectionMatrix);
 
     // Visualize tracked points.
     // Use try-with-resources to automatically release the point cloud.
+    passTimer.beginPass("point cloud");
     try (PointCloud pointCloud = frame.acquirePointCloud()) {
-      if (pointCloud.getTimestamp() > lastPointCloudTimestamp) {
-        pointCloudVertexBuffer.set(pointCloud.getPoints());
-        lastPointCloudTimestamp = pointCloud.getTimestamp();
-      }
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
-      pointCloudShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
-      render.draw(pointCloudMesh, pointCloudShader);
+      pointMap.update(pointCloud);
     }
+    Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+    pointCloudModelViewProjectionUniform.set(modelViewProjectionMatrix);
+    pointMap.draw(render, pointCloudShader);
+    passTimer.endPass();
 
     // Visualize planes.
+    passTimer.beginPass("planes");
     planeRenderer.drawPlanes(
         render,
         session.getAllTrackables(Plane.class),
         camera.getDisplayOrientedPose(),
-        projectionMatrix);
+        projectionMatrix,
+        frustumCuller);
+    passTimer.endPass();
 
     // -- Draw occluded virtual objects
 
@@ -615,10 +675,17 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     updateLightEstimation(frame.getLightEstimate(), viewMatrix);
 
     // Visualize anchors created by touch.
+    passTimer.beginPass("virtual scene");
+    RenderTargetPool renderTargetPool = render.getRenderTargetPool();
+    Framebuffer virtualSceneFramebuffer =
+        renderTargetPool.acquire(
+            virtualSceneResolution.getScaledSize(viewportWidth),
+            virtualSceneResolution.getScaledSize(viewportHeight));
     render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f);
+    virtualObjectModelMatrices.clear();
+    int instanceCount = 0;
     for (WrappedAnchor wrappedAnchor : wrappedAnchors) {
       Anchor anchor = wrappedAnchor.getAnchor();
-      Trackable trackable = wrappedAnchor.getTrackable();
       if (anchor.getTrackingState() != TrackingState.TRACKING) {
         continue;
       }
@@ -626,21 +693,45 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
       // Get the current pose of an Anchor in world space. The Anchor pose is updated
       // during calls to session.update() as ARCore refines its estimate of the world.
       anchor.getPose().toMatrix(modelMatrix, 0);
-
-      // Calculate model/view/projection matrices
-      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
-
-      // Update shader properties and draw
-      virtualObjectShader.setMat4("u_ModelView", modelViewMatrix);
-      virtualObjectShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
-      virtualObjectShader.setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture);
-
-      render.draw(virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer);
+      if (!frustumCuller.isVisible(virtualObjectMesh, modelMatrix)) {
+        continue;
+      }
+      if (virtualObjectModelMatrices.remaining() < 16) {
+        virtualObjectModelMatrices = growFloatBuffer(virtualObjectModelMatrices);
+      }
+      virtualObjectModelMatrices.put(modelMatrix);
+      ++instanceCount;
+    }
+    virtualObjectModelMatrices.flip();
+
+    // Update shader properties and draw all anchors at once. The view and projection matrices are
+    // shared by all anchors, the model matrices are read from the instance buffer, and the albedo
+    // texture never changes, so it is only set once when the shader is created.
+    if (instanceCount > 0) {
+      virtualObjectInstanceBuffer.set(virtualObjectModelMatrices);
+      virtualObjectViewUniform.set(viewMatrix);
+      virtualObjectProjectionUniform.set(projectionMatrix);
+      render.drawInstanced(
+          virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer, instanceCount);
     }
+    passTimer.endPass();
 
     // Compose the virtual scene with the background.
+    passTimer.beginPass("composition");
     backgroundRenderer.drawVirtualScene(render, virtualSceneFramebuffer, Z_NEAR, Z_FAR);
+    renderTargetPool.release(virtualSceneFramebuffer);
+    passTimer.endPass();
+  }
+
+  /** Returns a direct buffer with twice the capacity of the given one and the same contents. */
+  private static FloatBuffer growFloatBuffer(FloatBuffer buffer) {
+    FloatBuffer grown =
+        ByteBuffer.allocateDirect(2 * buffer.capacity() * Float.BYTES)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    buffer.flip();
+    grown.put(buffer);
+    return grown;
   }
 
   private float[] getOffsetsForCurrentCameraPose(Camera camera) {
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChromeTraceWriterTest {
+  private static final String TRACK_NAMES =
+      "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,"
+          + "\"args\":{\"name\":\"CPU\"}},\n"
+          + "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":2,"
+          + "\"args\":{\"name\":\"GPU\"}}";
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void write_noSpans_writesTrackNamesOnly() throws IOException {
+    assertEquals(
+        "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n" + TRACK_NAMES + "\n]}\n",
+        write(Collections.emptyList()));
+  }
+
+  @Test
+  public void write_placesGpuSpanAtStartOfCpuSpan() throws IOException {
+    RenderSpan span =
+        new RenderSpan(
+            "background",
+            /* frameNumber= */ 3,
+            /* cpuStartNanos= */ 1_500_000,
+            /* cpuDurationNanos= */ 250_000,
+            /* gpuDurationNanos= */ 120_500);
+
+    assertEquals(
+        "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"
+            + TRACK_NAMES
+            + ",\n"
+            + "{\"name\":\"background\",\"cat\":\"cpu\",\"ph\":\"X\",\"ts\":1500.000,"
+            + "\"dur\":250.000,\"pid\":1,\"tid\":1,\"args\":{\"frame\":3}},\n"
+            + "{\"name\":\"background\",\"cat\":\"gpu\",\"ph\":\"X\",\"ts\":1500.000,"
+            + "\"dur\":120.500,\"pid\":1,\"tid\":2,\"args\":{\"frame\":3}}"
+            + "\n]}\n",
+        write(Collections.singletonList(span)));
+  }
+
+  @Test
+  public void write_unknownGpuDuration_writesCpuSpanOnly() throws IOException {
+    RenderSpan span =
+        new RenderSpan(
+            "planes",
+            /* frameNumber= */ 4,
+            /* cpuStartNanos= */ 2_000_000,
+            /* cpuDurationNanos= */ 1_000,
+            RenderSpan.UNKNOWN_DURATION);
+
+    assertEquals(
+        "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"
+            + TRACK_NAMES
+            + ",\n"
+            + "{\"name\":\"planes\",\"cat\":\"cpu\",\"ph\":\"X\",\"ts\":2000.000,"
+            + "\"dur\":1.000,\"pid\":1,\"tid\":1,\"args\":{\"frame\":4}}"
+            + "\n]}\n",
+        write(Collections.singletonList(span)));
+  }
+
+  @Test
+  public void write_escapesNames() throws IOException {
+    RenderSpan span =
+        new RenderSpan(
+            "a \"quoted\"\\name\n",
+            /* frameNumber= */ 0,
+            /* cpuStartNanos= */ 0,
+            /* cpuDurationNanos= */ 0,
+            RenderSpan.UNKNOWN_DURATION);
+
+    assertEquals(
+        "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"
+            + TRACK_NAMES
+            + ",\n"
+            + "{\"name\":\"a \\\"quoted\\\"\\\\name\\u000a\",\"cat\":\"cpu\",\"ph\":\"X\","
+            + "\"ts\":0.000,\"dur\":0.000,\"pid\":1,\"tid\":1,\"args\":{\"frame\":0}}"
+            + "\n]}\n",
+        write(Collections.singletonList(span)));
+  }
+
+  @Test
+  public void writeToFile_writesSameTraceAsWrite() throws IOException {
+    List<RenderSpan> spans =
+        Arrays.asList(
+            new RenderSpan("background", 0, 1_000, 500, 200),
+            new RenderSpan("planes", 0, 1_500, 700, RenderSpan.UNKNOWN_DURATION));
+    File file = temporaryFolder.newFile("trace.json");
+
+    ChromeTraceWriter.writeToFile(spans, file);
+
+    assertEquals(write(spans), new String(Files.readAllBytes(file.toPath()), UTF_8));
+  }
+
+  private static String write(List<RenderSpan> spans) throws IOException {
+    StringWriter writer = new StringWriter();
+    ChromeTraceWriter.write(spans, writer);
+    return writer.toString();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Checks binary meshes against the OBJ files they were converted from, using the app's assets. */
+@RunWith(RobolectricTestRunner.class)
+public class MeshTest {
+  private static final String OBJ_ASSET = "models/pawn.obj";
+  private static final String BINARY_MESH_ASSET = "models/pawn.mesh";
+
+  private RecordingGLBackend backend;
+  private SampleRender render;
+
+  @Before
+  public void setUp() {
+    backend = new RecordingGLBackend();
+    render =
+        new SampleRender(
+            /* renderer= */ null, RuntimeEnvironment.getApplication().getAssets(), backend);
+  }
+
+  @Test
+  public void binaryMesh_drawsSameTrianglesAsObj() throws IOException {
+    Obj obj;
+    try (InputStream stream = render.getAssets().open(OBJ_ASSET)) {
+      obj = ObjUtils.convertToRenderable(ObjReader.read(stream));
+    }
+    FloatBuffer objPositions = ObjData.getVertices(obj);
+    FloatBuffer objTextureCoordinates = ObjData.getTexCoords(obj, /* dimensions= */ 2);
+    FloatBuffer objNormals = ObjData.getNormals(obj);
+    IntBuffer objIndices = ObjData.getFaceVertexIndices(obj, /* numVerticesPerFace= */ 3);
+
+    BinaryMesh binaryMesh = BinaryMesh.read(render, BINARY_MESH_ASSET);
+
+    // The converter merges vertices which ObjUtils keeps apart, so the vertices are compared
+    // corner by corner rather than buffer by buffer.
+    assertEquals(objIndices.remaining(), binaryMesh.indices.remaining());
+    for (int i = 0; i < objIndices.remaining(); ++i) {
+      int objIndex = objIndices.get(i);
+      int binaryIndex = getIndex(binaryMesh, i);
+      String corner = "Corner " + i;
+      assertAttributeEquals(
+          corner, objPositions, objIndex, binaryMesh.localCoordinates, binaryIndex, 3);
+      assertAttributeEquals(
+          corner, objTextureCoordinates, objIndex, binaryMesh.textureCoordinates, binaryIndex, 2);
+      assertAttributeEquals(corner, objNormals, objIndex, binaryMesh.normals, binaryIndex, 3);
+    }
+    BoundingBox objBoundingBox = BoundingBox.fromVertices(objPositions, 3);
+    assertArrayEquals(objBoundingBox.min, binaryMesh.boundingBox.min, 1e-6f);
+    assertArrayEquals(objBoundingBox.max, binaryMesh.boundingBox.max, 1e-6f);
+  }
+
+  @Test
+  public void createFromAsset_binaryMesh_uploadsFileContentsOnly() throws IOException {
+    Mesh objMesh = Mesh.createFromAsset(render, OBJ_ASSET);
+    long objBytes = backend.getBytesUploaded();
+    backend.resetCounters();
+
+    Mesh binaryMesh = Mesh.createFromAsset(render, BINARY_MESH_ASSET);
+    long binaryBytes = backend.getBytesUploaded();
+
+    BinaryMesh contents = BinaryMesh.read(render, BINARY_MESH_ASSET);
+    int vertexCount = contents.localCoordinates.remaining() / 3;
+    int bytesPerIndex = contents.indices instanceof ShortBuffer ? Short.BYTES : Integer.BYTES;
+    assertEquals(
+        vertexCount * (3 + 2 + 3) * Float.BYTES + contents.indices.remaining() * bytesPerIndex,
+        binaryBytes);
+    assertTrue(binaryBytes + " > " + objBytes, binaryBytes <= objBytes);
+    assertArrayEquals(objMesh.getBoundingBox().min, binaryMesh.getBoundingBox().min, 1e-6f);
+    assertArrayEquals(objMesh.getBoundingBox().max, binaryMesh.getBoundingBox().max, 1e-6f);
+  }
+
+  @Test
+  public void binaryMesh_isMemoryMapped() throws IOException {
+    BinaryMesh binaryMesh = BinaryMesh.read(render, BINARY_MESH_ASSET);
+
+    // The attributes are views of the mapped file, so nothing is copied before the upload.
+    assertTrue(binaryMesh.localCoordinates.isDirect());
+    assertTrue(binaryMesh.indices.isDirect());
+  }
+
+  private static int getIndex(BinaryMesh binaryMesh, int i) {
+    if (binaryMesh.indices instanceof ShortBuffer) {
+      return Short.toUnsignedInt(((ShortBuffer) binaryMesh.indices).get(i));
+    }
+    return ((IntBuffer) binaryMesh.indices).get(i);
+  }
+
+  private static void assertAttributeEquals(
+      String message,
+      FloatBuffer expected,
+      int expectedIndex,
+      FloatBuffer actual,
+      int actualIndex,
+      int size) {
+    for (int i = 0; i < size; ++i) {
+      assertEquals(
+          message,
+          expected.get(expectedIndex * size + i),
+          actual.get(actualIndex * size + i),
+          1e-6f);
+    }
+  }
+}
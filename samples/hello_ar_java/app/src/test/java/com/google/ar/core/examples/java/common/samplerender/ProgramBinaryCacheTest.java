@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProgramBinaryCacheTest {
+  // The size of the header preceding the binary in each file.
+  private static final int HEADER_SIZE = 16;
+  private static final int BINARY_SIZE = 100;
+  private static final int FORMAT = 0x8741;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    // The cache creates its directory when the first binary is stored.
+    directory = new File(temporaryFolder.getRoot(), "program_binaries");
+  }
+
+  @Test
+  public void canonicalizeDefines_ignoresIterationOrder() {
+    Map<String, String> ab = new LinkedHashMap<>();
+    ab.put("A", "1");
+    ab.put("B", "2");
+    Map<String, String> ba = new LinkedHashMap<>();
+    ba.put("B", "2");
+    ba.put("A", "1");
+
+    assertEquals(
+        ProgramBinaryCache.canonicalizeDefines(ab), ProgramBinaryCache.canonicalizeDefines(ba));
+    assertEquals("A=1\nB=2\n", ProgramBinaryCache.canonicalizeDefines(ab));
+  }
+
+  @Test
+  public void canonicalizeDefines_nullIsEmpty() {
+    assertEquals(
+        ProgramBinaryCache.canonicalizeDefines(new HashMap<>()),
+        ProgramBinaryCache.canonicalizeDefines(null));
+  }
+
+  @Test
+  public void createKey_dependsOnEveryPart() {
+    Map<String, String> defines = new HashMap<>();
+    defines.put("USE_INSTANCING", "1");
+    String key = ProgramBinaryCache.createKey("vertex", "fragment", defines, "driver 1");
+
+    assertEquals(key, ProgramBinaryCache.createKey("vertex", "fragment", defines, "driver 1"));
+    assertNotEquals(key, ProgramBinaryCache.createKey("vertex2", "fragment", defines, "driver 1"));
+    assertNotEquals(key, ProgramBinaryCache.createKey("vertex", "fragment2", defines, "driver 1"));
+    assertNotEquals(key, ProgramBinaryCache.createKey("vertex", "fragment", null, "driver 1"));
+    assertNotEquals(key, ProgramBinaryCache.createKey("vertex", "fragment", defines, "driver 2"));
+    // Parts are length-prefixed, so moving text from one part to the next changes the key.
+    assertNotEquals(
+        ProgramBinaryCache.createKey("ab", "c", null, "driver"),
+        ProgramBinaryCache.createKey("a", "bc", null, "driver"));
+  }
+
+  @Test
+  public void load_returnsStoredBinary() throws IOException {
+    ProgramBinaryCache cache = new ProgramBinaryCache(directory, /* maxSizeBytes= */ 1 << 20);
+    ByteBuffer binary = createBinary(/* seed= */ 7);
+
+    cache.store("key", FORMAT, binary);
+    ProgramBinaryCache.Entry entry = cache.load("key");
+
+    assertNotNull(entry);
+    assertEquals(FORMAT, entry.format);
+    assertTrue(entry.binary.isDirect());
+    binary.rewind();
+    assertEquals(binary, entry.binary);
+  }
+
+  @Test
+  public void load_missingKey_returnsNull() throws IOException {
+    ProgramBinaryCache cache = new ProgramBinaryCache(directory, /* maxSizeBytes= */ 1 << 20);
+
+    assertNull(cache.load("missing"));
+  }
+
+  @Test
+  public void load_truncatedFile_removesIt() throws IOException {
+    ProgramBinaryCache cache = new ProgramBinaryCache(directory, /* maxSizeBytes= */ 1 << 20);
+    cache.store("key", FORMAT, createBinary(/* seed= */ 1));
+    File file = getFile("key");
+    try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+      access.setLength(HEADER_SIZE + BINARY_SIZE / 2);
+    }
+
+    assertNull(cache.load("key"));
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void load_fileWithOtherHeader_removesIt() throws IOException {
+    ProgramBinaryCache cache = new ProgramBinaryCache(directory, /* maxSizeBytes= */ 1 << 20);
+    cache.store("key", FORMAT, createBinary(/* seed= */ 1));
+    File file = getFile("key");
+    try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+      // Overwrite the magic number, as if the file had been written by another program.
+      access.writeInt(0x12345678);
+    }
+
+    assertNull(cache.load("key"));
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void store_evictsLeastRecentlyUsedBinaries() throws IOException {
+    ProgramBinaryCache cache =
+        new ProgramBinaryCache(directory, /* maxSizeBytes= */ 2 * (HEADER_SIZE + BINARY_SIZE));
+    cache.store("a", FORMAT, createBinary(/* seed= */ 1));
+    cache.store("b", FORMAT, createBinary(/* seed= */ 2));
+    // Make the order of use independent of the file system's timestamp resolution.
+    long now = System.currentTimeMillis();
+    assertTrue(getFile("a").setLastModified(now - 20_000));
+    assertTrue(getFile("b").setLastModified(now - 10_000));
+
+    // Loading "a" makes "b" the least recently used binary, which is evicted to make room.
+    assertNotNull(cache.load("a"));
+    cache.store("c", FORMAT, createBinary(/* seed= */ 3));
+
+    assertTrue(getFile("a").exists());
+    assertFalse(getFile("b").exists());
+    assertTrue(getFile("c").exists());
+    assertNull(cache.load("b"));
+  }
+
+  @Test
+  public void remove_deletesBinary() throws IOException {
+    ProgramBinaryCache cache = new ProgramBinaryCache(directory, /* maxSizeBytes= */ 1 << 20);
+    cache.store("key", FORMAT, createBinary(/* seed= */ 1));
+
+    cache.remove("key");
+
+    assertNull(cache.load("key"));
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + ".bin");
+  }
+
+  private static ByteBuffer createBinary(int seed) {
+    ByteBuffer binary = ByteBuffer.allocateDirect(BINARY_SIZE);
+    for (int i = 0; i < BINARY_SIZE; ++i) {
+      binary.put((byte) (seed * 31 + i));
+    }
+    binary.flip();
+    return binary;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RenderSpanBufferTest {
+  @Test
+  public void snapshot_beforeFull_returnsAllSpansInOrder() {
+    RenderSpanBuffer buffer = new RenderSpanBuffer(/* capacity= */ 4);
+    RenderSpan first = createSpan(0);
+    RenderSpan second = createSpan(1);
+
+    buffer.add(first);
+    buffer.add(second);
+    List<RenderSpan> spans = buffer.snapshot();
+
+    assertEquals(2, buffer.getTotalCount());
+    assertEquals(2, spans.size());
+    assertSame(first, spans.get(0));
+    assertSame(second, spans.get(1));
+  }
+
+  @Test
+  public void snapshot_afterWrapping_returnsMostRecentSpansInOrder() {
+    RenderSpanBuffer buffer = new RenderSpanBuffer(/* capacity= */ 4);
+    RenderSpan[] added = new RenderSpan[10];
+    for (int i = 0; i < added.length; ++i) {
+      added[i] = createSpan(i);
+      buffer.add(added[i]);
+    }
+
+    List<RenderSpan> spans = buffer.snapshot();
+
+    assertEquals(10, buffer.getTotalCount());
+    // The slot the next span will be written to may be overwritten during a snapshot, so a
+    // snapshot of a full buffer leaves out the oldest span.
+    assertEquals(3, spans.size());
+    for (int i = 0; i < spans.size(); ++i) {
+      assertSame(added[7 + i], spans.get(i));
+    }
+  }
+
+  @Test
+  public void snapshot_ofEmptyBuffer_isEmpty() {
+    assertTrue(new RenderSpanBuffer(/* capacity= */ 4).snapshot().isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_rejectsZeroCapacity() {
+    new RenderSpanBuffer(/* capacity= */ 0);
+  }
+
+  private static RenderSpan createSpan(long frameNumber) {
+    return new RenderSpan(
+        "pass",
+        frameNumber,
+        /* cpuStartNanos= */ frameNumber * 1000,
+        /* cpuDurationNanos= */ 100,
+        RenderSpan.UNKNOWN_DURATION);
+  }
+}
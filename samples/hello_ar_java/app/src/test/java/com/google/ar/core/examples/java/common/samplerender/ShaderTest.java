@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ShaderTest {
+  private RecordingGLBackend backend;
+  private Shader shader;
+
+  @Before
+  public void setUp() {
+    backend = new RecordingGLBackend();
+    SampleRender render =
+        new SampleRender(/* renderer= */ null, /* assetManager= */ null, backend);
+    // The recording backend compiles any code, so the shader code is not needed.
+    shader = new Shader(render, "vertex", "fragment", /* defines= */ null);
+    backend.resetCounters();
+  }
+
+  @Test
+  public void newHandle_isUploadedOnFirstUseOnly() {
+    shader.getMat4Uniform("u_ModelView");
+    shader.getFloatUniform("u_Alpha");
+
+    shader.lowLevelUse();
+    shader.lowLevelUse();
+
+    assertEquals(1, backend.getCallCount("glUniformMatrix4fv"));
+    assertEquals(1, backend.getCallCount("glUniform1fv"));
+  }
+
+  @Test
+  public void handle_isOnlyUploadedWhenItsValueChanged() {
+    Shader.FloatUniform modelView = shader.getMat4Uniform("u_ModelView");
+    float[] matrix = createMatrix(1);
+    modelView.set(matrix);
+    shader.lowLevelUse();
+
+    modelView.set(createMatrix(1));
+    shader.lowLevelUse();
+    assertEquals(1, backend.getCallCount("glUniformMatrix4fv"));
+
+    matrix[12] = 2;
+    modelView.set(matrix);
+    modelView.set(matrix);
+    shader.lowLevelUse();
+    shader.lowLevelUse();
+    assertEquals(2, backend.getCallCount("glUniformMatrix4fv"));
+  }
+
+  @Test
+  public void setByName_looksUpLocationOnce() {
+    for (int i = 0; i < 3; ++i) {
+      shader.setMat4("u_ModelView", createMatrix(i));
+      shader.setFloat("u_Alpha", 0.5f);
+      shader.lowLevelUse();
+    }
+
+    assertEquals(2, backend.getCallCount("glGetUniformLocation"));
+    assertEquals(3, backend.getCallCount("glUniformMatrix4fv"));
+    assertEquals(1, backend.getCallCount("glUniform1fv"));
+  }
+
+  @Test
+  public void setByName_sharesHandle() {
+    Shader.FloatUniform alpha = shader.getFloatUniform("u_Alpha");
+
+    shader.setFloat("u_Alpha", 0.5f);
+
+    assertSame(alpha, shader.getFloatUniform("u_Alpha"));
+    shader.lowLevelUse();
+    alpha.set(0.5f);
+    shader.lowLevelUse();
+    assertEquals(1, backend.getCallCount("glUniform1fv"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getHandle_withOtherType_throws() {
+    shader.getMat4Uniform("u_ModelView");
+
+    shader.getVec4Uniform("u_ModelView");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setHandle_withWrongLength_throws() {
+    shader.getMat4Uniform("u_ModelView").set(new float[9]);
+  }
+
+  @Test
+  public void settingAndUsingHandles_doesNotAllocate() {
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    Shader.FloatUniform modelView = shader.getMat4Uniform("u_ModelView");
+    Shader.FloatUniform color = shader.getVec4Uniform("u_Color");
+    Shader.IntUniform mode = shader.getIntUniform("u_Mode");
+    float[] matrix = createMatrix(0);
+    float[] rgba = {1, 1, 1, 1};
+    int frameCount = 100_000;
+    // Warm up, so that only the steady state of a frame loop is measured.
+    drawFrames(modelView, color, mode, matrix, rgba, frameCount);
+    long threadId = Thread.currentThread().getId();
+
+    long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+    drawFrames(modelView, color, mode, matrix, rgba, frameCount);
+    long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+    // A single object per frame would take at least 16 bytes per frame. Allow for the few bytes
+    // the JVM itself may allocate on the thread, e.g. when the loop is recompiled.
+    assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < frameCount / 10);
+  }
+
+  private void drawFrames(
+      Shader.FloatUniform modelView,
+      Shader.FloatUniform color,
+      Shader.IntUniform mode,
+      float[] matrix,
+      float[] rgba,
+      int frameCount) {
+    for (int frame = 0; frame < frameCount; ++frame) {
+      matrix[12] = frame;
+      rgba[0] = frame % 2;
+      modelView.set(matrix);
+      color.set(rgba);
+      mode.set(frame % 3);
+      shader.lowLevelUse();
+    }
+  }
+
+  private static float[] createMatrix(float translationX) {
+    float[] matrix = new float[16];
+    matrix[0] = matrix[5] = matrix[10] = matrix[15] = 1;
+    matrix[12] = translationX;
+    return matrix;
+  }
+}
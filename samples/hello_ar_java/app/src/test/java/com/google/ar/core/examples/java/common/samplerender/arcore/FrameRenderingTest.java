@@ -0,0 +1,320 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender.arcore;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.opengl.Matrix;
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Frame;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
+import com.google.ar.core.examples.java.common.samplerender.FrustumCuller;
+import com.google.ar.core.examples.java.common.samplerender.Mesh;
+import com.google.ar.core.examples.java.common.samplerender.RecordingGLBackend;
+import com.google.ar.core.examples.java.common.samplerender.RenderTargetPool;
+import com.google.ar.core.examples.java.common.samplerender.SampleRender;
+import com.google.ar.core.examples.java.common.samplerender.Shader;
+import com.google.ar.core.examples.java.common.samplerender.Texture;
+import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.GraphicsMode;
+
+/**
+ * Draws the frames of the hello_ar_java sample against a {@link RecordingGLBackend}: the camera
+ * background, the tracked planes, the anchored pawns and the composition of the virtual scene. The
+ * OpenGL calls each frame issues are compared to what the renderers are expected to need.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class FrameRenderingTest {
+  private static final float Z_NEAR = 0.1f;
+  private static final float Z_FAR = 100f;
+  private static final int VIEWPORT_WIDTH = 1080;
+  private static final int VIEWPORT_HEIGHT = 1920;
+  private static final int CUBEMAP_RESOLUTION = 16;
+  private static final int CUBEMAP_NUMBER_OF_IMPORTANCE_SAMPLES = 32;
+  private static final int PLANE_COUNT = 3;
+  // Anchors in front of the camera, which are drawn.
+  private static final int VISIBLE_ANCHOR_COUNT = 10;
+  // Draws of the background, the planes, all pawns at once and the composition.
+  private static final int DRAWS_PER_FRAME = 1 + PLANE_COUNT + 1 + 1;
+  private static final int FRAME_COUNT = 100;
+
+  private final float[] viewMatrix = new float[16];
+  private final float[] projectionMatrix = new float[16];
+  private final float[] modelMatrix = new float[16];
+  private final FrustumCuller frustumCuller = new FrustumCuller();
+  private final List<Plane> planes = new ArrayList<>();
+  private final List<Anchor> anchors = new ArrayList<>();
+
+  private RecordingGLBackend backend;
+  private SampleRender render;
+  private BackgroundRenderer backgroundRenderer;
+  private PlaneRenderer planeRenderer;
+  private Mesh virtualObjectMesh;
+  private Shader virtualObjectShader;
+  private Shader.FloatUniform virtualObjectViewUniform;
+  private Shader.FloatUniform virtualObjectProjectionUniform;
+  private VertexBuffer virtualObjectInstanceBuffer;
+  private FloatBuffer virtualObjectModelMatrices;
+  private Frame frame;
+  private Pose cameraPose;
+
+  @Before
+  public void setUp() throws IOException {
+    backend = new RecordingGLBackend();
+    render =
+        new SampleRender(
+            /* renderer= */ null, RuntimeEnvironment.getApplication().getAssets(), backend);
+
+    // Create the same renderers as HelloArActivity.onSurfaceCreated.
+    backgroundRenderer = new BackgroundRenderer(render);
+    backgroundRenderer.setUseDepthVisualization(render, false);
+    backgroundRenderer.setUseOcclusion(render, false);
+    planeRenderer = new PlaneRenderer(render);
+    SpecularCubemapFilter cubemapFilter =
+        new SpecularCubemapFilter(
+            render, CUBEMAP_RESOLUTION, CUBEMAP_NUMBER_OF_IMPORTANCE_SAMPLES);
+    Texture virtualObjectAlbedoTexture =
+        Texture.createFromAsset(
+            render,
+            "models/pawn_albedo.png",
+            Texture.WrapMode.CLAMP_TO_EDGE,
+            Texture.ColorFormat.SRGB);
+    virtualObjectInstanceBuffer =
+        new VertexBuffer(render, /* numberOfEntriesPerVertex= */ 16, /* entries= */ null);
+    virtualObjectMesh =
+        Mesh.createFromAsset(
+            render, "models/pawn.mesh", new VertexBuffer[] {virtualObjectInstanceBuffer});
+    Map<String, String> defines = new HashMap<>();
+    defines.put(
+        "NUMBER_OF_MIPMAP_LEVELS", Integer.toString(cubemapFilter.getNumberOfMipmapLevels()));
+    defines.put("USE_INSTANCING", "1");
+    virtualObjectShader =
+        Shader.createFromAssets(
+                render, "shaders/environmental_hdr.vert", "shaders/environmental_hdr.frag", defines)
+            .setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture)
+            .setTexture("u_Cubemap", cubemapFilter.getFilteredCubemapTexture());
+    virtualObjectViewUniform = virtualObjectShader.getMat4Uniform("u_View");
+    virtualObjectProjectionUniform = virtualObjectShader.getMat4Uniform("u_Projection");
+    virtualObjectModelMatrices =
+        ByteBuffer.allocateDirect(16 * Float.BYTES * VISIBLE_ANCHOR_COUNT)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+
+    // A camera 1.5m above the floor, looking along -z.
+    cameraPose = Pose.makeTranslation(0f, 1.5f, 0f);
+    cameraPose.inverse().toMatrix(viewMatrix, 0);
+    Matrix.perspectiveM(
+        projectionMatrix, 0, 60f, (float) VIEWPORT_WIDTH / VIEWPORT_HEIGHT, Z_NEAR, Z_FAR);
+    frame = createFrame();
+    for (int i = 0; i < PLANE_COUNT; ++i) {
+      planes.add(
+          createPlane(
+              Pose.makeTranslation(i - 1f, 0f, -2f - i), createSquarePolygon(0.5f + 0.25f * i)));
+    }
+    // Pawns on a table in front of the camera.
+    for (int i = 0; i < VISIBLE_ANCHOR_COUNT; ++i) {
+      Pose pose = Pose.makeTranslation(0.1f * i - 0.5f, 1.2f, -2f - i);
+      anchors.add(createAnchor(pose, TrackingState.TRACKING));
+    }
+    // Neither an anchor behind the camera nor an anchor which is no longer tracked is drawn.
+    anchors.add(createAnchor(Pose.makeTranslation(0f, 1.2f, 2f), TrackingState.TRACKING));
+    anchors.add(createAnchor(Pose.makeTranslation(0f, 1.2f, -2f), TrackingState.PAUSED));
+    backend.resetCounters();
+  }
+
+  @Test
+  public void drawFrame_drawsEachPartOnce() {
+    drawFrame();
+
+    assertEquals(DRAWS_PER_FRAME, backend.getDrawCallCount());
+    assertEquals(PLANE_COUNT, backend.getCallCount("glDrawElements"));
+    assertEquals(1, backend.getCallCount("glDrawElementsInstanced"));
+    assertEquals(PLANE_COUNT + VISIBLE_ANCHOR_COUNT, frustumCuller.getVisibleCount());
+    assertEquals(1, frustumCuller.getCulledCount());
+  }
+
+  @Test
+  public void steadyFrames_issueSameCalls() {
+    drawFrame();
+    backend.resetCounters();
+    drawFrame();
+    Map<String, Long> callCounts = backend.getCallCounts();
+
+    for (int i = 0; i < FRAME_COUNT; ++i) {
+      backend.resetCounters();
+      drawFrame();
+      assertEquals("Frame " + i, callCounts, backend.getCallCounts());
+    }
+  }
+
+  @Test
+  public void steadyFrames_onlyUploadAnchorModelMatrices() {
+    drawFrame();
+    backend.resetCounters();
+
+    for (int i = 0; i < FRAME_COUNT; ++i) {
+      drawFrame();
+    }
+
+    // The background coordinates, the plane geometry and the textures are uploaded once, so only
+    // the pawns' model matrices are uploaded every frame.
+    assertEquals(FRAME_COUNT, backend.getCallCount("glBufferSubData"));
+    assertEquals(0, backend.getCallCount("glBufferData"));
+    assertEquals(0, backend.getCallCount("glTexImage2D"));
+    assertEquals(
+        (long) FRAME_COUNT * VISIBLE_ANCHOR_COUNT * 16 * Float.BYTES, backend.getBytesUploaded());
+  }
+
+  @Test
+  public void steadyFrames_doNotCreateObjects() {
+    drawFrame();
+    long liveObjectCount = backend.getLiveObjectCount();
+    backend.resetCounters();
+
+    for (int i = 0; i < FRAME_COUNT; ++i) {
+      drawFrame();
+    }
+
+    // The virtual scene framebuffer is taken from the render target pool every frame.
+    assertEquals(0, backend.getCreatedObjectCount());
+    assertEquals(liveObjectCount, backend.getLiveObjectCount());
+  }
+
+  @Test
+  public void changedPlanePolygon_uploadsPlaneGeometryOnce() {
+    drawFrame();
+    backend.resetCounters();
+
+    FloatBuffer grownPolygon = createSquarePolygon(1f);
+    when(planes.get(0).getPolygon()).thenAnswer(invocation -> grownPolygon.duplicate());
+    drawFrame();
+    drawFrame();
+
+    // The geometry of all planes is packed into one vertex and one index buffer, which are
+    // uploaded again once. The other uploads are the pawns' model matrices of both frames.
+    assertEquals(2 + 2, backend.getCallCount("glBufferSubData"));
+    assertEquals(0, backend.getCallCount("glBufferData"));
+    assertEquals(2 * PLANE_COUNT, backend.getCallCount("glDrawElements"));
+  }
+
+  @Test
+  public void changedDisplayGeometry_uploadsBackgroundCoordinatesOnce() {
+    drawFrame();
+    backend.resetCounters();
+
+    when(frame.hasDisplayGeometryChanged()).thenReturn(true, false);
+    drawFrame();
+    drawFrame();
+
+    // The camera texture coordinates are uploaded again once. The other uploads are the pawns'
+    // model matrices of both frames.
+    assertEquals(1 + 2, backend.getCallCount("glBufferSubData"));
+    assertEquals(0, backend.getCallCount("glBufferData"));
+  }
+
+  /** Draws a frame the way HelloArActivity.onDrawFrame does once the camera is tracking. */
+  private void drawFrame() {
+    backgroundRenderer.updateDisplayGeometry(frame);
+    backgroundRenderer.drawBackground(render);
+
+    frustumCuller.update(viewMatrix, projectionMatrix);
+    planeRenderer.drawPlanes(render, planes, cameraPose, projectionMatrix, frustumCuller);
+
+    RenderTargetPool renderTargetPool = render.getRenderTargetPool();
+    Framebuffer virtualSceneFramebuffer =
+        renderTargetPool.acquire(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+    render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f);
+    virtualObjectModelMatrices.clear();
+    int instanceCount = 0;
+    for (Anchor anchor : anchors) {
+      if (anchor.getTrackingState() != TrackingState.TRACKING) {
+        continue;
+      }
+      anchor.getPose().toMatrix(modelMatrix, 0);
+      if (!frustumCuller.isVisible(virtualObjectMesh, modelMatrix)) {
+        continue;
+      }
+      virtualObjectModelMatrices.put(modelMatrix);
+      ++instanceCount;
+    }
+    virtualObjectModelMatrices.flip();
+    if (instanceCount > 0) {
+      virtualObjectInstanceBuffer.set(virtualObjectModelMatrices);
+      virtualObjectViewUniform.set(viewMatrix);
+      virtualObjectProjectionUniform.set(projectionMatrix);
+      render.drawInstanced(
+          virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer, instanceCount);
+    }
+
+    backgroundRenderer.drawVirtualScene(render, virtualSceneFramebuffer, Z_NEAR, Z_FAR);
+    renderTargetPool.release(virtualSceneFramebuffer);
+  }
+
+  private static Frame createFrame() {
+    Frame frame = mock(Frame.class);
+    // The display geometry is reported as changed on the first frame only, like ARCore does.
+    when(frame.hasDisplayGeometryChanged()).thenReturn(true, false);
+    return frame;
+  }
+
+  private static Plane createPlane(Pose centerPose, FloatBuffer polygon) {
+    Plane plane = mock(Plane.class);
+    when(plane.getTrackingState()).thenReturn(TrackingState.TRACKING);
+    when(plane.getType()).thenReturn(Plane.Type.HORIZONTAL_UPWARD_FACING);
+    when(plane.getCenterPose()).thenReturn(centerPose);
+    when(plane.getExtentX()).thenReturn(2 * polygon.get(0));
+    when(plane.getExtentZ()).thenReturn(2 * polygon.get(0));
+    // ARCore returns a new buffer each time the polygon is queried.
+    when(plane.getPolygon()).thenAnswer(invocation -> polygon.duplicate());
+    return plane;
+  }
+
+  private static Anchor createAnchor(Pose pose, TrackingState trackingState) {
+    Anchor anchor = mock(Anchor.class);
+    when(anchor.getTrackingState()).thenReturn(trackingState);
+    when(anchor.getPose()).thenReturn(pose);
+    return anchor;
+  }
+
+  /** Returns the polygon of a square with the given half size, centered on the plane's pose. */
+  private static FloatBuffer createSquarePolygon(float halfSize) {
+    FloatBuffer polygon =
+        ByteBuffer.allocateDirect(8 * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    polygon.put(new float[] {halfSize, halfSize, halfSize, -halfSize});
+    polygon.put(new float[] {-halfSize, -halfSize, -halfSize, halfSize});
+    polygon.flip();
+    return polygon;
+  }
+}
@@ -15,20 +15,37 @@
  * limitations under the License.
  */
 
+// When USE_INSTANCING is defined, the model matrix is provided per instance
+// and the view and projection matrices are shared by all instances.
+#ifdef USE_INSTANCING
+uniform mat4 u_View;
+uniform mat4 u_Projection;
+#else
 uniform mat4 u_ModelView;
 uniform mat4 u_ModelViewProjection;
+#endif
 
 layout(location = 0) in vec4 a_Position;
 layout(location = 1) in vec2 a_TexCoord;
 layout(location = 2) in vec3 a_Normal;
+#ifdef USE_INSTANCING
+layout(location = 3) in mat4 a_Model;
+#endif
 
 out vec3 v_ViewPosition;
 out vec3 v_ViewNormal;
 out vec2 v_TexCoord;
 
 void main() {
-  v_ViewPosition = (u_ModelView * a_Position).xyz;
-  v_ViewNormal = normalize((u_ModelView * vec4(a_Normal, 0.0)).xyz);
+#ifdef USE_INSTANCING
+  mat4 modelView = u_View * a_Model;
+  mat4 modelViewProjection = u_Projection * modelView;
+#else
+  mat4 modelView = u_ModelView;
+  mat4 modelViewProjection = u_ModelViewProjection;
+#endif
+  v_ViewPosition = (modelView * a_Position).xyz;
+  v_ViewNormal = normalize((modelView * vec4(a_Normal, 0.0)).xyz);
   v_TexCoord = a_TexCoord;
-  gl_Position = u_ModelViewProjection * a_Position;
+  gl_Position = modelViewProjection * a_Position;
 }
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.GLES30;
+import android.opengl.GLException;
+import android.opengl.GLSurfaceView;
+import android.opengl.GLU;
+import android.util.Log;
+import java.nio.Buffer;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * A {@link GLBackend} which forwards all calls to {@link GLES30}, i.e. the current GL context, logs
+ * to logcat and throws {@link GLException}s for GL errors.
+ */
+public final class AndroidGLBackend extends GLBackend {
+  /** The only instance, which is used by SampleRenders attached to a GLSurfaceView. */
+  public static final AndroidGLBackend INSTANCE = new AndroidGLBackend();
+
+  private AndroidGLBackend() {}
+
+  /**
+   * Configures {@code glSurfaceView} for OpenGL ES 3.0 and has it invoke the callbacks of {@code
+   * render}. Kept out of SampleRender so that headless SampleRenders never load GLSurfaceView.
+   */
+  /* package-private */
+  void attach(GLSurfaceView glSurfaceView, SampleRender render) {
+    glSurfaceView.setPreserveEGLContextOnPause(true);
+    glSurfaceView.setEGLContextClientVersion(3);
+    glSurfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0);
+    glSurfaceView.setRenderer(
+        new GLSurfaceView.Renderer() {
+          @Override
+          public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+            render.handleSurfaceCreated();
+          }
+
+          @Override
+          public void onSurfaceChanged(GL10 gl, int w, int h) {
+            render.handleSurfaceChanged(w, h);
+          }
+
+          @Override
+          public void onDrawFrame(GL10 gl) {
+            render.handleDrawFrame();
+          }
+        });
+    glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+    glSurfaceView.setWillNotDraw(false);
+  }
+
+  @Override
+  public void log(int priority, String tag, String message, Throwable throwable) {
+    if (throwable != null) {
+      message += '\n' + Log.getStackTraceString(throwable);
+    }
+    Log.println(priority, tag, message);
+  }
+
+  @Override
+  public String getErrorString(int error) {
+    return GLU.gluErrorString(error);
+  }
+
+  @Override
+  public RuntimeException newGLException(int error, String message) {
+    return new GLException(error, message);
+  }
+
+  @Override
+  public void glActiveTexture(int texture) {
+    GLES30.glActiveTexture(texture);
+  }
+
+  @Override
+  public void glAttachShader(int program, int shader) {
+    GLES30.glAttachShader(program, shader);
+  }
+
+  @Override
+  public void glBeginQuery(int target, int id) {
+    GLES30.glBeginQuery(target, id);
+  }
+
+  @Override
+  public void glBindBuffer(int target, int buffer) {
+    GLES30.glBindBuffer(target, buffer);
+  }
+
+  @Override
+  public void glBindFramebuffer(int target, int framebuffer) {
+    GLES30.glBindFramebuffer(target, framebuffer);
+  }
+
+  @Override
+  public void glBindTexture(int target, int texture) {
+    GLES30.glBindTexture(target, texture);
+  }
+
+  @Override
+  public void glBindVertexArray(int array) {
+    GLES30.glBindVertexArray(array);
+  }
+
+  @Override
+  public void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+    GLES30.glBlendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+  }
+
+  @Override
+  public void glBufferData(int target, int size, Buffer data, int usage) {
+    GLES30.glBufferData(target, size, data, usage);
+  }
+
+  @Override
+  public void glBufferSubData(int target, int offset, int size, Buffer data) {
+    GLES30.glBufferSubData(target, offset, size, data);
+  }
+
+  @Override
+  public int glCheckFramebufferStatus(int target) {
+    return GLES30.glCheckFramebufferStatus(target);
+  }
+
+  @Override
+  public void glClear(int mask) {
+    GLES30.glClear(mask);
+  }
+
+  @Override
+  public void glClearColor(float red, float green, float blue, float alpha) {
+    GLES30.glClearColor(red, green, blue, alpha);
+  }
+
+  @Override
+  public int glClientWaitSync(long sync, int flags, long timeout) {
+    return GLES30.glClientWaitSync(sync, flags, timeout);
+  }
+
+  @Override
+  public void glCompileShader(int shader) {
+    GLES30.glCompileShader(shader);
+  }
+
+  @Override
+  public void glCompressedTexImage2D(
+      int target,
+      int level,
+      int internalformat,
+      int width,
+      int height,
+      int border,
+      int imageSize,
+      Buffer data) {
+    GLES30.glCompressedTexImage2D(
+        target, level, internalformat, width, height, border, imageSize, data);
+  }
+
+  @Override
+  public void glCopyBufferSubData(
+      int readTarget, int writeTarget, int readOffset, int writeOffset, int size) {
+    GLES30.glCopyBufferSubData(readTarget, writeTarget, readOffset, writeOffset, size);
+  }
+
+  @Override
+  public int glCreateProgram() {
+    return GLES30.glCreateProgram();
+  }
+
+  @Override
+  public int glCreateShader(int type) {
+    return GLES30.glCreateShader(type);
+  }
+
+  @Override
+  public void glDeleteBuffers(int n, int[] buffers, int offset) {
+    GLES30.glDeleteBuffers(n, buffers, offset);
+  }
+
+  @Override
+  public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+    GLES30.glDeleteFramebuffers(n, framebuffers, offset);
+  }
+
+  @Override
+  public void glDeleteProgram(int program) {
+    GLES30.glDeleteProgram(program);
+  }
+
+  @Override
+  public void glDeleteQueries(int n, int[] ids, int offset) {
+    GLES30.glDeleteQueries(n, ids, offset);
+  }
+
+  @Override
+  public void glDeleteShader(int shader) {
+    GLES30.glDeleteShader(shader);
+  }
+
+  @Override
+  public void glDeleteSync(long sync) {
+    GLES30.glDeleteSync(sync);
+  }
+
+  @Override
+  public void glDeleteTextures(int n, int[] textures, int offset) {
+    GLES30.glDeleteTextures(n, textures, offset);
+  }
+
+  @Override
+  public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+    GLES30.glDeleteVertexArrays(n, arrays, offset);
+  }
+
+  @Override
+  public void glDepthMask(boolean flag) {
+    GLES30.glDepthMask(flag);
+  }
+
+  @Override
+  public void glDisable(int cap) {
+    GLES30.glDisable(cap);
+  }
+
+  @Override
+  public void glDrawArrays(int mode, int first, int count) {
+    GLES30.glDrawArrays(mode, first, count);
+  }
+
+  @Override
+  public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+    GLES30.glDrawArraysInstanced(mode, first, count, instanceCount);
+  }
+
+  @Override
+  public void glDrawBuffers(int n, int[] bufs, int offset) {
+    GLES30.glDrawBuffers(n, bufs, offset);
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, int offset) {
+    GLES30.glDrawElements(mode, count, type, offset);
+  }
+
+  @Override
+  public void glDrawElementsInstanced(
+      int mode, int count, int type, int indicesOffset, int instanceCount) {
+    GLES30.glDrawElementsInstanced(mode, count, type, indicesOffset, instanceCount);
+  }
+
+  @Override
+  public void glEnable(int cap) {
+    GLES30.glEnable(cap);
+  }
+
+  @Override
+  public void glEnableVertexAttribArray(int index) {
+    GLES30.glEnableVertexAttribArray(index);
+  }
+
+  @Override
+  public void glEndQuery(int target) {
+    GLES30.glEndQuery(target);
+  }
+
+  @Override
+  public long glFenceSync(int condition, int flags) {
+    return GLES30.glFenceSync(condition, flags);
+  }
+
+  @Override
+  public void glFramebufferTexture2D(
+      int target, int attachment, int textarget, int texture, int level) {
+    GLES30.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+  }
+
+  @Override
+  public void glGenBuffers(int n, int[] buffers, int offset) {
+    GLES30.glGenBuffers(n, buffers, offset);
+  }
+
+  @Override
+  public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+    GLES30.glGenFramebuffers(n, framebuffers, offset);
+  }
+
+  @Override
+  public void glGenQueries(int n, int[] ids, int offset) {
+    GLES30.glGenQueries(n, ids, offset);
+  }
+
+  @Override
+  public void glGenTextures(int n, int[] textures, int offset) {
+    GLES30.glGenTextures(n, textures, offset);
+  }
+
+  @Override
+  public void glGenVertexArrays(int n, int[] arrays, int offset) {
+    GLES30.glGenVertexArrays(n, arrays, offset);
+  }
+
+  @Override
+  public void glGenerateMipmap(int target) {
+    GLES30.glGenerateMipmap(target);
+  }
+
+  @Override
+  public int glGetError() {
+    return GLES30.glGetError();
+  }
+
+  @Override
+  public void glGetIntegerv(int pname, int[] params, int offset) {
+    GLES30.glGetIntegerv(pname, params, offset);
+  }
+
+  @Override
+  public void glGetProgramBinary(
+      int program,
+      int bufSize,
+      int[] length,
+      int lengthOffset,
+      int[] binaryFormat,
+      int binaryFormatOffset,
+      Buffer binary) {
+    GLES30.glGetProgramBinary(
+        program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+  }
+
+  @Override
+  public String glGetProgramInfoLog(int program) {
+    return GLES30.glGetProgramInfoLog(program);
+  }
+
+  @Override
+  public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+    GLES30.glGetProgramiv(program, pname, params, offset);
+  }
+
+  @Override
+  public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+    GLES30.glGetQueryObjectuiv(id, pname, params, offset);
+  }
+
+  @Override
+  public String glGetShaderInfoLog(int shader) {
+    return GLES30.glGetShaderInfoLog(shader);
+  }
+
+  @Override
+  public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+    GLES30.glGetShaderiv(shader, pname, params, offset);
+  }
+
+  @Override
+  public String glGetString(int name) {
+    return GLES30.glGetString(name);
+  }
+
+  @Override
+  public int glGetUniformLocation(int program, String name) {
+    return GLES30.glGetUniformLocation(program, name);
+  }
+
+  @Override
+  public void glLinkProgram(int program) {
+    GLES30.glLinkProgram(program);
+  }
+
+  @Override
+  public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+    return GLES30.glMapBufferRange(target, offset, length, access);
+  }
+
+  @Override
+  public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+    GLES30.glProgramBinary(program, binaryFormat, binary, length);
+  }
+
+  @Override
+  public void glProgramParameteri(int program, int pname, int value) {
+    GLES30.glProgramParameteri(program, pname, value);
+  }
+
+  @Override
+  public void glShaderSource(int shader, String string) {
+    GLES30.glShaderSource(shader, string);
+  }
+
+  @Override
+  public void glTexImage2D(
+      int target,
+      int level,
+      int internalformat,
+      int width,
+      int height,
+      int border,
+      int format,
+      int type,
+      Buffer pixels) {
+    GLES30.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+  }
+
+  @Override
+  public void glTexParameteri(int target, int pname, int param) {
+    GLES30.glTexParameteri(target, pname, param);
+  }
+
+  @Override
+  public void glUniform1fv(int location, int count, float[] v, int offset) {
+    GLES30.glUniform1fv(location, count, v, offset);
+  }
+
+  @Override
+  public void glUniform1i(int location, int x) {
+    GLES30.glUniform1i(location, x);
+  }
+
+  @Override
+  public void glUniform1iv(int location, int count, int[] v, int offset) {
+    GLES30.glUniform1iv(location, count, v, offset);
+  }
+
+  @Override
+  public void glUniform2fv(int location, int count, float[] v, int offset) {
+    GLES30.glUniform2fv(location, count, v, offset);
+  }
+
+  @Override
+  public void glUniform3fv(int location, int count, float[] v, int offset) {
+    GLES30.glUniform3fv(location, count, v, offset);
+  }
+
+  @Override
+  public void glUniform4fv(int location, int count, float[] v, int offset) {
+    GLES30.glUniform4fv(location, count, v, offset);
+  }
+
+  @Override
+  public void glUniformMatrix2fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    GLES30.glUniformMatrix2fv(location, count, transpose, value, offset);
+  }
+
+  @Override
+  public void glUniformMatrix3fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    GLES30.glUniformMatrix3fv(location, count, transpose, value, offset);
+  }
+
+  @Override
+  public void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    GLES30.glUniformMatrix4fv(location, count, transpose, value, offset);
+  }
+
+  @Override
+  public boolean glUnmapBuffer(int target) {
+    return GLES30.glUnmapBuffer(target);
+  }
+
+  @Override
+  public void glUseProgram(int program) {
+    GLES30.glUseProgram(program);
+  }
+
+  @Override
+  public void glVertexAttribDivisor(int index, int divisor) {
+    GLES30.glVertexAttribDivisor(index, divisor);
+  }
+
+  @Override
+  public void glVertexAttribPointer(
+      int indx, int size, int type, boolean normalized, int stride, int offset) {
+    GLES30.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
+  }
+
+  @Override
+  public void glViewport(int x, int y, int width, int height) {
+    GLES30.glViewport(x, y, width, height);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.Matrix;
+
+/**
+ * Decides which objects are outside of the camera's view frustum, or too far away from the camera,
+ * so that they can be skipped before being drawn.
+ *
+ * <p>{@link #update} must be called with the camera matrices every frame before testing objects.
+ * The number of visible and culled objects are counted from the last call to {@link #update}.
+ */
+public class FrustumCuller {
+  private static final int NUMBER_OF_PLANES = 6;
+
+  // The frustum planes in world space as (a, b, c, d), such that a point (x, y, z) is inside of a
+  // plane if a*x + b*y + c*z + d >= 0. (a, b, c) is normalized.
+  private final float[] planes = new float[NUMBER_OF_PLANES * 4];
+  private final float[] viewProjectionMatrix = new float[16];
+  private final float[] cameraPosition = new float[3];
+  private final float[] worldCenter = new float[3];
+  private final float[] worldExtents = new float[3];
+  private float maxDistance = Float.POSITIVE_INFINITY;
+
+  private int visibleCount;
+  private int culledCount;
+
+  /**
+   * Sets the distance from the camera beyond which objects are culled even if they are inside of
+   * the view frustum. By default, only the far plane of the projection limits the distance.
+   */
+  public void setMaxDistance(float maxDistance) {
+    this.maxDistance = maxDistance;
+  }
+
+  /**
+   * Updates the view frustum from the camera matrices and resets the counters.
+   *
+   * @param viewMatrix The view matrix, as returned by {@link
+   *     com.google.ar.core.Camera#getViewMatrix(float[], int)}
+   * @param projectionMatrix The projection matrix, as returned by {@link
+   *     com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}
+   */
+  public void update(float[] viewMatrix, float[] projectionMatrix) {
+    Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+    float[] m = viewProjectionMatrix;
+    // Each plane is the sum or difference of the last row of the view projection matrix and one of
+    // the others; see "Fast Extraction of Viewing Frustum Planes from the World-View-Projection
+    // Matrix" by Gribb and Hartmann.
+    for (int row = 0; row < 3; ++row) {
+      for (int sign = 0; sign < 2; ++sign) {
+        float factor = sign == 0 ? 1f : -1f;
+        int plane = (row * 2 + sign) * 4;
+        planes[plane] = m[3] + factor * m[row];
+        planes[plane + 1] = m[7] + factor * m[4 + row];
+        planes[plane + 2] = m[11] + factor * m[8 + row];
+        planes[plane + 3] = m[15] + factor * m[12 + row];
+        float length = Matrix.length(planes[plane], planes[plane + 1], planes[plane + 2]);
+        for (int i = 0; i < 4; ++i) {
+          planes[plane + i] /= length;
+        }
+      }
+    }
+
+    // The view matrix is a rigid transform, so the camera position is -R^T * t.
+    float[] v = viewMatrix;
+    cameraPosition[0] = -(v[0] * v[12] + v[1] * v[13] + v[2] * v[14]);
+    cameraPosition[1] = -(v[4] * v[12] + v[5] * v[13] + v[6] * v[14]);
+    cameraPosition[2] = -(v[8] * v[12] + v[9] * v[13] + v[10] * v[14]);
+
+    visibleCount = 0;
+    culledCount = 0;
+  }
+
+  /**
+   * Returns whether the given {@link Mesh} may be visible when drawn with the given model matrix.
+   * Meshes without a {@link BoundingBox} are always considered visible.
+   */
+  public boolean isVisible(Mesh mesh, float[] modelMatrix) {
+    return isVisible(mesh.getBoundingBox(), modelMatrix);
+  }
+
+  /**
+   * Returns whether an object with the given local {@link BoundingBox} may be visible when drawn
+   * with the given model matrix. A null {@code boundingBox} is always considered visible.
+   */
+  public boolean isVisible(BoundingBox boundingBox, float[] modelMatrix) {
+    if (boundingBox == null) {
+      ++visibleCount;
+      return true;
+    }
+    // Transform the box to a world space axis-aligned box which contains it.
+    for (int row = 0; row < 3; ++row) {
+      float center = modelMatrix[12 + row];
+      float extents = 0;
+      for (int column = 0; column < 3; ++column) {
+        float value = modelMatrix[column * 4 + row];
+        center += value * (boundingBox.min[column] + boundingBox.max[column]) * 0.5f;
+        extents += Math.abs(value) * (boundingBox.max[column] - boundingBox.min[column]) * 0.5f;
+      }
+      worldCenter[row] = center;
+      worldExtents[row] = extents;
+    }
+
+    float radius = Matrix.length(worldExtents[0], worldExtents[1], worldExtents[2]);
+    if (!isWithinMaxDistance(worldCenter[0], worldCenter[1], worldCenter[2], radius)) {
+      return cull();
+    }
+    for (int plane = 0; plane < NUMBER_OF_PLANES * 4; plane += 4) {
+      float distance =
+          planes[plane] * worldCenter[0]
+              + planes[plane + 1] * worldCenter[1]
+              + planes[plane + 2] * worldCenter[2]
+              + planes[plane + 3];
+      float projectedExtents =
+          Math.abs(planes[plane]) * worldExtents[0]
+              + Math.abs(planes[plane + 1]) * worldExtents[1]
+              + Math.abs(planes[plane + 2]) * worldExtents[2];
+      if (distance < -projectedExtents) {
+        return cull();
+      }
+    }
+    ++visibleCount;
+    return true;
+  }
+
+  /** Returns whether a sphere with the given world space center and radius may be visible. */
+  public boolean isSphereVisible(float x, float y, float z, float radius) {
+    if (!isWithinMaxDistance(x, y, z, radius)) {
+      return cull();
+    }
+    for (int plane = 0; plane < NUMBER_OF_PLANES * 4; plane += 4) {
+      float distance =
+          planes[plane] * x + planes[plane + 1] * y + planes[plane + 2] * z + planes[plane + 3];
+      if (distance < -radius) {
+        return cull();
+      }
+    }
+    ++visibleCount;
+    return true;
+  }
+
+  /** Returns the number of objects found to be visible since the last {@link #update}. */
+  public int getVisibleCount() {
+    return visibleCount;
+  }
+
+  /** Returns the number of objects culled since the last {@link #update}. */
+  public int getCulledCount() {
+    return culledCount;
+  }
+
+  private boolean isWithinMaxDistance(float x, float y, float z, float radius) {
+    float distance =
+        Matrix.length(x - cameraPosition[0], y - cameraPosition[1], z - cameraPosition[2]);
+    return distance - radius <= maxDistance;
+  }
+
+  private boolean cull() {
+    ++culledCount;
+    return false;
+  }
+}
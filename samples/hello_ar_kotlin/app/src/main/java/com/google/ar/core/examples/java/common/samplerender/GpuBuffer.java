@@ -15,8 +15,6 @@
  */
 package com.google.ar.core.examples.java.common.samplerender;
 
-import android.opengl.GLES30;
-import android.util.Log;
 import java.nio.Buffer;
 
 /* package-private */
@@ -25,15 +23,20 @@ class GpuBuffer {
 
   // These values refer to the byte count of the corresponding Java datatypes.
   public static final int INT_SIZE = 4;
+  public static final int SHORT_SIZE = 2;
   public static final int FLOAT_SIZE = 4;
 
+  private final GLBackend backend;
   private final int target;
   private final int numberOfBytesPerEntry;
   private final int[] bufferId = {0};
+  private final StreamingBuffer streamingBuffer;
   private int size;
   private int capacity;
+  private int offset;
+  private long streamingFrameNumber;
 
-  public GpuBuffer(int target, int numberOfBytesPerEntry, Buffer entries) {
+  public GpuBuffer(GLBackend backend, int target, int numberOfBytesPerEntry, Buffer entries) {
     if (entries != null) {
       if (!entries.isDirect()) {
         throw new IllegalArgumentException("If non-null, entries buffer must be a direct buffer");
@@ -45,8 +48,10 @@ class GpuBuffer {
       }
     }
 
+    this.backend = backend;
     this.target = target;
     this.numberOfBytesPerEntry = numberOfBytesPerEntry;
+    this.streamingBuffer = null;
     if (entries == null) {
       this.size = 0;
       this.capacity = 0;
@@ -57,27 +62,39 @@ class GpuBuffer {
 
     try {
       // Clear VAO to prevent unintended state change.
-      GLES30.glBindVertexArray(0);
-      GLError.maybeThrowGLException("Failed to unbind vertex array", "glBindVertexArray");
+      backend.glBindVertexArray(0);
+      backend.maybeThrowGLException("Failed to unbind vertex array", "glBindVertexArray");
 
-      GLES30.glGenBuffers(1, bufferId, 0);
-      GLError.maybeThrowGLException("Failed to generate buffers", "glGenBuffers");
+      backend.glGenBuffers(1, bufferId, 0);
+      backend.maybeThrowGLException("Failed to generate buffers", "glGenBuffers");
 
-      GLES30.glBindBuffer(target, bufferId[0]);
-      GLError.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+      backend.glBindBuffer(target, bufferId[0]);
+      backend.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
 
       if (entries != null) {
         entries.rewind();
-        GLES30.glBufferData(
-            target, entries.limit() * numberOfBytesPerEntry, entries, GLES30.GL_DYNAMIC_DRAW);
+        backend.glBufferData(
+            target, entries.limit() * numberOfBytesPerEntry, entries, GLBackend.GL_DYNAMIC_DRAW);
       }
-      GLError.maybeThrowGLException("Failed to populate buffer object", "glBufferData");
+      backend.maybeThrowGLException("Failed to populate buffer object", "glBufferData");
     } catch (Throwable t) {
       free();
       throw t;
     }
   }
 
+  /**
+   * Constructs an initially empty buffer whose data is written to ranges of {@code
+   * streamingBuffer}, and must be set again every frame.
+   */
+  public GpuBuffer(
+      GLBackend backend, int target, int numberOfBytesPerEntry, StreamingBuffer streamingBuffer) {
+    this.backend = backend;
+    this.target = target;
+    this.numberOfBytesPerEntry = numberOfBytesPerEntry;
+    this.streamingBuffer = streamingBuffer;
+  }
+
   public void set(Buffer entries) {
     // Some GPU drivers will fail with out of memory errors if glBufferData or glBufferSubData is
     // called with a size of 0, so avoid this case.
@@ -88,34 +105,82 @@ class GpuBuffer {
     if (!entries.isDirect()) {
       throw new IllegalArgumentException("If non-null, entries buffer must be a direct buffer");
     }
-    GLES30.glBindBuffer(target, bufferId[0]);
-    GLError.maybeThrowGLException("Failed to bind vertex buffer object", "glBindBuffer");
+    if (streamingBuffer != null) {
+      offset = streamingBuffer.allocate(entries, numberOfBytesPerEntry);
+      streamingFrameNumber = streamingBuffer.getFrameNumber();
+      size = entries.limit();
+      return;
+    }
+    backend.glBindBuffer(target, bufferId[0]);
+    backend.maybeThrowGLException("Failed to bind vertex buffer object", "glBindBuffer");
 
     entries.rewind();
 
     if (entries.limit() <= capacity) {
-      GLES30.glBufferSubData(target, 0, entries.limit() * numberOfBytesPerEntry, entries);
-      GLError.maybeThrowGLException("Failed to populate vertex buffer object", "glBufferSubData");
+      backend.glBufferSubData(target, 0, entries.limit() * numberOfBytesPerEntry, entries);
+      backend.maybeThrowGLException("Failed to populate vertex buffer object", "glBufferSubData");
       size = entries.limit();
     } else {
-      GLES30.glBufferData(
-          target, entries.limit() * numberOfBytesPerEntry, entries, GLES30.GL_DYNAMIC_DRAW);
-      GLError.maybeThrowGLException("Failed to populate vertex buffer object", "glBufferData");
+      backend.glBufferData(
+          target, entries.limit() * numberOfBytesPerEntry, entries, GLBackend.GL_DYNAMIC_DRAW);
+      backend.maybeThrowGLException("Failed to populate vertex buffer object", "glBufferData");
       size = entries.limit();
       capacity = entries.limit();
     }
   }
 
+  /**
+   * Replaces the entries starting at entry {@code entryOffset} with {@code entries}, from its
+   * position to its limit, leaving the other entries and the size of the buffer unchanged.
+   */
+  public void setRange(int entryOffset, Buffer entries) {
+    if (streamingBuffer != null) {
+      throw new IllegalStateException("Ranges of streamed buffers can not be set");
+    }
+    if (!entries.isDirect()) {
+      throw new IllegalArgumentException("Entries buffer must be a direct buffer");
+    }
+    int count = entries.remaining();
+    if (entryOffset < 0 || entryOffset + count > size) {
+      throw new IllegalArgumentException(
+          "Range of " + count + " entries at " + entryOffset + " exceeds buffer size " + size);
+    }
+    if (count == 0) {
+      return;
+    }
+    backend.glBindBuffer(target, bufferId[0]);
+    backend.maybeThrowGLException("Failed to bind vertex buffer object", "glBindBuffer");
+    backend.glBufferSubData(
+        target, entryOffset * numberOfBytesPerEntry, count * numberOfBytesPerEntry, entries);
+    backend.maybeThrowGLException("Failed to populate vertex buffer object", "glBufferSubData");
+  }
+
   public void free() {
+    // The storage of a streamed buffer is owned by the StreamingBuffer.
+    if (streamingBuffer != null) {
+      size = 0;
+      return;
+    }
     if (bufferId[0] != 0) {
-      GLES30.glDeleteBuffers(1, bufferId, 0);
-      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free buffer object", "glDeleteBuffers");
+      backend.glDeleteBuffers(1, bufferId, 0);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to free buffer object", "glDeleteBuffers");
       bufferId[0] = 0;
     }
   }
 
   public int getBufferId() {
-    return bufferId[0];
+    return streamingBuffer == null ? bufferId[0] : streamingBuffer.getBufferId();
+  }
+
+  /** Returns the byte offset of the data within the buffer object. */
+  public int getOffset() {
+    if (streamingBuffer != null
+        && size > 0
+        && streamingFrameNumber != streamingBuffer.getFrameNumber()) {
+      throw new IllegalStateException("Streamed buffer data must be set again every frame");
+    }
+    return offset;
   }
 
   public int getSize() {
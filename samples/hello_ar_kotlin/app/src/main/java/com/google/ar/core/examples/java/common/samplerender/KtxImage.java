@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A compressed 2D image with optional mipmap levels, read from a <a
+ * href="https://registry.khronos.org/KTX/specs/1.0/ktxspec.v1.html">KTX 1.1</a> container.
+ *
+ * <p>Compressed images are uploaded to the GPU as they are, so they don't need to be decoded, and
+ * take a fraction of the memory of uncompressed RGBA images; ETC2 and ASTC 4x4 use one byte per
+ * pixel rather than four. ETC2 is supported by all OpenGL ES 3.0 devices, whereas ASTC requires the
+ * GL_KHR_texture_compression_astc_ldr extension.
+ */
+/* package-private */
+class KtxImage {
+  /** The file name extension of KTX files. */
+  static final String FILE_EXTENSION = ".ktx";
+
+  private static final byte[] IDENTIFIER = {
+    (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+  };
+  private static final int ENDIANNESS = 0x04030201;
+  private static final int HEADER_SIZE = 64;
+
+  // Compressed formats of OpenGL ES 3.0 and GL_KHR_texture_compression_astc_ldr.
+  private static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+  private static final int GL_COMPRESSED_SRGB8_ETC2 = 0x9275;
+  private static final int GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2 = 0x9276;
+  private static final int GL_COMPRESSED_SRGB8_PUNCHTHROUGH_ALPHA1_ETC2 = 0x9277;
+  private static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+  private static final int GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC = 0x9279;
+  private static final int GL_COMPRESSED_RGBA_ASTC_4x4_KHR = 0x93B0;
+  private static final int GL_COMPRESSED_RGBA_ASTC_12x12_KHR = 0x93BD;
+  private static final int GL_COMPRESSED_SRGB8_ALPHA8_ASTC_4x4_KHR = 0x93D0;
+  private static final int GL_COMPRESSED_SRGB8_ALPHA8_ASTC_12x12_KHR = 0x93DD;
+
+  final int internalFormat;
+  final int width;
+  final int height;
+  // The mipmap levels, starting with the full size image.
+  final ByteBuffer[] levels;
+
+  private KtxImage(int internalFormat, int width, int height, ByteBuffer[] levels) {
+    this.internalFormat = internalFormat;
+    this.width = width;
+    this.height = height;
+    this.levels = levels;
+  }
+
+  /**
+   * Parses a KTX file containing a single compressed 2D image. The returned levels are views of
+   * {@code data}, which must be a direct buffer if they are to be uploaded.
+   */
+  static KtxImage parse(ByteBuffer data) throws IOException {
+    data = data.duplicate();
+    if (data.remaining() < HEADER_SIZE) {
+      throw new IOException("Not a KTX file");
+    }
+    for (byte b : IDENTIFIER) {
+      if (data.get() != b) {
+        throw new IOException("Not a KTX file");
+      }
+    }
+    data.order(ByteOrder.LITTLE_ENDIAN);
+    if (data.getInt(data.position()) != ENDIANNESS) {
+      data.order(ByteOrder.BIG_ENDIAN);
+    }
+    data.getInt(); // endianness
+    int glType = data.getInt();
+    data.getInt(); // glTypeSize
+    data.getInt(); // glFormat
+    int glInternalFormat = data.getInt();
+    data.getInt(); // glBaseInternalFormat
+    int pixelWidth = data.getInt();
+    int pixelHeight = data.getInt();
+    int pixelDepth = data.getInt();
+    int numberOfArrayElements = data.getInt();
+    int numberOfFaces = data.getInt();
+    int numberOfMipmapLevels = Math.max(1, data.getInt());
+    int bytesOfKeyValueData = data.getInt();
+    if (glType != 0 || pixelWidth <= 0 || pixelHeight <= 0) {
+      throw new IOException("KTX file does not contain a compressed 2D image");
+    }
+    if (pixelDepth != 0 || numberOfArrayElements != 0 || numberOfFaces != 1) {
+      throw new IOException("KTX 3D, array and cube map textures are not supported");
+    }
+    if (bytesOfKeyValueData < 0 || bytesOfKeyValueData > data.remaining()) {
+      throw new IOException("Corrupt KTX file");
+    }
+    data.position(data.position() + bytesOfKeyValueData);
+
+    ByteBuffer[] levels = new ByteBuffer[numberOfMipmapLevels];
+    for (int i = 0; i < numberOfMipmapLevels; ++i) {
+      if (data.remaining() < 4) {
+        throw new IOException("Truncated KTX file");
+      }
+      int imageSize = data.getInt();
+      if (imageSize < 0 || imageSize > data.remaining()) {
+        throw new IOException("Truncated KTX file");
+      }
+      ByteBuffer level = data.slice();
+      level.limit(imageSize);
+      levels[i] = level;
+      // Each level is padded to a multiple of four bytes.
+      data.position(Math.min(data.limit(), data.position() + ((imageSize + 3) & ~3)));
+    }
+    return new KtxImage(glInternalFormat, pixelWidth, pixelHeight, levels);
+  }
+
+  /**
+   * Returns the internal format to upload the image with, such that it is sampled as sRGB or
+   * linear data as requested, regardless of which of the two the file declares.
+   */
+  int getInternalFormat(Texture.ColorFormat colorFormat) {
+    boolean srgb = colorFormat == Texture.ColorFormat.SRGB;
+    switch (internalFormat) {
+      case GL_COMPRESSED_RGB8_ETC2:
+      case GL_COMPRESSED_SRGB8_ETC2:
+        return srgb ? GL_COMPRESSED_SRGB8_ETC2 : GL_COMPRESSED_RGB8_ETC2;
+      case GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2:
+      case GL_COMPRESSED_SRGB8_PUNCHTHROUGH_ALPHA1_ETC2:
+        return srgb
+            ? GL_COMPRESSED_SRGB8_PUNCHTHROUGH_ALPHA1_ETC2
+            : GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2;
+      case GL_COMPRESSED_RGBA8_ETC2_EAC:
+      case GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC:
+        return srgb ? GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC : GL_COMPRESSED_RGBA8_ETC2_EAC;
+      default:
+        break;
+    }
+    if (internalFormat >= GL_COMPRESSED_RGBA_ASTC_4x4_KHR
+        && internalFormat <= GL_COMPRESSED_RGBA_ASTC_12x12_KHR
+        && srgb) {
+      return internalFormat - GL_COMPRESSED_RGBA_ASTC_4x4_KHR
+          + GL_COMPRESSED_SRGB8_ALPHA8_ASTC_4x4_KHR;
+    }
+    if (internalFormat >= GL_COMPRESSED_SRGB8_ALPHA8_ASTC_4x4_KHR
+        && internalFormat <= GL_COMPRESSED_SRGB8_ALPHA8_ASTC_12x12_KHR
+        && !srgb) {
+      return internalFormat - GL_COMPRESSED_SRGB8_ALPHA8_ASTC_4x4_KHR
+          + GL_COMPRESSED_RGBA_ASTC_4x4_KHR;
+    }
+    return internalFormat;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity ring buffer of the most recent {@link RenderSpan}s.
+ *
+ * <p>Spans are added by a single thread, typically the GL thread, and may be read from any other
+ * thread at the same time without locking, so that exporting them never stalls rendering. Once the
+ * buffer is full, each added span replaces the oldest one.
+ */
+public class RenderSpanBuffer {
+  private final AtomicReferenceArray<RenderSpan> slots;
+  // The total number of spans ever added. The span with index i is stored in slot i % capacity.
+  private final AtomicLong count = new AtomicLong();
+
+  /** Constructs a {@link RenderSpanBuffer} which keeps the given number of most recent spans. */
+  public RenderSpanBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    slots = new AtomicReferenceArray<>(capacity);
+  }
+
+  /** Returns the maximum number of spans kept. */
+  public int getCapacity() {
+    return slots.length();
+  }
+
+  /**
+   * Adds a span, replacing the oldest one if the buffer is full. Must not be called from more than
+   * one thread at a time.
+   */
+  public void add(RenderSpan span) {
+    long index = count.get();
+    slots.set((int) (index % slots.length()), span);
+    // Publish the span only after it was stored.
+    count.set(index + 1);
+  }
+
+  /** Returns the total number of spans added so far, including those which were replaced. */
+  public long getTotalCount() {
+    return count.get();
+  }
+
+  /** Returns the spans currently kept, from oldest to newest. May be called from any thread. */
+  public List<RenderSpan> snapshot() {
+    int capacity = slots.length();
+    long end = count.get();
+    long start = Math.max(0, end - capacity);
+    RenderSpan[] copy = new RenderSpan[(int) (end - start)];
+    for (long i = start; i < end; ++i) {
+      copy[(int) (i - start)] = slots.get((int) (i % capacity));
+    }
+    // The writer may have replaced some of the copied spans meanwhile, including the one it is
+    // adding right now, which is not counted yet. Drop every span which may have been replaced.
+    long firstIntact = count.get() + 1 - capacity;
+    List<RenderSpan> result = new ArrayList<>(copy.length);
+    for (long i = Math.max(start, firstIntact); i < end; ++i) {
+      result.add(copy[(int) (i - start)]);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender.arcore;
+
+import java.util.Arrays;
+
+/**
+ * A map from non-negative {@code long} keys to {@code int} values with a fixed maximum size.
+ *
+ * <p>Keys and values are stored in primitive arrays with open addressing and linear probing, so
+ * neither lookups nor insertions allocate. The table is sized for the maximum number of entries at
+ * construction and never grows, which bounds its memory; entries can not be removed individually.
+ */
+/* package-private */
+class LongIntHashMap {
+  private static final long EMPTY_KEY = -1;
+
+  private final long[] keys;
+  private final int[] values;
+  private final int mask;
+  private final int maxSize;
+  private int size;
+
+  /** Constructs an empty map which holds up to {@code maxSize} entries. */
+  LongIntHashMap(int maxSize) {
+    if (maxSize <= 0 || maxSize > (1 << 28)) {
+      throw new IllegalArgumentException("Invalid maximum size " + maxSize);
+    }
+    // Keep the load factor at or below 0.5 so that probe sequences stay short.
+    int capacity = Integer.highestOneBit(maxSize) << 2;
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+    this.maxSize = maxSize;
+    Arrays.fill(keys, EMPTY_KEY);
+  }
+
+  /** Returns the value of {@code key}, or {@code missingValue} if the map does not contain it. */
+  int get(long key, int missingValue) {
+    for (int i = indexOf(key); ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) {
+        return values[i];
+      }
+      if (k == EMPTY_KEY) {
+        return missingValue;
+      }
+    }
+  }
+
+  /**
+   * Sets the value of {@code key}. Returns false, leaving the map unchanged, if the key is new and
+   * the map is full.
+   */
+  boolean put(long key, int value) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Keys must be non-negative");
+    }
+    for (int i = indexOf(key); ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) {
+        values[i] = value;
+        return true;
+      }
+      if (k == EMPTY_KEY) {
+        if (size == maxSize) {
+          return false;
+        }
+        keys[i] = key;
+        values[i] = value;
+        ++size;
+        return true;
+      }
+    }
+  }
+
+  /** Returns the number of entries. */
+  int size() {
+    return size;
+  }
+
+  /** Removes all entries. */
+  void clear() {
+    Arrays.fill(keys, EMPTY_KEY);
+    size = 0;
+  }
+
+  private int indexOf(long key) {
+    // Mix the bits, as keys such as packed coordinates differ mostly in a few of them.
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+}
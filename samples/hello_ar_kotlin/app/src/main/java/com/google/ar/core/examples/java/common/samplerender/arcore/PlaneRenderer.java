@@ -20,6 +20,7 @@ import com.google.ar.core.Camera;
 import com.google.ar.core.Plane;
 import com.google.ar.core.Pose;
 import com.google.ar.core.TrackingState;
+import com.google.ar.core.examples.java.common.samplerender.FrustumCuller;
 import com.google.ar.core.examples.java.common.samplerender.IndexBuffer;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
@@ -37,6 +38,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -81,6 +83,10 @@ public class PlaneRenderer {
   private final IndexBuffer indexBufferObject;
   private final VertexBuffer vertexBufferObject;
   private final Shader shader;
+  private final Shader.FloatUniform modelUniform;
+  private final Shader.FloatUniform modelViewProjectionUniform;
+  private final Shader.FloatUniform planeUvMatrixUniform;
+  private final Shader.FloatUniform normalUniform;
 
   private FloatBuffer vertexBuffer =
       ByteBuffer.allocateDirect(INITIAL_VERTEX_BUFFER_SIZE_BYTES)
@@ -101,6 +107,10 @@ public class PlaneRenderer {
   private final float[] normalVector = new float[3];
 
   private final Map<Plane, Integer> planeIndexMap = new HashMap<>();
+  // The geometry of all cached planes is packed into the same vertex and index buffers, which are
+  // only rebuilt and uploaded when a plane's polygon changes or a plane is removed.
+  private final Map<Plane, PlaneGeometry> planeGeometries = new HashMap<>();
+  private boolean planeGeometriesChanged;
 
   /**
    * Allocates and initializes OpenGL resources needed by the plane renderer. Must be called during
@@ -121,6 +131,10 @@ public class PlaneRenderer {
                 BlendFactor.ZERO, // ALPHA (src)
                 BlendFactor.ONE_MINUS_SRC_ALPHA) // ALPHA (dest)
             .setDepthWrite(false);
+    modelUniform = shader.getMat4Uniform("u_Model");
+    modelViewProjectionUniform = shader.getMat4Uniform("u_ModelViewProjection");
+    planeUvMatrixUniform = shader.getMat2Uniform("u_PlaneUvMatrix");
+    normalUniform = shader.getVec3Uniform("u_Normal");
 
     indexBufferObject = new IndexBuffer(render, /*entries=*/ null);
     vertexBufferObject = new VertexBuffer(render, COORDS_PER_VERTEX, /*entries=*/ null);
@@ -128,29 +142,18 @@ public class PlaneRenderer {
     mesh = new Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, indexBufferObject, vertexBuffers);
   }
 
-  /** Updates the plane model transform matrix and extents. */
-  private void updatePlaneParameters(
-      float[] planeMatrix, float extentX, float extentZ, FloatBuffer boundary) {
-    System.arraycopy(planeMatrix, 0, modelMatrix, 0, 16);
-    if (boundary == null) {
-      vertexBuffer.limit(0);
-      indexBuffer.limit(0);
-      return;
+  /**
+   * Packs the geometry of all cached planes into the vertex and index buffers and uploads them,
+   * recording where each plane's indices start.
+   */
+  private void updateGeometryBuffers() {
+    int numVertices = 0;
+    int numIndices = 0;
+    for (PlaneGeometry geometry : planeGeometries.values()) {
+      numVertices += geometry.vertices.length / COORDS_PER_VERTEX;
+      numIndices += geometry.indices.length;
     }
 
-    // Generate a new set of vertices and a corresponding triangle strip index set so that
-    // the plane boundary polygon has a fading edge. This is done by making a copy of the
-    // boundary polygon vertices and scaling it down around center to push it inwards. Then
-    // the index buffer is setup accordingly.
-    boundary.rewind();
-    int boundaryVertices = boundary.limit() / 2;
-    int numVertices;
-    int numIndices;
-
-    numVertices = boundaryVertices * VERTS_PER_BOUNDARY_VERT;
-    // drawn as GL_TRIANGLE_STRIP with 3n-2 triangles (n-2 for fill, 2n for perimeter).
-    numIndices = boundaryVertices * INDICES_PER_BOUNDARY_VERT;
-
     if (vertexBuffer.capacity() < numVertices * COORDS_PER_VERTEX) {
       int size = vertexBuffer.capacity();
       while (size < numVertices * COORDS_PER_VERTEX) {
@@ -177,41 +180,18 @@ public class PlaneRenderer {
     indexBuffer.rewind();
     indexBuffer.limit(numIndices);
 
-    // Note: when either dimension of the bounding box is smaller than 2*FADE_RADIUS_M we
-    // generate a bunch of 0-area triangles.  These don't get rendered though so it works
-    // out ok.
-    float xScale = Math.max((extentX - 2 * FADE_RADIUS_M) / extentX, 0.0f);
-    float zScale = Math.max((extentZ - 2 * FADE_RADIUS_M) / extentZ, 0.0f);
-
-    while (boundary.hasRemaining()) {
-      float x = boundary.get();
-      float z = boundary.get();
-      vertexBuffer.put(x);
-      vertexBuffer.put(z);
-      vertexBuffer.put(0.0f);
-      vertexBuffer.put(x * xScale);
-      vertexBuffer.put(z * zScale);
-      vertexBuffer.put(1.0f);
+    for (PlaneGeometry geometry : planeGeometries.values()) {
+      // Each plane's indices are relative to its first vertex, which is now at this position.
+      int firstVertex = vertexBuffer.position() / COORDS_PER_VERTEX;
+      geometry.firstIndex = indexBuffer.position();
+      vertexBuffer.put(geometry.vertices);
+      for (int index : geometry.indices) {
+        indexBuffer.put(firstVertex + index);
+      }
     }
 
-    // step 1, perimeter
-    indexBuffer.put((short) ((boundaryVertices - 1) * 2));
-    for (int i = 0; i < boundaryVertices; ++i) {
-      indexBuffer.put((short) (i * 2));
-      indexBuffer.put((short) (i * 2 + 1));
-    }
-    indexBuffer.put((short) 1);
-    // This leaves us on the interior edge of the perimeter between the inset vertices
-    // for boundary verts n-1 and 0.
-
-    // step 2, interior:
-    for (int i = 1; i < boundaryVertices / 2; ++i) {
-      indexBuffer.put((short) ((boundaryVertices - 1 - i) * 2 + 1));
-      indexBuffer.put((short) (i * 2 + 1));
-    }
-    if (boundaryVertices % 2 != 0) {
-      indexBuffer.put((short) ((boundaryVertices / 2) * 2 + 1));
-    }
+    vertexBufferObject.set(vertexBuffer);
+    indexBufferObject.set(indexBuffer);
   }
 
   /**
@@ -224,6 +204,26 @@ public class PlaneRenderer {
    */
   public void drawPlanes(
       SampleRender render, Collection<Plane> allPlanes, Pose cameraPose, float[] cameraProjection) {
+    drawPlanes(render, allPlanes, cameraPose, cameraProjection, /*frustumCuller=*/ null);
+  }
+
+  /**
+   * Draws the collection of tracked planes, with closer planes hiding more distant ones, skipping
+   * planes which the given {@link FrustumCuller} finds not to be visible.
+   *
+   * @param allPlanes The collection of planes to draw.
+   * @param cameraPose The pose of the camera, as returned by {@link Camera#getPose()}
+   * @param cameraProjection The projection matrix, as returned by {@link
+   *     Camera#getProjectionMatrix(float[], int, float, float)}
+   * @param frustumCuller A {@link FrustumCuller} updated with the current camera matrices, or null
+   *     to draw all planes
+   */
+  public void drawPlanes(
+      SampleRender render,
+      Collection<Plane> allPlanes,
+      Pose cameraPose,
+      float[] cameraProjection,
+      FrustumCuller frustumCuller) {
     // Planes must be sorted by distance from camera so that we draw closer planes first, and
     // they occlude the farther planes.
     List<SortablePlane> sortedPlanes = new ArrayList<>();
@@ -237,6 +237,9 @@ public class PlaneRenderer {
       if (distance < 0) { // Plane is back-facing.
         continue;
       }
+      if (frustumCuller != null && !isVisible(plane, frustumCuller)) {
+        continue;
+      }
       sortedPlanes.add(new SortablePlane(distance, plane));
     }
     Collections.sort(
@@ -250,17 +253,39 @@ public class PlaneRenderer {
 
     cameraPose.inverse().toMatrix(viewMatrix, 0);
 
+    // Drop the geometry of planes which will never be drawn again, and regenerate the geometry of
+    // planes whose polygon has changed since it was last generated.
+    for (Iterator<Plane> it = planeGeometries.keySet().iterator(); it.hasNext(); ) {
+      Plane plane = it.next();
+      if (plane.getTrackingState() == TrackingState.STOPPED || plane.getSubsumedBy() != null) {
+        it.remove();
+        planeGeometriesChanged = true;
+      }
+    }
     for (SortablePlane sortedPlane : sortedPlanes) {
       Plane plane = sortedPlane.plane;
-      float[] planeMatrix = new float[16];
-      plane.getCenterPose().toMatrix(planeMatrix, 0);
+      PlaneGeometry geometry = planeGeometries.get(plane);
+      if (geometry == null) {
+        geometry = new PlaneGeometry();
+        planeGeometries.put(plane, geometry);
+      }
+      if (geometry.update(plane.getExtentX(), plane.getExtentZ(), plane.getPolygon())) {
+        planeGeometriesChanged = true;
+      }
+    }
+    if (planeGeometriesChanged) {
+      updateGeometryBuffers();
+      planeGeometriesChanged = false;
+    }
+
+    for (SortablePlane sortedPlane : sortedPlanes) {
+      Plane plane = sortedPlane.plane;
+      PlaneGeometry geometry = planeGeometries.get(plane);
+      plane.getCenterPose().toMatrix(modelMatrix, 0);
 
       // Get transformed Y axis of plane's coordinate system.
       plane.getCenterPose().getTransformedAxis(1, 1.0f, normalVector, 0);
 
-      updatePlaneParameters(
-          planeMatrix, plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
-
       // Get plane index. Keep a map to assign same indices to same planes.
       Integer planeIndex = planeIndexMap.get(plane);
       if (planeIndex == null) {
@@ -284,17 +309,124 @@ public class PlaneRenderer {
       Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraProjection, 0, modelViewMatrix, 0);
 
       // Populate the shader uniforms for this frame.
-      shader.setMat4("u_Model", modelMatrix);
-      shader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
-      shader.setMat2("u_PlaneUvMatrix", planeAngleUvMatrix);
-      shader.setVec3("u_Normal", normalVector);
+      modelUniform.set(modelMatrix);
+      modelViewProjectionUniform.set(modelViewProjectionMatrix);
+      planeUvMatrixUniform.set(planeAngleUvMatrix);
+      normalUniform.set(normalVector);
+
+      // Draw the plane's part of the shared geometry.
+      render.drawRange(
+          mesh, shader, /*framebuffer=*/ null, geometry.firstIndex, geometry.indices.length);
+    }
+  }
 
-      // Set the position of the plane
-      vertexBufferObject.set(vertexBuffer);
-      indexBufferObject.set(indexBuffer);
+  /** A plane's triangle strip, and the polygon and extents it was generated from. */
+  private static class PlaneGeometry {
+    float extentX;
+    float extentZ;
+    float[] polygon = new float[0];
+    float[] vertices = new float[0];
+    // Indices relative to the plane's first vertex.
+    int[] indices = new int[0];
+    // Position of the plane's indices in the shared index buffer.
+    int firstIndex;
+
+    /**
+     * Regenerates the geometry if the given polygon and extents differ from the ones it was
+     * generated from, and returns whether it was regenerated.
+     */
+    boolean update(float extentX, float extentZ, FloatBuffer boundary) {
+      if (extentX == this.extentX && extentZ == this.extentZ && hasSamePolygon(boundary)) {
+        return false;
+      }
+      this.extentX = extentX;
+      this.extentZ = extentZ;
+      if (boundary == null) {
+        polygon = new float[0];
+      } else {
+        boundary.rewind();
+        polygon = new float[boundary.limit()];
+        boundary.get(polygon);
+      }
+      generate();
+      return true;
+    }
 
-      render.draw(mesh, shader);
+    private boolean hasSamePolygon(FloatBuffer boundary) {
+      int length = boundary == null ? 0 : boundary.limit();
+      if (length != polygon.length) {
+        return false;
+      }
+      for (int i = 0; i < length; ++i) {
+        if (boundary.get(i) != polygon[i]) {
+          return false;
+        }
+      }
+      return true;
     }
+
+    /**
+     * Generates a new set of vertices and a corresponding triangle strip index set so that the
+     * plane boundary polygon has a fading edge. This is done by making a copy of the boundary
+     * polygon vertices and scaling it down around center to push it inwards. Then the index buffer
+     * is setup accordingly.
+     */
+    private void generate() {
+      int boundaryVertices = polygon.length / 2;
+      vertices = new float[boundaryVertices * VERTS_PER_BOUNDARY_VERT * COORDS_PER_VERTEX];
+      if (boundaryVertices == 0) {
+        indices = new int[0];
+        return;
+      }
+      // drawn as GL_TRIANGLE_STRIP with 3n-2 triangles (n-2 for fill, 2n for perimeter).
+      indices = new int[boundaryVertices * INDICES_PER_BOUNDARY_VERT];
+
+      // Note: when either dimension of the bounding box is smaller than 2*FADE_RADIUS_M we
+      // generate a bunch of 0-area triangles.  These don't get rendered though so it works
+      // out ok.
+      float xScale = Math.max((extentX - 2 * FADE_RADIUS_M) / extentX, 0.0f);
+      float zScale = Math.max((extentZ - 2 * FADE_RADIUS_M) / extentZ, 0.0f);
+
+      int v = 0;
+      for (int i = 0; i < boundaryVertices; ++i) {
+        float x = polygon[i * 2];
+        float z = polygon[i * 2 + 1];
+        vertices[v++] = x;
+        vertices[v++] = z;
+        vertices[v++] = 0.0f;
+        vertices[v++] = x * xScale;
+        vertices[v++] = z * zScale;
+        vertices[v++] = 1.0f;
+      }
+
+      // step 1, perimeter
+      int n = 0;
+      indices[n++] = (boundaryVertices - 1) * 2;
+      for (int i = 0; i < boundaryVertices; ++i) {
+        indices[n++] = i * 2;
+        indices[n++] = i * 2 + 1;
+      }
+      indices[n++] = 1;
+      // This leaves us on the interior edge of the perimeter between the inset vertices
+      // for boundary verts n-1 and 0.
+
+      // step 2, interior:
+      for (int i = 1; i < boundaryVertices / 2; ++i) {
+        indices[n++] = (boundaryVertices - 1 - i) * 2 + 1;
+        indices[n++] = i * 2 + 1;
+      }
+      if (boundaryVertices % 2 != 0) {
+        indices[n] = (boundaryVertices / 2) * 2 + 1;
+      }
+    }
+  }
+
+  /** Tests the sphere around the plane's center pose which contains its extents. */
+  private static boolean isVisible(Plane plane, FrustumCuller frustumCuller) {
+    Pose centerPose = plane.getCenterPose();
+    float radius = 0.5f * (float) Math.hypot(plane.getExtentX(), plane.getExtentZ());
+    return frustumCuller.isSphereVisible(
+        centerPose.tx(), centerPose.ty(), centerPose.tz(), radius);
   }
 
   private static class SortablePlane {
@@ -19,16 +19,22 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import android.media.Image;
-import android.opengl.GLES30;
-import android.util.Log;
 import com.google.ar.core.ImageFormat;
-import com.google.ar.core.examples.java.common.samplerender.GLError;
+import com.google.ar.core.examples.java.common.samplerender.GLBackend;
+import com.google.ar.core.examples.java.common.samplerender.GLStateCache;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -56,6 +62,22 @@ public class SpecularCubemapFilter implements Closeable {
 
   private static final int NUMBER_OF_CUBE_FACES = 6;
 
+  // The cubemap is only filtered again if the average of a color channel of a face changed by more
+  // than this fraction of its previous value, where values below SIGNATURE_MIN_VALUE count as
+  // SIGNATURE_MIN_VALUE so that noise in dark faces is ignored.
+  private static final float SIGNATURE_THRESHOLD = 0.02f;
+  private static final float SIGNATURE_MIN_VALUE = 0.01f;
+  private static final int SIGNATURE_SAMPLES_PER_AXIS = 16;
+
+  // "SCIS", for SpecularCubemapFilter Importance Samples.
+  private static final int IMPORTANCE_SAMPLES_FILE_MAGIC = 0x53434953;
+  private static final int IMPORTANCE_SAMPLES_FILE_VERSION = 1;
+
+  // Importance sample caches by resolution and number of samples. They only depend on these, so
+  // they are shared by all filters and kept for the lifetime of the process.
+  private static final HashMap<String, ImportanceSampleCacheEntry[][]>
+      importanceSampleCachesByKey = new HashMap<>();
+
   private static final FloatBuffer COORDS_BUFFER =
       ByteBuffer.allocateDirect(COORDS_BUFFER_SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer();
 
@@ -71,12 +93,12 @@ public class SpecularCubemapFilter implements Closeable {
   };
 
   private static final int[] ATTACHMENT_ENUMS = {
-    GLES30.GL_COLOR_ATTACHMENT0,
-    GLES30.GL_COLOR_ATTACHMENT1,
-    GLES30.GL_COLOR_ATTACHMENT2,
-    GLES30.GL_COLOR_ATTACHMENT3,
-    GLES30.GL_COLOR_ATTACHMENT4,
-    GLES30.GL_COLOR_ATTACHMENT5,
+    GLBackend.GL_COLOR_ATTACHMENT0,
+    GLBackend.GL_COLOR_ATTACHMENT1,
+    GLBackend.GL_COLOR_ATTACHMENT2,
+    GLBackend.GL_COLOR_ATTACHMENT3,
+    GLBackend.GL_COLOR_ATTACHMENT4,
+    GLBackend.GL_COLOR_ATTACHMENT5,
   };
 
   // We need to create enough shaders and framebuffers to encompass every face of the cubemap. Each
@@ -145,6 +167,8 @@ public class SpecularCubemapFilter implements Closeable {
     public float level;
   }
 
+  private final GLBackend backend;
+  private final GLStateCache stateCache;
   private final int resolution;
   private final int numberOfImportanceSamples;
   private final int numberOfMipmapLevels;
@@ -159,6 +183,13 @@ public class SpecularCubemapFilter implements Closeable {
   // [mipmapLevel][attachmentChunk].
   private final int[][] framebuffers;
 
+  // Filtering is split into steps, one for each attachment chunk of each mipmap level, in order of
+  // decreasing resolution. nextFilterStep equals numberOfFilterSteps when no filtering is pending.
+  private final int numberOfFilterSteps;
+  private int nextFilterStep;
+  // The signature of the radiance cubemap, see computeSignature, or null before the first update.
+  private float[] filteredSignature;
+
   /**
    * Constructs a {@link SpecularCubemapFilter}.
    *
@@ -170,9 +201,14 @@ public class SpecularCubemapFilter implements Closeable {
    * number of importance samples are selected instead. A larger number of importance samples will
    * generally provide more accurate results, but in the case of ARCore, the cubemap estimations are
    * already very low resolution, and higher values provide rapidly diminishing returns.
+   *
+   * <p>The importance samples are stored in {@link SampleRender#getShaderCacheDirectory}, if any,
+   * so that they do not need to be generated again on the next launch.
    */
   public SpecularCubemapFilter(SampleRender render, int resolution, int numberOfImportanceSamples)
       throws IOException {
+    this.backend = render.getBackend();
+    this.stateCache = render.getStateCache();
     this.resolution = resolution;
     this.numberOfImportanceSamples = numberOfImportanceSamples;
     this.numberOfMipmapLevels = log2(resolution) + 1;
@@ -187,6 +223,8 @@ public class SpecularCubemapFilter implements Closeable {
       initializeLdCubemap();
       shaders = createShaders(render, chunks);
       framebuffers = createFramebuffers(chunks);
+      numberOfFilterSteps = numberOfMipmapLevels * shaders.length;
+      nextFilterStep = numberOfFilterSteps;
 
       // Create the quad mesh that encompasses the entire view.
       VertexBuffer coordsBuffer = new VertexBuffer(render, COMPONENTS_PER_VERTEX, COORDS_BUFFER);
@@ -206,9 +244,12 @@ public class SpecularCubemapFilter implements Closeable {
   public void close() {
     if (framebuffers != null) {
       for (int[] framebufferChunks : framebuffers) {
-        GLES30.glDeleteFramebuffers(framebufferChunks.length, framebufferChunks, 0);
-        GLError.maybeLogGLError(
-            Log.WARN, TAG, "Failed to free framebuffers", "glDeleteFramebuffers");
+        backend.glDeleteFramebuffers(framebufferChunks.length, framebufferChunks, 0);
+        backend.maybeLogGLError(
+            GLBackend.LOG_WARN, TAG, "Failed to free framebuffers", "glDeleteFramebuffers");
+        for (int framebuffer : framebufferChunks) {
+          stateCache.onFramebufferDeleted(framebuffer);
+        }
       }
     }
     if (radianceCubemap != null) {
@@ -231,67 +272,40 @@ public class SpecularCubemapFilter implements Closeable {
    * com.google.ar.core.LightEstimate.acquireEnvironmentalHdrCubeMap()} to update the filtered
    * cubemap texture, accessible via {@link getFilteredCubemapTexture()}.
    *
+   * <p>To avoid frame time spikes, the filtering is spread over several calls: each call filters
+   * about as many texels as a single face of the highest mipmap level has, starting with the
+   * highest level. While a cubemap is being filtered, the given images are ignored. Once it is
+   * done, the next given cubemap is only filtered if it differs noticeably from the last filtered
+   * one, according to the average color of each face. The first cubemap is filtered completely by
+   * the first call, so that the filtered cubemap texture is never left uninitialized.
+   *
    * <p>The given {@link Image}s will be closed by this method, even if an exception occurs.
    */
   public void update(Image[] images) {
     try {
-      GLES30.glBindTexture(GLES30.GL_TEXTURE_CUBE_MAP, radianceCubemap.getTextureId());
-      GLError.maybeThrowGLException("Failed to bind radiance cubemap texture", "glBindTexture");
-
       if (images.length != NUMBER_OF_CUBE_FACES) {
         throw new IllegalArgumentException(
             "Number of images differs from the number of sides of a cube.");
       }
+      for (Image image : images) {
+        checkCubemapFace(image);
+      }
 
-      for (int i = 0; i < NUMBER_OF_CUBE_FACES; ++i) {
-        Image image = images[i];
-        // Sanity check for the format of the cubemap.
-        if (image.getFormat() != ImageFormat.RGBA_FP16) {
-          throw new IllegalArgumentException(
-              "Unexpected image format for cubemap: " + image.getFormat());
-        }
-        if (image.getHeight() != image.getWidth()) {
-          throw new IllegalArgumentException("Cubemap face is not square.");
-        }
-        if (image.getHeight() != resolution) {
-          throw new IllegalArgumentException(
-              "Cubemap face resolution ("
-                  + image.getHeight()
-                  + ") does not match expected value ("
-                  + resolution
-                  + ").");
-        }
-
-        GLES30.glTexImage2D(
-            GLES30.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i,
-            /*level=*/ 0,
-            GLES30.GL_RGBA16F,
-            /*width=*/ resolution,
-            /*height=*/ resolution,
-            /*border=*/ 0,
-            GLES30.GL_RGBA,
-            GLES30.GL_HALF_FLOAT,
-            image.getPlanes()[0].getBuffer());
-        GLError.maybeThrowGLException("Failed to populate cubemap face", "glTexImage2D");
+      if (nextFilterStep < numberOfFilterSteps) {
+        // The radiance cubemap must not change until all of its mipmap levels are filtered.
+        runFilterSteps(/*runAll=*/ false);
+        return;
       }
 
-      GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_CUBE_MAP);
-      GLError.maybeThrowGLException("Failed to generate cubemap mipmaps", "glGenerateMipmap");
-
-      // Do the filtering operation, filling the mipmaps of ldTexture with the roughness filtered
-      // cubemap.
-      for (int level = 0; level < numberOfMipmapLevels; ++level) {
-        int mipmapResolution = resolution >> level;
-        GLES30.glViewport(0, 0, mipmapResolution, mipmapResolution);
-        GLError.maybeThrowGLException("Failed to set viewport dimensions", "glViewport");
-        for (int chunkIndex = 0; chunkIndex < shaders.length; ++chunkIndex) {
-          GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebuffers[level][chunkIndex]);
-          GLError.maybeThrowGLException("Failed to bind cubemap framebuffer", "glBindFramebuffer");
-          shaders[chunkIndex].setInt("u_RoughnessLevel", level);
-          shaders[chunkIndex].lowLevelUse();
-          mesh.lowLevelDraw();
-        }
+      float[] signature = computeSignature(images);
+      if (filteredSignature != null && !differsNoticeably(signature, filteredSignature)) {
+        return;
       }
+
+      uploadRadianceCubemap(images);
+      nextFilterStep = 0;
+      runFilterSteps(/*runAll=*/ filteredSignature == null);
+      filteredSignature = signature;
     } finally {
       for (Image image : images) {
         image.close();
@@ -312,30 +326,136 @@ public class SpecularCubemapFilter implements Closeable {
     return ldCubemap;
   }
 
+  private void checkCubemapFace(Image image) {
+    // Sanity check for the format of the cubemap.
+    if (image.getFormat() != ImageFormat.RGBA_FP16) {
+      throw new IllegalArgumentException(
+          "Unexpected image format for cubemap: " + image.getFormat());
+    }
+    if (image.getHeight() != image.getWidth()) {
+      throw new IllegalArgumentException("Cubemap face is not square.");
+    }
+    if (image.getHeight() != resolution) {
+      throw new IllegalArgumentException(
+          "Cubemap face resolution ("
+              + image.getHeight()
+              + ") does not match expected value ("
+              + resolution
+              + ").");
+    }
+  }
+
+  private void uploadRadianceCubemap(Image[] images) {
+    backend.glBindTexture(GLBackend.GL_TEXTURE_CUBE_MAP, radianceCubemap.getTextureId());
+    backend.maybeThrowGLException("Failed to bind radiance cubemap texture", "glBindTexture");
+
+    for (int i = 0; i < NUMBER_OF_CUBE_FACES; ++i) {
+      backend.glTexImage2D(
+          GLBackend.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i,
+          /*level=*/ 0,
+          GLBackend.GL_RGBA16F,
+          /*width=*/ resolution,
+          /*height=*/ resolution,
+          /*border=*/ 0,
+          GLBackend.GL_RGBA,
+          GLBackend.GL_HALF_FLOAT,
+          images[i].getPlanes()[0].getBuffer());
+      backend.maybeThrowGLException("Failed to populate cubemap face", "glTexImage2D");
+    }
+
+    backend.glGenerateMipmap(GLBackend.GL_TEXTURE_CUBE_MAP);
+    backend.maybeThrowGLException("Failed to generate cubemap mipmaps", "glGenerateMipmap");
+  }
+
+  /**
+   * Does the filtering operation, filling the mipmaps of ldTexture with the roughness filtered
+   * cubemap. Each step draws one attachment chunk of one mipmap level; unless {@code runAll} is
+   * set, steps are run until about as many texels as one face of the highest level were drawn.
+   */
+  private void runFilterSteps(boolean runAll) {
+    int texelBudget = resolution * resolution;
+    int texels = 0;
+    while (nextFilterStep < numberOfFilterSteps && (runAll || texels < texelBudget)) {
+      int level = nextFilterStep / shaders.length;
+      int chunkIndex = nextFilterStep % shaders.length;
+      int mipmapResolution = resolution >> level;
+      stateCache.bindFramebuffer(
+          framebuffers[level][chunkIndex], mipmapResolution, mipmapResolution);
+      shaders[chunkIndex].setInt("u_RoughnessLevel", level);
+      shaders[chunkIndex].lowLevelUse();
+      mesh.lowLevelDraw();
+      texels += mipmapResolution * mipmapResolution;
+      ++nextFilterStep;
+    }
+  }
+
+  /**
+   * Returns the average red, green and blue values of each face, indexed by {@code [3 * face +
+   * channel]}. At most {@link #SIGNATURE_SAMPLES_PER_AXIS} squared texels are read per face.
+   */
+  private float[] computeSignature(Image[] images) {
+    float[] signature = new float[3 * NUMBER_OF_CUBE_FACES];
+    int step = max(1, resolution / SIGNATURE_SAMPLES_PER_AXIS);
+    for (int face = 0; face < NUMBER_OF_CUBE_FACES; ++face) {
+      Image.Plane plane = images[face].getPlanes()[0];
+      ByteBuffer buffer = plane.getBuffer().duplicate().order(ByteOrder.nativeOrder());
+      int rowStride = plane.getRowStride();
+      int pixelStride = plane.getPixelStride();
+      float[] sum = new float[3];
+      int count = 0;
+      for (int y = 0; y < resolution; y += step) {
+        for (int x = 0; x < resolution; x += step) {
+          int offset = buffer.position() + y * rowStride + x * pixelStride;
+          for (int channel = 0; channel < 3; ++channel) {
+            sum[channel] += halfToFloat(buffer.getShort(offset + 2 * channel));
+          }
+          ++count;
+        }
+      }
+      for (int channel = 0; channel < 3; ++channel) {
+        signature[3 * face + channel] = sum[channel] / count;
+      }
+    }
+    return signature;
+  }
+
+  private static boolean differsNoticeably(float[] signature, float[] previousSignature) {
+    for (int i = 0; i < signature.length; ++i) {
+      float difference = Math.abs(signature[i] - previousSignature[i]);
+      // Written such that NaN compares as a change.
+      if (!(difference
+          <= SIGNATURE_THRESHOLD * max(Math.abs(previousSignature[i]), SIGNATURE_MIN_VALUE))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private void initializeLdCubemap() {
     // Initialize mipmap levels of LD cubemap.
-    GLES30.glBindTexture(GLES30.GL_TEXTURE_CUBE_MAP, ldCubemap.getTextureId());
-    GLError.maybeThrowGLException("Could not bind LD cubemap texture", "glBindTexture");
+    backend.glBindTexture(GLBackend.GL_TEXTURE_CUBE_MAP, ldCubemap.getTextureId());
+    backend.maybeThrowGLException("Could not bind LD cubemap texture", "glBindTexture");
     for (int level = 0; level < numberOfMipmapLevels; ++level) {
       int mipmapResolution = resolution >> level;
       for (int face = 0; face < NUMBER_OF_CUBE_FACES; ++face) {
-        GLES30.glTexImage2D(
-            GLES30.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face,
+        backend.glTexImage2D(
+            GLBackend.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face,
             level,
-            GLES30.GL_RGB16F,
+            GLBackend.GL_RGB16F,
             /*width=*/ mipmapResolution,
             /*height=*/ mipmapResolution,
             /*border=*/ 0,
-            GLES30.GL_RGB,
-            GLES30.GL_HALF_FLOAT,
+            GLBackend.GL_RGB,
+            GLBackend.GL_HALF_FLOAT,
             /*data=*/ null);
-        GLError.maybeThrowGLException("Could not initialize LD cubemap mipmap", "glTexImage2D");
+        backend.maybeThrowGLException("Could not initialize LD cubemap mipmap", "glTexImage2D");
       }
     }
   }
 
   private Shader[] createShaders(SampleRender render, ChunkIterable chunks) throws IOException {
-    ImportanceSampleCacheEntry[][] importanceSampleCaches = generateImportanceSampleCaches();
+    ImportanceSampleCacheEntry[][] importanceSampleCaches =
+        getImportanceSampleCaches(render.getShaderCacheDirectory());
 
     HashMap<String, String> commonDefines = new HashMap<>();
     commonDefines.put("NUMBER_OF_IMPORTANCE_SAMPLES", Integer.toString(numberOfImportanceSamples));
@@ -383,24 +503,23 @@ public class SpecularCubemapFilter implements Closeable {
     int[][] framebuffers = new int[numberOfMipmapLevels][];
     for (int level = 0; level < numberOfMipmapLevels; ++level) {
       int[] framebufferChunks = new int[chunks.numberOfChunks];
-      GLES30.glGenFramebuffers(framebufferChunks.length, framebufferChunks, 0);
-      GLError.maybeThrowGLException("Could not create cubemap framebuffers", "glGenFramebuffers");
+      backend.glGenFramebuffers(framebufferChunks.length, framebufferChunks, 0);
+      backend.maybeThrowGLException("Could not create cubemap framebuffers", "glGenFramebuffers");
       for (Chunk chunk : chunks) {
         // Set the drawbuffers
-        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebufferChunks[chunk.chunkIndex]);
-        GLError.maybeThrowGLException("Could not bind framebuffer", "glBindFramebuffer");
-        GLES30.glDrawBuffers(chunk.chunkSize, ATTACHMENT_ENUMS, 0);
-        GLError.maybeThrowGLException("Could not bind draw buffers", "glDrawBuffers");
+        stateCache.bindFramebuffer(framebufferChunks[chunk.chunkIndex]);
+        backend.glDrawBuffers(chunk.chunkSize, ATTACHMENT_ENUMS, 0);
+        backend.maybeThrowGLException("Could not bind draw buffers", "glDrawBuffers");
         // Since GLES doesn't support glFramebufferTexture, we will use each cubemap face as a
         // different color attachment.
         for (int attachment = 0; attachment < chunk.chunkSize; ++attachment) {
-          GLES30.glFramebufferTexture2D(
-              GLES30.GL_FRAMEBUFFER,
-              GLES30.GL_COLOR_ATTACHMENT0 + attachment,
-              GLES30.GL_TEXTURE_CUBE_MAP_POSITIVE_X + chunk.firstFaceIndex + attachment,
+          backend.glFramebufferTexture2D(
+              GLBackend.GL_FRAMEBUFFER,
+              GLBackend.GL_COLOR_ATTACHMENT0 + attachment,
+              GLBackend.GL_TEXTURE_CUBE_MAP_POSITIVE_X + chunk.firstFaceIndex + attachment,
               ldCubemap.getTextureId(),
               level);
-          GLError.maybeThrowGLException(
+          backend.maybeThrowGLException(
               "Could not attach LD cubemap mipmap to framebuffer", "glFramebufferTexture");
         }
       }
@@ -410,6 +529,106 @@ public class SpecularCubemapFilter implements Closeable {
     return framebuffers;
   }
 
+  /**
+   * Returns the importance sample caches, see {@link #generateImportanceSampleCaches}. They are
+   * read from {@code cacheDirectory} if they were stored there before, and generated and stored
+   * there otherwise.
+   */
+  private ImportanceSampleCacheEntry[][] getImportanceSampleCaches(File cacheDirectory) {
+    String key = "cubemap_filter_" + resolution + "_" + numberOfImportanceSamples;
+    synchronized (importanceSampleCachesByKey) {
+      ImportanceSampleCacheEntry[][] result = importanceSampleCachesByKey.get(key);
+      if (result != null) {
+        return result;
+      }
+      File file = cacheDirectory == null ? null : new File(cacheDirectory, key + ".samples");
+      if (file != null && file.exists()) {
+        try {
+          result = readImportanceSampleCaches(file);
+        } catch (IOException e) {
+          backend.log(GLBackend.LOG_WARN, TAG, "Failed to read importance samples from " + file, e);
+          file.delete();
+        }
+      }
+      if (result == null) {
+        result = generateImportanceSampleCaches();
+        if (file != null) {
+          try {
+            writeImportanceSampleCaches(file, result);
+          } catch (IOException e) {
+            backend.log(
+                GLBackend.LOG_WARN, TAG, "Failed to write importance samples to " + file, e);
+          }
+        }
+      }
+      importanceSampleCachesByKey.put(key, result);
+      return result;
+    }
+  }
+
+  private ImportanceSampleCacheEntry[][] readImportanceSampleCaches(File file)
+      throws IOException {
+    try (DataInputStream stream =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (stream.readInt() != IMPORTANCE_SAMPLES_FILE_MAGIC
+          || stream.readInt() != IMPORTANCE_SAMPLES_FILE_VERSION
+          || stream.readInt() != numberOfMipmapLevels - 1) {
+        throw new IOException("Importance sample file is from a different version");
+      }
+      ImportanceSampleCacheEntry[][] result =
+          new ImportanceSampleCacheEntry[numberOfMipmapLevels - 1][];
+      for (int i = 0; i < result.length; ++i) {
+        int numberOfEntries = stream.readInt();
+        if (numberOfEntries < 0 || numberOfEntries > numberOfImportanceSamples) {
+          throw new IOException("Corrupt importance sample file");
+        }
+        result[i] = new ImportanceSampleCacheEntry[numberOfEntries];
+        for (int j = 0; j < numberOfEntries; ++j) {
+          ImportanceSampleCacheEntry entry = new ImportanceSampleCacheEntry();
+          entry.direction =
+              new float[] {stream.readFloat(), stream.readFloat(), stream.readFloat()};
+          entry.contribution = stream.readFloat();
+          entry.level = stream.readFloat();
+          result[i][j] = entry;
+        }
+      }
+      if (stream.read() != -1) {
+        throw new IOException("Corrupt importance sample file");
+      }
+      return result;
+    }
+  }
+
+  private static void writeImportanceSampleCaches(
+      File file, ImportanceSampleCacheEntry[][] importanceSampleCaches) throws IOException {
+    File directory = file.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create directory " + directory);
+    }
+    // Write to a temporary file first so that a partially written file is never read.
+    File temporaryFile = new File(directory, file.getName() + ".tmp");
+    try (DataOutputStream stream =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+      stream.writeInt(IMPORTANCE_SAMPLES_FILE_MAGIC);
+      stream.writeInt(IMPORTANCE_SAMPLES_FILE_VERSION);
+      stream.writeInt(importanceSampleCaches.length);
+      for (ImportanceSampleCacheEntry[] cache : importanceSampleCaches) {
+        stream.writeInt(cache.length);
+        for (ImportanceSampleCacheEntry entry : cache) {
+          for (float component : entry.direction) {
+            stream.writeFloat(component);
+          }
+          stream.writeFloat(entry.contribution);
+          stream.writeFloat(entry.level);
+        }
+      }
+    }
+    if (!temporaryFile.renameTo(file)) {
+      temporaryFile.delete();
+      throw new IOException("Failed to move importance sample file into place");
+    }
+  }
+
   /**
    * Generate a cache of importance sampling terms in tangent space, indexed by {@code
    * [roughnessLevel-1][sampleIndex]}.
@@ -457,10 +676,10 @@ public class SpecularCubemapFilter implements Closeable {
     return result;
   }
 
-  private static int getMaxColorAttachments() {
+  private int getMaxColorAttachments() {
     int[] result = new int[1];
-    GLES30.glGetIntegerv(GLES30.GL_MAX_COLOR_ATTACHMENTS, result, 0);
-    GLError.maybeThrowGLException("Failed to get max color attachments", "glGetIntegerv");
+    backend.glGetIntegerv(GLBackend.GL_MAX_COLOR_ATTACHMENTS, result, 0);
+    backend.maybeThrowGLException("Failed to get max color attachments", "glGetIntegerv");
     return result[0];
   }
 
@@ -480,6 +699,23 @@ public class SpecularCubemapFilter implements Closeable {
     return result;
   }
 
+  private static float halfToFloat(short half) {
+    int bits = half & 0xffff;
+    int sign = bits & 0x8000;
+    int exponent = (bits >>> 10) & 0x1f;
+    int mantissa = bits & 0x3ff;
+    if (exponent == 0) {
+      // Zero or subnormal.
+      float magnitude = mantissa * 0x1p-24f;
+      return sign != 0 ? -magnitude : magnitude;
+    }
+    if (exponent == 0x1f) {
+      // Infinity or NaN.
+      return Float.intBitsToFloat((sign << 16) | 0x7f800000 | (mantissa << 13));
+    }
+    return Float.intBitsToFloat((sign << 16) | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+  }
+
   private static float log4(float value) {
     return (float) (Math.log((double) value) / Math.log(4.0));
   }
@@ -33,6 +33,7 @@ import com.google.ar.core.exceptions.UnavailableApkTooOldException
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException
+import java.io.File
 
 /**
  * This is a simple example that shows how to create an augmented reality (AR) application using the
@@ -88,7 +89,7 @@ class HelloArActivity : AppCompatActivity() {
     setContentView(view.root)
 
     // Sets up an example renderer using our HelloARRenderer.
-    SampleRender(view.surfaceView, renderer, assets)
+    SampleRender(view.surfaceView, renderer, assets, File(cacheDir, "shaders"))
 
     depthSettings.onCreate(this)
     instantPlacementSettings.onCreate(this)
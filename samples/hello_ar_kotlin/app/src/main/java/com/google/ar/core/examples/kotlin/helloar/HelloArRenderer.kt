@@ -206,7 +206,7 @@ class HelloArRenderer(val activity: HelloArActivity) :
 
       // Virtual object to render (ARCore pawn)
       virtualObjectAlbedoTexture =
-        Texture.createFromAsset(
+        Texture.createFromAssetAsync(
           render,
           "models/pawn_albedo.png",
           Texture.WrapMode.CLAMP_TO_EDGE,
@@ -214,7 +214,7 @@ class HelloArRenderer(val activity: HelloArActivity) :
         )
 
       virtualObjectAlbedoInstantPlacementTexture =
-        Texture.createFromAsset(
+        Texture.createFromAssetAsync(
           render,
           "models/pawn_albedo_instant_placement.png",
           Texture.WrapMode.CLAMP_TO_EDGE,
@@ -222,13 +222,13 @@ class HelloArRenderer(val activity: HelloArActivity) :
         )
 
       val virtualObjectPbrTexture =
-        Texture.createFromAsset(
+        Texture.createFromAssetAsync(
           render,
           "models/pawn_roughness_metallic_ao.png",
           Texture.WrapMode.CLAMP_TO_EDGE,
           Texture.ColorFormat.LINEAR
         )
-      virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.obj")
+      virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.mesh")
       virtualObjectShader =
         Shader.createFromAssets(
             render,
@@ -15,14 +15,14 @@
  */
 package com.google.ar.core.examples.java.common.samplerender;
 
-import android.opengl.GLES30;
-import android.util.Log;
 import java.io.Closeable;
 
 /** A framebuffer associated with a texture. */
 public class Framebuffer implements Closeable {
   private static final String TAG = Framebuffer.class.getSimpleName();
 
+  private final GLBackend backend;
+  private final GLStateCache stateCache;
   private final int[] framebufferId = {0};
   private final Texture colorTexture;
   private final Texture depthTexture;
@@ -36,6 +36,8 @@ public class Framebuffer implements Closeable {
    * Framebuffer)}.
    */
   public Framebuffer(SampleRender render, int width, int height) {
+    backend = render.getBackend();
+    stateCache = render.getStateCache();
     try {
       colorTexture =
           new Texture(
@@ -51,42 +53,44 @@ public class Framebuffer implements Closeable {
               /*useMipmaps=*/ false);
 
       // Set parameters of the depth texture so that it's readable by shaders.
-      GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, depthTexture.getTextureId());
-      GLError.maybeThrowGLException("Failed to bind depth texture", "glBindTexture");
-      GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_COMPARE_MODE, GLES30.GL_NONE);
-      GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
-      GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_NEAREST);
-      GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
-      GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_NEAREST);
-      GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+      backend.glBindTexture(GLBackend.GL_TEXTURE_2D, depthTexture.getTextureId());
+      backend.maybeThrowGLException("Failed to bind depth texture", "glBindTexture");
+      backend.glTexParameteri(
+          GLBackend.GL_TEXTURE_2D, GLBackend.GL_TEXTURE_COMPARE_MODE, GLBackend.GL_NONE);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+      backend.glTexParameteri(
+          GLBackend.GL_TEXTURE_2D, GLBackend.GL_TEXTURE_MIN_FILTER, GLBackend.GL_NEAREST);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
+      backend.glTexParameteri(
+          GLBackend.GL_TEXTURE_2D, GLBackend.GL_TEXTURE_MAG_FILTER, GLBackend.GL_NEAREST);
+      backend.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
 
       // Set initial dimensions.
       resize(width, height);
 
       // Create framebuffer object and bind to the color and depth textures.
-      GLES30.glGenFramebuffers(1, framebufferId, 0);
-      GLError.maybeThrowGLException("Framebuffer creation failed", "glGenFramebuffers");
-      GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebufferId[0]);
-      GLError.maybeThrowGLException("Failed to bind framebuffer", "glBindFramebuffer");
-      GLES30.glFramebufferTexture2D(
-          GLES30.GL_FRAMEBUFFER,
-          GLES30.GL_COLOR_ATTACHMENT0,
-          GLES30.GL_TEXTURE_2D,
+      backend.glGenFramebuffers(1, framebufferId, 0);
+      backend.maybeThrowGLException("Framebuffer creation failed", "glGenFramebuffers");
+      stateCache.bindFramebuffer(framebufferId[0]);
+      backend.glFramebufferTexture2D(
+          GLBackend.GL_FRAMEBUFFER,
+          GLBackend.GL_COLOR_ATTACHMENT0,
+          GLBackend.GL_TEXTURE_2D,
           colorTexture.getTextureId(),
           /*level=*/ 0);
-      GLError.maybeThrowGLException(
+      backend.maybeThrowGLException(
           "Failed to bind color texture to framebuffer", "glFramebufferTexture2D");
-      GLES30.glFramebufferTexture2D(
-          GLES30.GL_FRAMEBUFFER,
-          GLES30.GL_DEPTH_ATTACHMENT,
-          GLES30.GL_TEXTURE_2D,
+      backend.glFramebufferTexture2D(
+          GLBackend.GL_FRAMEBUFFER,
+          GLBackend.GL_DEPTH_ATTACHMENT,
+          GLBackend.GL_TEXTURE_2D,
           depthTexture.getTextureId(),
           /*level=*/ 0);
-      GLError.maybeThrowGLException(
+      backend.maybeThrowGLException(
           "Failed to bind depth texture to framebuffer", "glFramebufferTexture2D");
 
-      int status = GLES30.glCheckFramebufferStatus(GLES30.GL_FRAMEBUFFER);
-      if (status != GLES30.GL_FRAMEBUFFER_COMPLETE) {
+      int status = backend.glCheckFramebufferStatus(GLBackend.GL_FRAMEBUFFER);
+      if (status != GLBackend.GL_FRAMEBUFFER_COMPLETE) {
         throw new IllegalStateException("Framebuffer construction not complete: code " + status);
       }
     } catch (Throwable t) {
@@ -98,8 +102,10 @@ public class Framebuffer implements Closeable {
   @Override
   public void close() {
     if (framebufferId[0] != 0) {
-      GLES30.glDeleteFramebuffers(1, framebufferId, 0);
-      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free framebuffer", "glDeleteFramebuffers");
+      backend.glDeleteFramebuffers(1, framebufferId, 0);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to free framebuffer", "glDeleteFramebuffers");
+      stateCache.onFramebufferDeleted(framebufferId[0]);
       framebufferId[0] = 0;
     }
     colorTexture.close();
@@ -115,34 +121,34 @@ public class Framebuffer implements Closeable {
     this.height = height;
 
     // Color texture
-    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, colorTexture.getTextureId());
-    GLError.maybeThrowGLException("Failed to bind color texture", "glBindTexture");
-    GLES30.glTexImage2D(
-        GLES30.GL_TEXTURE_2D,
+    backend.glBindTexture(GLBackend.GL_TEXTURE_2D, colorTexture.getTextureId());
+    backend.maybeThrowGLException("Failed to bind color texture", "glBindTexture");
+    backend.glTexImage2D(
+        GLBackend.GL_TEXTURE_2D,
         /*level=*/ 0,
-        GLES30.GL_RGBA,
+        GLBackend.GL_RGBA,
         width,
         height,
         /*border=*/ 0,
-        GLES30.GL_RGBA,
-        GLES30.GL_UNSIGNED_BYTE,
+        GLBackend.GL_RGBA,
+        GLBackend.GL_UNSIGNED_BYTE,
         /*pixels=*/ null);
-    GLError.maybeThrowGLException("Failed to specify color texture format", "glTexImage2D");
+    backend.maybeThrowGLException("Failed to specify color texture format", "glTexImage2D");
 
     // Depth texture
-    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, depthTexture.getTextureId());
-    GLError.maybeThrowGLException("Failed to bind depth texture", "glBindTexture");
-    GLES30.glTexImage2D(
-        GLES30.GL_TEXTURE_2D,
+    backend.glBindTexture(GLBackend.GL_TEXTURE_2D, depthTexture.getTextureId());
+    backend.maybeThrowGLException("Failed to bind depth texture", "glBindTexture");
+    backend.glTexImage2D(
+        GLBackend.GL_TEXTURE_2D,
         /*level=*/ 0,
-        GLES30.GL_DEPTH_COMPONENT32F,
+        GLBackend.GL_DEPTH_COMPONENT32F,
         width,
         height,
         /*border=*/ 0,
-        GLES30.GL_DEPTH_COMPONENT,
-        GLES30.GL_FLOAT,
+        GLBackend.GL_DEPTH_COMPONENT,
+        GLBackend.GL_FLOAT,
         /*pixels=*/ null);
-    GLError.maybeThrowGLException("Failed to specify depth texture format", "glTexImage2D");
+    backend.maybeThrowGLException("Failed to specify depth texture format", "glTexImage2D");
   }
 
   /** Returns the color texture associated with this framebuffer. */
@@ -15,8 +15,6 @@
  */
 package com.google.ar.core.examples.java.common.samplerender;
 
-import android.opengl.GLES30;
-import android.util.Log;
 import de.javagl.obj.Obj;
 import de.javagl.obj.ObjData;
 import de.javagl.obj.ObjReader;
@@ -26,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * A collection of vertices, faces, and other attributes that define how to render a 3D object.
@@ -43,13 +42,13 @@ public class Mesh implements Closeable {
    * behave.
    */
   public enum PrimitiveMode {
-    POINTS(GLES30.GL_POINTS),
-    LINE_STRIP(GLES30.GL_LINE_STRIP),
-    LINE_LOOP(GLES30.GL_LINE_LOOP),
-    LINES(GLES30.GL_LINES),
-    TRIANGLE_STRIP(GLES30.GL_TRIANGLE_STRIP),
-    TRIANGLE_FAN(GLES30.GL_TRIANGLE_FAN),
-    TRIANGLES(GLES30.GL_TRIANGLES);
+    POINTS(GLBackend.GL_POINTS),
+    LINE_STRIP(GLBackend.GL_LINE_STRIP),
+    LINE_LOOP(GLBackend.GL_LINE_LOOP),
+    LINES(GLBackend.GL_LINES),
+    TRIANGLE_STRIP(GLBackend.GL_TRIANGLE_STRIP),
+    TRIANGLE_FAN(GLBackend.GL_TRIANGLE_FAN),
+    TRIANGLES(GLBackend.GL_TRIANGLES);
 
     /* package-private */
     final int glesEnum;
@@ -59,10 +58,18 @@ public class Mesh implements Closeable {
     }
   }
 
+  private final GLBackend backend;
   private final int[] vertexArrayId = {0};
   private final PrimitiveMode primitiveMode;
   private final IndexBuffer indexBuffer;
   private final VertexBuffer[] vertexBuffers;
+  private final VertexBuffer[] instanceBuffers;
+  // The buffer objects and offsets the vertex array currently points to, which change for buffers
+  // created with VertexBuffer.createStreaming() and IndexBuffer.createStreaming().
+  private int boundIndexBufferId;
+  private final int[] boundBufferIds;
+  private final int[] boundBufferOffsets;
+  private BoundingBox boundingBox;
 
   /**
    * Construct a {@link Mesh}.
@@ -81,39 +88,52 @@ public class Mesh implements Closeable {
       PrimitiveMode primitiveMode,
       IndexBuffer indexBuffer,
       VertexBuffer[] vertexBuffers) {
+    this(render, primitiveMode, indexBuffer, vertexBuffers, /*instanceBuffers=*/ null);
+  }
+
+  /**
+   * Construct a {@link Mesh} with per-instance attributes, to be drawn with {@link
+   * SampleRender#drawInstanced}.
+   *
+   * <p>The {@code instanceBuffers} hold one entry per instance rather than per vertex. Their
+   * attribute locations follow those of the {@code vertexBuffers}, in order. An instance buffer
+   * with more than four entries per instance occupies one attribute location for every four
+   * entries, so that e.g. a {@code mat4} attribute can be passed with 16 entries per instance. For
+   * example, with three vertex buffers, an instance buffer with 16 entries per instance is bound to
+   * locations 3 to 6 and may be declared in shader code as {@code layout(location = 3) in mat4
+   * a_Model;}.
+   *
+   * <p>The {@code instanceBuffers} argument may be null, in which case the {@link Mesh} has no
+   * per-instance attributes.
+   */
+  public Mesh(
+      SampleRender render,
+      PrimitiveMode primitiveMode,
+      IndexBuffer indexBuffer,
+      VertexBuffer[] vertexBuffers,
+      VertexBuffer[] instanceBuffers) {
     if (vertexBuffers == null || vertexBuffers.length == 0) {
       throw new IllegalArgumentException("Must pass at least one vertex buffer");
     }
 
+    this.backend = render.getBackend();
     this.primitiveMode = primitiveMode;
     this.indexBuffer = indexBuffer;
     this.vertexBuffers = vertexBuffers;
+    this.instanceBuffers = instanceBuffers == null ? new VertexBuffer[0] : instanceBuffers;
+    this.boundBufferIds = new int[vertexBuffers.length + this.instanceBuffers.length];
+    this.boundBufferOffsets = new int[vertexBuffers.length + this.instanceBuffers.length];
 
     try {
       // Create vertex array
-      GLES30.glGenVertexArrays(1, vertexArrayId, 0);
-      GLError.maybeThrowGLException("Failed to generate a vertex array", "glGenVertexArrays");
+      backend.glGenVertexArrays(1, vertexArrayId, 0);
+      backend.maybeThrowGLException("Failed to generate a vertex array", "glGenVertexArrays");
 
       // Bind vertex array
-      GLES30.glBindVertexArray(vertexArrayId[0]);
-      GLError.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
-
-      if (indexBuffer != null) {
-        GLES30.glBindBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.getBufferId());
-      }
+      backend.glBindVertexArray(vertexArrayId[0]);
+      backend.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
 
-      for (int i = 0; i < vertexBuffers.length; ++i) {
-        // Bind each vertex buffer to vertex array
-        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, vertexBuffers[i].getBufferId());
-        GLError.maybeThrowGLException("Failed to bind vertex buffer", "glBindBuffer");
-        GLES30.glVertexAttribPointer(
-            i, vertexBuffers[i].getNumberOfEntriesPerVertex(), GLES30.GL_FLOAT, false, 0, 0);
-        GLError.maybeThrowGLException(
-            "Failed to associate vertex buffer with vertex array", "glVertexAttribPointer");
-        GLES30.glEnableVertexAttribArray(i);
-        GLError.maybeThrowGLException(
-            "Failed to enable vertex buffer", "glEnableVertexAttribArray");
-      }
+      updateBufferBindings(/*force=*/ true);
     } catch (Throwable t) {
       close();
       throw t;
@@ -121,13 +141,33 @@ public class Mesh implements Closeable {
   }
 
   /**
-   * Constructs a {@link Mesh} from the given Wavefront OBJ file.
+   * Constructs a {@link Mesh} from the given Wavefront OBJ file, or binary mesh file if the name
+   * ends with {@code .mesh}.
    *
    * <p>The {@link Mesh} will be constructed with three attributes, indexed in the order of local
    * coordinates (location 0, vec3), texture coordinates (location 1, vec2), and vertex normals
    * (location 2, vec3).
+   *
+   * <p>Binary mesh files are converted from OBJ files ahead of time with {@code
+   * tools/convert_obj_to_mesh.py}. They are memory-mapped and uploaded as they are, which avoids
+   * parsing the OBJ text and copying the data on the GL thread.
    */
   public static Mesh createFromAsset(SampleRender render, String assetFileName) throws IOException {
+    return createFromAsset(render, assetFileName, /*instanceBuffers=*/ null);
+  }
+
+  /**
+   * Constructs a {@link Mesh} from the given Wavefront OBJ or binary mesh file, with the given
+   * per-instance attributes bound starting at location 3.
+   *
+   * @see #Mesh(SampleRender, PrimitiveMode, IndexBuffer, VertexBuffer[], VertexBuffer[])
+   */
+  public static Mesh createFromAsset(
+      SampleRender render, String assetFileName, VertexBuffer[] instanceBuffers)
+      throws IOException {
+    if (assetFileName.endsWith(BinaryMesh.FILE_EXTENSION)) {
+      return createFromBinaryMesh(render, BinaryMesh.read(render, assetFileName), instanceBuffers);
+    }
     try (InputStream inputStream = render.getAssets().open(assetFileName)) {
       Obj obj = ObjUtils.convertToRenderable(ObjReader.read(inputStream));
 
@@ -145,50 +185,235 @@ public class Mesh implements Closeable {
 
       IndexBuffer indexBuffer = new IndexBuffer(render, vertexIndices);
 
-      return new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers);
+      Mesh mesh =
+          new Mesh(
+              render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers, instanceBuffers);
+      mesh.setBoundingBox(BoundingBox.fromVertices(localCoordinates, 3));
+      return mesh;
     }
   }
 
+  private static Mesh createFromBinaryMesh(
+      SampleRender render, BinaryMesh binaryMesh, VertexBuffer[] instanceBuffers) {
+    VertexBuffer[] vertexBuffers = {
+      new VertexBuffer(render, 3, binaryMesh.localCoordinates),
+      new VertexBuffer(render, 2, binaryMesh.textureCoordinates),
+      new VertexBuffer(render, 3, binaryMesh.normals),
+    };
+
+    IndexBuffer indexBuffer =
+        binaryMesh.indices instanceof ShortBuffer
+            ? IndexBuffer.createWithShortIndices(render, (ShortBuffer) binaryMesh.indices)
+            : new IndexBuffer(render, (IntBuffer) binaryMesh.indices);
+
+    Mesh mesh =
+        new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers, instanceBuffers);
+    mesh.setBoundingBox(binaryMesh.boundingBox);
+    return mesh;
+  }
+
   @Override
   public void close() {
     if (vertexArrayId[0] != 0) {
-      GLES30.glDeleteVertexArrays(1, vertexArrayId, 0);
-      GLError.maybeLogGLError(
-          Log.WARN, TAG, "Failed to free vertex array object", "glDeleteVertexArrays");
+      backend.glDeleteVertexArrays(1, vertexArrayId, 0);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to free vertex array object", "glDeleteVertexArrays");
     }
   }
 
+  /**
+   * Sets the {@link BoundingBox} of the mesh's vertices in local coordinates, used by {@link
+   * FrustumCuller}. Meshes created with {@link #createFromAsset} have their bounding box set
+   * automatically.
+   *
+   * <p>The {@code boundingBox} argument may be null, in which case the mesh is never culled.
+   */
+  public void setBoundingBox(BoundingBox boundingBox) {
+    this.boundingBox = boundingBox;
+  }
+
+  /** Returns the {@link BoundingBox} of the mesh, or null if it has none. */
+  public BoundingBox getBoundingBox() {
+    return boundingBox;
+  }
+
   /**
    * Draws the mesh. Don't call this directly unless you are doing low level OpenGL code; instead,
    * prefer {@link SampleRender#draw}.
    */
   public void lowLevelDraw() {
+    lowLevelDraw(/*first=*/ 0, getElementCount(), /*instanceCount=*/ 1, /*instanced=*/ false);
+  }
+
+  /**
+   * Draws {@code count} elements of the mesh starting at element {@code first}, where elements are
+   * indices if the mesh has an {@link IndexBuffer} and vertices otherwise. Don't call this directly
+   * unless you are doing low level OpenGL code; instead, prefer {@link SampleRender#drawRange}.
+   */
+  public void lowLevelDrawRange(int first, int count) {
+    int elementCount = getElementCount();
+    if (first < 0 || count < 0 || first + count > elementCount) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Range [%d, %d) is out of bounds of the mesh's %d elements",
+              first, first + count, elementCount));
+    }
+    lowLevelDraw(first, count, /*instanceCount=*/ 1, /*instanced=*/ false);
+  }
+
+  /**
+   * Draws {@code instanceCount} instances of the mesh. Don't call this directly unless you are
+   * doing low level OpenGL code; instead, prefer {@link SampleRender#drawInstanced}.
+   */
+  public void lowLevelDrawInstanced(int instanceCount) {
+    for (VertexBuffer instanceBuffer : instanceBuffers) {
+      if (instanceBuffer.getNumberOfVertices() < instanceCount) {
+        throw new IllegalStateException(
+            String.format(
+                "Instance buffer holds %d instances, but %d were requested",
+                instanceBuffer.getNumberOfVertices(), instanceCount));
+      }
+    }
+    lowLevelDraw(/*first=*/ 0, getElementCount(), instanceCount, /*instanced=*/ true);
+  }
+
+  /** Returns the number of indices if the mesh has an {@link IndexBuffer}, or vertices if not. */
+  private int getElementCount() {
+    if (indexBuffer != null) {
+      return indexBuffer.getSize();
+    }
+    // Sanity check for debugging
+    int vertexCount = vertexBuffers[0].getNumberOfVertices();
+    for (int i = 1; i < vertexBuffers.length; ++i) {
+      int iterCount = vertexBuffers[i].getNumberOfVertices();
+      if (iterCount != vertexCount) {
+        throw new IllegalStateException(
+            String.format(
+                "Vertex buffers have mismatching numbers of vertices ([0] has %d but [%d] has"
+                    + " %d)",
+                vertexCount, i, iterCount));
+      }
+    }
+    return vertexCount;
+  }
+
+  private void lowLevelDraw(int first, int count, int instanceCount, boolean instanced) {
     if (vertexArrayId[0] == 0) {
       throw new IllegalStateException("Tried to draw a freed Mesh");
     }
 
-    GLES30.glBindVertexArray(vertexArrayId[0]);
-    GLError.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
+    backend.glBindVertexArray(vertexArrayId[0]);
+    backend.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
+    updateBufferBindings(/*force=*/ false);
     if (indexBuffer == null) {
-      // Sanity check for debugging
-      int vertexCount = vertexBuffers[0].getNumberOfVertices();
-      for (int i = 1; i < vertexBuffers.length; ++i) {
-        int iterCount = vertexBuffers[i].getNumberOfVertices();
-        if (iterCount != vertexCount) {
-          throw new IllegalStateException(
-              String.format(
-                  "Vertex buffers have mismatching numbers of vertices ([0] has %d but [%d] has"
-                      + " %d)",
-                  vertexCount, i, iterCount));
-        }
+      if (instanced) {
+        backend.glDrawArraysInstanced(primitiveMode.glesEnum, first, count, instanceCount);
+        backend.maybeThrowGLException(
+            "Failed to draw instanced vertex array object", "glDrawArraysInstanced");
+      } else {
+        backend.glDrawArrays(primitiveMode.glesEnum, first, count);
+        backend.maybeThrowGLException("Failed to draw vertex array object", "glDrawArrays");
       }
-      GLES30.glDrawArrays(primitiveMode.glesEnum, 0, vertexCount);
-      GLError.maybeThrowGLException("Failed to draw vertex array object", "glDrawArrays");
     } else {
-      GLES30.glDrawElements(
-          primitiveMode.glesEnum, indexBuffer.getSize(), GLES30.GL_UNSIGNED_INT, 0);
-      GLError.maybeThrowGLException(
-          "Failed to draw vertex array object with indices", "glDrawElements");
+      int indexType = indexBuffer.getIndexType();
+      int offset = indexBuffer.getOffset() + first * indexBuffer.getBytesPerIndex();
+      if (instanced) {
+        backend.glDrawElementsInstanced(
+            primitiveMode.glesEnum, count, indexType, offset, instanceCount);
+        backend.maybeThrowGLException(
+            "Failed to draw instanced vertex array object with indices",
+            "glDrawElementsInstanced");
+      } else {
+        backend.glDrawElements(primitiveMode.glesEnum, count, indexType, offset);
+        backend.maybeThrowGLException(
+            "Failed to draw vertex array object with indices", "glDrawElements");
+      }
+    }
+  }
+
+  /**
+   * Points the vertex array to the buffer objects and offsets of the index, vertex and instance
+   * buffers, skipping those which have not changed unless {@code force} is set. The vertex array
+   * must be bound.
+   */
+  private void updateBufferBindings(boolean force) {
+    if (indexBuffer != null && (force || indexBuffer.getBufferId() != boundIndexBufferId)) {
+      boundIndexBufferId = indexBuffer.getBufferId();
+      backend.glBindBuffer(GLBackend.GL_ELEMENT_ARRAY_BUFFER, boundIndexBufferId);
+      backend.maybeThrowGLException("Failed to bind index buffer", "glBindBuffer");
+    }
+
+    for (int i = 0; i < vertexBuffers.length; ++i) {
+      // Bind each vertex buffer to vertex array
+      VertexBuffer vertexBuffer = vertexBuffers[i];
+      boolean changed = updateBinding(i, vertexBuffer);
+      if (!force && !changed) {
+        continue;
+      }
+      backend.glBindBuffer(GLBackend.GL_ARRAY_BUFFER, boundBufferIds[i]);
+      backend.maybeThrowGLException("Failed to bind vertex buffer", "glBindBuffer");
+      backend.glVertexAttribPointer(
+          i,
+          vertexBuffer.getNumberOfEntriesPerVertex(),
+          GLBackend.GL_FLOAT,
+          false,
+          0,
+          boundBufferOffsets[i]);
+      backend.maybeThrowGLException(
+          "Failed to associate vertex buffer with vertex array", "glVertexAttribPointer");
+      if (force) {
+        backend.glEnableVertexAttribArray(i);
+        backend.maybeThrowGLException(
+            "Failed to enable vertex buffer", "glEnableVertexAttribArray");
+      }
+    }
+
+    int location = vertexBuffers.length;
+    for (int i = 0; i < instanceBuffers.length; ++i) {
+      // Bind each instance buffer to vertex array, splitting it into attributes of at most four
+      // components each, which advance once per instance rather than once per vertex.
+      VertexBuffer instanceBuffer = instanceBuffers[i];
+      int numberOfEntries = instanceBuffer.getNumberOfEntriesPerVertex();
+      int binding = vertexBuffers.length + i;
+      boolean changed = updateBinding(binding, instanceBuffer);
+      if (!force && !changed) {
+        location += (numberOfEntries + 3) / 4;
+        continue;
+      }
+      backend.glBindBuffer(GLBackend.GL_ARRAY_BUFFER, boundBufferIds[binding]);
+      backend.maybeThrowGLException("Failed to bind instance buffer", "glBindBuffer");
+      int stride = numberOfEntries * GpuBuffer.FLOAT_SIZE;
+      for (int entry = 0; entry < numberOfEntries; entry += 4, ++location) {
+        backend.glVertexAttribPointer(
+            location,
+            Math.min(4, numberOfEntries - entry),
+            GLBackend.GL_FLOAT,
+            false,
+            stride,
+            boundBufferOffsets[binding] + entry * GpuBuffer.FLOAT_SIZE);
+        backend.maybeThrowGLException(
+            "Failed to associate instance buffer with vertex array", "glVertexAttribPointer");
+        if (force) {
+          backend.glVertexAttribDivisor(location, 1);
+          backend.maybeThrowGLException(
+              "Failed to set instance buffer divisor", "glVertexAttribDivisor");
+          backend.glEnableVertexAttribArray(location);
+          backend.maybeThrowGLException(
+              "Failed to enable instance buffer", "glEnableVertexAttribArray");
+        }
+      }
+    }
+  }
+
+  /** Records the buffer object and offset of a binding, and returns whether they changed. */
+  private boolean updateBinding(int binding, VertexBuffer buffer) {
+    int bufferId = buffer.getBufferId();
+    int offset = buffer.getOffset();
+    if (bufferId == boundBufferIds[binding] && offset == boundBufferOffsets[binding]) {
+      return false;
     }
+    boundBufferIds[binding] = bufferId;
+    boundBufferOffsets[binding] = offset;
+    return true;
   }
 }
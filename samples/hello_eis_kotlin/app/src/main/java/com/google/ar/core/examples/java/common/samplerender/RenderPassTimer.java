@@ -0,0 +1,234 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.util.ArrayDeque;
+
+/**
+ * Measures the CPU and GPU time of named render passes and records them as {@link RenderSpan}s in
+ * a {@link RenderSpanBuffer}.
+ *
+ * <p>Each pass is enclosed by {@link #beginPass} and {@link #endPass}, and passes must not overlap.
+ * GPU times are measured with <a
+ * href="https://registry.khronos.org/OpenGL/extensions/EXT/EXT_disjoint_timer_query.txt">EXT_disjoint_timer_query</a>
+ * if the device supports it. Their results only become available a few frames later, so spans are
+ * added to the buffer once their GPU time is known. Without GPU timing, spans are added as soon as
+ * they end and no OpenGL functions are called at all.
+ *
+ * <p>Use {@link SampleRender#getRenderPassTimer} to get the timer of a {@link SampleRender}, which
+ * is told about the start of each frame.
+ */
+public class RenderPassTimer {
+  private static final String TAG = RenderPassTimer.class.getSimpleName();
+
+  // Constants of EXT_disjoint_timer_query, which are not part of GLES30.
+  private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+  private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+  private static final String DISJOINT_TIMER_QUERY_EXTENSION = "GL_EXT_disjoint_timer_query";
+
+  // If this many passes are waiting for their GPU time, further passes are only timed on the CPU.
+  private static final int MAX_PENDING_QUERIES = 64;
+
+  private static class PendingSpan {
+    final String name;
+    final long frameNumber;
+    final long cpuStartNanos;
+    final long cpuDurationNanos;
+    final int query;
+    // Set if the GPU reported a disjoint operation, e.g. a frequency change, after the pass began.
+    boolean disjoint;
+
+    PendingSpan(
+        String name, long frameNumber, long cpuStartNanos, long cpuDurationNanos, int query) {
+      this.name = name;
+      this.frameNumber = frameNumber;
+      this.cpuStartNanos = cpuStartNanos;
+      this.cpuDurationNanos = cpuDurationNanos;
+      this.query = query;
+    }
+  }
+
+  private final GLBackend backend;
+  private final RenderSpanBuffer spans;
+  private final boolean gpuTimingSupported;
+  private final ArrayDeque<Integer> idleQueries = new ArrayDeque<>();
+  private final ArrayDeque<PendingSpan> pendingSpans = new ArrayDeque<>();
+  private final int[] queryResult = new int[1];
+  private int numberOfQueries;
+
+  private long frameNumber;
+  // The pass which is currently open, or null.
+  private String passName;
+  private long passStartNanos;
+  private int passQuery;
+
+  /**
+   * Constructs a {@link RenderPassTimer} which adds spans to the given buffer.
+   *
+   * @param backend GLBackend to issue the timer queries to
+   * @param gpuTimingSupported Whether the current GL context supports EXT_disjoint_timer_query; if
+   *     false, only CPU times are recorded and the timer may be used without a GL context
+   */
+  public RenderPassTimer(GLBackend backend, RenderSpanBuffer spans, boolean gpuTimingSupported) {
+    this.backend = backend;
+    this.spans = spans;
+    this.gpuTimingSupported = gpuTimingSupported;
+  }
+
+  /** Returns whether the GL context of {@code backend} supports EXT_disjoint_timer_query. */
+  public static boolean isGpuTimingSupported(GLBackend backend) {
+    String extensions = backend.glGetString(GLBackend.GL_EXTENSIONS);
+    backend.maybeLogGLError(GLBackend.LOG_WARN, TAG, "Failed to query extensions", "glGetString");
+    return extensions != null && extensions.contains(DISJOINT_TIMER_QUERY_EXTENSION);
+  }
+
+  /** Returns the buffer the spans are added to. */
+  public RenderSpanBuffer getSpans() {
+    return spans;
+  }
+
+  /** Begins the render pass with the given name. */
+  public void beginPass(String name) {
+    if (passName != null) {
+      throw new IllegalStateException(
+          "Render pass " + name + " begun while render pass " + passName + " is still open");
+    }
+    passName = name;
+    passQuery = 0;
+    if (gpuTimingSupported) {
+      passQuery = obtainQuery();
+      if (passQuery != 0) {
+        backend.glBeginQuery(GL_TIME_ELAPSED_EXT, passQuery);
+        backend.maybeLogGLError(
+            GLBackend.LOG_WARN, TAG, "Failed to begin timer query", "glBeginQuery");
+      }
+    }
+    passStartNanos = System.nanoTime();
+  }
+
+  /** Ends the render pass begun by the last call to {@link #beginPass}. */
+  public void endPass() {
+    long endNanos = System.nanoTime();
+    if (passName == null) {
+      throw new IllegalStateException("No render pass is open");
+    }
+    if (passQuery != 0) {
+      backend.glEndQuery(GL_TIME_ELAPSED_EXT);
+      backend.maybeLogGLError(GLBackend.LOG_WARN, TAG, "Failed to end timer query", "glEndQuery");
+      pendingSpans.add(
+          new PendingSpan(
+              passName, frameNumber, passStartNanos, endNanos - passStartNanos, passQuery));
+    } else {
+      spans.add(
+          new RenderSpan(
+              passName,
+              frameNumber,
+              passStartNanos,
+              endNanos - passStartNanos,
+              RenderSpan.UNKNOWN_DURATION));
+    }
+    passName = null;
+  }
+
+  /**
+   * Advances the frame number and adds the spans whose GPU time has become available. Called by
+   * {@link SampleRender} at the start of each frame; must be called on the GL thread.
+   */
+  public void onFrameStart() {
+    if (passName != null) {
+      backend.log(GLBackend.LOG_WARN, TAG, "Render pass " + passName + " was not ended");
+      endPass();
+    }
+    ++frameNumber;
+    if (pendingSpans.isEmpty()) {
+      return;
+    }
+
+    // Reading the disjoint state also resets it. If it is set, the results of all queries which
+    // were active at some point since the last check are meaningless.
+    backend.glGetIntegerv(GL_GPU_DISJOINT_EXT, queryResult, 0);
+    backend.maybeLogGLError(
+        GLBackend.LOG_WARN, TAG, "Failed to query GPU disjoint state", "glGetIntegerv");
+    if (queryResult[0] != 0) {
+      for (PendingSpan pendingSpan : pendingSpans) {
+        pendingSpan.disjoint = true;
+      }
+    }
+
+    // Queries complete in the order they were issued.
+    while (!pendingSpans.isEmpty()) {
+      PendingSpan pendingSpan = pendingSpans.peek();
+      backend.glGetQueryObjectuiv(
+          pendingSpan.query, GLBackend.GL_QUERY_RESULT_AVAILABLE, queryResult, 0);
+      if (queryResult[0] == GLBackend.GL_FALSE) {
+        break;
+      }
+      // glGetQueryObjectui64vEXT is not available from Java, so the result is limited to 32 bits,
+      // i.e. about four seconds, which is plenty for a single pass.
+      backend.glGetQueryObjectuiv(pendingSpan.query, GLBackend.GL_QUERY_RESULT, queryResult, 0);
+      long gpuDurationNanos =
+          pendingSpan.disjoint ? RenderSpan.UNKNOWN_DURATION : queryResult[0] & 0xffffffffL;
+      spans.add(
+          new RenderSpan(
+              pendingSpan.name,
+              pendingSpan.frameNumber,
+              pendingSpan.cpuStartNanos,
+              pendingSpan.cpuDurationNanos,
+              gpuDurationNanos));
+      pendingSpans.remove();
+      idleQueries.add(pendingSpan.query);
+    }
+    backend.maybeLogGLError(
+        GLBackend.LOG_WARN, TAG, "Failed to get timer query result", "glGetQueryObject");
+  }
+
+  /** Deletes the query objects. The timer must not be used afterwards. */
+  public void close() {
+    for (PendingSpan pendingSpan : pendingSpans) {
+      idleQueries.add(pendingSpan.query);
+    }
+    pendingSpans.clear();
+    int[] queries = new int[idleQueries.size()];
+    int i = 0;
+    for (int query : idleQueries) {
+      queries[i++] = query;
+    }
+    idleQueries.clear();
+    if (queries.length > 0) {
+      backend.glDeleteQueries(queries.length, queries, 0);
+      backend.maybeLogGLError(GLBackend.LOG_WARN, TAG, "Failed to free queries", "glDeleteQueries");
+    }
+  }
+
+  /** Returns an unused query object, or 0 if too many queries are pending. */
+  private int obtainQuery() {
+    Integer query = idleQueries.poll();
+    if (query != null) {
+      return query;
+    }
+    if (numberOfQueries >= MAX_PENDING_QUERIES) {
+      return 0;
+    }
+    queryResult[0] = 0;
+    backend.glGenQueries(1, queryResult, 0);
+    backend.maybeLogGLError(GLBackend.LOG_WARN, TAG, "Failed to create query", "glGenQueries");
+    if (queryResult[0] == 0) {
+      return 0;
+    }
+    ++numberOfQueries;
+    return queryResult[0];
+  }
+}
@@ -16,16 +16,30 @@
 package com.google.ar.core.examples.java.common.samplerender;
 
 import android.content.res.AssetManager;
-import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.opengles.GL10;
+import java.io.File;
 
 /** A SampleRender context. */
 public class SampleRender {
   private static final String TAG = SampleRender.class.getSimpleName();
 
+  // Enough for several seconds of frames with a handful of render passes each.
+  private static final int RENDER_SPAN_CAPACITY = 4096;
+
   private final AssetManager assetManager;
+  private final GLBackend backend;
+  private final GLStateCache stateCache;
+  private final File shaderCacheDirectory;
+  private final Renderer renderer;
+  // Whether the callbacks are driven by the caller rather than a GLSurfaceView.
+  private final boolean headless;
+  private StreamingBuffer streamingBuffer;
+  private ShaderCache shaderCache;
+  private TextureLoader textureLoader;
+  private RenderTargetPool renderTargetPool;
+  // Kept across GL contexts, unlike the timer, whose query objects belong to the context.
+  private final RenderSpanBuffer renderSpans = new RenderSpanBuffer(RENDER_SPAN_CAPACITY);
+  private RenderPassTimer renderPassTimer;
 
   private int viewportWidth = 1;
   private int viewportHeight = 1;
@@ -38,34 +52,81 @@ public class SampleRender {
    * @param assetManager AssetManager for loading Android resources
    */
   public SampleRender(GLSurfaceView glSurfaceView, Renderer renderer, AssetManager assetManager) {
+    this(glSurfaceView, renderer, assetManager, /*shaderCacheDirectory=*/ null);
+  }
+
+  /**
+   * Constructs a SampleRender object which stores the binaries of the shader programs it links,
+   * so that they do not need to be compiled again on the next launch.
+   *
+   * @param glSurfaceView Android GLSurfaceView
+   * @param renderer Renderer implementation to receive callbacks
+   * @param assetManager AssetManager for loading Android resources
+   * @param shaderCacheDirectory Directory to store shader program binaries in, typically within
+   *     {@link android.content.Context#getCacheDir}, or null to not store them
+   */
+  public SampleRender(
+      GLSurfaceView glSurfaceView,
+      Renderer renderer,
+      AssetManager assetManager,
+      File shaderCacheDirectory) {
+    this.assetManager = assetManager;
+    this.backend = AndroidGLBackend.INSTANCE;
+    this.stateCache = new GLStateCache(backend);
+    this.shaderCacheDirectory = shaderCacheDirectory;
+    this.renderer = renderer;
+    this.headless = false;
+    AndroidGLBackend.INSTANCE.attach(glSurfaceView, this);
+  }
+
+  /**
+   * Constructs a SampleRender object which is not attached to a surface and issues all GL calls to
+   * the given {@link GLBackend}, such as a {@link RecordingGLBackend}. This allows a {@link
+   * Renderer} to be run without a device, e.g. to count the GL calls it makes per frame. Its
+   * callbacks are invoked by {@link #surfaceCreated}, {@link #surfaceChanged} and {@link
+   * #drawFrame} instead of a GLSurfaceView. Other SampleRenders are not affected by the backend.
+   *
+   * @param renderer Renderer implementation to receive callbacks
+   * @param assetManager AssetManager for loading Android resources
+   * @param backend GLBackend to issue GL calls to
+   */
+  public SampleRender(Renderer renderer, AssetManager assetManager, GLBackend backend) {
+    if (backend == null) {
+      throw new IllegalArgumentException("GL backend must not be null");
+    }
     this.assetManager = assetManager;
-    glSurfaceView.setPreserveEGLContextOnPause(true);
-    glSurfaceView.setEGLContextClientVersion(3);
-    glSurfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0);
-    glSurfaceView.setRenderer(
-        new GLSurfaceView.Renderer() {
-          @Override
-          public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-            GLES30.glEnable(GLES30.GL_BLEND);
-            GLError.maybeThrowGLException("Failed to enable blending", "glEnable");
-            renderer.onSurfaceCreated(SampleRender.this);
-          }
-
-          @Override
-          public void onSurfaceChanged(GL10 gl, int w, int h) {
-            viewportWidth = w;
-            viewportHeight = h;
-            renderer.onSurfaceChanged(SampleRender.this, w, h);
-          }
-
-          @Override
-          public void onDrawFrame(GL10 gl) {
-            clear(/*framebuffer=*/ null, 0f, 0f, 0f, 1f);
-            renderer.onDrawFrame(SampleRender.this);
-          }
-        });
-    glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
-    glSurfaceView.setWillNotDraw(false);
+    this.backend = backend;
+    this.stateCache = new GLStateCache(backend);
+    this.shaderCacheDirectory = null;
+    this.renderer = renderer;
+    this.headless = true;
+  }
+
+  /**
+   * Invokes {@link Renderer#onSurfaceCreated} of a SampleRender constructed with a {@link
+   * GLBackend}, as a GLSurfaceView would when its surface is created.
+   */
+  public void surfaceCreated() {
+    checkHeadless();
+    handleSurfaceCreated();
+  }
+
+  /**
+   * Invokes {@link Renderer#onSurfaceChanged} of a SampleRender constructed with a {@link
+   * GLBackend}, as a GLSurfaceView would when its surface is resized.
+   */
+  public void surfaceChanged(int width, int height) {
+    checkHeadless();
+    handleSurfaceChanged(width, height);
+  }
+
+  /**
+   * Draws a frame with a SampleRender constructed with a {@link GLBackend}, as a GLSurfaceView
+   * would for each frame.
+   */
+  public void drawFrame() {
+    checkHeadless();
+    handleDrawFrame();
   }
 
   /** Draw a {@link Mesh} with the specified {@link Shader}. */
@@ -84,6 +145,41 @@ public class SampleRender {
     mesh.lowLevelDraw();
   }
 
+  /**
+   * Draw part of a {@link Mesh} with the specified {@link Shader} to the given {@link
+   * Framebuffer}.
+   *
+   * <p>Only the {@code count} elements starting at element {@code first} are drawn, where elements
+   * are indices if the {@link Mesh} has an {@link IndexBuffer} and vertices otherwise. This allows
+   * several objects whose geometry is stored in the same buffers to be drawn separately.
+   *
+   * <p>The {@code framebuffer} argument may be null, in which case the default framebuffer is used.
+   */
+  public void drawRange(Mesh mesh, Shader shader, Framebuffer framebuffer, int first, int count) {
+    useFramebuffer(framebuffer);
+    shader.lowLevelUse();
+    mesh.lowLevelDrawRange(first, count);
+  }
+
+  /**
+   * Draw {@code instanceCount} instances of a {@link Mesh} with the specified {@link Shader} to the
+   * given {@link Framebuffer}, in a single draw call.
+   *
+   * <p>Per-instance data is provided by the instance buffers the {@link Mesh} was constructed with,
+   * which must hold at least {@code instanceCount} entries. Nothing is drawn if {@code
+   * instanceCount} is zero.
+   *
+   * <p>The {@code framebuffer} argument may be null, in which case the default framebuffer is used.
+   */
+  public void drawInstanced(Mesh mesh, Shader shader, Framebuffer framebuffer, int instanceCount) {
+    if (instanceCount == 0) {
+      return;
+    }
+    useFramebuffer(framebuffer);
+    shader.lowLevelUse();
+    mesh.lowLevelDrawInstanced(instanceCount);
+  }
+
   /**
    * Clear the given framebuffer.
    *
@@ -92,12 +188,11 @@ public class SampleRender {
    */
   public void clear(Framebuffer framebuffer, float r, float g, float b, float a) {
     useFramebuffer(framebuffer);
-    GLES30.glClearColor(r, g, b, a);
-    GLError.maybeThrowGLException("Failed to set clear color", "glClearColor");
-    GLES30.glDepthMask(true);
-    GLError.maybeThrowGLException("Failed to set depth write mask", "glDepthMask");
-    GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT | GLES30.GL_DEPTH_BUFFER_BIT);
-    GLError.maybeThrowGLException("Failed to clear framebuffer", "glClear");
+    backend.glClearColor(r, g, b, a);
+    backend.maybeThrowGLException("Failed to set clear color", "glClearColor");
+    stateCache.setDepthMask(true);
+    backend.glClear(GLBackend.GL_COLOR_BUFFER_BIT | GLBackend.GL_DEPTH_BUFFER_BIT);
+    backend.maybeThrowGLException("Failed to clear framebuffer", "glClear");
   }
 
   /** Interface to be implemented for rendering callbacks. */
@@ -124,11 +219,142 @@ public class SampleRender {
     public void onDrawFrame(SampleRender render);
   }
 
+  /**
+   * Returns the {@link GLBackend} to which this SampleRender and the GL objects created with it
+   * issue their GL calls.
+   */
+  public GLBackend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Returns the {@link GLStateCache} used to skip redundant state changes, e.g. to query its
+   * per-frame counters.
+   */
+  public GLStateCache getStateCache() {
+    return stateCache;
+  }
+
+  /**
+   * Returns the {@link RenderPassTimer} with which the {@link Renderer} may time its render passes.
+   * Must be called on the GL thread. Its spans can be read from any thread via {@link
+   * #getRenderSpans}.
+   */
+  public RenderPassTimer getRenderPassTimer() {
+    if (renderPassTimer == null) {
+      renderPassTimer =
+          new RenderPassTimer(backend, renderSpans, RenderPassTimer.isGpuTimingSupported(backend));
+    }
+    return renderPassTimer;
+  }
+
+  /**
+   * Returns the most recent spans recorded by the {@link RenderPassTimer}, e.g. to export them with
+   * {@link ChromeTraceWriter}. Unlike the timer itself, the spans survive the loss of the GL
+   * context.
+   */
+  public RenderSpanBuffer getRenderSpans() {
+    return renderSpans;
+  }
+
+  /**
+   * Returns the {@link RenderTargetPool} from which render targets needed for part of a frame may
+   * be acquired. Must be called on the GL thread.
+   */
+  public RenderTargetPool getRenderTargetPool() {
+    if (renderTargetPool == null) {
+      renderTargetPool = new RenderTargetPool(this);
+    }
+    return renderTargetPool;
+  }
+
+  /**
+   * Returns the directory in which shader program binaries and other data derived from them are
+   * stored across launches, or null if nothing is stored.
+   */
+  public File getShaderCacheDirectory() {
+    return shaderCacheDirectory;
+  }
+
+  /* package-private */
+  StreamingBuffer getStreamingBuffer() {
+    if (streamingBuffer == null) {
+      streamingBuffer = new StreamingBuffer(backend);
+    }
+    return streamingBuffer;
+  }
+
+  /* package-private */
+  ShaderCache getShaderCache() {
+    if (shaderCache == null) {
+      shaderCache = new ShaderCache(backend, shaderCacheDirectory);
+    }
+    return shaderCache;
+  }
+
+  /* package-private */
+  TextureLoader getTextureLoader() {
+    if (textureLoader == null) {
+      textureLoader = new TextureLoader(backend, assetManager);
+    }
+    return textureLoader;
+  }
+
   /* package-private */
   AssetManager getAssets() {
     return assetManager;
   }
 
+  /* package-private */
+  void handleSurfaceCreated() {
+    // The GL context may have been recreated, so nothing is known about its state.
+    stateCache.invalidate();
+    // GL objects of the previous context are gone, so the streaming buffer, the idle shader
+    // programs and the idle render targets are recreated when first needed.
+    streamingBuffer = null;
+    shaderCache = null;
+    renderTargetPool = null;
+    if (textureLoader != null) {
+      textureLoader.onContextLost();
+    }
+    renderPassTimer = null;
+    backend.glEnable(GLBackend.GL_BLEND);
+    backend.maybeThrowGLException("Failed to enable blending", "glEnable");
+    renderer.onSurfaceCreated(this);
+  }
+
+  /* package-private */
+  void handleSurfaceChanged(int width, int height) {
+    viewportWidth = width;
+    viewportHeight = height;
+    renderer.onSurfaceChanged(this, width, height);
+  }
+
+  /* package-private */
+  void handleDrawFrame() {
+    stateCache.resetCounters();
+    if (renderPassTimer != null) {
+      renderPassTimer.onFrameStart();
+    }
+    if (textureLoader != null) {
+      textureLoader.uploadPending();
+    }
+    clear(/*framebuffer=*/ null, 0f, 0f, 0f, 1f);
+    renderer.onDrawFrame(this);
+    if (streamingBuffer != null) {
+      streamingBuffer.onFrameEnd();
+    }
+    if (renderTargetPool != null) {
+      renderTargetPool.onFrameEnd();
+    }
+  }
+
+  private void checkHeadless() {
+    if (!headless) {
+      throw new IllegalStateException("SampleRender is driven by its GLSurfaceView");
+    }
+  }
+
   private void useFramebuffer(Framebuffer framebuffer) {
     int framebufferId;
     int viewportWidth;
@@ -142,9 +368,6 @@ public class SampleRender {
       viewportWidth = framebuffer.getWidth();
       viewportHeight = framebuffer.getHeight();
     }
-    GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebufferId);
-    GLError.maybeThrowGLException("Failed to bind framebuffer", "glBindFramebuffer");
-    GLES30.glViewport(0, 0, viewportWidth, viewportHeight);
-    GLError.maybeThrowGLException("Failed to set viewport dimensions", "glViewport");
+    stateCache.bindFramebuffer(framebufferId, viewportWidth, viewportHeight);
   }
 }
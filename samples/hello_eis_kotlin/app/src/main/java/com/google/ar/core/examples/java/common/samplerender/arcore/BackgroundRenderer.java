@@ -16,10 +16,10 @@
 package com.google.ar.core.examples.java.common.samplerender.arcore;
 
 import android.media.Image;
-import android.opengl.GLES30;
 import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
 import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
+import com.google.ar.core.examples.java.common.samplerender.GLBackend;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
@@ -62,6 +62,7 @@ public class BackgroundRenderer {
   private final FloatBuffer cameraTexCoords =
       ByteBuffer.allocateDirect(COORDS_BUFFER_SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer();
 
+  private final GLBackend backend;
   private final Mesh mesh;
   private final VertexBuffer cameraTexCoordsVertexBuffer;
   private Shader backgroundShader;
@@ -80,6 +81,7 @@ public class BackgroundRenderer {
    * SampleRender.Renderer#onSurfaceCreated()}.
    */
   public BackgroundRenderer(SampleRender render) {
+    backend = render.getBackend();
     cameraColorTexture =
         new Texture(
             render,
@@ -202,16 +204,16 @@ public class BackgroundRenderer {
   /** Update depth texture with Image contents. */
   public void updateCameraDepthTexture(Image image) {
     // SampleRender abstraction leaks here
-    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, cameraDepthTexture.getTextureId());
-    GLES30.glTexImage2D(
-        GLES30.GL_TEXTURE_2D,
+    backend.glBindTexture(GLBackend.GL_TEXTURE_2D, cameraDepthTexture.getTextureId());
+    backend.glTexImage2D(
+        GLBackend.GL_TEXTURE_2D,
         0,
-        GLES30.GL_RG8,
+        GLBackend.GL_RG8,
         image.getWidth(),
         image.getHeight(),
         0,
-        GLES30.GL_RG,
-        GLES30.GL_UNSIGNED_BYTE,
+        GLBackend.GL_RG,
+        GLBackend.GL_UNSIGNED_BYTE,
         image.getPlanes()[0].getBuffer());
     if (useOcclusion) {
       aspectRatio = (float) image.getWidth() / (float) image.getHeight();
@@ -233,6 +235,11 @@ public class BackgroundRenderer {
    * Draws the virtual scene. Any objects rendered in the given {@link Framebuffer} will be drawn
    * given the previously specified {@link OcclusionMode}.
    *
+   * <p>The {@link Framebuffer} may have a lower resolution than the screen, e.g. one scaled by a
+   * {@link com.google.ar.core.examples.java.common.samplerender.DynamicResolutionController}. Its
+   * color is then upsampled with bilinear filtering, while its depth is sampled without filtering
+   * so that occlusion edges are not blended across objects at different depths.
+   *
    * <p>Virtual content should be rendered using the matrices provided by {@link
    * com.google.ar.core.Camera#getViewMatrix(float[], int)} and {@link
    * com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}.
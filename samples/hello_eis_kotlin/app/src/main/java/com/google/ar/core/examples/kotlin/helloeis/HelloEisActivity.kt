@@ -36,6 +36,7 @@ import com.google.ar.core.exceptions.UnavailableApkTooOldException
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException
+import java.io.File
 import java.util.EnumSet
 
 /**
@@ -104,7 +105,7 @@ class HelloEisActivity : AppCompatActivity() {
     setContentView(view.root)
 
     // Sets up an example renderer using our HelloARRenderer.
-    SampleRender(view.surfaceView, renderer, assets)
+    SampleRender(view.surfaceView, renderer, assets, File(cacheDir, "shaders"))
 
     depthSettings.onCreate(this)
     instantPlacementSettings.onCreate(this)
@@ -47,6 +47,8 @@ import com.google.ar.core.exceptions.CameraNotAvailableException
 import com.google.ar.core.exceptions.NotYetAvailableException
 import java.io.IOException
 import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
 
 /** Renders the HelloEis application using HelloEisBackgroundRenderer. */
 class HelloEisRenderer(val activity: HelloEisActivity) :
@@ -54,6 +56,13 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
   companion object {
     val TAG = "HelloEisRenderer"
 
+    private const val MAX_ANCHORS = 20
+
+    private fun createModelMatrixBuffer(numberOfMatrices: Int): FloatBuffer =
+      ByteBuffer.allocateDirect(numberOfMatrices * 16 * Float.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer()
+
     // See the definition of updateSphericalHarmonicsCoefficients for an explanation of these
     // constants.
     private val sphericalHarmonicFactors =
@@ -107,6 +116,12 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
   private lateinit var virtualObjectShader: Shader
   private lateinit var virtualObjectAlbedoTexture: Texture
   private lateinit var virtualObjectAlbedoInstantPlacementTexture: Texture
+  private lateinit var virtualObjectViewUniform: Shader.FloatUniform
+  private lateinit var virtualObjectProjectionUniform: Shader.FloatUniform
+  // Model matrices of the anchors to draw, so that all anchors sharing an albedo texture can be
+  // drawn with a single instanced draw call.
+  private lateinit var virtualObjectInstanceBuffer: VertexBuffer
+  private var virtualObjectModelMatrices = createModelMatrixBuffer(MAX_ANCHORS)
 
   private val wrappedAnchors = mutableListOf<WrappedAnchor>()
 
@@ -118,8 +133,6 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
   private val modelMatrix = FloatArray(16)
   private val viewMatrix = FloatArray(16)
   private val projectionMatrix = FloatArray(16)
-  private val modelViewMatrix = FloatArray(16) // view x model
-
   private val modelViewProjectionMatrix = FloatArray(16) // projection x view x model
 
   private val sphericalHarmonicsCoefficients = FloatArray(9 * 3)
@@ -205,7 +218,7 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
 
       // Virtual object to render (ARCore pawn)
       virtualObjectAlbedoTexture =
-        Texture.createFromAsset(
+        Texture.createFromAssetAsync(
           render,
           "models/pawn_albedo.png",
           Texture.WrapMode.CLAMP_TO_EDGE,
@@ -213,7 +226,7 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
         )
 
       virtualObjectAlbedoInstantPlacementTexture =
-        Texture.createFromAsset(
+        Texture.createFromAssetAsync(
           render,
           "models/pawn_albedo_instant_placement.png",
           Texture.WrapMode.CLAMP_TO_EDGE,
@@ -221,24 +234,32 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
         )
 
       val virtualObjectPbrTexture =
-        Texture.createFromAsset(
+        Texture.createFromAssetAsync(
           render,
           "models/pawn_roughness_metallic_ao.png",
           Texture.WrapMode.CLAMP_TO_EDGE,
           Texture.ColorFormat.LINEAR
         )
-      virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.obj")
+      virtualObjectInstanceBuffer =
+        VertexBuffer(render, /*numberOfEntriesPerVertex=*/ 16, /*entries=*/ null)
+      virtualObjectMesh =
+        Mesh.createFromAsset(render, "models/pawn.mesh", arrayOf(virtualObjectInstanceBuffer))
       virtualObjectShader =
         Shader.createFromAssets(
             render,
             "shaders/environmental_hdr.vert",
             "shaders/environmental_hdr.frag",
-            mapOf("NUMBER_OF_MIPMAP_LEVELS" to cubemapFilter.numberOfMipmapLevels.toString())
+            mapOf(
+              "NUMBER_OF_MIPMAP_LEVELS" to cubemapFilter.numberOfMipmapLevels.toString(),
+              "USE_INSTANCING" to "1"
+            )
           )
           .setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture)
           .setTexture("u_RoughnessMetallicAmbientOcclusionTexture", virtualObjectPbrTexture)
           .setTexture("u_Cubemap", cubemapFilter.filteredCubemapTexture)
           .setTexture("u_DfgTexture", dfgTexture)
+      virtualObjectViewUniform = virtualObjectShader.getMat4Uniform("u_View")
+      virtualObjectProjectionUniform = virtualObjectShader.getMat4Uniform("u_Projection")
     } catch (e: IOException) {
       Log.e(TAG, "Failed to read a required asset file", e)
       showError("Failed to read a required asset file: $e")
@@ -381,36 +402,55 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
 
     // Visualize anchors created by touch.
     render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f)
-    for ((anchor, trackable) in
-      wrappedAnchors.filter { it.anchor.trackingState == TrackingState.TRACKING }) {
-      // Get the current pose of an Anchor in world space. The Anchor pose is updated
-      // during calls to session.update() as ARCore refines its estimate of the world.
-      anchor.pose.toMatrix(modelMatrix, 0)
-
-      // Calculate model/view/projection matrices
-      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0)
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0)
-
-      // Update shader properties and draw
-      virtualObjectShader.setMat4("u_ModelView", modelViewMatrix)
-      virtualObjectShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix)
-      val texture =
-        if (
-          (trackable as? InstantPlacementPoint)?.trackingMethod ==
+    virtualObjectViewUniform.set(viewMatrix)
+    virtualObjectProjectionUniform.set(projectionMatrix)
+    // Anchors are drawn with one instanced draw call per albedo texture.
+    val (instantPlacementAnchors, otherAnchors) =
+      wrappedAnchors
+        .filter { it.anchor.trackingState == TrackingState.TRACKING }
+        .partition {
+          (it.trackable as? InstantPlacementPoint)?.trackingMethod ==
             InstantPlacementPoint.TrackingMethod.SCREENSPACE_WITH_APPROXIMATE_DISTANCE
-        ) {
-          virtualObjectAlbedoInstantPlacementTexture
-        } else {
-          virtualObjectAlbedoTexture
         }
-      virtualObjectShader.setTexture("u_AlbedoTexture", texture)
-      render.draw(virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer)
-    }
+    drawVirtualObjects(render, instantPlacementAnchors, virtualObjectAlbedoInstantPlacementTexture)
+    drawVirtualObjects(render, otherAnchors, virtualObjectAlbedoTexture)
 
     // Compose the virtual scene with the background.
     backgroundRenderer.drawVirtualScene(render, virtualSceneFramebuffer, Z_NEAR, Z_FAR)
   }
 
+  /** Draws the virtual object at each of the given anchors with the given albedo texture. */
+  private fun drawVirtualObjects(
+    render: SampleRender,
+    anchors: List<WrappedAnchor>,
+    albedoTexture: Texture
+  ) {
+    if (anchors.isEmpty()) {
+      return
+    }
+    if (virtualObjectModelMatrices.capacity() < anchors.size * 16) {
+      virtualObjectModelMatrices = createModelMatrixBuffer(anchors.size)
+    }
+    virtualObjectModelMatrices.clear()
+    for ((anchor, _) in anchors) {
+      // Get the current pose of an Anchor in world space. The Anchor pose is updated
+      // during calls to session.update() as ARCore refines its estimate of the world.
+      anchor.pose.toMatrix(modelMatrix, 0)
+      virtualObjectModelMatrices.put(modelMatrix)
+    }
+    virtualObjectModelMatrices.flip()
+
+    // Update shader properties and draw
+    virtualObjectInstanceBuffer.set(virtualObjectModelMatrices)
+    virtualObjectShader.setTexture("u_AlbedoTexture", albedoTexture)
+    render.drawInstanced(
+      virtualObjectMesh,
+      virtualObjectShader,
+      virtualSceneFramebuffer,
+      anchors.size
+    )
+  }
+
   /** Checks if we detected at least one plane. */
   private fun Session.hasTrackingPlane() =
     getAllTrackables(Plane::class.java).any { it.trackingState == TrackingState.TRACKING }
@@ -506,7 +546,7 @@ class HelloEisRenderer(val activity: HelloEisActivity) :
     if (firstHitResult != null) {
       // Cap the number of objects created. This avoids overloading both the
       // rendering system and ARCore.
-      if (wrappedAnchors.size >= 20) {
+      if (wrappedAnchors.size >= MAX_ANCHORS) {
         wrappedAnchors[0].anchor.detach()
         wrappedAnchors.removeAt(0)
       }
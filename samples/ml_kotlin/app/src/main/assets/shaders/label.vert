@@ -17,17 +17,25 @@
 
 layout(location = 0) in vec2 aPosition;
 layout(location = 1) in vec2 aTexPos;
+// Per instance: the label origin in xyz, and the index of its cell in the atlas page in w.
+layout(location = 2) in vec4 aLabel;
 
 out vec2 vTexPos;
 
 uniform mat4 u_ViewProjection;
 uniform vec3 u_CameraPos;
-uniform vec3 u_LabelOrigin;
+// The size of a cell in texture coordinates, and the number of cells in a row of the atlas page.
+uniform vec2 u_CellSize;
+uniform float u_CellsPerRow;
 
 void main() {
-  vTexPos = aTexPos;
-  vec3 labelNormal = normalize(u_CameraPos - u_LabelOrigin);
+  vec3 labelOrigin = aLabel.xyz;
+  float row = floor(aLabel.w / u_CellsPerRow);
+  vec2 cell = vec2(aLabel.w - row * u_CellsPerRow, row);
+  // Cells are stored top row first, so flip the texture vertically.
+  vTexPos = (cell + vec2(aTexPos.x, 1.0 - aTexPos.y)) * u_CellSize;
+  vec3 labelNormal = normalize(u_CameraPos - labelOrigin);
   vec3 labelSide = -cross(labelNormal, vec3(0.0, 1.0, 0.0));
-  vec3 modelPosition = u_LabelOrigin + aPosition.x*0.1 * labelSide + aPosition.y * vec3(0.0, 1.0, 0.0)*0.1;
+  vec3 modelPosition = labelOrigin + aPosition.x*0.1 * labelSide + aPosition.y * vec3(0.0, 1.0, 0.0)*0.1;
   gl_Position = u_ViewProjection * vec4(modelPosition, 1.0);
 }
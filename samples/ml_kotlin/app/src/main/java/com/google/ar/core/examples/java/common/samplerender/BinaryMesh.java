@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The contents of a binary mesh file, as written by {@code tools/convert_obj_to_mesh.py}.
+ *
+ * <p>The file is memory-mapped and the attribute and index buffers are views of the mapping, so
+ * they can be uploaded to the GPU without parsing or copying the data first. See the converter for
+ * a description of the format.
+ */
+/* package-private */
+class BinaryMesh {
+  private static final String TAG = BinaryMesh.class.getSimpleName();
+
+  /** The file name extension of binary mesh files. */
+  static final String FILE_EXTENSION = ".mesh";
+
+  // "MESH" read as a little-endian integer.
+  private static final int MAGIC = 0x4853454D;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12 * 4;
+
+  final FloatBuffer localCoordinates;
+  final FloatBuffer textureCoordinates;
+  final FloatBuffer normals;
+  // A ShortBuffer of 16-bit indices, or an IntBuffer of 32-bit indices.
+  final Buffer indices;
+  final BoundingBox boundingBox;
+
+  private BinaryMesh(ByteBuffer data, String name) throws IOException {
+    data.order(ByteOrder.LITTLE_ENDIAN);
+    if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+      throw new IOException("Not a binary mesh file: " + name);
+    }
+    if (data.getInt(4) != VERSION) {
+      throw new IOException("Unsupported binary mesh version " + data.getInt(4) + ": " + name);
+    }
+    int vertexCount = data.getInt(8);
+    int indexCount = data.getInt(12);
+    int bytesPerIndex = data.getInt(16);
+    if (vertexCount < 0
+        || indexCount < 0
+        || (bytesPerIndex != 2 && bytesPerIndex != 4)
+        || (long) HEADER_SIZE + 8L * 4 * vertexCount + (long) bytesPerIndex * indexCount
+            != data.remaining()) {
+      throw new IOException("Corrupt binary mesh file: " + name);
+    }
+    boundingBox =
+        vertexCount == 0
+            ? null
+            : new BoundingBox(
+                data.getFloat(24),
+                data.getFloat(28),
+                data.getFloat(32),
+                data.getFloat(36),
+                data.getFloat(40),
+                data.getFloat(44));
+
+    int offset = HEADER_SIZE;
+    localCoordinates = slice(data, offset, 3 * 4 * vertexCount).asFloatBuffer();
+    offset += 3 * 4 * vertexCount;
+    textureCoordinates = slice(data, offset, 2 * 4 * vertexCount).asFloatBuffer();
+    offset += 2 * 4 * vertexCount;
+    normals = slice(data, offset, 3 * 4 * vertexCount).asFloatBuffer();
+    offset += 3 * 4 * vertexCount;
+    ByteBuffer indexData = slice(data, offset, bytesPerIndex * indexCount);
+    indices = bytesPerIndex == 2 ? indexData.asShortBuffer() : indexData.asIntBuffer();
+  }
+
+  /** Maps and validates the given binary mesh asset. */
+  static BinaryMesh read(SampleRender render, String assetFileName) throws IOException {
+    return new BinaryMesh(map(render, assetFileName), assetFileName);
+  }
+
+  /**
+   * Memory-maps the given asset. Assets are only stored such that they can be mapped if they are
+   * not compressed, see {@code noCompress} in the app's {@code build.gradle}; compressed assets
+   * are read into a direct buffer instead.
+   */
+  private static ByteBuffer map(SampleRender render, String assetFileName) throws IOException {
+    AssetManager assets = render.getAssets();
+    try (AssetFileDescriptor fileDescriptor = assets.openFd(assetFileName);
+        FileInputStream stream = fileDescriptor.createInputStream();
+        FileChannel channel = stream.getChannel()) {
+      // The mapping remains valid after the channel is closed.
+      return channel.map(
+          FileChannel.MapMode.READ_ONLY,
+          fileDescriptor.getStartOffset(),
+          fileDescriptor.getDeclaredLength());
+    } catch (FileNotFoundException e) {
+      render
+          .getBackend()
+          .log(
+              GLBackend.LOG_WARN,
+              TAG,
+              "Asset " + assetFileName + " is compressed and can not be memory-mapped");
+    }
+    try (InputStream stream = assets.open(assetFileName)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(stream.available());
+      byte[] chunk = new byte[8192];
+      int length;
+      while ((length = stream.read(chunk)) > 0) {
+        if (length > buffer.remaining()) {
+          ByteBuffer grown = ByteBuffer.allocateDirect(2 * buffer.capacity() + length);
+          buffer.flip();
+          grown.put(buffer);
+          buffer = grown;
+        }
+        buffer.put(chunk, 0, length);
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+    ByteBuffer duplicate = data.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+/**
+ * Scales the resolution of a render target between {@link #MIN_SCALE} and {@link #MAX_SCALE} of
+ * the full resolution, so that frames are rendered at a target frame rate.
+ *
+ * <p>The controller measures the time between frames and smooths it with an exponential moving
+ * average. If frames take longer than the target frame time, the scale is lowered; if they take
+ * clearly less, it is raised again. Changes are made in steps of {@link #SCALE_STEP}, at most once
+ * every {@link #ADJUSTMENT_INTERVAL_FRAMES} frames, so that the resolution does not oscillate and
+ * targets of a {@link RenderTargetPool} can be reused. Raising the scale takes longer than lowering
+ * it, as a missed frame is more visible than a slightly blurrier one.
+ */
+public class DynamicResolutionController {
+  /** The lowest scale the resolution is reduced to. */
+  public static final float MIN_SCALE = 0.5f;
+
+  /** The highest scale, i.e. full resolution. */
+  public static final float MAX_SCALE = 1.0f;
+
+  private static final float SCALE_STEP = 0.1f;
+  private static final int ADJUSTMENT_INTERVAL_FRAMES = 15;
+  // Weight of the latest frame time in the moving average.
+  private static final float SMOOTHING = 0.1f;
+  // The scale is lowered above this fraction of the target frame time...
+  private static final float SCALE_DOWN_THRESHOLD = 1.05f;
+  // ...and raised below this one, for the given number of consecutive frames.
+  private static final float SCALE_UP_THRESHOLD = 0.8f;
+  private static final int SCALE_UP_FRAMES = 60;
+  // Longer gaps between frames, e.g. while the activity is paused, are not frame times.
+  private static final long MAX_FRAME_TIME_NANOS = 250_000_000L;
+
+  private final long targetFrameTimeNanos;
+  private float scale = MAX_SCALE;
+  private long lastFrameStartNanos;
+  private float averageFrameTimeNanos;
+  private int framesSinceAdjustment;
+  private int fastFrames;
+
+  /**
+   * Constructs a controller for the given target frame rate, e.g. 30 frames per second for the
+   * camera frame rate of most ARCore sessions.
+   */
+  public DynamicResolutionController(float targetFramesPerSecond) {
+    if (targetFramesPerSecond <= 0) {
+      throw new IllegalArgumentException("Invalid target frame rate " + targetFramesPerSecond);
+    }
+    targetFrameTimeNanos = (long) (1e9 / targetFramesPerSecond);
+    averageFrameTimeNanos = targetFrameTimeNanos;
+  }
+
+  /** Measures the time since the previous frame and adjusts the scale. Call at the frame start. */
+  public void onFrameStart() {
+    long now = System.nanoTime();
+    long frameTimeNanos = now - lastFrameStartNanos;
+    boolean isFirstFrame = lastFrameStartNanos == 0;
+    lastFrameStartNanos = now;
+    if (isFirstFrame || frameTimeNanos > MAX_FRAME_TIME_NANOS) {
+      return;
+    }
+    averageFrameTimeNanos += SMOOTHING * (frameTimeNanos - averageFrameTimeNanos);
+    fastFrames =
+        averageFrameTimeNanos < SCALE_UP_THRESHOLD * targetFrameTimeNanos ? fastFrames + 1 : 0;
+
+    if (++framesSinceAdjustment < ADJUSTMENT_INTERVAL_FRAMES) {
+      return;
+    }
+    if (averageFrameTimeNanos > SCALE_DOWN_THRESHOLD * targetFrameTimeNanos && scale > MIN_SCALE) {
+      setScale(scale - SCALE_STEP);
+    } else if (fastFrames >= SCALE_UP_FRAMES && scale < MAX_SCALE) {
+      setScale(scale + SCALE_STEP);
+    }
+  }
+
+  /** Returns the current scale, between {@link #MIN_SCALE} and {@link #MAX_SCALE}. */
+  public float getScale() {
+    return scale;
+  }
+
+  /** Returns the given full resolution dimension scaled by the current scale. */
+  public int getScaledSize(int size) {
+    return Math.max(1, Math.round(size * scale));
+  }
+
+  private void setScale(float newScale) {
+    // Rounding keeps the scale on the same few steps despite floating point error, so that the
+    // scaled sizes repeat.
+    newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, newScale));
+    scale = Math.round(newScale / SCALE_STEP) * SCALE_STEP;
+    framesSinceAdjustment = 0;
+    fastFrames = 0;
+    // Start over from the target, as frame times measured at the old scale no longer apply.
+    averageFrameTimeNanos = targetFrameTimeNanos;
+  }
+}
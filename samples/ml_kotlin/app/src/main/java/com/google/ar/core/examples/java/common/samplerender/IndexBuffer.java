@@ -15,9 +15,9 @@
  */
 package com.google.ar.core.examples.java.common.samplerender;
 
-import android.opengl.GLES30;
 import java.io.Closeable;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * A list of vertex indices stored GPU-side.
@@ -30,9 +30,10 @@ import java.nio.IntBuffer;
  */
 public class IndexBuffer implements Closeable {
   private final GpuBuffer buffer;
+  private final int indexType;
 
   /**
-   * Construct an {@link IndexBuffer} populated with initial data.
+   * Construct an {@link IndexBuffer} of 32-bit indices populated with initial data.
    *
    * <p>The GPU buffer will be filled with the data in the <i>direct</i> buffer {@code entries},
    * starting from the beginning of the buffer (not the current cursor position). The cursor will be
@@ -42,7 +43,47 @@ public class IndexBuffer implements Closeable {
    * instead.
    */
   public IndexBuffer(SampleRender render, IntBuffer entries) {
-    buffer = new GpuBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, GpuBuffer.INT_SIZE, entries);
+    buffer =
+        new GpuBuffer(
+            render.getBackend(), GLBackend.GL_ELEMENT_ARRAY_BUFFER, GpuBuffer.INT_SIZE, entries);
+    indexType = GLBackend.GL_UNSIGNED_INT;
+  }
+
+  private IndexBuffer(GpuBuffer buffer, int indexType) {
+    this.buffer = buffer;
+    this.indexType = indexType;
+  }
+
+  /**
+   * Construct an {@link IndexBuffer} of 16-bit indices populated with initial data, which takes
+   * half the memory of 32-bit indices for meshes with at most 65536 vertices. The indices can not
+   * be changed with {@link #set} afterwards.
+   *
+   * @see #IndexBuffer(SampleRender, IntBuffer)
+   */
+  public static IndexBuffer createWithShortIndices(SampleRender render, ShortBuffer entries) {
+    return new IndexBuffer(
+        new GpuBuffer(
+            render.getBackend(), GLBackend.GL_ELEMENT_ARRAY_BUFFER, GpuBuffer.SHORT_SIZE, entries),
+        GLBackend.GL_UNSIGNED_SHORT);
+  }
+
+  /**
+   * Construct an empty {@link IndexBuffer} for data which changes every frame.
+   *
+   * <p>The data is written to the {@link StreamingBuffer} of the {@link SampleRender}, so that
+   * {@link #set} does not need to wait for the GPU to finish drawing with previous data. Data set
+   * this way is only valid for the current frame, so {@link #set} must be called again every frame
+   * before drawing.
+   */
+  public static IndexBuffer createStreaming(SampleRender render) {
+    return new IndexBuffer(
+        new GpuBuffer(
+            render.getBackend(),
+            GLBackend.GL_ELEMENT_ARRAY_BUFFER,
+            GpuBuffer.INT_SIZE,
+            render.getStreamingBuffer()),
+        GLBackend.GL_UNSIGNED_INT);
   }
 
   /**
@@ -57,6 +98,9 @@ public class IndexBuffer implements Closeable {
    * <p>The {@code entries} buffer may be null, in which case the buffer will become empty.
    */
   public void set(IntBuffer entries) {
+    if (indexType != GLBackend.GL_UNSIGNED_INT) {
+      throw new IllegalStateException("Index buffer of 16-bit indices can not be changed");
+    }
     buffer.set(entries);
   }
 
@@ -70,6 +114,22 @@ public class IndexBuffer implements Closeable {
     return buffer.getBufferId();
   }
 
+  /* package-private */
+  int getOffset() {
+    return buffer.getOffset();
+  }
+
+  /** Returns GL_UNSIGNED_INT or GL_UNSIGNED_SHORT. */
+  /* package-private */
+  int getIndexType() {
+    return indexType;
+  }
+
+  /* package-private */
+  int getBytesPerIndex() {
+    return indexType == GLBackend.GL_UNSIGNED_SHORT ? GpuBuffer.SHORT_SIZE : GpuBuffer.INT_SIZE;
+  }
+
   /* package-private */
   int getSize() {
     return buffer.getSize();
@@ -18,9 +18,6 @@ package com.google.ar.core.examples.java.common.samplerender;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import android.content.res.AssetManager;
-import android.opengl.GLES30;
-import android.opengl.GLException;
-import android.util.Log;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,20 +40,20 @@ public class Shader implements Closeable {
    *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glBlendFunc.xhtml">glBlendFunc</a>
    */
   public static enum BlendFactor {
-    ZERO(GLES30.GL_ZERO),
-    ONE(GLES30.GL_ONE),
-    SRC_COLOR(GLES30.GL_SRC_COLOR),
-    ONE_MINUS_SRC_COLOR(GLES30.GL_ONE_MINUS_SRC_COLOR),
-    DST_COLOR(GLES30.GL_DST_COLOR),
-    ONE_MINUS_DST_COLOR(GLES30.GL_ONE_MINUS_DST_COLOR),
-    SRC_ALPHA(GLES30.GL_SRC_ALPHA),
-    ONE_MINUS_SRC_ALPHA(GLES30.GL_ONE_MINUS_SRC_ALPHA),
-    DST_ALPHA(GLES30.GL_DST_ALPHA),
-    ONE_MINUS_DST_ALPHA(GLES30.GL_ONE_MINUS_DST_ALPHA),
-    CONSTANT_COLOR(GLES30.GL_CONSTANT_COLOR),
-    ONE_MINUS_CONSTANT_COLOR(GLES30.GL_ONE_MINUS_CONSTANT_COLOR),
-    CONSTANT_ALPHA(GLES30.GL_CONSTANT_ALPHA),
-    ONE_MINUS_CONSTANT_ALPHA(GLES30.GL_ONE_MINUS_CONSTANT_ALPHA);
+    ZERO(GLBackend.GL_ZERO),
+    ONE(GLBackend.GL_ONE),
+    SRC_COLOR(GLBackend.GL_SRC_COLOR),
+    ONE_MINUS_SRC_COLOR(GLBackend.GL_ONE_MINUS_SRC_COLOR),
+    DST_COLOR(GLBackend.GL_DST_COLOR),
+    ONE_MINUS_DST_COLOR(GLBackend.GL_ONE_MINUS_DST_COLOR),
+    SRC_ALPHA(GLBackend.GL_SRC_ALPHA),
+    ONE_MINUS_SRC_ALPHA(GLBackend.GL_ONE_MINUS_SRC_ALPHA),
+    DST_ALPHA(GLBackend.GL_DST_ALPHA),
+    ONE_MINUS_DST_ALPHA(GLBackend.GL_ONE_MINUS_DST_ALPHA),
+    CONSTANT_COLOR(GLBackend.GL_CONSTANT_COLOR),
+    ONE_MINUS_CONSTANT_COLOR(GLBackend.GL_ONE_MINUS_CONSTANT_COLOR),
+    CONSTANT_ALPHA(GLBackend.GL_CONSTANT_ALPHA),
+    ONE_MINUS_CONSTANT_ALPHA(GLBackend.GL_ONE_MINUS_CONSTANT_ALPHA);
 
     /* package-private */
     final int glesEnum;
@@ -66,13 +63,16 @@ public class Shader implements Closeable {
     }
   }
 
+  private final GLBackend backend;
+  private final GLStateCache stateCache;
+  private final ShaderCache shaderCache;
   private int programId = 0;
-  private final Map<Integer, Uniform> uniforms = new HashMap<>();
+  // Set for shaders created from assets, whose programs are kept for reuse when closed.
+  private String variantKey = null;
+  private final ArrayList<Uniform> uniforms = new ArrayList<>();
+  private final Map<String, Uniform> uniformsByName = new HashMap<>();
   private int maxTextureUnit = 0;
 
-  private final Map<String, Integer> uniformLocations = new HashMap<>();
-  private final Map<Integer, String> uniformNames = new HashMap<>();
-
   private boolean depthTest = true;
   private boolean depthWrite = true;
   private boolean cullFace = true;
@@ -92,46 +92,87 @@ public class Shader implements Closeable {
       String vertexShaderCode,
       String fragmentShaderCode,
       Map<String, String> defines) {
+    this(render, vertexShaderCode, fragmentShaderCode, defines, /*variantKey=*/ null);
+  }
+
+  private Shader(
+      SampleRender render,
+      String vertexShaderCode,
+      String fragmentShaderCode,
+      Map<String, String> defines,
+      String variantKey) {
+    backend = render.getBackend();
+    stateCache = render.getStateCache();
+    shaderCache = render.getShaderCache();
+    String programBinaryKey =
+        shaderCache.getProgramBinaryKey(vertexShaderCode, fragmentShaderCode, defines);
+    if (programBinaryKey != null) {
+      programId = shaderCache.loadProgramBinary(programBinaryKey);
+      if (programId != 0) {
+        this.variantKey = variantKey;
+        return;
+      }
+    }
+
     int vertexShaderId = 0;
     int fragmentShaderId = 0;
     String definesCode = createShaderDefinesCode(defines);
     try {
       vertexShaderId =
           createShader(
-              GLES30.GL_VERTEX_SHADER, insertShaderDefinesCode(vertexShaderCode, definesCode));
+              GLBackend.GL_VERTEX_SHADER, insertShaderDefinesCode(vertexShaderCode, definesCode));
       fragmentShaderId =
           createShader(
-              GLES30.GL_FRAGMENT_SHADER, insertShaderDefinesCode(fragmentShaderCode, definesCode));
-
-      programId = GLES30.glCreateProgram();
-      GLError.maybeThrowGLException("Shader program creation failed", "glCreateProgram");
-      GLES30.glAttachShader(programId, vertexShaderId);
-      GLError.maybeThrowGLException("Failed to attach vertex shader", "glAttachShader");
-      GLES30.glAttachShader(programId, fragmentShaderId);
-      GLError.maybeThrowGLException("Failed to attach fragment shader", "glAttachShader");
-      GLES30.glLinkProgram(programId);
-      GLError.maybeThrowGLException("Failed to link shader program", "glLinkProgram");
+              GLBackend.GL_FRAGMENT_SHADER,
+              insertShaderDefinesCode(fragmentShaderCode, definesCode));
+
+      programId = backend.glCreateProgram();
+      backend.maybeThrowGLException("Shader program creation failed", "glCreateProgram");
+      backend.glAttachShader(programId, vertexShaderId);
+      backend.maybeThrowGLException("Failed to attach vertex shader", "glAttachShader");
+      backend.glAttachShader(programId, fragmentShaderId);
+      backend.maybeThrowGLException("Failed to attach fragment shader", "glAttachShader");
+      if (programBinaryKey != null) {
+        backend.glProgramParameteri(
+            programId, GLBackend.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLBackend.GL_TRUE);
+        backend.maybeLogGLError(
+            GLBackend.LOG_WARN,
+            TAG,
+            "Failed to request retrievable program binary",
+            "glProgramParameteri");
+      }
+      backend.glLinkProgram(programId);
+      backend.maybeThrowGLException("Failed to link shader program", "glLinkProgram");
 
       final int[] linkStatus = new int[1];
-      GLES30.glGetProgramiv(programId, GLES30.GL_LINK_STATUS, linkStatus, 0);
-      if (linkStatus[0] == GLES30.GL_FALSE) {
-        String infoLog = GLES30.glGetProgramInfoLog(programId);
-        GLError.maybeLogGLError(
-            Log.WARN, TAG, "Failed to retrieve shader program info log", "glGetProgramInfoLog");
-        throw new GLException(0, "Shader link failed: " + infoLog);
+      backend.glGetProgramiv(programId, GLBackend.GL_LINK_STATUS, linkStatus, 0);
+      if (linkStatus[0] == GLBackend.GL_FALSE) {
+        String infoLog = backend.glGetProgramInfoLog(programId);
+        backend.maybeLogGLError(
+            GLBackend.LOG_WARN,
+            TAG,
+            "Failed to retrieve shader program info log",
+            "glGetProgramInfoLog");
+        throw backend.newGLException(0, "Shader link failed: " + infoLog);
       }
+      if (programBinaryKey != null) {
+        shaderCache.storeProgramBinary(programBinaryKey, programId);
+      }
+      this.variantKey = variantKey;
     } catch (Throwable t) {
       close();
       throw t;
     } finally {
       // Shader objects can be flagged for deletion immediately after program creation.
       if (vertexShaderId != 0) {
-        GLES30.glDeleteShader(vertexShaderId);
-        GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free vertex shader", "glDeleteShader");
+        backend.glDeleteShader(vertexShaderId);
+        backend.maybeLogGLError(
+            GLBackend.LOG_WARN, TAG, "Failed to free vertex shader", "glDeleteShader");
       }
       if (fragmentShaderId != 0) {
-        GLES30.glDeleteShader(fragmentShaderId);
-        GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free fragment shader", "glDeleteShader");
+        backend.glDeleteShader(fragmentShaderId);
+        backend.maybeLogGLError(
+            GLBackend.LOG_WARN, TAG, "Failed to free fragment shader", "glDeleteShader");
       }
     }
   }
@@ -141,6 +182,13 @@ public class Shader implements Closeable {
    *
    * <p>The file contents are interpreted as UTF-8 text.
    *
+   * <p>When the returned shader is closed, its program is kept and reused by the next shader
+   * created from the same assets and defines, so switching back and forth between variants of a
+   * shader does not compile them again. Uniforms of a reused program keep the values they were
+   * last set to only as long as the new shader never looks them up: a uniform handle, including
+   * the ones behind the {@code set*} methods, starts out with zero values which are uploaded on
+   * first use, just as for a newly linked program.
+   *
    * @param defines A map of shader precompiler symbols to be defined with the given names and
    *     values
    */
@@ -150,20 +198,43 @@ public class Shader implements Closeable {
       String fragmentShaderFileName,
       Map<String, String> defines)
       throws IOException {
+    String variantKey =
+        ShaderCache.getVariantKey(vertexShaderFileName, fragmentShaderFileName, defines);
+    int idleProgramId = render.getShaderCache().takeIdleProgram(variantKey);
+    if (idleProgramId != 0) {
+      return new Shader(render, idleProgramId, variantKey);
+    }
     AssetManager assets = render.getAssets();
     return new Shader(
         render,
         inputStreamToString(assets.open(vertexShaderFileName)),
         inputStreamToString(assets.open(fragmentShaderFileName)),
-        defines);
+        defines,
+        variantKey);
+  }
+
+  private Shader(SampleRender render, int programId, String variantKey) {
+    backend = render.getBackend();
+    stateCache = render.getStateCache();
+    shaderCache = render.getShaderCache();
+    this.programId = programId;
+    this.variantKey = variantKey;
   }
 
   @Override
   public void close() {
-    if (programId != 0) {
-      GLES30.glDeleteProgram(programId);
-      programId = 0;
+    if (programId == 0) {
+      return;
     }
+    if (variantKey != null) {
+      shaderCache.releaseProgram(variantKey, programId);
+    } else {
+      backend.glDeleteProgram(programId);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to free shader program", "glDeleteProgram");
+      stateCache.onProgramDeleted(programId);
+    }
+    programId = 0;
   }
 
   /**
@@ -233,39 +304,25 @@ public class Shader implements Closeable {
 
   /** Sets a texture uniform. */
   public Shader setTexture(String name, Texture texture) {
-    // Special handling for Textures. If replacing an existing texture uniform, reuse the texture
-    // unit.
-    int location = getUniformLocation(name);
-    Uniform uniform = uniforms.get(location);
-    int textureUnit;
-    if (!(uniform instanceof UniformTexture)) {
-      textureUnit = maxTextureUnit++;
-    } else {
-      UniformTexture uniformTexture = (UniformTexture) uniform;
-      textureUnit = uniformTexture.getTextureUnit();
-    }
-    uniforms.put(location, new UniformTexture(textureUnit, texture));
+    getTextureUniform(name).set(texture);
     return this;
   }
 
   /** Sets a {@code bool} uniform. */
   public Shader setBool(String name, boolean v0) {
-    int[] values = {v0 ? 1 : 0};
-    uniforms.put(getUniformLocation(name), new UniformInt(values));
+    getIntUniform(name).set(v0);
     return this;
   }
 
   /** Sets an {@code int} uniform. */
   public Shader setInt(String name, int v0) {
-    int[] values = {v0};
-    uniforms.put(getUniformLocation(name), new UniformInt(values));
+    getIntUniform(name).set(v0);
     return this;
   }
 
   /** Sets a {@code float} uniform. */
   public Shader setFloat(String name, float v0) {
-    float[] values = {v0};
-    uniforms.put(getUniformLocation(name), new Uniform1f(values));
+    getFloatUniform(name).set(v0);
     return this;
   }
 
@@ -274,7 +331,7 @@ public class Shader implements Closeable {
     if (values.length != 2) {
       throw new IllegalArgumentException("Value array length must be 2");
     }
-    uniforms.put(getUniformLocation(name), new Uniform2f(values.clone()));
+    getVec2Uniform(name).set(values);
     return this;
   }
   /** Sets a {@code vec3} uniform. */
@@ -282,7 +339,7 @@ public class Shader implements Closeable {
     if (values.length != 3) {
       throw new IllegalArgumentException("Value array length must be 3");
     }
-    uniforms.put(getUniformLocation(name), new Uniform3f(values.clone()));
+    getVec3Uniform(name).set(values);
     return this;
   }
 
@@ -291,7 +348,7 @@ public class Shader implements Closeable {
     if (values.length != 4) {
       throw new IllegalArgumentException("Value array length must be 4");
     }
-    uniforms.put(getUniformLocation(name), new Uniform4f(values.clone()));
+    getVec4Uniform(name).set(values);
     return this;
   }
 
@@ -300,7 +357,7 @@ public class Shader implements Closeable {
     if (values.length != 4) {
       throw new IllegalArgumentException("Value array length must be 4 (2x2)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix2f(values.clone()));
+    getMat2Uniform(name).set(values);
     return this;
   }
 
@@ -309,7 +366,7 @@ public class Shader implements Closeable {
     if (values.length != 9) {
       throw new IllegalArgumentException("Value array length must be 9 (3x3)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix3f(values.clone()));
+    getMat3Uniform(name).set(values);
     return this;
   }
 
@@ -318,7 +375,7 @@ public class Shader implements Closeable {
     if (values.length != 16) {
       throw new IllegalArgumentException("Value array length must be 16 (4x4)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix4f(values.clone()));
+    getMat4Uniform(name).set(values);
     return this;
   }
 
@@ -328,19 +385,19 @@ public class Shader implements Closeable {
     for (int i = 0; i < values.length; ++i) {
       intValues[i] = values[i] ? 1 : 0;
     }
-    uniforms.put(getUniformLocation(name), new UniformInt(intValues));
+    getIntUniform(name).setArray(intValues);
     return this;
   }
 
   /** Sets an {@code int} array uniform. */
   public Shader setIntArray(String name, int[] values) {
-    uniforms.put(getUniformLocation(name), new UniformInt(values.clone()));
+    getIntUniform(name).setArray(values);
     return this;
   }
 
   /** Sets a {@code float} array uniform. */
   public Shader setFloatArray(String name, float[] values) {
-    uniforms.put(getUniformLocation(name), new Uniform1f(values.clone()));
+    getFloatUniform(name).setArray(values);
     return this;
   }
 
@@ -349,7 +406,7 @@ public class Shader implements Closeable {
     if (values.length % 2 != 0) {
       throw new IllegalArgumentException("Value array length must be divisible by 2");
     }
-    uniforms.put(getUniformLocation(name), new Uniform2f(values.clone()));
+    getVec2Uniform(name).setArray(values);
     return this;
   }
   /** Sets a {@code vec3} array uniform. */
@@ -357,7 +414,7 @@ public class Shader implements Closeable {
     if (values.length % 3 != 0) {
       throw new IllegalArgumentException("Value array length must be divisible by 3");
     }
-    uniforms.put(getUniformLocation(name), new Uniform3f(values.clone()));
+    getVec3Uniform(name).setArray(values);
     return this;
   }
 
@@ -366,7 +423,7 @@ public class Shader implements Closeable {
     if (values.length % 4 != 0) {
       throw new IllegalArgumentException("Value array length must be divisible by 4");
     }
-    uniforms.put(getUniformLocation(name), new Uniform4f(values.clone()));
+    getVec4Uniform(name).setArray(values);
     return this;
   }
 
@@ -375,7 +432,7 @@ public class Shader implements Closeable {
     if (values.length % 4 != 0) {
       throw new IllegalArgumentException("Value array length must be divisible by 4 (2x2)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix2f(values.clone()));
+    getMat2Uniform(name).setArray(values);
     return this;
   }
 
@@ -384,7 +441,7 @@ public class Shader implements Closeable {
     if (values.length % 9 != 0) {
       throw new IllegalArgumentException("Values array length must be divisible by 9 (3x3)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix3f(values.clone()));
+    getMat3Uniform(name).setArray(values);
     return this;
   }
 
@@ -393,10 +450,76 @@ public class Shader implements Closeable {
     if (values.length % 16 != 0) {
       throw new IllegalArgumentException("Value array length must be divisible by 16 (4x4)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix4f(values.clone()));
+    getMat4Uniform(name).setArray(values);
     return this;
   }
 
+  /**
+   * Returns a handle to a texture uniform.
+   *
+   * <p>See {@link Uniform} for how handles avoid the per-call cost of the {@code set*} methods.
+   */
+  public TextureUniform getTextureUniform(String name) {
+    Uniform uniform = uniformsByName.get(name);
+    if (uniform == null) {
+      return addUniform(
+          new TextureUniform(backend, getUniformLocation(name), name, maxTextureUnit++));
+    }
+    if (!(uniform instanceof TextureUniform)) {
+      throw new IllegalArgumentException(
+          "Shader uniform `" + name + "' was already used with a different type");
+    }
+    return (TextureUniform) uniform;
+  }
+
+  /** Returns a handle to a {@code bool} or {@code int} uniform. */
+  public IntUniform getIntUniform(String name) {
+    Uniform uniform = uniformsByName.get(name);
+    if (uniform == null) {
+      return addUniform(new IntUniform(backend, getUniformLocation(name), name));
+    }
+    if (!(uniform instanceof IntUniform)) {
+      throw new IllegalArgumentException(
+          "Shader uniform `" + name + "' was already used with a different type");
+    }
+    return (IntUniform) uniform;
+  }
+
+  /** Returns a handle to a {@code float} uniform. */
+  public FloatUniform getFloatUniform(String name) {
+    return getFloatUniform(name, FloatType.FLOAT);
+  }
+
+  /** Returns a handle to a {@code vec2} uniform. */
+  public FloatUniform getVec2Uniform(String name) {
+    return getFloatUniform(name, FloatType.VEC2);
+  }
+
+  /** Returns a handle to a {@code vec3} uniform. */
+  public FloatUniform getVec3Uniform(String name) {
+    return getFloatUniform(name, FloatType.VEC3);
+  }
+
+  /** Returns a handle to a {@code vec4} uniform. */
+  public FloatUniform getVec4Uniform(String name) {
+    return getFloatUniform(name, FloatType.VEC4);
+  }
+
+  /** Returns a handle to a {@code mat2} uniform. */
+  public FloatUniform getMat2Uniform(String name) {
+    return getFloatUniform(name, FloatType.MAT2);
+  }
+
+  /** Returns a handle to a {@code mat3} uniform. */
+  public FloatUniform getMat3Uniform(String name) {
+    return getFloatUniform(name, FloatType.MAT3);
+  }
+
+  /** Returns a handle to a {@code mat4} uniform. */
+  public FloatUniform getMat4Uniform(String name) {
+    return getFloatUniform(name, FloatType.MAT4);
+  }
+
   /**
    * Activates the shader. Don't call this directly unless you are doing low level OpenGL code;
    * instead, prefer {@link SampleRender#draw}.
@@ -406,227 +529,321 @@ public class Shader implements Closeable {
     if (programId == 0) {
       throw new IllegalStateException("Attempted to use freed shader");
     }
-    GLES30.glUseProgram(programId);
-    GLError.maybeThrowGLException("Failed to use shader program", "glUseProgram");
-    GLES30.glBlendFuncSeparate(
+    // Redundant state changes, e.g. when drawing the same shader several times in a row, are
+    // skipped by the state cache.
+    stateCache.useProgram(programId);
+    stateCache.setBlendFunc(
         sourceRgbBlend.glesEnum,
         destRgbBlend.glesEnum,
         sourceAlphaBlend.glesEnum,
         destAlphaBlend.glesEnum);
-    GLError.maybeThrowGLException("Failed to set blend mode", "glBlendFuncSeparate");
-    GLES30.glDepthMask(depthWrite);
-    GLError.maybeThrowGLException("Failed to set depth write mask", "glDepthMask");
-    if (depthTest) {
-      GLES30.glEnable(GLES30.GL_DEPTH_TEST);
-      GLError.maybeThrowGLException("Failed to enable depth test", "glEnable");
-    } else {
-      GLES30.glDisable(GLES30.GL_DEPTH_TEST);
-      GLError.maybeThrowGLException("Failed to disable depth test", "glDisable");
-    }
-    if (cullFace) {
-      GLES30.glEnable(GLES30.GL_CULL_FACE);
-      GLError.maybeThrowGLException("Failed to enable backface culling", "glEnable");
-    } else {
-      GLES30.glDisable(GLES30.GL_CULL_FACE);
-      GLError.maybeThrowGLException("Failed to disable backface culling", "glDisable");
-    }
+    stateCache.setDepthMask(depthWrite);
+    stateCache.setDepthTest(depthTest);
+    stateCache.setCullFace(cullFace);
     try {
-      // Remove all non-texture uniforms from the map after setting them, since they're stored as
-      // part of the program.
-      ArrayList<Integer> obsoleteEntries = new ArrayList<>(uniforms.size());
-      for (Map.Entry<Integer, Uniform> entry : uniforms.entrySet()) {
+      // Uniform values are stored as part of the program, so only the ones that changed since the
+      // last use need to be uploaded. Texture bindings are not part of the program and are always
+      // applied. Iterate by index to avoid allocating an iterator every draw.
+      for (int i = 0; i < uniforms.size(); ++i) {
+        Uniform uniform = uniforms.get(i);
         try {
-          entry.getValue().use(entry.getKey());
-          if (!(entry.getValue() instanceof UniformTexture)) {
-            obsoleteEntries.add(entry.getKey());
-          }
-        } catch (GLException e) {
-          String name = uniformNames.get(entry.getKey());
-          throw new IllegalArgumentException("Error setting uniform `" + name + "'", e);
+          uniform.use();
+        } catch (RuntimeException e) {
+          throw new IllegalArgumentException("Error setting uniform `" + uniform.name + "'", e);
         }
       }
-      uniforms.keySet().removeAll(obsoleteEntries);
     } finally {
-      GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
-      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to set active texture", "glActiveTexture");
+      backend.glActiveTexture(GLBackend.GL_TEXTURE0);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to set active texture", "glActiveTexture");
     }
   }
 
-  private static interface Uniform {
-    public void use(int location);
+  /**
+   * A handle to a uniform of a {@link Shader}, with the uniform location resolved ahead of time.
+   *
+   * <p>Handles are intended to be obtained once, typically in {@link
+   * SampleRender.Renderer#onSurfaceCreated}, and then written every frame. Writing a handle copies
+   * the value into storage owned by the handle without allocating or looking up the uniform by
+   * name, and the value is only uploaded by {@link Shader#lowLevelUse} if it changed since the last
+   * upload. The {@code set*} methods of {@link Shader} are implemented in terms of these handles.
+   */
+  public abstract static class Uniform {
+    final GLBackend backend;
+    private final int location;
+    private final String name;
+    // Newly created uniforms are uploaded once even if never set, which matches the zero values
+    // a program's uniforms are initialized with. This also resets the uniforms of a program reused
+    // from the ShaderCache.
+    boolean dirty = true;
+
+    private Uniform(GLBackend backend, int location, String name) {
+      this.backend = backend;
+      this.location = location;
+      this.name = name;
+    }
+
+    /** Returns the name of the uniform in shader code. */
+    public String getName() {
+      return name;
+    }
+
+    /* package-private */
+    void use() {
+      if (dirty) {
+        upload(location);
+        dirty = false;
+      }
+    }
+
+    /* package-private */
+    abstract void upload(int location);
   }
 
-  private static class UniformTexture implements Uniform {
+  /** A handle to a texture uniform. Its texture unit is assigned when the handle is created. */
+  public static final class TextureUniform extends Uniform {
     private final int textureUnit;
-    private final Texture texture;
+    private Texture texture;
 
-    public UniformTexture(int textureUnit, Texture texture) {
+    private TextureUniform(GLBackend backend, int location, String name, int textureUnit) {
+      super(backend, location, name);
       this.textureUnit = textureUnit;
-      this.texture = texture;
     }
 
-    public int getTextureUnit() {
-      return textureUnit;
+    /** Sets the texture to be bound to this uniform. */
+    public TextureUniform set(Texture texture) {
+      this.texture = texture;
+      return this;
     }
 
     @Override
-    public void use(int location) {
+    void use() {
+      if (texture == null) {
+        throw new IllegalStateException("Tried to draw without setting texture");
+      }
       if (texture.getTextureId() == 0) {
         throw new IllegalStateException("Tried to draw with freed texture");
       }
-      GLES30.glActiveTexture(GLES30.GL_TEXTURE0 + textureUnit);
-      GLError.maybeThrowGLException("Failed to set active texture", "glActiveTexture");
-      GLES30.glBindTexture(texture.getTarget().glesEnum, texture.getTextureId());
-      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
-      GLES30.glUniform1i(location, textureUnit);
-      GLError.maybeThrowGLException("Failed to set shader texture uniform", "glUniform1i");
-    }
-  }
-
-  private static class UniformInt implements Uniform {
-    private final int[] values;
-
-    public UniformInt(int[] values) {
-      this.values = values;
+      backend.glActiveTexture(GLBackend.GL_TEXTURE0 + textureUnit);
+      backend.maybeThrowGLException("Failed to set active texture", "glActiveTexture");
+      backend.glBindTexture(texture.getTarget().glesEnum, texture.getTextureId());
+      backend.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+      // The texture unit never changes, so the sampler itself only needs to be set once.
+      super.use();
     }
 
     @Override
-    public void use(int location) {
-      GLES30.glUniform1iv(location, values.length, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 1i", "glUniform1iv");
+    void upload(int location) {
+      backend.glUniform1i(location, textureUnit);
+      backend.maybeThrowGLException("Failed to set shader texture uniform", "glUniform1i");
     }
   }
 
-  private static class Uniform1f implements Uniform {
-    private final float[] values;
+  /** A handle to a {@code bool} or {@code int} uniform, or an array thereof. */
+  public static final class IntUniform extends Uniform {
+    private int[] values = new int[1];
 
-    public Uniform1f(float[] values) {
-      this.values = values;
+    private IntUniform(GLBackend backend, int location, String name) {
+      super(backend, location, name);
     }
 
-    @Override
-    public void use(int location) {
-      GLES30.glUniform1fv(location, values.length, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 1f", "glUniform1fv");
+    /** Sets the value of a {@code bool} uniform. */
+    public IntUniform set(boolean v0) {
+      return set(v0 ? 1 : 0);
     }
-  }
 
-  private static class Uniform2f implements Uniform {
-    private final float[] values;
+    /** Sets the value of an {@code int} uniform. */
+    public IntUniform set(int v0) {
+      if (values.length != 1) {
+        throw new IllegalArgumentException("Uniform `" + getName() + "' is an array");
+      }
+      if (values[0] != v0) {
+        values[0] = v0;
+        dirty = true;
+      }
+      return this;
+    }
 
-    public Uniform2f(float[] values) {
-      this.values = values;
+    /* package-private */
+    void setArray(int[] values) {
+      if (this.values.length != values.length) {
+        this.values = values.clone();
+        dirty = true;
+        return;
+      }
+      for (int i = 0; i < values.length; ++i) {
+        if (this.values[i] != values[i]) {
+          this.values[i] = values[i];
+          dirty = true;
+        }
+      }
     }
 
     @Override
-    public void use(int location) {
-      GLES30.glUniform2fv(location, values.length / 2, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 2f", "glUniform2fv");
+    void upload(int location) {
+      backend.glUniform1iv(location, values.length, values, 0);
+      backend.maybeThrowGLException("Failed to set shader uniform 1i", "glUniform1iv");
     }
   }
 
-  private static class Uniform3f implements Uniform {
-    private final float[] values;
+  /**
+   * A handle to a {@code float}, {@code vec*} or {@code mat*} uniform, or an array thereof.
+   *
+   * <p>Matrices are given in column-major order, as produced by {@link android.opengl.Matrix}.
+   */
+  public static final class FloatUniform extends Uniform {
+    private final FloatType type;
+    private float[] values;
 
-    public Uniform3f(float[] values) {
-      this.values = values;
+    private FloatUniform(GLBackend backend, int location, String name, FloatType type) {
+      super(backend, location, name);
+      this.type = type;
+      this.values = new float[type.numberOfComponents];
     }
 
-    @Override
-    public void use(int location) {
-      GLES30.glUniform3fv(location, values.length / 3, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 3f", "glUniform3fv");
+    /** Sets the value of a {@code float} uniform. */
+    public FloatUniform set(float v0) {
+      if (values.length != 1) {
+        throw new IllegalArgumentException(
+            "Uniform `" + getName() + "' has " + values.length + " components");
+      }
+      if (values[0] != v0) {
+        values[0] = v0;
+        dirty = true;
+      }
+      return this;
     }
-  }
 
-  private static class Uniform4f implements Uniform {
-    private final float[] values;
+    /**
+     * Sets the value of the uniform. The length of {@code values} must match the number of
+     * components of the uniform. The values are copied, so the array may be reused by the caller.
+     */
+    public FloatUniform set(float[] values) {
+      if (values.length != this.values.length) {
+        throw new IllegalArgumentException(
+            "Value array length must be " + this.values.length + " for `" + getName() + "'");
+      }
+      for (int i = 0; i < values.length; ++i) {
+        if (this.values[i] != values[i]) {
+          this.values[i] = values[i];
+          dirty = true;
+        }
+      }
+      return this;
+    }
 
-    public Uniform4f(float[] values) {
-      this.values = values;
+    /* package-private */
+    void setArray(float[] values) {
+      if (this.values.length != values.length) {
+        this.values = values.clone();
+        dirty = true;
+        return;
+      }
+      set(values);
     }
 
     @Override
-    public void use(int location) {
-      GLES30.glUniform4fv(location, values.length / 4, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform 4f", "glUniform4fv");
+    void upload(int location) {
+      int count = values.length / type.numberOfComponents;
+      switch (type) {
+        case FLOAT:
+          backend.glUniform1fv(location, count, values, 0);
+          backend.maybeThrowGLException("Failed to set shader uniform 1f", "glUniform1fv");
+          break;
+        case VEC2:
+          backend.glUniform2fv(location, count, values, 0);
+          backend.maybeThrowGLException("Failed to set shader uniform 2f", "glUniform2fv");
+          break;
+        case VEC3:
+          backend.glUniform3fv(location, count, values, 0);
+          backend.maybeThrowGLException("Failed to set shader uniform 3f", "glUniform3fv");
+          break;
+        case VEC4:
+          backend.glUniform4fv(location, count, values, 0);
+          backend.maybeThrowGLException("Failed to set shader uniform 4f", "glUniform4fv");
+          break;
+        case MAT2:
+          backend.glUniformMatrix2fv(location, count, /*transpose=*/ false, values, 0);
+          backend.maybeThrowGLException(
+              "Failed to set shader uniform matrix 2f", "glUniformMatrix2fv");
+          break;
+        case MAT3:
+          backend.glUniformMatrix3fv(location, count, /*transpose=*/ false, values, 0);
+          backend.maybeThrowGLException(
+              "Failed to set shader uniform matrix 3f", "glUniformMatrix3fv");
+          break;
+        case MAT4:
+          backend.glUniformMatrix4fv(location, count, /*transpose=*/ false, values, 0);
+          backend.maybeThrowGLException(
+              "Failed to set shader uniform matrix 4f", "glUniformMatrix4fv");
+          break;
+      }
     }
   }
 
-  private static class UniformMatrix2f implements Uniform {
-    private final float[] values;
+  private static enum FloatType {
+    FLOAT(1),
+    VEC2(2),
+    VEC3(3),
+    VEC4(4),
+    MAT2(4),
+    MAT3(9),
+    MAT4(16);
 
-    public UniformMatrix2f(float[] values) {
-      this.values = values;
-    }
+    final int numberOfComponents;
 
-    @Override
-    public void use(int location) {
-      GLES30.glUniformMatrix2fv(location, values.length / 4, /*transpose=*/ false, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform matrix 2f", "glUniformMatrix2fv");
+    private FloatType(int numberOfComponents) {
+      this.numberOfComponents = numberOfComponents;
     }
   }
 
-  private static class UniformMatrix3f implements Uniform {
-    private final float[] values;
-
-    public UniformMatrix3f(float[] values) {
-      this.values = values;
+  private FloatUniform getFloatUniform(String name, FloatType type) {
+    Uniform uniform = uniformsByName.get(name);
+    if (uniform == null) {
+      return addUniform(new FloatUniform(backend, getUniformLocation(name), name, type));
     }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniformMatrix3fv(location, values.length / 9, /*transpose=*/ false, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform matrix 3f", "glUniformMatrix3fv");
+    if (!(uniform instanceof FloatUniform) || ((FloatUniform) uniform).type != type) {
+      throw new IllegalArgumentException(
+          "Shader uniform `" + name + "' was already used with a different type");
     }
+    return (FloatUniform) uniform;
   }
 
-  private static class UniformMatrix4f implements Uniform {
-    private final float[] values;
-
-    public UniformMatrix4f(float[] values) {
-      this.values = values;
-    }
-
-    @Override
-    public void use(int location) {
-      GLES30.glUniformMatrix4fv(location, values.length / 16, /*transpose=*/ false, values, 0);
-      GLError.maybeThrowGLException("Failed to set shader uniform matrix 4f", "glUniformMatrix4fv");
-    }
+  private <T extends Uniform> T addUniform(T uniform) {
+    uniforms.add(uniform);
+    uniformsByName.put(uniform.getName(), uniform);
+    return uniform;
   }
 
   private int getUniformLocation(String name) {
-    Integer locationObject = uniformLocations.get(name);
-    if (locationObject != null) {
-      return locationObject;
+    if (programId == 0) {
+      throw new IllegalStateException("Attempted to use freed shader");
     }
-    int location = GLES30.glGetUniformLocation(programId, name);
-    GLError.maybeThrowGLException("Failed to find uniform", "glGetUniformLocation");
+    int location = backend.glGetUniformLocation(programId, name);
+    backend.maybeThrowGLException("Failed to find uniform", "glGetUniformLocation");
     if (location == -1) {
       throw new IllegalArgumentException("Shader uniform does not exist: " + name);
     }
-    uniformLocations.put(name, Integer.valueOf(location));
-    uniformNames.put(Integer.valueOf(location), name);
     return location;
   }
 
-  private static int createShader(int type, String code) {
-    int shaderId = GLES30.glCreateShader(type);
-    GLError.maybeThrowGLException("Shader creation failed", "glCreateShader");
-    GLES30.glShaderSource(shaderId, code);
-    GLError.maybeThrowGLException("Shader source failed", "glShaderSource");
-    GLES30.glCompileShader(shaderId);
-    GLError.maybeThrowGLException("Shader compilation failed", "glCompileShader");
+  private int createShader(int type, String code) {
+    int shaderId = backend.glCreateShader(type);
+    backend.maybeThrowGLException("Shader creation failed", "glCreateShader");
+    backend.glShaderSource(shaderId, code);
+    backend.maybeThrowGLException("Shader source failed", "glShaderSource");
+    backend.glCompileShader(shaderId);
+    backend.maybeThrowGLException("Shader compilation failed", "glCompileShader");
 
     final int[] compileStatus = new int[1];
-    GLES30.glGetShaderiv(shaderId, GLES30.GL_COMPILE_STATUS, compileStatus, 0);
-    if (compileStatus[0] == GLES30.GL_FALSE) {
-      String infoLog = GLES30.glGetShaderInfoLog(shaderId);
-      GLError.maybeLogGLError(
-          Log.WARN, TAG, "Failed to retrieve shader info log", "glGetShaderInfoLog");
-      GLES30.glDeleteShader(shaderId);
-      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free shader", "glDeleteShader");
-      throw new GLException(0, "Shader compilation failed: " + infoLog);
+    backend.glGetShaderiv(shaderId, GLBackend.GL_COMPILE_STATUS, compileStatus, 0);
+    if (compileStatus[0] == GLBackend.GL_FALSE) {
+      String infoLog = backend.glGetShaderInfoLog(shaderId);
+      backend.maybeLogGLError(
+          GLBackend.LOG_WARN, TAG, "Failed to retrieve shader info log", "glGetShaderInfoLog");
+      backend.glDeleteShader(shaderId);
+      backend.maybeLogGLError(GLBackend.LOG_WARN, TAG, "Failed to free shader", "glDeleteShader");
+      throw backend.newGLException(0, "Shader compilation failed: " + infoLog);
     }
 
     return shaderId;
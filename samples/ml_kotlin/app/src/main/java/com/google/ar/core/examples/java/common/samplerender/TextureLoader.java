@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads {@link Texture}s created with {@link Texture#createFromAssetAsync}.
+ *
+ * <p>Assets are read and decoded on a pool of worker threads. The decoded images are uploaded on
+ * the GL thread by {@link SampleRender} before each frame is drawn, for at most {@link
+ * #UPLOAD_BUDGET_NANOS} per frame, so that loading many textures does not stall rendering.
+ */
+/* package-private */
+class TextureLoader {
+  private static final String TAG = TextureLoader.class.getSimpleName();
+
+  private static final int WORKER_THREADS = 2;
+  // Uploads start within this time per frame; at least one upload is done per frame regardless.
+  private static final long UPLOAD_BUDGET_NANOS = 2_000_000;
+
+  /** A decoded image, ready to be uploaded to a {@link Texture}. */
+  static class Image {
+    final int width;
+    final int height;
+    // Tightly packed RGBA8 pixels, or null for compressed images.
+    final ByteBuffer pixels;
+    // The compressed image, or null for RGBA8 images.
+    final KtxImage compressed;
+
+    private Image(int width, int height, ByteBuffer pixels, KtxImage compressed) {
+      this.width = width;
+      this.height = height;
+      this.pixels = pixels;
+      this.compressed = compressed;
+    }
+  }
+
+  private static class PendingUpload {
+    final Texture texture;
+    final Image image;
+    final Texture.ColorFormat colorFormat;
+    final int generation;
+
+    PendingUpload(Texture texture, Image image, Texture.ColorFormat colorFormat, int generation) {
+      this.texture = texture;
+      this.image = image;
+      this.colorFormat = colorFormat;
+      this.generation = generation;
+    }
+  }
+
+  private final GLBackend backend;
+  private final AssetManager assetManager;
+  private final ExecutorService executor =
+      Executors.newFixedThreadPool(
+          WORKER_THREADS,
+          runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final ConcurrentLinkedQueue<PendingUpload> pendingUploads =
+      new ConcurrentLinkedQueue<>();
+  // Incremented when the GL context is lost, to drop images decoded for textures of the old one.
+  private final AtomicInteger generation = new AtomicInteger();
+
+  /* package-private */
+  TextureLoader(GLBackend backend, AssetManager assetManager) {
+    this.backend = backend;
+    this.assetManager = assetManager;
+  }
+
+  /**
+   * Reads and decodes the given asset. KTX files are read as they are, and any other file is
+   * decoded to RGBA8 with {@link BitmapFactory}. May be called on any thread.
+   */
+  static Image decode(AssetManager assets, String assetFileName) throws IOException {
+    if (assetFileName.endsWith(KtxImage.FILE_EXTENSION)) {
+      ByteBuffer data;
+      try (InputStream stream = assets.open(assetFileName)) {
+        data = readFully(stream);
+      }
+      KtxImage image = KtxImage.parse(data);
+      return new Image(image.width, image.height, /*pixels=*/ null, image);
+    }
+
+    // Load and convert the bitmap and copy its contents to a direct ByteBuffer. Despite its name,
+    // the ARGB_8888 config is actually stored in RGBA order.
+    Bitmap bitmap;
+    try (InputStream stream = assets.open(assetFileName)) {
+      bitmap = BitmapFactory.decodeStream(stream);
+    }
+    if (bitmap == null) {
+      throw new IOException("Failed to decode image " + assetFileName);
+    }
+    bitmap = convertBitmapToConfig(bitmap, Bitmap.Config.ARGB_8888);
+    try {
+      ByteBuffer pixels = ByteBuffer.allocateDirect(bitmap.getByteCount());
+      bitmap.copyPixelsToBuffer(pixels);
+      pixels.rewind();
+      return new Image(bitmap.getWidth(), bitmap.getHeight(), pixels, /*compressed=*/ null);
+    } finally {
+      bitmap.recycle();
+    }
+  }
+
+  /** Decodes the given asset on a worker thread and queues it for upload to {@code texture}. */
+  void loadAsync(Texture texture, String assetFileName, Texture.ColorFormat colorFormat) {
+    int submittedGeneration = generation.get();
+    executor.execute(
+        () -> {
+          Image image;
+          try {
+            image = decode(assetManager, assetFileName);
+          } catch (IOException | RuntimeException e) {
+            backend.log(GLBackend.LOG_ERROR, TAG, "Failed to load texture " + assetFileName, e);
+            return;
+          }
+          pendingUploads.add(new PendingUpload(texture, image, colorFormat, submittedGeneration));
+        });
+  }
+
+  /** Uploads decoded images until the per-frame budget is used up. Must be called on GL thread. */
+  void uploadPending() {
+    long start = System.nanoTime();
+    PendingUpload upload;
+    while ((upload = pendingUploads.poll()) != null) {
+      if (upload.generation == generation.get()) {
+        try {
+          upload.texture.upload(upload.image, upload.colorFormat);
+        } catch (RuntimeException e) {
+          backend.log(GLBackend.LOG_ERROR, TAG, "Failed to upload texture", e);
+        }
+      }
+      if (System.nanoTime() - start >= UPLOAD_BUDGET_NANOS) {
+        break;
+      }
+    }
+  }
+
+  /** Drops all pending uploads, as the textures they are for belong to a lost GL context. */
+  void onContextLost() {
+    generation.incrementAndGet();
+    pendingUploads.clear();
+  }
+
+  private static ByteBuffer readFully(InputStream stream) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(stream.available(), 4096));
+    byte[] chunk = new byte[8192];
+    int length;
+    while ((length = stream.read(chunk)) > 0) {
+      if (length > buffer.remaining()) {
+        ByteBuffer grown = ByteBuffer.allocateDirect(2 * buffer.capacity() + length);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+      }
+      buffer.put(chunk, 0, length);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static Bitmap convertBitmapToConfig(Bitmap bitmap, Bitmap.Config config) {
+    // We use this method instead of BitmapFactory.Options.outConfig to support a minimum of Android
+    // API level 24.
+    if (bitmap.getConfig() == config) {
+      return bitmap;
+    }
+    Bitmap result = bitmap.copy(config, /*isMutable=*/ false);
+    bitmap.recycle();
+    return result;
+  }
+}
@@ -23,11 +23,11 @@ import androidx.lifecycle.LifecycleOwner
 import com.google.ar.core.Anchor
 import com.google.ar.core.Coordinates2d
 import com.google.ar.core.Frame
+import com.google.ar.core.HitResult
 import com.google.ar.core.TrackingState
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper
 import com.google.ar.core.examples.java.common.samplerender.SampleRender
 import com.google.ar.core.examples.java.common.samplerender.arcore.BackgroundRenderer
-import com.google.ar.core.examples.kotlin.ml.classification.DetectedObjectResult
 import com.google.ar.core.examples.kotlin.ml.classification.GoogleCloudVisionDetector
 import com.google.ar.core.examples.kotlin.ml.classification.MLKitObjectDetector
 import com.google.ar.core.examples.kotlin.ml.classification.ObjectDetector
@@ -35,10 +35,7 @@ import com.google.ar.core.examples.kotlin.ml.render.LabelRender
 import com.google.ar.core.examples.kotlin.ml.render.PointCloudRender
 import com.google.ar.core.exceptions.CameraNotAvailableException
 import com.google.ar.core.exceptions.NotYetAvailableException
-import java.util.Collections
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.MainScope
-import kotlinx.coroutines.launch
+import com.google.ar.core.exceptions.ResourceExhaustedException
 
 /** Renders the ML application into using our sample Renderer. */
 class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, SampleRender.Renderer {
@@ -47,7 +44,6 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
   }
 
   lateinit var view: MainActivityView
-  private val coroutineScope = MainScope()
 
   val displayRotationHelper = DisplayRotationHelper(activity)
 
@@ -61,8 +57,12 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
   val projectionMatrix = FloatArray(16)
   val viewProjectionMatrix = FloatArray(16)
 
-  val arLabeledAnchors = Collections.synchronizedList(mutableListOf<ARLabeledAnchor>())
+  // Only used on the GL thread.
+  val labeledAnchors = LabeledAnchorIndex()
+  private val labelPosition = FloatArray(3)
   var scanButtonWasPressed = false
+  // When set, camera images are analyzed as often as the current analyzer keeps up with.
+  @Volatile var continuousScanning = false
 
   val mlKitAnalyzer = MLKitObjectDetector(activity)
   val gcpAnalyzer = run {
@@ -76,12 +76,24 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
 
   var currentAnalyzer: ObjectDetector = gcpAnalyzer ?: mlKitAnalyzer
 
+  // Runs as many inferences at once as the most concurrent analyzer supports.
+  val detectionScheduler =
+    DetectionScheduler(
+      maxInFlight =
+        maxOf(mlKitAnalyzer.maxConcurrentAnalyses, gcpAnalyzer?.maxConcurrentAnalyses ?: 1)
+    )
+
   override fun onResume(owner: LifecycleOwner) {
     displayRotationHelper.onResume()
   }
 
   override fun onPause(owner: LifecycleOwner) {
     displayRotationHelper.onPause()
+    detectionScheduler.clearPending()
+  }
+
+  override fun onDestroy(owner: LifecycleOwner) {
+    detectionScheduler.close()
   }
 
   /** Binds UI elements for ARCore interactions. */
@@ -103,6 +115,12 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
       currentAnalyzer = if (isChecked) configuredAnalyzer else mlKitAnalyzer
     }
 
+    view.continuousScanSwitch.setOnCheckedChangeListener { _, isChecked ->
+      continuousScanning = isChecked
+      view.setScanningActive(isChecked)
+      if (isChecked) hideSnackbar()
+    }
+
     view.useCloudMlSwitch.isChecked = gcpConfigured
     view.useCloudMlSwitch.isEnabled = gcpConfigured
     currentAnalyzer = if (gcpConfigured) configuredAnalyzer else mlKitAnalyzer
@@ -114,7 +132,8 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
     }
 
     view.resetButton.setOnClickListener {
-      synchronized(arLabeledAnchors) { arLabeledAnchors.clear() }
+      // Anchors are detached on the GL thread, which is the only one using them.
+      view.surfaceView.queueEvent { labeledAnchors.clear() }
       view.resetButton.isEnabled = false
       hideSnackbar()
     }
@@ -131,8 +150,6 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
     displayRotationHelper.onSurfaceChanged(width, height)
   }
 
-  var objectResults: List<DetectedObjectResult>? = null
-
   override fun onDrawFrame(render: SampleRender) {
     val session = activity.arCoreSessionHelper.session ?: return
     session.setCameraTextureNames(intArrayOf(backgroundRenderer.cameraColorTexture.textureId))
@@ -170,92 +187,115 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
     }
 
     // Frame.acquireCameraImage must be used on the GL thread.
-    // Check if the button was pressed last frame to start processing the camera image.
-    if (scanButtonWasPressed) {
-      scanButtonWasPressed = false
+    // Check if the button was pressed last frame, or if continuous scanning is due for an image.
+    if (
+      scanButtonWasPressed ||
+        (continuousScanning && detectionScheduler.isReadyForFrame(currentAnalyzer))
+    ) {
       val cameraImage = frame.tryAcquireCameraImage()
       if (cameraImage != null) {
-        // Call our ML model on an IO thread.
-        coroutineScope.launch(Dispatchers.IO) {
-          val cameraId = session.cameraConfig.cameraId
-          val imageRotation = displayRotationHelper.getCameraSensorToDisplayRotation(cameraId)
-          objectResults =
-            try {
-              currentAnalyzer.analyze(cameraImage, imageRotation)
-            } catch (exception: Exception) {
-              showSnackbar(
-                "Exception thrown analyzing input frame: " +
-                  exception.message +
-                  "\n" +
-                  "See adb log for details."
-              )
-              Log.e(TAG, "Exception thrown analyzing input frame", exception)
-              null
-            }
-          cameraImage.close()
-        }
+        scanButtonWasPressed = false
+        // Our ML model is called on a background thread.
+        val cameraId = session.cameraConfig.cameraId
+        val imageRotation = displayRotationHelper.getCameraSensorToDisplayRotation(cameraId)
+        detectionScheduler.submit(cameraImage, imageRotation, currentAnalyzer)
       }
     }
 
-    /** If results were completed this frame, create [Anchor]s from model results. */
-    val objects = objectResults
-    if (objects != null) {
-      objectResults = null
-      Log.i(TAG, "$currentAnalyzer got objects: $objects")
-      val anchors =
-        objects.mapNotNull { obj ->
-          val anchor =
-            createAnchor(obj.centerCoordinate.x.toFloat(), obj.centerCoordinate.y.toFloat(), frame)
-              ?: return@mapNotNull null
-          Log.i(TAG, "Created anchor ${anchor.pose} from hit test")
-          ARLabeledAnchor(anchor, obj.label)
-        }
-      arLabeledAnchors.addAll(anchors)
+    /** If results were completed since the last frame, create [Anchor]s from model results. */
+    while (true) {
+      val result = detectionScheduler.pollResult() ?: break
+      onDetectionResult(result, frame)
+    }
+
+    // Draw labels at their anchor position.
+    for (labeledAnchor in labeledAnchors.anchors) {
+      if (labeledAnchor.anchor.trackingState != TrackingState.TRACKING) continue
+      labeledAnchor.getPosition(labelPosition)
+      labelRenderer.addLabel(render, labelPosition, labeledAnchor.label)
+    }
+    labelRenderer.draw(render, viewProjectionMatrix, camera.pose)
+  }
+
+  private fun onDetectionResult(result: DetectionScheduler.Result, frame: Frame) {
+    val objects = result.objects
+    if (objects == null) {
+      val exception = result.error
+      Log.e(TAG, "Exception thrown analyzing input frame", exception)
+      // Stop continuous scanning rather than repeating a failing request on every frame.
+      continuousScanning = false
       view.post {
-        view.resetButton.isEnabled = arLabeledAnchors.isNotEmpty()
+        view.continuousScanSwitch.isChecked = false
         view.setScanningActive(false)
-        when {
-          objects.isEmpty() &&
-            currentAnalyzer == mlKitAnalyzer &&
-            !mlKitAnalyzer.hasCustomModel() ->
-            showSnackbar(
-              "Default ML Kit classification model returned no results. " +
-                "For better classification performance, see the README to configure a custom model."
-            )
-          objects.isEmpty() -> showSnackbar("Classification model returned no results.")
-          anchors.size != objects.size ->
-            showSnackbar(
-              "Objects were classified, but could not be attached to an anchor. " +
-                "Try moving your device around to obtain a better understanding of the environment."
-            )
-        }
+        showSnackbar(
+          "Exception thrown analyzing input frame: " +
+            exception?.message +
+            "\n" +
+            "See adb log for details."
+        )
       }
+      return
     }
 
-    // Draw labels at their anchor position.
-    synchronized(arLabeledAnchors) {
-      for (arDetectedObject in arLabeledAnchors) {
-        val anchor = arDetectedObject.anchor
-        if (anchor.trackingState != TrackingState.TRACKING) continue
-        labelRenderer.draw(
-          render,
-          viewProjectionMatrix,
-          anchor.pose,
-          camera.pose,
-          arDetectedObject.label
-        )
+    Log.i(TAG, "${result.detector} got objects: $objects")
+    // Objects seen before are merged into their existing anchors rather than anchored again.
+    var placedObjectCount = 0
+    for (obj in objects) {
+      val hit =
+        hitTest(obj.centerCoordinate.x.toFloat(), obj.centerCoordinate.y.toFloat(), frame)
+          ?: continue
+      hit.hitPose.getTranslation(labelPosition, 0)
+      val existing = labeledAnchors.findNearby(obj.label, labelPosition)
+      if (existing != null) {
+        labeledAnchors.merge(existing, labelPosition, obj.confidence)
+      } else {
+        val anchor = hit.trackable.createAnchor(hit.hitPose)
+        Log.i(TAG, "Created anchor ${anchor.pose} from hit test")
+        labeledAnchors.add(anchor, obj.label, obj.confidence)
+      }
+      ++placedObjectCount
+    }
+    if (placedObjectCount > 0) {
+      detectionScheduler.recordAnchored(result)
+    }
+    Log.d(TAG, "Detection stats: ${detectionScheduler.getStats()}")
+
+    val hasAnchors = !labeledAnchors.isEmpty()
+    view.post {
+      view.resetButton.isEnabled = hasAnchors
+      // In continuous mode, empty results are expected and only the switch ends scanning.
+      if (continuousScanning) return@post
+      view.setScanningActive(false)
+      when {
+        objects.isEmpty() &&
+          result.detector == mlKitAnalyzer &&
+          !mlKitAnalyzer.hasCustomModel() ->
+          showSnackbar(
+            "Default ML Kit classification model returned no results. " +
+              "For better classification performance, see the README to configure a custom model."
+          )
+        objects.isEmpty() -> showSnackbar("Classification model returned no results.")
+        placedObjectCount != objects.size ->
+          showSnackbar(
+            "Objects were classified, but could not be attached to an anchor. " +
+              "Try moving your device around to obtain a better understanding of the environment."
+          )
       }
     }
   }
 
   /**
-   * Utility method for [Frame.acquireCameraImage] that maps [NotYetAvailableException] to `null`.
+   * Utility method for [Frame.acquireCameraImage] that maps [NotYetAvailableException] and
+   * [ResourceExhaustedException] to `null`. The latter is thrown while too many camera images are
+   * held, which can happen while the detectors fall behind.
    */
   fun Frame.tryAcquireCameraImage() =
     try {
       acquireCameraImage()
     } catch (e: NotYetAvailableException) {
       null
+    } catch (e: ResourceExhaustedException) {
+      null
     } catch (e: Throwable) {
       throw e
     }
@@ -265,14 +305,14 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
 
   private fun hideSnackbar() = activity.view.snackbarHelper.hide(activity)
 
-  /** Temporary arrays to prevent allocations in [createAnchor]. */
+  /** Temporary arrays to prevent allocations in [hitTest]. */
   private val convertFloats = FloatArray(4)
   private val convertFloatsOut = FloatArray(4)
 
   /**
-   * Create an anchor using (x, y) coordinates in the [Coordinates2d.IMAGE_PIXELS] coordinate space.
+   * Hit tests the scene at (x, y) coordinates in the [Coordinates2d.IMAGE_PIXELS] coordinate space.
    */
-  fun createAnchor(xImage: Float, yImage: Float, frame: Frame): Anchor? {
+  fun hitTest(xImage: Float, yImage: Float, frame: Frame): HitResult? {
     // IMAGE_PIXELS -> VIEW
     convertFloats[0] = xImage
     convertFloats[1] = yImage
@@ -285,9 +325,6 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
 
     // Conduct a hit test using the VIEW coordinates
     val hits = frame.hitTest(convertFloatsOut[0], convertFloatsOut[1])
-    val result = hits.getOrNull(0) ?: return null
-    return result.trackable.createAnchor(result.hitPose)
+    return hits.getOrNull(0)
   }
 }
-
-data class ARLabeledAnchor(val anchor: Anchor, val label: String)
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml
+
+import android.media.Image
+import com.google.ar.core.examples.kotlin.ml.classification.DetectedObjectResult
+import com.google.ar.core.examples.kotlin.ml.classification.ObjectDetector
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import kotlin.math.ceil
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+
+/**
+ * Runs [ObjectDetector]s on camera images in the background, either continuously or one image at a
+ * time.
+ *
+ * Camera images are handed to the detectors through a single-slot mailbox: an image submitted while
+ * the previous one is still waiting replaces and closes the previous one, so a slow model is always
+ * fed the latest image rather than a growing queue of stale ones. At most `maxInFlight` images are
+ * analyzed at once, and at most [ObjectDetector.maxConcurrentAnalyses] by each detector.
+ * [isReadyForFrame] spaces out submissions according to the measured latency of each detector, so
+ * that camera images are only acquired when a detector is about to become free.
+ */
+class DetectionScheduler(private val maxInFlight: Int = 1) {
+  companion object {
+    // Submissions are never spaced closer than this, however fast the model is.
+    private val MIN_SUBMIT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(66)
+    // Weight of the latest inference in the moving average of the model latency.
+    private const val LATENCY_SMOOTHING = 0.2
+    // Number of most recent capture-to-anchor latencies the percentiles are computed from.
+    private const val LATENCY_WINDOW_SIZE = 128
+  }
+
+  /** A camera image which waits for a detector. */
+  private class PendingImage(
+    val image: Image,
+    val imageRotation: Int,
+    val detector: ObjectDetector,
+    val captureTimeNanos: Long
+  )
+
+  /** The concurrency limit and pacing of one detector. Guarded by lock. */
+  private class DetectorState(val detector: ObjectDetector) {
+    val permits = Semaphore(detector.maxConcurrentAnalyses)
+    var smoothedInferenceNanos = 0.0
+    var hasSubmitted = false
+    var lastSubmitNanos = 0L
+
+    /** Returns how long to wait between submissions for the detector to keep up. */
+    fun getSubmitIntervalNanos(): Long =
+      maxOf(
+        MIN_SUBMIT_INTERVAL_NANOS,
+        (smoothedInferenceNanos / detector.maxConcurrentAnalyses).toLong()
+      )
+
+    /** Returns whether the submission interval has passed since the last submission. */
+    fun isReadyForFrame(nowNanos: Long): Boolean =
+      !hasSubmitted || nowNanos - lastSubmitNanos >= getSubmitIntervalNanos()
+  }
+
+  /** The outcome of analyzing one camera image. */
+  class Result(
+    /** The detector which analyzed the image. */
+    val detector: ObjectDetector,
+    /** The detected objects, or `null` if analyzing the image failed with [error]. */
+    val objects: List<DetectedObjectResult>?,
+    val error: Exception?,
+    /** The [System.nanoTime] at which the camera image was submitted. */
+    val captureTimeNanos: Long
+  )
+
+  /**
+   * Counters and latencies of a [DetectionScheduler], as returned by [getStats]. The inference
+   * latency and submission interval are those of the detector of the last submitted image.
+   */
+  data class Stats(
+    val submittedImageCount: Long,
+    val droppedImageCount: Long,
+    val inferenceCount: Long,
+    val failedInferenceCount: Long,
+    val smoothedInferenceMillis: Double,
+    val submitIntervalMillis: Double,
+    val anchoredResultCount: Long,
+    val medianCaptureToAnchorMillis: Double,
+    val p95CaptureToAnchorMillis: Double,
+    val maxCaptureToAnchorMillis: Double
+  )
+
+  private val lock = Any()
+  private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+  // Signals the workers that the mailbox was filled. Conflated, as a worker always empties the
+  // mailbox before waiting for the next signal.
+  private val wakeups = Channel<Unit>(Channel.CONFLATED)
+  private val results = ConcurrentLinkedQueue<Result>()
+
+  // The fields below are guarded by lock.
+  private var mailbox: PendingImage? = null
+  private var closed = false
+  private val detectorStates = HashMap<ObjectDetector, DetectorState>()
+  private var lastDetectorState: DetectorState? = null
+  private var submittedImageCount = 0L
+  private var droppedImageCount = 0L
+  private var inferenceCount = 0L
+  private var failedInferenceCount = 0L
+  private var anchoredResultCount = 0L
+  private var maxCaptureToAnchorNanos = 0L
+  private val captureToAnchorNanos = LongArray(LATENCY_WINDOW_SIZE)
+
+  init {
+    require(maxInFlight > 0) { "maxInFlight must be positive: $maxInFlight" }
+    repeat(maxInFlight) { coroutineScope.launch { runWorker() } }
+  }
+
+  /**
+   * Returns whether enough time has passed since the last submission for [detector] to be ready for
+   * another camera image, judging by how long its recent inferences took.
+   */
+  fun isReadyForFrame(detector: ObjectDetector, nowNanos: Long = System.nanoTime()): Boolean =
+    synchronized(lock) { getDetectorState(detector).isReadyForFrame(nowNanos) }
+
+  /**
+   * Hands [image] to the next free detector, which analyzes it with [detector]. Takes ownership of
+   * [image]: it is closed once the detector has read it, or when a later image replaces it in the
+   * mailbox.
+   */
+  fun submit(image: Image, imageRotation: Int, detector: ObjectDetector) {
+    val nowNanos = System.nanoTime()
+    val replaced =
+      synchronized(lock) {
+        if (closed) {
+          image
+        } else {
+          val state = getDetectorState(detector)
+          state.hasSubmitted = true
+          state.lastSubmitNanos = nowNanos
+          lastDetectorState = state
+          ++submittedImageCount
+          val previous = mailbox
+          mailbox = PendingImage(image, imageRotation, detector, nowNanos)
+          if (previous != null) ++droppedImageCount
+          previous?.image
+        }
+      }
+    replaced?.close()
+    wakeups.trySend(Unit)
+  }
+
+  /**
+   * Returns the oldest result which was not polled yet, or `null` if there is none. Results are
+   * returned in the order their inferences completed.
+   */
+  fun pollResult(): Result? = results.poll()
+
+  /**
+   * Records that anchors were created for [result], to track the latency from submitting its camera
+   * image to anchoring its objects.
+   */
+  fun recordAnchored(result: Result, nowNanos: Long = System.nanoTime()) {
+    val latencyNanos = nowNanos - result.captureTimeNanos
+    synchronized(lock) {
+      captureToAnchorNanos[(anchoredResultCount % LATENCY_WINDOW_SIZE).toInt()] = latencyNanos
+      ++anchoredResultCount
+      maxCaptureToAnchorNanos = maxOf(maxCaptureToAnchorNanos, latencyNanos)
+    }
+  }
+
+  /** Returns the current counters and latencies. */
+  fun getStats(): Stats =
+    synchronized(lock) {
+      val windowSize = minOf(anchoredResultCount, LATENCY_WINDOW_SIZE.toLong()).toInt()
+      val window = captureToAnchorNanos.copyOf(windowSize).apply { sort() }
+      Stats(
+        submittedImageCount = submittedImageCount,
+        droppedImageCount = droppedImageCount,
+        inferenceCount = inferenceCount,
+        failedInferenceCount = failedInferenceCount,
+        smoothedInferenceMillis = toMillis(lastDetectorState?.smoothedInferenceNanos ?: 0.0),
+        submitIntervalMillis =
+          toMillis((lastDetectorState?.getSubmitIntervalNanos() ?: 0L).toDouble()),
+        anchoredResultCount = anchoredResultCount,
+        medianCaptureToAnchorMillis = toMillis(window.percentile(50.0)),
+        p95CaptureToAnchorMillis = toMillis(window.percentile(95.0)),
+        maxCaptureToAnchorMillis = toMillis(maxCaptureToAnchorNanos.toDouble())
+      )
+    }
+
+  /** Closes the image waiting in the mailbox, if any, without affecting images being analyzed. */
+  fun clearPending() {
+    val pending = synchronized(lock) { mailbox.also { mailbox = null } }
+    pending?.image?.close()
+  }
+
+  /** Stops the detectors and closes all images which were submitted but not analyzed yet. */
+  fun close() {
+    synchronized(lock) { closed = true }
+    coroutineScope.cancel()
+    clearPending()
+  }
+
+  private suspend fun runWorker() {
+    while (true) {
+      // Wait for the detector of the waiting image to have capacity before taking the image, so
+      // that it can still be replaced by a later one in the meantime.
+      val state = synchronized(lock) { mailbox?.let { getDetectorState(it.detector) } }
+      if (state == null) {
+        wakeups.receive()
+        continue
+      }
+      state.permits.acquire()
+      try {
+        val pending =
+          synchronized(lock) {
+            mailbox?.takeIf { it.detector === state.detector }?.also { mailbox = null }
+          }
+        if (pending != null) analyze(pending, state)
+      } finally {
+        state.permits.release()
+      }
+    }
+  }
+
+  private suspend fun analyze(pending: PendingImage, state: DetectorState) {
+    val startNanos = System.nanoTime()
+    val result =
+      try {
+        // The camera image is closed as soon as the detector has read it, rather than held for the
+        // whole inference, as ARCore only lets a few camera images be acquired at a time.
+        val analysis =
+          try {
+            pending.detector.prepareAnalysis(pending.image, pending.imageRotation)
+          } finally {
+            pending.image.close()
+          }
+        Result(pending.detector, analysis(), /*error=*/ null, pending.captureTimeNanos)
+      } catch (e: CancellationException) {
+        throw e
+      } catch (e: Exception) {
+        Result(pending.detector, /*objects=*/ null, e, pending.captureTimeNanos)
+      }
+    val inferenceNanos = System.nanoTime() - startNanos
+    synchronized(lock) {
+      ++inferenceCount
+      if (result.error != null) {
+        // Failures are often much faster than inferences, and should not speed up submissions.
+        ++failedInferenceCount
+      } else if (state.smoothedInferenceNanos == 0.0) {
+        state.smoothedInferenceNanos = inferenceNanos.toDouble()
+      } else {
+        state.smoothedInferenceNanos +=
+          LATENCY_SMOOTHING * (inferenceNanos - state.smoothedInferenceNanos)
+      }
+    }
+    results.add(result)
+  }
+
+  /** Returns the state of [detector], which is created on first use. Needs [lock]. */
+  private fun getDetectorState(detector: ObjectDetector): DetectorState =
+    detectorStates.getOrPut(detector) { DetectorState(detector) }
+
+  /** Returns the given percentile of the sorted latencies, or zero if there are none. */
+  private fun LongArray.percentile(percentile: Double): Double {
+    if (isEmpty()) return 0.0
+    val rank = ceil(percentile / 100 * size).toInt().coerceIn(1, size)
+    return this[rank - 1].toDouble()
+  }
+
+  private fun toMillis(nanos: Double) = nanos / TimeUnit.MILLISECONDS.toNanos(1)
+}
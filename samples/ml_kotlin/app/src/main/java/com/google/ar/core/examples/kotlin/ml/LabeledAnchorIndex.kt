@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml
+
+import com.google.ar.core.Anchor
+import com.google.ar.core.TrackingState
+import kotlin.math.floor
+
+/**
+ * An [Anchor] with the label of the object detected at it. The label is placed at an offset from
+ * the anchor, which is refined by later detections of the same object.
+ */
+class ARLabeledAnchor(val anchor: Anchor, val label: String) {
+  // The position of the label in the coordinate space of the anchor.
+  internal val localPosition = FloatArray(3)
+  // The sum of the confidences of the detections merged into the label, up to a limit.
+  internal var weight = 0f
+  // The key of the spatial hash cell the label is in.
+  internal var cellKey = 0L
+
+  /** Writes the position of the label in world space to [position]. */
+  fun getPosition(position: FloatArray) {
+    anchor.pose.transformPoint(localPosition, 0, position, 0)
+  }
+}
+
+/**
+ * Holds the [ARLabeledAnchor]s of detected objects, so that repeated detections of an object share
+ * one anchor.
+ *
+ * Labels are kept in a spatial hash of cubes as large as the merge radius, so that finding the
+ * labels near a detection only needs to look at the neighboring cubes, however many labels there
+ * are. As ARCore refines its understanding of the world it moves the anchors, and the labels with
+ * them, so before each lookup the labels which left their cube are moved to the cube of their
+ * current position. A detection within the merge radius of a label of the same name moves the label towards it,
+ * weighted by confidence, rather than creating an anchor. The number of anchors is capped; beyond
+ * the cap, the anchor which stopped tracking or has the least accumulated confidence is detached.
+ *
+ * Must only be used on the GL thread.
+ */
+class LabeledAnchorIndex(
+  private val mergeRadius: Float = DEFAULT_MERGE_RADIUS,
+  private val maxAnchors: Int = DEFAULT_MAX_ANCHORS
+) {
+  companion object {
+    // Detections of the same label closer than this, in meters, are taken to be the same object.
+    const val DEFAULT_MERGE_RADIUS = 0.15f
+    const val DEFAULT_MAX_ANCHORS = 64
+    // Limits the weight of a label, so that it still follows new detections after many merges.
+    private const val MAX_WEIGHT = 10f
+    // Cell coordinates are packed into 21 bits each.
+    private const val CELL_BITS = 21
+    private const val CELL_MASK = (1L shl CELL_BITS) - 1
+  }
+
+  init {
+    require(maxAnchors > 0) { "maxAnchors must be positive: $maxAnchors" }
+  }
+
+  private val labeledAnchors = ArrayList<ARLabeledAnchor>()
+  private val cells = HashMap<Long, MutableList<ARLabeledAnchor>>()
+  // Temporary array to prevent allocations in findNearby and updateCells.
+  private val candidatePosition = FloatArray(3)
+
+  /** The labeled anchors, in the order they were added. */
+  val anchors: List<ARLabeledAnchor>
+    get() = labeledAnchors
+
+  fun isEmpty() = labeledAnchors.isEmpty()
+
+  /**
+   * Returns the label named [label] nearest to the world space [position] within the merge radius,
+   * or `null` if there is none.
+   */
+  fun findNearby(label: String, position: FloatArray): ARLabeledAnchor? {
+    updateCells()
+    val cellX = toCell(position[0])
+    val cellY = toCell(position[1])
+    val cellZ = toCell(position[2])
+    var nearest: ARLabeledAnchor? = null
+    var nearestDistanceSquared = mergeRadius * mergeRadius
+    for (x in cellX - 1..cellX + 1) {
+      for (y in cellY - 1..cellY + 1) {
+        for (z in cellZ - 1..cellZ + 1) {
+          val cell = cells[getCellKey(x, y, z)] ?: continue
+          for (candidate in cell) {
+            if (candidate.label != label) continue
+            if (candidate.anchor.trackingState == TrackingState.STOPPED) continue
+            candidate.getPosition(candidatePosition)
+            val dx = candidatePosition[0] - position[0]
+            val dy = candidatePosition[1] - position[1]
+            val dz = candidatePosition[2] - position[2]
+            val distanceSquared = dx * dx + dy * dy + dz * dz
+            if (distanceSquared <= nearestDistanceSquared) {
+              nearest = candidate
+              nearestDistanceSquared = distanceSquared
+            }
+          }
+        }
+      }
+    }
+    return nearest
+  }
+
+  /**
+   * Moves [labeledAnchor] towards the world space [position] of another detection of its object,
+   * by the share of [confidence] in the total confidence of the detections merged so far.
+   */
+  fun merge(labeledAnchor: ARLabeledAnchor, position: FloatArray, confidence: Float) {
+    val localPosition = labeledAnchor.anchor.pose.inverse().transformPoint(position)
+    val share = confidence / (labeledAnchor.weight + confidence)
+    for (i in 0..2) {
+      labeledAnchor.localPosition[i] += share * (localPosition[i] - labeledAnchor.localPosition[i])
+    }
+    labeledAnchor.weight = minOf(labeledAnchor.weight + confidence, MAX_WEIGHT)
+    labeledAnchor.getPosition(candidatePosition)
+    updateCell(labeledAnchor, candidatePosition)
+  }
+
+  /**
+   * Adds a label named [label] at [anchor], detected with [confidence]. If this exceeds the maximum
+   * number of anchors, another anchor is detached and removed.
+   */
+  fun add(anchor: Anchor, label: String, confidence: Float): ARLabeledAnchor {
+    if (labeledAnchors.size >= maxAnchors) {
+      remove(getLeastValuable())
+    }
+    val labeledAnchor = ARLabeledAnchor(anchor, label).apply { weight = confidence }
+    labeledAnchors.add(labeledAnchor)
+    labeledAnchor.getPosition(candidatePosition)
+    labeledAnchor.cellKey = getCellKey(candidatePosition)
+    cells.getOrPut(labeledAnchor.cellKey) { ArrayList(1) }.add(labeledAnchor)
+    return labeledAnchor
+  }
+
+  /** Detaches and removes all anchors. */
+  fun clear() {
+    for (labeledAnchor in labeledAnchors) {
+      labeledAnchor.anchor.detach()
+    }
+    labeledAnchors.clear()
+    cells.clear()
+  }
+
+  /** Returns the anchor which stopped tracking, or else the one with the least weight. */
+  private fun getLeastValuable(): ARLabeledAnchor =
+    labeledAnchors.firstOrNull { it.anchor.trackingState == TrackingState.STOPPED }
+      ?: labeledAnchors.minByOrNull { it.weight }!!
+
+  private fun remove(labeledAnchor: ARLabeledAnchor) {
+    labeledAnchor.anchor.detach()
+    labeledAnchors.remove(labeledAnchor)
+    removeFromCell(labeledAnchor)
+  }
+
+  /** Moves the labels whose anchors were moved since they were last put in a cell. */
+  private fun updateCells() {
+    for (labeledAnchor in labeledAnchors) {
+      if (labeledAnchor.anchor.trackingState == TrackingState.STOPPED) continue
+      labeledAnchor.getPosition(candidatePosition)
+      updateCell(labeledAnchor, candidatePosition)
+    }
+  }
+
+  /** Moves [labeledAnchor] to the cell of [position], if it is in another one. */
+  private fun updateCell(labeledAnchor: ARLabeledAnchor, position: FloatArray) {
+    val cellKey = getCellKey(position)
+    if (cellKey == labeledAnchor.cellKey) return
+    removeFromCell(labeledAnchor)
+    labeledAnchor.cellKey = cellKey
+    cells.getOrPut(cellKey) { ArrayList(1) }.add(labeledAnchor)
+  }
+
+  private fun removeFromCell(labeledAnchor: ARLabeledAnchor) {
+    val cell = cells[labeledAnchor.cellKey] ?: return
+    cell.remove(labeledAnchor)
+    if (cell.isEmpty()) cells.remove(labeledAnchor.cellKey)
+  }
+
+  private fun toCell(coordinate: Float) = floor(coordinate / mergeRadius).toInt()
+
+  private fun getCellKey(position: FloatArray) =
+    getCellKey(toCell(position[0]), toCell(position[1]), toCell(position[2]))
+
+  private fun getCellKey(x: Int, y: Int, z: Int): Long =
+    ((x.toLong() and CELL_MASK) shl (2 * CELL_BITS)) or
+      ((y.toLong() and CELL_MASK) shl CELL_BITS) or
+      (z.toLong() and CELL_MASK)
+}
@@ -24,6 +24,7 @@ import androidx.lifecycle.DefaultLifecycleObserver
 import androidx.lifecycle.LifecycleOwner
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper
 import com.google.ar.core.examples.java.common.samplerender.SampleRender
+import java.io.File
 
 /** Wraps [R.layout.activity_main] and controls lifecycle operations for [GLSurfaceView]. */
 class MainActivityView(val activity: MainActivity, renderer: AppRenderer) :
@@ -31,9 +32,10 @@ class MainActivityView(val activity: MainActivity, renderer: AppRenderer) :
   val root = View.inflate(activity, R.layout.activity_main, null)
   val surfaceView =
     root.findViewById<GLSurfaceView>(R.id.surfaceview).apply {
-      SampleRender(this, renderer, activity.assets)
+      SampleRender(this, renderer, activity.assets, File(activity.cacheDir, "shaders"))
     }
   val useCloudMlSwitch = root.findViewById<SwitchCompat>(R.id.useCloudMlSwitch)
+  val continuousScanSwitch = root.findViewById<SwitchCompat>(R.id.continuousScanSwitch)
   val scanButton = root.findViewById<AppCompatButton>(R.id.scanButton)
   val resetButton = root.findViewById<AppCompatButton>(R.id.clearButton)
   val snackbarHelper =
@@ -16,131 +16,262 @@
 
 package com.google.ar.core.examples.kotlin.ml.classification
 
+import android.content.Context
 import android.graphics.PointF
 import android.media.Image
 import android.util.Base64
 import android.util.Log
-import com.google.ar.core.examples.kotlin.ml.MainActivity
-import com.google.ar.core.examples.kotlin.ml.classification.utils.ImageUtils
+import com.google.ar.core.examples.kotlin.ml.classification.utils.CameraImageConverter
+import com.google.ar.core.examples.kotlin.ml.classification.utils.ImageUtils.differenceHash
 import com.google.ar.core.examples.kotlin.ml.classification.utils.ImageUtils.toByteArray
 import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils
 import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.rotateCoordinates
 import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.toAbsoluteCoordinates
-import com.google.gson.JsonArray
 import com.google.gson.JsonObject
 import com.google.gson.JsonParser
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody
+import okio.BufferedSink
 
 /**
  * Finds detected objects ([DetectedObjectResult]s) given an [android.media.Image]. See
  * [Cloud Vision API's detect multiple objects developer guide](https://cloud.google.com/vision/docs/object-localizer)
  * .
+ *
+ * Images are uploaded as JPEGs of the given quality, downscaled so that neither side is larger than
+ * `maxInputSize`. Images analyzed while a request is in flight are sent together in the next
+ * request, up to [MAX_BATCH_SIZE] at a time. Images which look like a recently analyzed image, as
+ * judged by their perceptual hashes, are not uploaded but get the results of that image.
+ *
+ * @param endpoint the URL of the `images:annotate` method, which can point to a local server
+ * standing in for Cloud Vision.
  */
-class GoogleCloudVisionDetector(val activity: MainActivity, val apiKey: String) :
-  ObjectDetector(activity) {
+class GoogleCloudVisionDetector(
+  context: Context,
+  val apiKey: String,
+  maxInputSize: Int = MAX_INPUT_SIZE,
+  private val jpegQuality: Int = DEFAULT_JPEG_QUALITY,
+  endpoint: String = DEFAULT_ENDPOINT
+) : ObjectDetector(context, maxInputSize) {
   companion object {
     val TAG = "GoogleCloudVisionDetector"
+
+    const val DEFAULT_ENDPOINT = "https://vision.googleapis.com/v1/images:annotate"
+    // Object localization barely suffers from the artifacts at this quality, while the images are
+    // several times smaller than at full quality.
+    const val DEFAULT_JPEG_QUALITY = 75
+    // Cloud Vision accepts up to 16 images per request, but smaller batches keep latency low.
+    const val MAX_BATCH_SIZE = 4
+    // Images whose perceptual hashes differ in at most this many bits share their results.
+    private const val MAX_HASH_DISTANCE = 4
+    private const val CACHE_SIZE = 16
+
+    private val JSON_MEDIA_TYPE = "application/json; charset=utf-8".toMediaType()
   }
 
+  /** An object found by Cloud Vision, with its center normalized to the size of the image. */
+  private class NormalizedObject(val confidence: Float, val label: String, val center: PointF)
+
+  /** An image which waits to be sent to Cloud Vision, and its eventual results. */
+  private class PendingImage(val jpeg: ByteArray) {
+    val objects = CompletableDeferred<List<NormalizedObject>>()
+  }
+
+  private class CachedObjects(val hash: Long, val objects: List<NormalizedObject>)
+
   val httpClient = OkHttpClient.Builder().build()
+  private val url = endpoint.toHttpUrl().newBuilder().addQueryParameter("key", apiKey).build()
+  private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
 
-  override suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult> {
-    // `image` is in YUV
-    // (https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()),
-    val convertYuv = convertYuv(image)
-
-    // The model performs best on upright images, so rotate it.
-    val rotatedImage = ImageUtils.rotateBitmap(convertYuv, imageRotation)
-
-    // Create Google Cloud Vision request.
-    val body = createRequestBody(rotatedImage.toByteArray())
-    val req =
-      httpClient.newCall(
-        Request.Builder()
-          .url("https://vision.googleapis.com/v1/images:annotate?key=$apiKey")
-          .post(RequestBody.create("text/json".toMediaType(), body.toString()))
-          .build()
-      )
+  private val lock = Any()
+  // The fields below are guarded by lock.
+  private val pendingImages = ArrayList<PendingImage>()
+  private var requestInFlight = false
+  private val cache = ArrayDeque<CachedObjects>()
+  // Converters are reused, but each concurrent analysis has one of its own.
+  private val imageConverters = ArrayDeque<CameraImageConverter>()
+
+  // Concurrent analyses are batched into a single request.
+  override val maxConcurrentAnalyses: Int
+    get() = MAX_BATCH_SIZE
+
+  override suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult> =
+    prepareAnalysis(image, imageRotation)()
+
+  // Only the encoded image waits for its batch, so that the camera image can be closed right away.
+  override suspend fun prepareAnalysis(
+    image: Image,
+    imageRotation: Int
+  ): suspend () -> List<DetectedObjectResult> {
+    val uprightWidth = if (imageRotation % 180 == 0) image.width else image.height
+    val uprightHeight = if (imageRotation % 180 == 0) image.height else image.width
+
+    // Concurrent analyses convert, hash and encode their images in parallel.
+    val imageConverter =
+      synchronized(lock) { imageConverters.removeLastOrNull() }
+        ?: CameraImageConverter(maxInputSize)
+    val (hash, jpeg) =
+      try {
+        // The model performs best on upright images, so rotate it while converting it to RGB.
+        val inputBitmap = imageConverter.convertToBitmap(image, imageRotation)
+        val hash = inputBitmap.differenceHash()
+        val cachedObjects = findCachedObjects(hash)
+        if (cachedObjects != null) {
+          val objects =
+            cachedObjects.toDetectedObjectResults(uprightWidth, uprightHeight, imageRotation)
+          return { objects }
+        }
+        hash to inputBitmap.toByteArray(jpegQuality)
+      } finally {
+        synchronized(lock) {
+          if (imageConverters.size < MAX_BATCH_SIZE) imageConverters.addLast(imageConverter)
+        }
+      }
+
+    val pendingImage = enqueue(jpeg)
+    return {
+      val objects = pendingImage.objects.await()
+      addCachedObjects(hash, objects)
+      objects.toDetectedObjectResults(uprightWidth, uprightHeight, imageRotation)
+    }
+  }
+
+  /** Adds [jpeg] to the next request, and starts sending requests if none is in flight. */
+  private fun enqueue(jpeg: ByteArray): PendingImage {
+    val pendingImage = PendingImage(jpeg)
+    val startRequests =
+      synchronized(lock) {
+        pendingImages.add(pendingImage)
+        !requestInFlight.also { requestInFlight = true }
+      }
+    if (startRequests) {
+      coroutineScope.launch { sendPendingImages() }
+    }
+    return pendingImage
+  }
+
+  /** Sends the pending images in batches until none are left. */
+  private fun sendPendingImages() {
+    while (true) {
+      val batch =
+        synchronized(lock) {
+          if (pendingImages.isEmpty()) {
+            requestInFlight = false
+            return
+          }
+          val batchImages = pendingImages.subList(0, minOf(pendingImages.size, MAX_BATCH_SIZE))
+          ArrayList(batchImages).also { batchImages.clear() }
+        }
+      try {
+        annotate(batch)
+      } catch (exception: Exception) {
+        Log.e(TAG, "Failed to annotate ${batch.size} images", exception)
+        batch.forEach { it.objects.completeExceptionally(exception) }
+      }
+    }
+  }
+
+  /** Sends [batch] in one `images:annotate` request and completes it with the results. */
+  private fun annotate(batch: List<PendingImage>) {
+    val body = AnnotateRequestBody(batch.map { it.jpeg })
+    val startNanos = System.nanoTime()
+    val request = httpClient.newCall(Request.Builder().url(url).post(body).build())
 
     // Execute Google Cloud Vision request and parse response body.
-    req.execute().use { response ->
-      val responseBody = response.body?.string()
-      if (responseBody == null) {
-        Log.e(TAG, "Failed to parse result body.")
-        return emptyList()
+    request.execute().use { response ->
+      if (!response.isSuccessful) {
+        throw IOException("Request failed with HTTP status ${response.code}")
       }
-      Log.i(TAG, "Received response body: $responseBody")
-      val jsonBody = JsonParser.parseString(responseBody).asJsonObject
-
-      // Process result and map to DetectedObjectResult.
-      // https://cloud.google.com/vision/docs/reference/rest/v1/AnnotateImageResponse
-      val responseObject = jsonBody.getAsJsonArray("responses").first().asJsonObject
-      // https://cloud.google.com/vision/docs/reference/rest/v1/AnnotateImageResponse#LocalizedObjectAnnotation
-      val localisedObjectAnnotationsList =
-        responseObject.getAsJsonArray("localizedObjectAnnotations") ?: return emptyList()
-      return localisedObjectAnnotationsList
-        .map { it.asJsonObject }
-        .map { annotation ->
-          // https://cloud.google.com/vision/docs/reference/rest/v1/projects.locations.products.referenceImages#BoundingPoly
-          val boundingPoly = annotation.get("boundingPoly").asJsonObject
-          val centerCoordinateNormalized =
-            VertexUtils.calculateCenterOfPoly(boundingPolyToCoordinateList(boundingPoly))
-          val centerCoordinateAbsolute =
-            centerCoordinateNormalized.toAbsoluteCoordinates(
-              rotatedImage.width,
-              rotatedImage.height
-            )
-          val rotatedCoordinates =
-            centerCoordinateAbsolute.rotateCoordinates(
-              rotatedImage.width,
-              rotatedImage.height,
-              imageRotation
-            )
-          DetectedObjectResult(
-            confidence = annotation.get("score").asFloat,
-            label = annotation.get("name").asString,
-            centerCoordinate = rotatedCoordinates
-          )
+      val responseBody = response.body ?: throw IOException("Response has no body")
+      // The response is parsed while it is read, rather than read into a string first.
+      val jsonBody = responseBody.charStream().use { JsonParser.parseReader(it) }.asJsonObject
+      Log.d(
+        TAG,
+        "Annotated ${batch.size} images of ${body.contentLength()} bytes in " +
+          "${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)} ms"
+      )
+
+      // https://cloud.google.com/vision/docs/reference/rest/v1/BatchAnnotateImagesResponse
+      val responses = jsonBody.getAsJsonArray("responses")
+      if (responses == null || responses.size() != batch.size) {
+        throw IOException("Expected ${batch.size} responses, got ${responses?.size()}")
+      }
+      batch.forEachIndexed { index, pendingImage ->
+        try {
+          pendingImage.objects.complete(parseResponse(responses[index].asJsonObject))
+        } catch (exception: Exception) {
+          pendingImage.objects.completeExceptionally(exception)
         }
+      }
     }
   }
 
   /**
-   * Creates an
-   * [`images.annotate` request body](https://cloud.google.com/vision/docs/reference/rest/v1/images/annotate#request-body)
-   *
-   * @param image a [ByteArray] representation of the image to upload to Google Cloud Vision API.
+   * Returns the objects in an
+   * [AnnotateImageResponse](https://cloud.google.com/vision/docs/reference/rest/v1/AnnotateImageResponse)
+   * .
    */
-  fun createRequestBody(image: ByteArray): JsonObject {
-
-    return JsonObject().apply {
-      add(
-        "requests",
-        JsonArray().apply {
-          add(
-            JsonObject().apply {
-              add(
-                "image",
-                JsonObject().apply {
-                  addProperty("content", Base64.encodeToString(image, Base64.DEFAULT))
-                }
-              )
-              add(
-                "features",
-                JsonArray().apply {
-                  add(JsonObject().apply { addProperty("type", "OBJECT_LOCALIZATION") })
-                }
-              )
-            }
-          )
-        }
-      )
+  private fun parseResponse(responseObject: JsonObject): List<NormalizedObject> {
+    val error = responseObject.getAsJsonObject("error")
+    if (error != null) {
+      throw IOException("Failed to annotate image: ${error.get("message")?.asString}")
     }
+    // https://cloud.google.com/vision/docs/reference/rest/v1/AnnotateImageResponse#LocalizedObjectAnnotation
+    val localisedObjectAnnotationsList =
+      responseObject.getAsJsonArray("localizedObjectAnnotations") ?: return emptyList()
+    return localisedObjectAnnotationsList
+      .map { it.asJsonObject }
+      .map { annotation ->
+        // https://cloud.google.com/vision/docs/reference/rest/v1/projects.locations.products.referenceImages#BoundingPoly
+        val boundingPoly = annotation.get("boundingPoly").asJsonObject
+        NormalizedObject(
+          confidence = annotation.get("score").asFloat,
+          label = annotation.get("name").asString,
+          center = VertexUtils.calculateCenterOfPoly(boundingPolyToCoordinateList(boundingPoly))
+        )
+      }
   }
 
+  /**
+   * Maps objects in an uploaded image, which is the whole camera image, upright and downscaled, to
+   * the camera image.
+   */
+  private fun List<NormalizedObject>.toDetectedObjectResults(
+    uprightWidth: Int,
+    uprightHeight: Int,
+    imageRotation: Int
+  ): List<DetectedObjectResult> = map { obj ->
+    val imageCoordinates =
+      obj.center
+        .toAbsoluteCoordinates(uprightWidth, uprightHeight)
+        .rotateCoordinates(uprightWidth, uprightHeight, imageRotation)
+    DetectedObjectResult(obj.confidence, obj.label, imageCoordinates)
+  }
+
+  /** Returns the objects of a recently analyzed image with a similar [hash], if there is one. */
+  private fun findCachedObjects(hash: Long): List<NormalizedObject>? =
+    synchronized(lock) {
+      cache
+        .lastOrNull { java.lang.Long.bitCount(it.hash xor hash) <= MAX_HASH_DISTANCE }
+        ?.objects
+    }
+
+  private fun addCachedObjects(hash: Long, objects: List<NormalizedObject>) =
+    synchronized(lock) {
+      if (cache.size == CACHE_SIZE) cache.removeFirst()
+      cache.addLast(CachedObjects(hash, objects))
+    }
+
   /**
    * Transforms a [JsonObject] of
    * [BoundingPoly](https://cloud.google.com/vision/docs/reference/rest/v1/projects.locations.products.referenceImages#BoundingPoly)
@@ -155,4 +286,43 @@ class GoogleCloudVisionDetector(val activity: MainActivity, val apiKey: String)
         if (it["x"] == null || it["y"] == null) null else PointF(it["x"].asFloat, it["y"].asFloat)
       }
   }
+
+  /**
+   * An
+   * [`images.annotate` request body](https://cloud.google.com/vision/docs/reference/rest/v1/images/annotate#request-body)
+   * to localize objects in JPEG images. The body is written straight to the connection, one Base64
+   * encoded chunk of an image at a time, rather than built as a string first.
+   */
+  private class AnnotateRequestBody(private val images: List<ByteArray>) : RequestBody() {
+    companion object {
+      private const val REQUESTS_PREFIX = "{\"requests\":["
+      private const val REQUESTS_SUFFIX = "]}"
+      private const val IMAGE_PREFIX = "{\"image\":{\"content\":\""
+      private const val IMAGE_SUFFIX = "\"},\"features\":[{\"type\":\"OBJECT_LOCALIZATION\"}]}"
+      // A multiple of 3 bytes, so that the encoded chunks concatenate without padding in between.
+      private const val CHUNK_SIZE = 3 * 1024
+    }
+
+    override fun contentType() = JSON_MEDIA_TYPE
+
+    override fun contentLength(): Long =
+      REQUESTS_PREFIX.length +
+        REQUESTS_SUFFIX.length +
+        maxOf(0, images.size - 1) +
+        images.sumOf { IMAGE_PREFIX.length + IMAGE_SUFFIX.length + (it.size + 2) / 3 * 4L }
+
+    override fun writeTo(sink: BufferedSink) {
+      sink.writeUtf8(REQUESTS_PREFIX)
+      images.forEachIndexed { index, image ->
+        if (index > 0) sink.writeUtf8(",")
+        sink.writeUtf8(IMAGE_PREFIX)
+        for (offset in image.indices step CHUNK_SIZE) {
+          val length = minOf(CHUNK_SIZE, image.size - offset)
+          sink.write(Base64.encode(image, offset, length, Base64.NO_WRAP))
+        }
+        sink.writeUtf8(IMAGE_SUFFIX)
+      }
+      sink.writeUtf8(REQUESTS_SUFFIX)
+    }
+  }
 }
@@ -17,10 +17,7 @@
 package com.google.ar.core.examples.kotlin.ml.classification
 
 import android.app.Activity
-import android.graphics.Point
 import android.media.Image
-import com.google.ar.core.examples.kotlin.ml.classification.utils.ImageUtils
-import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.rotateCoordinates
 import com.google.mlkit.vision.common.InputImage
 import com.google.mlkit.vision.objects.ObjectDetection
 import com.google.mlkit.vision.objects.custom.CustomObjectDetectorOptions
@@ -46,23 +43,20 @@ class MLKitObjectDetector(context: Activity) : ObjectDetector(context) {
   private val detector = ObjectDetection.getClient(options)
 
   override suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult> {
-    // `image` is in YUV
-    // (https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()),
-    val convertYuv = convertYuv(image)
+    // The model performs best on upright images, so rotate it while converting it to RGB.
+    val inputBitmap = imageConverter.convertToBitmap(image, imageRotation)
 
-    // The model performs best on upright images, so rotate it.
-    val rotatedImage = ImageUtils.rotateBitmap(convertYuv, imageRotation)
-
-    val inputImage = InputImage.fromBitmap(rotatedImage, 0)
+    val inputImage = InputImage.fromBitmap(inputBitmap, 0)
 
     val mlKitDetectedObjects = detector.process(inputImage).await()
     return mlKitDetectedObjects.mapNotNull { obj ->
       val bestLabel = obj.labels.maxByOrNull { label -> label.confidence } ?: return@mapNotNull null
-      val coords =
-        Point(obj.boundingBox.exactCenterX().toInt(), obj.boundingBox.exactCenterY().toInt())
-      val rotatedCoordinates =
-        coords.rotateCoordinates(rotatedImage.width, rotatedImage.height, imageRotation)
-      DetectedObjectResult(bestLabel.confidence, bestLabel.text, rotatedCoordinates)
+      val imageCoordinates =
+        imageConverter.toImageCoordinates(
+          obj.boundingBox.exactCenterX(),
+          obj.boundingBox.exactCenterY()
+        )
+      DetectedObjectResult(bestLabel.confidence, bestLabel.text, imageCoordinates)
     }
   }
 
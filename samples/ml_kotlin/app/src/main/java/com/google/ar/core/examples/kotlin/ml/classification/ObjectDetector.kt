@@ -17,17 +17,33 @@
 package com.google.ar.core.examples.kotlin.ml.classification
 
 import android.content.Context
-import android.graphics.Bitmap
 import android.media.Image
-import com.google.ar.core.Frame
-import com.google.ar.core.examples.kotlin.ml.third_party.YuvToRgbConverter
+import com.google.ar.core.examples.kotlin.ml.classification.utils.CameraImageConverter
 
 /**
  * Describes a common interface for [GoogleCloudVisionDetector] and [MLKitObjectDetector] that can
  * infer object labels in a given [Image] and gives results in a list of [DetectedObjectResult].
  */
-abstract class ObjectDetector(val context: Context) {
-  val yuvConverter = YuvToRgbConverter(context)
+abstract class ObjectDetector(val context: Context, val maxInputSize: Int = MAX_INPUT_SIZE) {
+  companion object {
+    // By default, camera images are downscaled so that neither side of the input is larger than
+    // this.
+    const val MAX_INPUT_SIZE = 640
+  }
+
+  /**
+   * The number of images [analyze] may be called with concurrently. Detectors which can overlap
+   * inferences, for example by batching them, override this.
+   */
+  open val maxConcurrentAnalyses: Int
+    get() = 1
+
+  /**
+   * Converts camera images, which are in YUV format
+   * (https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()),
+   * to upright RGB inputs, and maps coordinates in the inputs back to the camera images.
+   */
+  val imageConverter = CameraImageConverter(maxInputSize)
 
   /**
    * Infers a list of [DetectedObjectResult] given a camera image frame, which contains a confidence
@@ -37,14 +53,17 @@ abstract class ObjectDetector(val context: Context) {
   abstract suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult>
 
   /**
-   * [Frame.acquireCameraImage] returns an image in YUV format.
-   * https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()
-   *
-   * Converts a YUV image to a [Bitmap] using [YuvToRgbConverter].
+   * Reads [image] and returns a function which infers the [DetectedObjectResult]s in it, like
+   * [analyze]. [image] is no longer used once this returns, so it can be closed before the
+   * inference runs. Detectors whose inference outlasts reading the image, for example because it
+   * waits for a network request, override this. By default, the whole inference runs before this
+   * returns.
    */
-  fun convertYuv(image: Image): Bitmap {
-    return Bitmap.createBitmap(image.width, image.height, Bitmap.Config.ARGB_8888).apply {
-      yuvConverter.yuvToRgb(image, this)
-    }
+  open suspend fun prepareAnalysis(
+    image: Image,
+    imageRotation: Int
+  ): suspend () -> List<DetectedObjectResult> {
+    val objects = analyze(image, imageRotation)
+    return { objects }
   }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification.utils
+
+import android.graphics.Bitmap
+import android.graphics.ImageFormat
+import android.graphics.Point
+import android.media.Image
+import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.rotateCoordinates
+import java.nio.FloatBuffer
+import kotlin.math.roundToInt
+
+/**
+ * Converts camera images in [ImageFormat.YUV_420_888] to upright RGB images for object detection.
+ *
+ * Each output pixel is sampled straight from the image planes, so rotation, cropping, scaling and
+ * conversion to RGB are done in a single pass, without copying the planes first. The output
+ * [Bitmap] and all arrays are reused as long as the output size does not change, so converting an
+ * image does not allocate. Pixels are sampled with the nearest neighbour, which is sufficient for
+ * the downscaling used for detection.
+ *
+ * Must only be used for one image at a time. Results are only valid until the next conversion.
+ */
+class CameraImageConverter(private val maxOutputSize: Int) {
+  private var bitmap: Bitmap? = null
+  private var pixels = IntArray(0)
+
+  // Offsets into the image planes of the source pixel of each output column and row. Rotations by
+  // multiples of 90 degrees map each output column and row to a source column or row, so the offset
+  // of an output pixel is the sum of those of its column and row.
+  private var columnOffsetsY = IntArray(0)
+  private var rowOffsetsY = IntArray(0)
+  private var columnOffsetsUv = IntArray(0)
+  private var rowOffsetsUv = IntArray(0)
+
+  // Layout of the last conversion, in pixels of the upright image.
+  private var imageWidth = 0
+  private var imageHeight = 0
+  private var imageRotation = 0
+  private var outputWidth = 0
+  private var outputHeight = 0
+  private var cropLeft = 0
+  private var cropTop = 0
+  private var cropWidth = 0
+  private var cropHeight = 0
+
+  /**
+   * Converts [image] to an upright [Bitmap] by rotating it clockwise by [imageRotation] degrees,
+   * downscaled so that neither side is larger than the maximum output size. The bitmap is reused by
+   * the next call.
+   */
+  fun convertToBitmap(image: Image, imageRotation: Int): Bitmap {
+    val uprightWidth = if (imageRotation % 180 == 0) image.width else image.height
+    val uprightHeight = if (imageRotation % 180 == 0) image.height else image.width
+    val scale = minOf(1f, maxOutputSize.toFloat() / maxOf(uprightWidth, uprightHeight))
+    val width = maxOf(1, (uprightWidth * scale).roundToInt())
+    val height = maxOf(1, (uprightHeight * scale).roundToInt())
+    prepare(image, imageRotation, width, height, cropToAspectRatio = false)
+
+    if (pixels.size < width * height) {
+      pixels = IntArray(width * height)
+    }
+    val argb = pixels
+    convert(image) { index, r, g, b ->
+      argb[index] = (0xff shl 24) or (r shl 16) or (g shl 8) or b
+    }
+
+    val output =
+      bitmap?.takeIf { it.width == width && it.height == height }
+        ?: Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).also { bitmap = it }
+    output.setPixels(pixels, 0, width, 0, 0, width, height)
+    return output
+  }
+
+  /**
+   * Converts [image] to the input of a model of the given size, by rotating it clockwise by
+   * [imageRotation] degrees, cropping its center to the aspect ratio of the model input and scaling
+   * it. The red, green and blue values of each pixel, in the range [0, 1], are put into [output]
+   * row by row.
+   */
+  fun convertToFloatBuffer(
+    image: Image,
+    imageRotation: Int,
+    width: Int,
+    height: Int,
+    output: FloatBuffer
+  ) {
+    require(output.remaining() >= width * height * 3) {
+      "Output buffer too small for a ${width}x$height input"
+    }
+    prepare(image, imageRotation, width, height, cropToAspectRatio = true)
+    val position = output.position()
+    convert(image) { index, r, g, b ->
+      val offset = position + index * 3
+      output.put(offset, r / 255f)
+      output.put(offset + 1, g / 255f)
+      output.put(offset + 2, b / 255f)
+    }
+    output.position(position + width * height * 3)
+  }
+
+  /**
+   * Maps a pixel coordinate in the output of the last conversion to the corresponding pixel
+   * coordinate in the camera image.
+   */
+  fun toImageCoordinates(x: Float, y: Float): Point {
+    val uprightX = cropLeft + x * cropWidth / outputWidth
+    val uprightY = cropTop + y * cropHeight / outputHeight
+    return Point(uprightX.toInt(), uprightY.toInt())
+      .rotateCoordinates(imageWidth, imageHeight, imageRotation)
+  }
+
+  /** Sets up the layout and the plane offsets of all output columns and rows. */
+  private fun prepare(
+    image: Image,
+    rotation: Int,
+    width: Int,
+    height: Int,
+    cropToAspectRatio: Boolean
+  ) {
+    require(image.format == ImageFormat.YUV_420_888) {
+      "Expected image in YUV_420_888 format, got format ${image.format}"
+    }
+    require(rotation == 0 || rotation == 90 || rotation == 180 || rotation == 270) {
+      "Invalid imageRotation $rotation"
+    }
+    imageRotation = rotation
+    imageWidth = if (rotation % 180 == 0) image.width else image.height
+    imageHeight = if (rotation % 180 == 0) image.height else image.width
+    outputWidth = width
+    outputHeight = height
+    cropWidth = imageWidth
+    cropHeight = imageHeight
+    if (cropToAspectRatio) {
+      if (imageWidth.toLong() * height > imageHeight.toLong() * width) {
+        cropWidth = (imageHeight.toLong() * width / height).toInt()
+      } else {
+        cropHeight = (imageWidth.toLong() * height / width).toInt()
+      }
+    }
+    cropLeft = (imageWidth - cropWidth) / 2
+    cropTop = (imageHeight - cropHeight) / 2
+
+    if (columnOffsetsY.size < width) {
+      columnOffsetsY = IntArray(width)
+      columnOffsetsUv = IntArray(width)
+    }
+    if (rowOffsetsY.size < height) {
+      rowOffsetsY = IntArray(height)
+      rowOffsetsUv = IntArray(height)
+    }
+    // The U and V planes are guaranteed to have the same strides.
+    val yPlane = image.planes[0]
+    val uvPlane = image.planes[1]
+    for (i in 0 until width) {
+      // The source of each output pixel is the upright pixel nearest to its center.
+      val x = cropLeft + ((2 * i + 1) * cropWidth) / (2 * width)
+      columnOffsetsY[i] = getColumnOffset(x, image, yPlane.rowStride, yPlane.pixelStride, 1)
+      columnOffsetsUv[i] = getColumnOffset(x, image, uvPlane.rowStride, uvPlane.pixelStride, 2)
+    }
+    for (j in 0 until height) {
+      val y = cropTop + ((2 * j + 1) * cropHeight) / (2 * height)
+      rowOffsetsY[j] = getRowOffset(y, image, yPlane.rowStride, yPlane.pixelStride, 1)
+      rowOffsetsUv[j] = getRowOffset(y, image, uvPlane.rowStride, uvPlane.pixelStride, 2)
+    }
+  }
+
+  /**
+   * Returns the part of the offset of a source pixel given by the x coordinate [x] of the upright
+   * pixel it is rotated to, in a plane subsampled by [subsampling].
+   */
+  private fun getColumnOffset(
+    x: Int,
+    image: Image,
+    rowStride: Int,
+    pixelStride: Int,
+    subsampling: Int
+  ): Int =
+    when (imageRotation) {
+      0 -> x / subsampling * pixelStride
+      90 -> (image.height - 1 - x) / subsampling * rowStride
+      180 -> (image.width - 1 - x) / subsampling * pixelStride
+      else -> x / subsampling * rowStride
+    }
+
+  /**
+   * Returns the part of the offset of a source pixel given by the y coordinate [y] of the upright
+   * pixel it is rotated to, in a plane subsampled by [subsampling].
+   */
+  private fun getRowOffset(
+    y: Int,
+    image: Image,
+    rowStride: Int,
+    pixelStride: Int,
+    subsampling: Int
+  ): Int =
+    when (imageRotation) {
+      0 -> y / subsampling * rowStride
+      90 -> y / subsampling * pixelStride
+      180 -> (image.height - 1 - y) / subsampling * rowStride
+      else -> (image.width - 1 - y) / subsampling * pixelStride
+    }
+
+  /** Calls [output] with the index and RGB values of each output pixel, row by row. */
+  private inline fun convert(image: Image, output: (index: Int, r: Int, g: Int, b: Int) -> Unit) {
+    val yBuffer = image.planes[0].buffer
+    val uBuffer = image.planes[1].buffer
+    val vBuffer = image.planes[2].buffer
+    var index = 0
+    for (j in 0 until outputHeight) {
+      val rowOffsetY = rowOffsetsY[j]
+      val rowOffsetUv = rowOffsetsUv[j]
+      for (i in 0 until outputWidth) {
+        val uvOffset = rowOffsetUv + columnOffsetsUv[i]
+        // Conversion from BT.601 limited range YUV, as done by ScriptIntrinsicYuvToRGB.
+        val y = 298 * ((yBuffer.get(rowOffsetY + columnOffsetsY[i]).toInt() and 0xff) - 16)
+        val u = (uBuffer.get(uvOffset).toInt() and 0xff) - 128
+        val v = (vBuffer.get(uvOffset).toInt() and 0xff) - 128
+        output(
+          index++,
+          clamp((y + 409 * v + 128) shr 8),
+          clamp((y - 100 * u - 208 * v + 128) shr 8),
+          clamp((y + 516 * u + 128) shr 8)
+        )
+      }
+    }
+  }
+
+  private fun clamp(value: Int) = value.coerceIn(0, 255)
+}
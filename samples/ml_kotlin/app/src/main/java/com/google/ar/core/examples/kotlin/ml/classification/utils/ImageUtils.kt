@@ -17,26 +17,58 @@
 package com.google.ar.core.examples.kotlin.ml.classification.utils
 
 import android.graphics.Bitmap
-import android.graphics.Matrix
 import java.io.ByteArrayOutputStream
 
 object ImageUtils {
+  // The grid of Bitmap.differenceHash, with one more column than bits per row, and the number of
+  // samples per cell side.
+  private const val HASH_COLUMNS = 9
+  private const val HASH_ROWS = 8
+  private const val HASH_CELL_SAMPLES = 4
+
+  /** Converts a [Bitmap] to a JPEG [ByteArray] of the given quality using [Bitmap.compress]. */
+  fun Bitmap.toByteArray(quality: Int = 100): ByteArray =
+    ByteArrayOutputStream().use { stream ->
+      this.compress(Bitmap.CompressFormat.JPEG, quality, stream)
+      stream.toByteArray()
+    }
+
   /**
-   * Creates a new [Bitmap] by rotating the input bitmap [rotation] degrees. If [rotation] is 0, the
-   * input bitmap is returned.
+   * Returns a perceptual hash of a [Bitmap], which differs in few bits between similar looking
+   * images. Each of the 64 bits tells whether the brightness increases from one cell of a 9x8 grid
+   * over the image to the next cell in the same row.
    */
-  fun rotateBitmap(bitmap: Bitmap, rotation: Int): Bitmap {
-    if (rotation == 0) return bitmap
+  fun Bitmap.differenceHash(): Long {
+    // Each grid cell is the average of several filtered samples, so that small movements of the
+    // camera change few cells.
+    val scaled =
+      Bitmap.createScaledBitmap(
+        this,
+        HASH_COLUMNS * HASH_CELL_SAMPLES,
+        HASH_ROWS * HASH_CELL_SAMPLES,
+        /*filter=*/ true
+      )
+    val pixels = IntArray(scaled.width * scaled.height)
+    scaled.getPixels(pixels, 0, scaled.width, 0, 0, scaled.width, scaled.height)
+    scaled.recycle()
 
-    val matrix = Matrix()
-    matrix.postRotate(rotation.toFloat())
-    return Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, matrix, false)
-  }
+    val cells = IntArray(HASH_COLUMNS * HASH_ROWS)
+    for (y in 0 until scaled.height) {
+      for (x in 0 until scaled.width) {
+        val pixel = pixels[y * scaled.width + x]
+        val luma =
+          77 * (pixel shr 16 and 0xff) + 150 * (pixel shr 8 and 0xff) + 29 * (pixel and 0xff)
+        cells[y / HASH_CELL_SAMPLES * HASH_COLUMNS + x / HASH_CELL_SAMPLES] += luma
+      }
+    }
 
-  /** Converts a [Bitmap] to [ByteArray] using [Bitmap.compress]. */
-  fun Bitmap.toByteArray(): ByteArray =
-    ByteArrayOutputStream().use { stream ->
-      this.compress(Bitmap.CompressFormat.JPEG, 100, stream)
-      stream.toByteArray()
+    var hash = 0L
+    for (row in 0 until HASH_ROWS) {
+      for (column in 0 until HASH_COLUMNS - 1) {
+        val cell = row * HASH_COLUMNS + column
+        hash = (hash shl 1) or (if (cells[cell + 1] > cells[cell]) 1L else 0L)
+      }
     }
+    return hash
+  }
 }
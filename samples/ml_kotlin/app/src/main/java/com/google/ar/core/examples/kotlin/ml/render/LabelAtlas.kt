@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.render
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Typeface
+import android.opengl.GLES30
+import android.util.Log
+import com.google.ar.core.examples.java.common.samplerender.GLError
+import com.google.ar.core.examples.java.common.samplerender.SampleRender
+import com.google.ar.core.examples.java.common.samplerender.Texture
+import java.nio.ByteBuffer
+
+/**
+ * Renders label names into cells of shared GL texture pages, and keeps the most recently used ones.
+ *
+ * Every page is a grid of equally sized cells, each holding one label. Pages are created as needed
+ * until they would exceed the GPU memory budget; from then on, the cell of the least recently used
+ * label is reused. Cells of labels used in the current frame are never reused, so [get] returns
+ * `null` if all cells are in use.
+ */
+class LabelAtlas(memoryBudgetBytes: Long = DEFAULT_MEMORY_BUDGET_BYTES) {
+  companion object {
+    private const val TAG = "LabelAtlas"
+
+    const val DEFAULT_MEMORY_BUDGET_BYTES = 12L shl 20
+
+    const val PAGE_SIZE = 1024
+    const val CELL_WIDTH = 256
+    const val CELL_HEIGHT = 64
+    const val COLUMNS = PAGE_SIZE / CELL_WIDTH
+    const val CELLS_PER_PAGE = COLUMNS * (PAGE_SIZE / CELL_HEIGHT)
+    // Mipmaps stop at 4x1 pixels per cell. As cells are aligned to their size, which is a power of
+    // two, no mipmap level up to this one mixes pixels of different cells.
+    private const val MIPMAP_LEVELS = 7
+    private val BYTES_PER_PAGE =
+      (0 until MIPMAP_LEVELS).sumOf { level -> 4L * (PAGE_SIZE shr level) * (PAGE_SIZE shr level) }
+  }
+
+  /** A page of cells, sharing one texture. */
+  class Page(val texture: Texture) {
+    internal var mipmapsOutdated = false
+  }
+
+  /** The place of a label in the atlas. [index] counts the cells of [page] row by row. */
+  class Cell(val page: Page, val index: Int) {
+    internal var lastUsedFrame = -1L
+  }
+
+  private val maxPages = maxOf(1L, memoryBudgetBytes / BYTES_PER_PAGE).toInt()
+  private val pages = ArrayList<Page>()
+  private val freeCells = ArrayDeque<Cell>()
+  // In order of use, from the least recently used label.
+  private val labelCells = LinkedHashMap<String, Cell>(16, 0.75f, /*accessOrder=*/ true)
+  private var frame = 0L
+
+  /** Paint used to draw the label's text. */
+  val textPaint =
+    Paint().apply {
+      textSize = 26f
+      setARGB(0xff, 0xea, 0x43, 0x35)
+      style = Paint.Style.FILL
+      isAntiAlias = true
+      textAlign = Paint.Align.CENTER
+      typeface = Typeface.DEFAULT_BOLD
+      strokeWidth = 2f
+    }
+
+  /** Paint used to stroke the label text. */
+  val strokePaint =
+    Paint(textPaint).apply {
+      setARGB(0xff, 0x00, 0x00, 0x00)
+      style = Paint.Style.STROKE
+    }
+
+  // Reused for rendering and uploading each label.
+  private val bitmap = Bitmap.createBitmap(CELL_WIDTH, CELL_HEIGHT, Bitmap.Config.ARGB_8888)
+  private val canvas = Canvas(bitmap)
+  private val pixels = ByteBuffer.allocateDirect(bitmap.byteCount)
+
+  /**
+   * Returns the cell holding [label], rendering it into a free or the least recently used cell if
+   * it isn't in the atlas. Returns `null` if every cell holds a label used in the current frame.
+   */
+  fun get(render: SampleRender, label: String): Cell? {
+    var cell = labelCells[label]
+    if (cell == null) {
+      cell = freeCells.removeFirstOrNull() ?: createPage(render) ?: evictLeastRecentlyUsed()
+      if (cell == null) {
+        Log.w(TAG, "All ${pages.size * CELLS_PER_PAGE} label cells are in use, skipping $label")
+        return null
+      }
+      upload(cell, label)
+      labelCells[label] = cell
+    }
+    cell.lastUsedFrame = frame
+    return cell
+  }
+
+  /** Updates the mipmaps of pages which changed. Must be called before drawing with the pages. */
+  fun updateMipmaps() {
+    for (page in pages) {
+      if (!page.mipmapsOutdated) continue
+      GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, page.texture.textureId)
+      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture")
+      GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_2D)
+      GLError.maybeThrowGLException("Failed to generate mipmaps", "glGenerateMipmap")
+      page.mipmapsOutdated = false
+    }
+  }
+
+  /** Ends the current frame, after which the cells used in it may be reused. */
+  fun nextFrame() {
+    ++frame
+  }
+
+  /** Creates a page if the memory budget allows, and returns its first cell. */
+  private fun createPage(render: SampleRender): Cell? {
+    if (pages.size >= maxPages) {
+      return null
+    }
+    val texture =
+      Texture(
+        render,
+        Texture.Target.TEXTURE_2D,
+        Texture.WrapMode.CLAMP_TO_EDGE,
+        /*useMipmaps=*/ true
+      )
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.textureId)
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture")
+    GLES30.glTexStorage2D(
+      GLES30.GL_TEXTURE_2D,
+      MIPMAP_LEVELS,
+      GLES30.GL_RGBA8,
+      PAGE_SIZE,
+      PAGE_SIZE
+    )
+    GLError.maybeThrowGLException("Failed to allocate texture storage", "glTexStorage2D")
+
+    val page = Page(texture)
+    pages.add(page)
+    for (index in 1 until CELLS_PER_PAGE) {
+      freeCells.addLast(Cell(page, index))
+    }
+    return Cell(page, 0)
+  }
+
+  /** Removes the least recently used label not used in the current frame, and returns its cell. */
+  private fun evictLeastRecentlyUsed(): Cell? {
+    val iterator = labelCells.values.iterator()
+    while (iterator.hasNext()) {
+      val cell = iterator.next()
+      if (cell.lastUsedFrame != frame) {
+        iterator.remove()
+        return cell
+      }
+    }
+    return null
+  }
+
+  /** Renders [label] into [cell]. */
+  private fun upload(cell: Cell, label: String) {
+    bitmap.eraseColor(0)
+    canvas.drawText(label, CELL_WIDTH / 2f, CELL_HEIGHT / 2f, strokePaint)
+    canvas.drawText(label, CELL_WIDTH / 2f, CELL_HEIGHT / 2f, textPaint)
+    pixels.rewind()
+    bitmap.copyPixelsToBuffer(pixels)
+    pixels.rewind()
+
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, cell.page.texture.textureId)
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture")
+    GLES30.glTexSubImage2D(
+      GLES30.GL_TEXTURE_2D,
+      0,
+      cell.index % COLUMNS * CELL_WIDTH,
+      cell.index / COLUMNS * CELL_HEIGHT,
+      CELL_WIDTH,
+      CELL_HEIGHT,
+      GLES30.GL_RGBA,
+      GLES30.GL_UNSIGNED_BYTE,
+      pixels
+    )
+    GLError.maybeThrowGLException("Failed to populate texture data", "glTexSubImage2D")
+    cell.page.mipmapsOutdated = true
+  }
+}
@@ -23,13 +23,22 @@ import com.google.ar.core.examples.java.common.samplerender.Shader
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import java.nio.FloatBuffer
 
-/** Draws a label onto a quad using a text texture generated by [TextTextureCache]. */
+/**
+ * Draws labels onto quads using text textures from a [LabelAtlas]. The labels added in a frame are
+ * drawn with one instanced draw call per atlas page.
+ */
 class LabelRender {
   companion object {
     private const val TAG = "LabelRender"
     val COORDS_BUFFER_SIZE = 2 * 4 * 4
 
+    // The quad spans 1.5 units to each side, for a cell as wide as LabelAtlas.CELL_WIDTH.
+    private const val QUAD_HALF_WIDTH = 1.5f
+    private const val QUAD_HALF_HEIGHT =
+      QUAD_HALF_WIDTH * LabelAtlas.CELL_HEIGHT / LabelAtlas.CELL_WIDTH
+
     /** Vertex buffer data for the mesh quad. */
     val NDC_QUAD_COORDS_BUFFER =
       ByteBuffer.allocateDirect(COORDS_BUFFER_SIZE)
@@ -38,17 +47,17 @@ class LabelRender {
         .put(
           floatArrayOf(
             /*0:*/
-            -1.5f,
-            -1.5f,
+            -QUAD_HALF_WIDTH,
+            -QUAD_HALF_HEIGHT,
             /*1:*/
-            1.5f,
-            -1.5f,
+            QUAD_HALF_WIDTH,
+            -QUAD_HALF_HEIGHT,
             /*2:*/
-            -1.5f,
-            1.5f,
+            -QUAD_HALF_WIDTH,
+            QUAD_HALF_HEIGHT,
             /*3:*/
-            1.5f,
-            1.5f,
+            QUAD_HALF_WIDTH,
+            QUAD_HALF_HEIGHT,
           )
         )
 
@@ -73,12 +82,27 @@ class LabelRender {
             1f,
           )
         )
+
+    // Each label instance is its origin and the index of its cell in the atlas page.
+    private const val ENTRIES_PER_INSTANCE = 4
+
+    private fun createInstanceBuffer(instanceCount: Int): FloatBuffer =
+      ByteBuffer.allocateDirect(instanceCount * ENTRIES_PER_INSTANCE * Float.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer()
+  }
+
+  /** The labels of one atlas page added in the current frame. */
+  private class PageBatch(val mesh: Mesh, val instanceBuffer: VertexBuffer) {
+    var instances: FloatBuffer = createInstanceBuffer(16)
+    var instanceCount = 0
   }
 
-  val cache = TextTextureCache()
+  val atlas = LabelAtlas()
 
-  lateinit var mesh: Mesh
+  lateinit var quadVertexBuffers: Array<VertexBuffer>
   lateinit var shader: Shader
+  private val pageBatches = LinkedHashMap<LabelAtlas.Page, PageBatch>()
 
   fun onSurfaceCreated(render: SampleRender) {
     shader =
@@ -89,36 +113,71 @@ class LabelRender {
         )
         .setDepthTest(false)
         .setDepthWrite(false)
+        .setVec2(
+          "u_CellSize",
+          floatArrayOf(
+            LabelAtlas.CELL_WIDTH.toFloat() / LabelAtlas.PAGE_SIZE,
+            LabelAtlas.CELL_HEIGHT.toFloat() / LabelAtlas.PAGE_SIZE
+          )
+        )
+        .setFloat("u_CellsPerRow", LabelAtlas.COLUMNS.toFloat())
 
-    val vertexBuffers =
+    quadVertexBuffers =
       arrayOf(
         VertexBuffer(render, 2, NDC_QUAD_COORDS_BUFFER),
         VertexBuffer(render, 2, SQUARE_TEX_COORDS_BUFFER),
       )
-    mesh = Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, null, vertexBuffers)
   }
 
-  val labelOrigin = FloatArray(3)
+  /**
+   * Adds a label quad with text [label] at the world space [position] to the labels drawn by the
+   * next call to [draw].
+   */
+  fun addLabel(render: SampleRender, position: FloatArray, label: String) {
+    val cell = atlas.get(render, label) ?: return
+    val batch = getPageBatch(render, cell.page)
+    if (batch.instances.remaining() < ENTRIES_PER_INSTANCE) {
+      val instances = createInstanceBuffer(2 * batch.instances.capacity() / ENTRIES_PER_INSTANCE)
+      batch.instances.flip()
+      instances.put(batch.instances)
+      batch.instances = instances
+    }
+    batch.instances.put(position, 0, 3).put(cell.index.toFloat())
+    ++batch.instanceCount
+  }
 
   /**
-   * Draws a label quad with text [label] at [pose]. The label will rotate to face [cameraPose]
-   * around the Y-axis.
+   * Draws the labels added since the last call. The labels will rotate to face [cameraPose] around
+   * the Y-axis.
    */
-  fun draw(
-    render: SampleRender,
-    viewProjectionMatrix: FloatArray,
-    pose: Pose,
-    cameraPose: Pose,
-    label: String
-  ) {
-    labelOrigin[0] = pose.tx()
-    labelOrigin[1] = pose.ty()
-    labelOrigin[2] = pose.tz()
+  fun draw(render: SampleRender, viewProjectionMatrix: FloatArray, cameraPose: Pose) {
+    atlas.updateMipmaps()
     shader
       .setMat4("u_ViewProjection", viewProjectionMatrix)
-      .setVec3("u_LabelOrigin", labelOrigin)
       .setVec3("u_CameraPos", cameraPose.translation)
-      .setTexture("uTexture", cache.get(render, label))
-    render.draw(mesh, shader)
+    for ((page, batch) in pageBatches) {
+      if (batch.instanceCount == 0) continue
+      batch.instances.flip()
+      batch.instanceBuffer.set(batch.instances)
+      shader.setTexture("uTexture", page.texture)
+      render.drawInstanced(batch.mesh, shader, /*framebuffer=*/ null, batch.instanceCount)
+      batch.instances.clear()
+      batch.instanceCount = 0
+    }
+    atlas.nextFrame()
   }
+
+  private fun getPageBatch(render: SampleRender, page: LabelAtlas.Page): PageBatch =
+    pageBatches.getOrPut(page) {
+      val instanceBuffer = VertexBuffer.createStreaming(render, ENTRIES_PER_INSTANCE)
+      val mesh =
+        Mesh(
+          render,
+          Mesh.PrimitiveMode.TRIANGLE_STRIP,
+          /*indexBuffer=*/ null,
+          quadVertexBuffers,
+          arrayOf(instanceBuffer)
+        )
+      PageBatch(mesh, instanceBuffer)
+    }
 }
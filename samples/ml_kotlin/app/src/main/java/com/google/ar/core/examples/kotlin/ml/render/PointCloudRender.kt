@@ -17,20 +17,20 @@
 package com.google.ar.core.examples.kotlin.ml.render
 
 import com.google.ar.core.PointCloud
-import com.google.ar.core.examples.java.common.samplerender.Mesh
 import com.google.ar.core.examples.java.common.samplerender.SampleRender
 import com.google.ar.core.examples.java.common.samplerender.Shader
-import com.google.ar.core.examples.java.common.samplerender.VertexBuffer
+import com.google.ar.core.examples.java.common.samplerender.arcore.PointMap
 
-/** Renderer to display [PointCloud]s. */
+/** Renderer to display the points of all [PointCloud]s seen so far. */
 class PointCloudRender {
-  lateinit var pointCloudVertexBuffer: VertexBuffer
-  lateinit var pointCloudMesh: Mesh
-  lateinit var pointCloudShader: Shader
+  companion object {
+    // Points closer together than this are merged, and at most this many points are kept.
+    private const val VOXEL_SIZE = 0.02f
+    private const val MAX_POINTS = 65536
+  }
 
-  // Keep track of the last point cloud rendered to avoid updating the VBO if point cloud
-  // was not changed.  Do this using the timestamp since we can't compare PointCloud objects.
-  var lastPointCloudTimestamp: Long = 0
+  lateinit var pointMap: PointMap
+  lateinit var pointCloudShader: Shader
 
   fun onSurfaceCreated(render: SampleRender) {
     // Point cloud
@@ -44,10 +44,8 @@ class PointCloudRender {
         .setVec4("u_Color", floatArrayOf(31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f))
         .setFloat("u_PointSize", 5.0f)
 
-    // four entries per vertex: X, Y, Z, confidence
-    pointCloudVertexBuffer = VertexBuffer(render, 4, null)
-    val pointCloudVertexBuffers = arrayOf(pointCloudVertexBuffer)
-    pointCloudMesh = Mesh(render, Mesh.PrimitiveMode.POINTS, null, pointCloudVertexBuffers)
+    // The points of all frames are accumulated, and only those which changed are uploaded.
+    pointMap = PointMap(render, VOXEL_SIZE, MAX_POINTS)
   }
 
   fun drawPointCloud(
@@ -55,11 +53,8 @@ class PointCloudRender {
     pointCloud: PointCloud,
     modelViewProjectionMatrix: FloatArray
   ) {
-    if (pointCloud.timestamp > lastPointCloudTimestamp) {
-      pointCloudVertexBuffer.set(pointCloud.points)
-      lastPointCloudTimestamp = pointCloud.timestamp
-    }
+    pointMap.update(pointCloud)
     pointCloudShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix)
-    render.draw(pointCloudMesh, pointCloudShader)
+    pointMap.draw(render, pointCloudShader)
   }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification
+
+import android.graphics.ImageFormat
+import android.graphics.Point
+import android.media.Image
+import android.util.Base64
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.nio.ByteBuffer
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.GraphicsMode
+
+/** Runs [GoogleCloudVisionDetector] against a local server standing in for Cloud Vision. */
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class GoogleCloudVisionDetectorTest {
+  private val server = MockWebServer()
+  private val dispatcher = AnnotateDispatcher()
+  private lateinit var detector: GoogleCloudVisionDetector
+
+  @Before
+  fun setUp() {
+    server.dispatcher = dispatcher
+    server.start()
+    detector =
+      GoogleCloudVisionDetector(
+        RuntimeEnvironment.getApplication(),
+        API_KEY,
+        endpoint = server.url("/v1/images:annotate").toString()
+      )
+  }
+
+  @After
+  fun tearDown() {
+    dispatcher.releaseFirstResponse.countDown()
+    server.shutdown()
+  }
+
+  @Test
+  fun analyze_imagesWhileRequestInFlight_areBatched() = runBlocking {
+    dispatcher.holdFirstResponse = true
+    val firstAnalysis = detector.prepareAnalysis(createImage(seed = 0), 0)
+    val firstRequest = takeRequest()
+
+    // Images analyzed while the first request waits for its response are sent in batches of at
+    // most MAX_BATCH_SIZE.
+    val otherAnalyses =
+      (1..GoogleCloudVisionDetector.MAX_BATCH_SIZE + 1).map { seed ->
+        detector.prepareAnalysis(createImage(seed), 0)
+      }
+    dispatcher.releaseFirstResponse.countDown()
+    val results = (listOf(firstAnalysis) + otherAnalyses).map { it() }
+
+    val requests = listOf(firstRequest, takeRequest(), takeRequest())
+    assertEquals(
+      listOf(1, GoogleCloudVisionDetector.MAX_BATCH_SIZE, 1),
+      requests.map { it.imageCount }
+    )
+    assertEquals(3, server.requestCount)
+    for (result in results) {
+      assertEquals(listOf(EXPECTED_RESULT), result)
+    }
+  }
+
+  @Test
+  fun annotateRequest_contentLengthMatchesBody() = runBlocking {
+    dispatcher.holdFirstResponse = true
+    val analyses = mutableListOf(detector.prepareAnalysis(createImage(seed = 0), 0))
+    val firstRequest = takeRequest()
+    for (seed in 1..GoogleCloudVisionDetector.MAX_BATCH_SIZE) {
+      analyses.add(detector.prepareAnalysis(createImage(seed), 0))
+    }
+    dispatcher.releaseFirstResponse.countDown()
+    analyses.forEach { it() }
+
+    for (request in listOf(firstRequest, takeRequest())) {
+      assertEquals(request.bodySize, request.getHeader("Content-Length")?.toLong())
+      assertEquals(API_KEY, request.requestUrl?.queryParameter("key"))
+      // Each image is sent as a whole Base64 encoded JPEG.
+      for (imageRequest in request.imageRequests) {
+        val content = imageRequest.getAsJsonObject("image").get("content").asString
+        val jpeg = Base64.decode(content, Base64.NO_WRAP)
+        assertEquals(0xFF, jpeg[0].toInt() and 0xFF)
+        assertEquals(0xD8, jpeg[1].toInt() and 0xFF)
+        assertEquals(content, Base64.encodeToString(jpeg, Base64.NO_WRAP))
+      }
+    }
+  }
+
+  @Test
+  fun analyze_similarImage_usesCachedResults() = runBlocking {
+    val results = detector.analyze(createImage(seed = 0), 0)
+
+    // A slightly brighter image of the same scene.
+    val cachedResults = detector.analyze(createImage(seed = 0, brightness = 4), 0)
+
+    assertEquals(1, server.requestCount)
+    assertEquals(listOf(EXPECTED_RESULT), results)
+    assertEquals(results, cachedResults)
+  }
+
+  @Test
+  fun analyze_differentImage_isSent() = runBlocking {
+    detector.analyze(createImage(seed = 0), 0)
+
+    detector.analyze(createImage(seed = 1), 0)
+
+    assertEquals(2, server.requestCount)
+  }
+
+  private fun takeRequest(): RecordedRequest {
+    val request = server.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    assertNotNull("No request received", request)
+    return request!!
+  }
+
+  /**
+   * Responds to each image of a request with one object in the center of the image. Can hold back
+   * the response to the first request until released, to keep it in flight.
+   */
+  private class AnnotateDispatcher : Dispatcher() {
+    @Volatile var holdFirstResponse = false
+    val releaseFirstResponse = CountDownLatch(1)
+    private val requestCount = AtomicInteger()
+
+    override fun dispatch(request: RecordedRequest): MockResponse {
+      if (requestCount.getAndIncrement() == 0 && holdFirstResponse) {
+        releaseFirstResponse.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+      }
+      val responses = JsonArray()
+      repeat(request.imageCount) { responses.add(JsonParser.parseString(OBJECT_RESPONSE)) }
+      val body = JsonObject().apply { add("responses", responses) }
+      return MockResponse().setBody(body.toString())
+    }
+  }
+
+  companion object {
+    private const val API_KEY = "test-key"
+    private const val TIMEOUT_SECONDS = 10L
+    private const val IMAGE_WIDTH = 320
+    private const val IMAGE_HEIGHT = 240
+    private const val OBJECT_RESPONSE =
+      """{"localizedObjectAnnotations":[{"name":"Cup","score":0.9,"boundingPoly":{""" +
+        """"normalizedVertices":[{"x":0.25,"y":0.25},{"x":0.75,"y":0.25},""" +
+        """{"x":0.75,"y":0.75},{"x":0.25,"y":0.75}]}}]}"""
+    // The object of OBJECT_RESPONSE, in the center of the camera image.
+    private val EXPECTED_RESULT =
+      DetectedObjectResult(0.9f, "Cup", Point(IMAGE_WIDTH / 2, IMAGE_HEIGHT / 2))
+
+    private val RecordedRequest.imageRequests: List<JsonObject>
+      get() =
+        JsonParser.parseString(body.clone().readUtf8())
+          .asJsonObject
+          .getAsJsonArray("requests")
+          .map { it.asJsonObject }
+
+    private val RecordedRequest.imageCount: Int
+      get() = imageRequests.size
+
+    /**
+     * Returns a mocked gray [ImageFormat.YUV_420_888] image of blocks of random brightness, which
+     * differ between seeds, so that images of different seeds have different perceptual hashes.
+     */
+    private fun createImage(seed: Int, brightness: Int = 0): Image {
+      val random = Random(seed.toLong())
+      // One block for each cell of the grid the perceptual hash is computed on.
+      val blocks = IntArray(9 * 8) { 32 + random.nextInt(192) }
+      val y = ByteBuffer.allocateDirect(IMAGE_WIDTH * IMAGE_HEIGHT)
+      for (row in 0 until IMAGE_HEIGHT) {
+        for (column in 0 until IMAGE_WIDTH) {
+          val block = row * 8 / IMAGE_HEIGHT * 9 + column * 9 / IMAGE_WIDTH
+          y.put(row * IMAGE_WIDTH + column, (blocks[block] + brightness).toByte())
+        }
+      }
+      // Neutral chroma.
+      val uv = ByteBuffer.allocateDirect(IMAGE_WIDTH * IMAGE_HEIGHT / 4)
+      for (i in 0 until uv.capacity()) {
+        uv.put(i, 128.toByte())
+      }
+
+      val image = mock(Image::class.java)
+      `when`(image.format).thenReturn(ImageFormat.YUV_420_888)
+      `when`(image.width).thenReturn(IMAGE_WIDTH)
+      `when`(image.height).thenReturn(IMAGE_HEIGHT)
+      val planes =
+        arrayOf(
+          createPlane(y, IMAGE_WIDTH, 1),
+          createPlane(uv, IMAGE_WIDTH / 2, 1),
+          createPlane(uv.duplicate(), IMAGE_WIDTH / 2, 1)
+        )
+      `when`(image.planes).thenReturn(planes)
+      return image
+    }
+
+    private fun createPlane(buffer: ByteBuffer, rowStride: Int, pixelStride: Int): Image.Plane {
+      val plane = mock(Image.Plane::class.java)
+      `when`(plane.buffer).thenReturn(buffer)
+      `when`(plane.rowStride).thenReturn(rowStride)
+      `when`(plane.pixelStride).thenReturn(pixelStride)
+      return plane
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification.utils
+
+import android.graphics.Color
+import android.graphics.ImageFormat
+import android.graphics.Point
+import android.media.Image
+import java.nio.ByteBuffer
+import java.nio.FloatBuffer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Converts synthetic YUV_420_888 images and compares the result with a floating point BT.601
+ * conversion of the pixels each output pixel is expected to be sampled from.
+ */
+@RunWith(RobolectricTestRunner::class)
+class CameraImageConverterTest {
+  @Test
+  fun convertToFloatBuffer_matchesReference_allRotations() {
+    val image = createImage(640, 480, interleavedChroma = true)
+    for (rotation in intArrayOf(0, 90, 180, 270)) {
+      val output = FloatBuffer.allocate(MODEL_SIZE * MODEL_SIZE * 3)
+
+      CameraImageConverter(MAX_OUTPUT_SIZE)
+        .convertToFloatBuffer(image, rotation, MODEL_SIZE, MODEL_SIZE, output)
+
+      // The center square of the upright image is the input of a square model.
+      assertMatchesReference(
+        "Rotation $rotation",
+        image,
+        rotation,
+        Crop(left = if (rotation % 180 == 0) 80 else 0, top = if (rotation % 180 == 0) 0 else 80),
+        MODEL_SIZE,
+        MODEL_SIZE
+      ) { index -> floatArrayOf(output[index * 3], output[index * 3 + 1], output[index * 3 + 2]) }
+    }
+  }
+
+  @Test
+  fun convertToFloatBuffer_matchesReference_planarChroma() {
+    val image = createImage(320, 240, interleavedChroma = false)
+    val output = FloatBuffer.allocate(160 * 80 * 3)
+
+    CameraImageConverter(MAX_OUTPUT_SIZE).convertToFloatBuffer(image, 0, 160, 80, output)
+
+    // The center of the upright image with the aspect ratio of the 2:1 model input.
+    assertMatchesReference("Planar", image, 0, Crop(left = 0, top = 40), 160, 80) { index ->
+      floatArrayOf(output[index * 3], output[index * 3 + 1], output[index * 3 + 2])
+    }
+  }
+
+  @Test
+  fun convertToFloatBuffer_writesAtPositionAndAdvancesIt() {
+    val image = createImage(64, 48, interleavedChroma = true)
+    val output = FloatBuffer.allocate(10 + 8 * 8 * 3 + 10)
+    output.position(10)
+
+    CameraImageConverter(MAX_OUTPUT_SIZE).convertToFloatBuffer(image, 0, 8, 8, output)
+
+    assertEquals(10 + 8 * 8 * 3, output.position())
+    assertEquals(0f, output[9], 0f)
+    assertEquals(0f, output[10 + 8 * 8 * 3], 0f)
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun convertToFloatBuffer_outputTooSmall_throws() {
+    val image = createImage(64, 48, interleavedChroma = true)
+
+    CameraImageConverter(MAX_OUTPUT_SIZE)
+      .convertToFloatBuffer(image, 0, 8, 8, FloatBuffer.allocate(8 * 8 * 3 - 1))
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun convertToFloatBuffer_invalidRotation_throws() {
+    val image = createImage(64, 48, interleavedChroma = true)
+
+    CameraImageConverter(MAX_OUTPUT_SIZE)
+      .convertToFloatBuffer(image, 45, 8, 8, FloatBuffer.allocate(8 * 8 * 3))
+  }
+
+  @Test
+  fun convertToBitmap_matchesReference_downscaled() {
+    val image = createImage(640, 480, interleavedChroma = true)
+    val converter = CameraImageConverter(MAX_OUTPUT_SIZE)
+
+    val bitmap = converter.convertToBitmap(image, 90)
+
+    // The upright image is 480x640, downscaled so that its height is the maximum output size.
+    assertEquals(225, bitmap.width)
+    assertEquals(300, bitmap.height)
+    assertMatchesReference("Bitmap", image, 90, Crop(left = 0, top = 0), 225, 300) { index ->
+      val color = bitmap.getPixel(index % 225, index / 225)
+      floatArrayOf(
+        Color.red(color) / 255f,
+        Color.green(color) / 255f,
+        Color.blue(color) / 255f
+      )
+    }
+  }
+
+  @Test
+  fun convertToBitmap_sameSize_reusesBitmap() {
+    val converter = CameraImageConverter(MAX_OUTPUT_SIZE)
+
+    val image = createImage(640, 480, interleavedChroma = true)
+    val bitmap = converter.convertToBitmap(image, 0)
+
+    assertSame(bitmap, converter.convertToBitmap(image, 0))
+  }
+
+  @Test
+  fun toImageCoordinates_mapsOutputToCameraImage() {
+    val image = createImage(640, 480, interleavedChroma = true)
+    val converter = CameraImageConverter(MAX_OUTPUT_SIZE)
+    val output = FloatBuffer.allocate(MODEL_SIZE * MODEL_SIZE * 3)
+
+    converter.convertToFloatBuffer(image, 0, MODEL_SIZE, MODEL_SIZE, output)
+    assertEquals(Point(320, 240), converter.toImageCoordinates(112f, 112f))
+    assertEquals(Point(80, 0), converter.toImageCoordinates(0f, 0f))
+
+    output.clear()
+    converter.convertToFloatBuffer(image, 90, MODEL_SIZE, MODEL_SIZE, output)
+    assertEquals(Point(320, 240), converter.toImageCoordinates(112f, 112f))
+    // The top left corner of the upright image is the bottom left corner of the camera image.
+    assertEquals(Point(80, 480), converter.toImageCoordinates(0f, 0f))
+  }
+
+  /** The position of the crop in the upright image. */
+  private data class Crop(val left: Int, val top: Int)
+
+  /**
+   * Asserts that each output pixel, as returned by [getRgb] in the range [0, 1], has the color of
+   * the camera image pixel nearest to the center of the area of the upright image it covers.
+   */
+  private fun assertMatchesReference(
+    message: String,
+    image: Image,
+    rotation: Int,
+    crop: Crop,
+    width: Int,
+    height: Int,
+    getRgb: (index: Int) -> FloatArray
+  ) {
+    val uprightWidth = if (rotation % 180 == 0) image.width else image.height
+    val uprightHeight = if (rotation % 180 == 0) image.height else image.width
+    val cropWidth = uprightWidth - 2 * crop.left
+    val cropHeight = uprightHeight - 2 * crop.top
+    for (j in 0 until height) {
+      for (i in 0 until width) {
+        val x = crop.left + (2 * i + 1) * cropWidth / (2 * width)
+        val y = crop.top + (2 * j + 1) * cropHeight / (2 * height)
+        // The camera image pixel which is rotated clockwise to [x, y].
+        val (sourceX, sourceY) =
+          when (rotation) {
+            0 -> Pair(x, y)
+            90 -> Pair(y, image.height - 1 - x)
+            180 -> Pair(image.width - 1 - x, image.height - 1 - y)
+            else -> Pair(image.width - 1 - y, x)
+          }
+        val expected =
+          convertYuvToRgb(
+            getY(sourceX, sourceY),
+            getU(sourceX / 2, sourceY / 2),
+            getV(sourceX / 2, sourceY / 2)
+          )
+        val actual = getRgb(j * width + i)
+        for (channel in 0 until 3) {
+          // The converter uses an integer approximation of the conversion.
+          assertEquals(
+            "$message, pixel $i, $j, channel $channel",
+            expected[channel],
+            actual[channel] * 255f,
+            1.5f
+          )
+        }
+      }
+    }
+  }
+
+  companion object {
+    private const val MAX_OUTPUT_SIZE = 300
+    private const val MODEL_SIZE = 224
+    // Rows of the planes are padded, as they may be on devices.
+    private const val ROW_PADDING = 16
+
+    /** Converts BT.601 limited range YUV to RGB values in the range [0, 255]. */
+    private fun convertYuvToRgb(y: Int, u: Int, v: Int): FloatArray {
+      val luma = 1.164f * (y - 16)
+      return floatArrayOf(
+        (luma + 1.596f * (v - 128)).coerceIn(0f, 255f),
+        (luma - 0.392f * (u - 128) - 0.813f * (v - 128)).coerceIn(0f, 255f),
+        (luma + 2.017f * (u - 128)).coerceIn(0f, 255f)
+      )
+    }
+
+    // Values which differ between neighbouring pixels, so that a pixel sampled from the wrong
+    // position is detected.
+    private fun getY(x: Int, y: Int) = (x * 7 + y * 13) % 220 + 16
+
+    private fun getU(x: Int, y: Int) = (x * 11 + y * 3) % 224 + 16
+
+    private fun getV(x: Int, y: Int) = (x * 5 + y * 17) % 224 + 16
+
+    /**
+     * Returns a mocked [ImageFormat.YUV_420_888] image of the given size with padded rows, whose
+     * chroma planes are either interleaved, as on most devices, or planar.
+     */
+    private fun createImage(width: Int, height: Int, interleavedChroma: Boolean): Image {
+      val rowStrideY = width + ROW_PADDING
+      val yBuffer = ByteBuffer.allocateDirect(rowStrideY * height)
+      for (y in 0 until height) {
+        for (x in 0 until width) {
+          yBuffer.put(y * rowStrideY + x, getY(x, y).toByte())
+        }
+      }
+      val chromaWidth = width / 2
+      val chromaHeight = height / 2
+      val uBuffer: ByteBuffer
+      val vBuffer: ByteBuffer
+      val rowStrideUv: Int
+      val pixelStrideUv: Int
+      if (interleavedChroma) {
+        rowStrideUv = width + ROW_PADDING
+        pixelStrideUv = 2
+        val uv = ByteBuffer.allocateDirect(rowStrideUv * chromaHeight)
+        for (y in 0 until chromaHeight) {
+          for (x in 0 until chromaWidth) {
+            uv.put(y * rowStrideUv + x * 2, getU(x, y).toByte())
+            uv.put(y * rowStrideUv + x * 2 + 1, getV(x, y).toByte())
+          }
+        }
+        uBuffer = uv.duplicate()
+        vBuffer = (uv.duplicate().position(1) as ByteBuffer).slice()
+      } else {
+        rowStrideUv = chromaWidth + ROW_PADDING
+        pixelStrideUv = 1
+        uBuffer = ByteBuffer.allocateDirect(rowStrideUv * chromaHeight)
+        vBuffer = ByteBuffer.allocateDirect(rowStrideUv * chromaHeight)
+        for (y in 0 until chromaHeight) {
+          for (x in 0 until chromaWidth) {
+            uBuffer.put(y * rowStrideUv + x, getU(x, y).toByte())
+            vBuffer.put(y * rowStrideUv + x, getV(x, y).toByte())
+          }
+        }
+      }
+
+      val image = mock(Image::class.java)
+      `when`(image.format).thenReturn(ImageFormat.YUV_420_888)
+      `when`(image.width).thenReturn(width)
+      `when`(image.height).thenReturn(height)
+      val planes =
+        arrayOf(
+          createPlane(yBuffer, rowStrideY, 1),
+          createPlane(uBuffer, rowStrideUv, pixelStrideUv),
+          createPlane(vBuffer, rowStrideUv, pixelStrideUv)
+        )
+      `when`(image.planes).thenReturn(planes)
+      return image
+    }
+
+    private fun createPlane(buffer: ByteBuffer, rowStride: Int, pixelStride: Int): Image.Plane {
+      val plane = mock(Image.Plane::class.java)
+      `when`(plane.buffer).thenReturn(buffer)
+      `when`(plane.rowStride).thenReturn(rowStride)
+      `when`(plane.pixelStride).thenReturn(pixelStride)
+      return plane
+    }
+  }
+}
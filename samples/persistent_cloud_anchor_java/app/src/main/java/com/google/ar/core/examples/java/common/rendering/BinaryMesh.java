@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.opengl.GLES20;
+import android.util.Log;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The contents of a binary mesh file, as written by {@code tools/convert_obj_to_mesh.py}.
+ *
+ * <p>The file is memory-mapped and the vertex and index data are views of the mapping, so they can
+ * be uploaded to the GPU without parsing or copying the data first. See the converter for a
+ * description of the format.
+ */
+class BinaryMesh {
+  private static final String TAG = BinaryMesh.class.getSimpleName();
+
+  /** The file name extension of binary mesh files. */
+  static final String FILE_EXTENSION = ".mesh";
+
+  // "MESH" read as a little-endian integer.
+  private static final int MAGIC = 0x4853454D;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12 * 4;
+
+  final int vertexCount;
+  final int indexCount;
+  // GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+  final int indexType;
+  // Positions (vec3), followed by texture coordinates (vec2), followed by normals (vec3).
+  final ByteBuffer vertexData;
+  final ByteBuffer indexData;
+
+  private BinaryMesh(ByteBuffer data, String name) throws IOException {
+    data.order(ByteOrder.LITTLE_ENDIAN);
+    if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+      throw new IOException("Not a binary mesh file: " + name);
+    }
+    if (data.getInt(4) != VERSION) {
+      throw new IOException("Unsupported binary mesh version " + data.getInt(4) + ": " + name);
+    }
+    vertexCount = data.getInt(8);
+    indexCount = data.getInt(12);
+    int bytesPerIndex = data.getInt(16);
+    if (vertexCount < 0
+        || indexCount < 0
+        || (bytesPerIndex != 2 && bytesPerIndex != 4)
+        || (long) HEADER_SIZE + 8L * 4 * vertexCount + (long) bytesPerIndex * indexCount
+            != data.remaining()) {
+      throw new IOException("Corrupt binary mesh file: " + name);
+    }
+    indexType = bytesPerIndex == 2 ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_UNSIGNED_INT;
+    vertexData = slice(data, HEADER_SIZE, 8 * 4 * vertexCount);
+    indexData = slice(data, HEADER_SIZE + 8 * 4 * vertexCount, bytesPerIndex * indexCount);
+  }
+
+  /** Maps and validates the given binary mesh asset. */
+  static BinaryMesh read(AssetManager assets, String assetFileName) throws IOException {
+    return new BinaryMesh(map(assets, assetFileName), assetFileName);
+  }
+
+  /** Returns the byte offset of the texture coordinates within {@link #vertexData}. */
+  int getTexCoordsOffset() {
+    return 3 * 4 * vertexCount;
+  }
+
+  /** Returns the byte offset of the normals within {@link #vertexData}. */
+  int getNormalsOffset() {
+    return 5 * 4 * vertexCount;
+  }
+
+  /**
+   * Memory-maps the given asset. Assets are only stored such that they can be mapped if they are
+   * not compressed, see {@code noCompress} in the app's {@code build.gradle}; compressed assets
+   * are read into a direct buffer instead.
+   */
+  private static ByteBuffer map(AssetManager assets, String assetFileName) throws IOException {
+    try (AssetFileDescriptor fileDescriptor = assets.openFd(assetFileName);
+        FileInputStream stream = fileDescriptor.createInputStream();
+        FileChannel channel = stream.getChannel()) {
+      // The mapping remains valid after the channel is closed.
+      return channel.map(
+          FileChannel.MapMode.READ_ONLY,
+          fileDescriptor.getStartOffset(),
+          fileDescriptor.getDeclaredLength());
+    } catch (FileNotFoundException e) {
+      Log.w(TAG, "Asset " + assetFileName + " is compressed and can not be memory-mapped");
+    }
+    try (InputStream stream = assets.open(assetFileName)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(stream.available());
+      byte[] chunk = new byte[8192];
+      int length;
+      while ((length = stream.read(chunk)) > 0) {
+        if (length > buffer.remaining()) {
+          ByteBuffer grown = ByteBuffer.allocateDirect(2 * buffer.capacity() + length);
+          buffer.flip();
+          grown.put(buffer);
+          buffer = grown;
+        }
+        buffer.put(chunk, 0, length);
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+    ByteBuffer duplicate = data.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
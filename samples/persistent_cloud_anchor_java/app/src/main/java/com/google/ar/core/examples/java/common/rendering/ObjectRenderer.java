@@ -69,6 +69,7 @@ public class ObjectRenderer {
   private int normalsBaseAddress;
   private int indexBufferId;
   private int indexCount;
+  private int indexType;
 
   private int program;
   private final int[] textures = new int[1];
@@ -130,7 +131,9 @@ public class ObjectRenderer {
    * Creates and initializes OpenGL resources needed for rendering the model.
    *
    * @param context Context for loading the shader and below-named model and texture assets.
-   * @param objAssetName Name of the OBJ file containing the model geometry.
+   * @param objAssetName Name of the OBJ file containing the model geometry, or of a binary mesh
+   *     file converted from it with {@code tools/convert_obj_to_mesh.py} if the name ends with
+   *     {@code .mesh}.
    * @param diffuseTextureAssetName Name of the PNG file containing the diffuse texture map.
    */
   public void createOnGlThread(Context context, String objAssetName, String diffuseTextureAssetName)
@@ -157,6 +160,53 @@ public class ObjectRenderer {
 
     ShaderUtil.checkGLError(TAG, "Texture loading");
 
+    int[] buffers = new int[2];
+    GLES20.glGenBuffers(2, buffers, 0);
+    vertexBufferId = buffers[0];
+    indexBufferId = buffers[1];
+
+    if (objAssetName.endsWith(BinaryMesh.FILE_EXTENSION)) {
+      loadBinaryMesh(context, objAssetName);
+    } else {
+      loadObj(context, objAssetName);
+    }
+
+    Matrix.setIdentityM(modelMatrix, 0);
+  }
+
+  /**
+   * Uploads a memory-mapped binary mesh file. Its attributes are laid out in the vertex buffer the
+   * same way as those of OBJ files, so the data is uploaded as it is.
+   */
+  private void loadBinaryMesh(Context context, String meshAssetName) throws IOException {
+    BinaryMesh mesh = BinaryMesh.read(context.getAssets(), meshAssetName);
+
+    verticesBaseAddress = 0;
+    texCoordsBaseAddress = mesh.getTexCoordsOffset();
+    normalsBaseAddress = mesh.getNormalsOffset();
+
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        mesh.vertexData.limit(),
+        mesh.vertexData,
+        GLES20.GL_STATIC_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    indexCount = mesh.indexCount;
+    indexType = mesh.indexType;
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        mesh.indexData.limit(),
+        mesh.indexData,
+        GLES20.GL_STATIC_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+    ShaderUtil.checkGLError(TAG, "Mesh buffer load");
+  }
+
+  private void loadObj(Context context, String objAssetName) throws IOException {
     // Read the obj file.
     InputStream objInputStream = context.getAssets().open(objAssetName);
     Obj obj = ObjReader.read(objInputStream);
@@ -188,11 +238,6 @@ public class ObjectRenderer {
     }
     indices.rewind();
 
-    int[] buffers = new int[2];
-    GLES20.glGenBuffers(2, buffers, 0);
-    vertexBufferId = buffers[0];
-    indexBufferId = buffers[1];
-
     // Load vertex buffer
     verticesBaseAddress = 0;
     texCoordsBaseAddress = verticesBaseAddress + 4 * vertices.limit();
@@ -212,13 +257,12 @@ public class ObjectRenderer {
     // Load index buffer
     GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
     indexCount = indices.limit();
+    indexType = GLES20.GL_UNSIGNED_SHORT;
     GLES20.glBufferData(
         GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * indexCount, indices, GLES20.GL_STATIC_DRAW);
     GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
 
     ShaderUtil.checkGLError(TAG, "OBJ buffer load");
-
-    Matrix.setIdentityM(modelMatrix, 0);
   }
 
   /**
@@ -437,7 +481,7 @@ public class ObjectRenderer {
     }
 
     GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, indexType, 0);
     GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
 
     if (blendMode != null) {
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import android.media.Image;
+import android.media.Image.Plane;
+import com.google.ar.core.CameraIntrinsics;
+import com.google.ar.core.Frame;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Back-projects raw depth images into 3D points, colored with the pixels of the camera image.
+ *
+ * <p>The depth image is subsampled to at most a given number of pixels, and the sampled rows are
+ * split into tiles which are processed in parallel on the common {@link ForkJoinPool}. Positions
+ * and colors are computed in the same sweep over the depth image. Only the sampled pixels are read,
+ * straight from the buffers of the image planes. Each tile writes to its own arrays, which are then
+ * copied in bulk to the output buffers. All arrays and buffers are allocated once per image
+ * resolution and reused.
+ *
+ * <p>Must only be used from one thread at a time.
+ */
+final class DepthBackProjector {
+  // The number of sampled rows processed by each task.
+  private static final int ROWS_PER_TILE = 8;
+
+  /**
+   * The points and colors back-projected from one depth image, in direct buffers owned by the
+   * {@link DepthBackProjector} which created them. See {@link DepthData#getPoints} and {@link
+   * DepthData#getColors} for their format.
+   */
+  static final class Output {
+    final FloatBuffer points;
+    final FloatBuffer colors;
+
+    private Output(int capacity) {
+      points = allocateFloatBuffer(capacity * Renderer.POSITION_FLOATS_PER_POINT);
+      colors = allocateFloatBuffer(capacity * Renderer.COLOR_FLOATS_PER_POINT);
+    }
+  }
+
+  private final class Tile extends RecursiveAction {
+    final int firstRow;
+    final float[] points;
+    final float[] colors;
+    // Reusable space for 3-channel color values.
+    final float[] rgb = new float[3];
+    int pointCount;
+
+    Tile(int firstRow, int sampledWidth) {
+      this.firstRow = firstRow;
+      points = new float[ROWS_PER_TILE * sampledWidth * Renderer.POSITION_FLOATS_PER_POINT];
+      colors = new float[ROWS_PER_TILE * sampledWidth * Renderer.COLOR_FLOATS_PER_POINT];
+    }
+
+    @Override
+    protected void compute() {
+      pointCount = backProjectRows(this);
+    }
+  }
+
+  private final ArrayDeque<Output> freeOutputs = new ArrayDeque<>();
+  // The corners of the full depth texture, and the CPU image region they cover in the last frame.
+  private final FloatBuffer fullTextureCoords = PointCloudHelper.createFullTextureCoordinates();
+  private final FloatBuffer imageRegionCoords =
+      allocateFloatBuffer(PointCloudHelper.FULL_TEXTURE_COORDS_SIZE);
+  private final RecursiveAction allTiles =
+      new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tiles);
+        }
+      };
+
+  // Layout for the current resolution and point limit.
+  private int depthWidth;
+  private int depthHeight;
+  private int step;
+  private int sampledWidth;
+  private int sampledHeight;
+  private Tile[] tiles = new Tile[0];
+
+  // The planes of the images being processed. Only read with absolute gets, so that the tiles can
+  // share them.
+  private ShortBuffer depthPixels;
+  private ByteBuffer confidencePixels;
+  private ByteBuffer colorPixelsY;
+  private ByteBuffer colorPixelsU;
+  private ByteBuffer colorPixelsV;
+
+  // Parameters of the images being processed.
+  private float fx;
+  private float fy;
+  private float cx;
+  private float cy;
+  private int confidenceRowStride;
+  private int confidencePixelStride;
+  private int colorWidth;
+  private int colorMinY;
+  private int colorRegionHeight;
+  private int rowStrideY;
+  private int rowStrideU;
+  private int rowStrideV;
+  private int pixelStrideY;
+  private int pixelStrideU;
+  private int pixelStrideV;
+
+  /**
+   * Returns the CPU image region covered by the depth image of {@code frame}, to be passed to
+   * {@link #project}. The buffer is reused by the next call.
+   */
+  FloatBuffer getImageRegionCoordinates(Frame frame) {
+    PointCloudHelper.getImageCoordinatesForFullTexture(frame, fullTextureCoords, imageRegionCoords);
+    return imageRegionCoords;
+  }
+
+  /**
+   * Back-projects the pixels of {@code depth} with a valid depth, subsampled to at most {@code
+   * pointLimit} pixels, and looks up their colors in {@code color}. Pixels with a depth of zero
+   * are not included in the output.
+   *
+   * @param imageCoords The CPU image region covered by the depth image, see {@link
+   *     #getImageRegionCoordinates}
+   * @return The points and colors, to be given back with {@link #recycle} once no longer needed
+   */
+  Output project(
+      Image depth,
+      Image confidence,
+      Image color,
+      CameraIntrinsics cameraTextureIntrinsics,
+      FloatBuffer imageCoords,
+      int pointLimit) {
+    prepareLayout(depth.getWidth(), depth.getHeight(), pointLimit);
+    setPlanes(depth, confidence, color);
+
+    // To transform 2D depth pixels into 3D points we retrieve the intrinsic camera parameters
+    // corresponding to the depth image. See more information about the depth values at
+    // https://developers.google.com/ar/develop/java/depth/overview#understand-depth-values.
+    int[] intrinsicsDimensions = cameraTextureIntrinsics.getImageDimensions();
+    float[] focalLength = cameraTextureIntrinsics.getFocalLength();
+    float[] principalPoint = cameraTextureIntrinsics.getPrincipalPoint();
+    fx = focalLength[0] * depthWidth / intrinsicsDimensions[0];
+    fy = focalLength[1] * depthHeight / intrinsicsDimensions[1];
+    cx = principalPoint[0] * depthWidth / intrinsicsDimensions[0];
+    cy = principalPoint[1] * depthHeight / intrinsicsDimensions[1];
+
+    // The first and last CPU image rows overlapping with the depth image region.
+    colorWidth = color.getWidth();
+    colorMinY = Math.round(imageCoords.get(1));
+    colorRegionHeight = Math.round(imageCoords.get(3)) - colorMinY;
+
+    if (tiles.length == 1) {
+      tiles[0].compute();
+    } else {
+      for (Tile tile : tiles) {
+        tile.reinitialize();
+      }
+      allTiles.reinitialize();
+      ForkJoinPool.commonPool().invoke(allTiles);
+    }
+
+    Output output = freeOutputs.poll();
+    if (output == null) {
+      output = new Output(sampledWidth * sampledHeight);
+    }
+    output.points.clear();
+    output.colors.clear();
+    for (Tile tile : tiles) {
+      output.points.put(tile.points, 0, tile.pointCount * Renderer.POSITION_FLOATS_PER_POINT);
+      output.colors.put(tile.colors, 0, tile.pointCount * Renderer.COLOR_FLOATS_PER_POINT);
+    }
+    output.points.flip();
+    output.colors.flip();
+
+    // The planes are only valid until the images are closed.
+    depthPixels = null;
+    confidencePixels = null;
+    colorPixelsY = null;
+    colorPixelsU = null;
+    colorPixelsV = null;
+    return output;
+  }
+
+  /** Returns an {@link Output} obtained from {@link #project} for reuse. */
+  void recycle(Output output) {
+    // Outputs of a previous resolution are dropped, as they may be too small.
+    if (output.points.capacity()
+        == sampledWidth * sampledHeight * Renderer.POSITION_FLOATS_PER_POINT) {
+      freeOutputs.add(output);
+    }
+  }
+
+  /** Sets up the tiles and drops the outputs if the depth image resolution or limit changed. */
+  private void prepareLayout(int width, int height, int pointLimit) {
+    int newStep = PointCloudHelper.calculateImageSubsamplingStep(width, height, pointLimit);
+    if (width == depthWidth && height == depthHeight && newStep == step) {
+      return;
+    }
+    depthWidth = width;
+    depthHeight = height;
+    step = newStep;
+    sampledWidth = (width + step - 1) / step;
+    sampledHeight = (height + step - 1) / step;
+    tiles = new Tile[(sampledHeight + ROWS_PER_TILE - 1) / ROWS_PER_TILE];
+    for (int i = 0; i < tiles.length; ++i) {
+      tiles[i] = new Tile(i * ROWS_PER_TILE, sampledWidth);
+    }
+    freeOutputs.clear();
+  }
+
+  private void setPlanes(Image depth, Image confidence, Image color) {
+    // Depth images are tightly packed, so it's OK to not use row and pixel strides. Set the
+    // endianess to ensure we extract depth data in the correct byte order.
+    depthPixels =
+        depth.getPlanes()[0].getBuffer().duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+
+    Plane confidencePlane = confidence.getPlanes()[0];
+    confidenceRowStride = confidencePlane.getRowStride();
+    confidencePixelStride = confidencePlane.getPixelStride();
+    confidencePixels = confidencePlane.getBuffer().duplicate();
+
+    Plane[] colorPlanes = color.getPlanes();
+    rowStrideY = colorPlanes[0].getRowStride();
+    rowStrideU = colorPlanes[1].getRowStride();
+    rowStrideV = colorPlanes[2].getRowStride();
+    pixelStrideY = colorPlanes[0].getPixelStride();
+    pixelStrideU = colorPlanes[1].getPixelStride();
+    pixelStrideV = colorPlanes[2].getPixelStride();
+    colorPixelsY = colorPlanes[0].getBuffer().duplicate();
+    colorPixelsU = colorPlanes[1].getBuffer().duplicate();
+    colorPixelsV = colorPlanes[2].getBuffer().duplicate();
+  }
+
+  /**
+   * Back-projects the sampled rows of the given tile into its arrays, and returns the number of
+   * points written. May be called concurrently for different tiles.
+   */
+  private int backProjectRows(Tile tile) {
+    int endRow = Math.min(tile.firstRow + ROWS_PER_TILE, sampledHeight);
+    float[] points = tile.points;
+    float[] colors = tile.colors;
+    float[] rgb = tile.rgb;
+    int pointIndex = 0;
+    int colorIndex = 0;
+    for (int row = tile.firstRow; row < endRow; ++row) {
+      int y = row * step;
+      int colorY = colorMinY + y * colorRegionHeight / depthHeight;
+      int colorHalfY = colorY / 2;
+      for (int x = 0; x < depthWidth; x += step) {
+        // Depth image pixels are in mm. A pixel that has a value of zero has a missing depth
+        // estimate at this location.
+        int depthMillimeters = depthPixels.get(y * depthWidth + x) & 0xffff;
+        if (depthMillimeters == 0) {
+          continue;
+        }
+        float depthMeters = depthMillimeters / 1000.0f;
+        points[pointIndex++] = depthMeters * (x - cx) / fx; // X.
+        points[pointIndex++] = depthMeters * (cy - y) / fy; // Y.
+        points[pointIndex++] = -depthMeters; // Z.
+        // Depth confidence value for this pixel, stored as an unsigned byte in range [0, 255], and
+        // normalized to [0.0, 1.0].
+        int confidenceValue =
+            confidencePixels.get(y * confidenceRowStride + x * confidencePixelStride) & 0xff;
+        points[pointIndex++] = confidenceValue / 255.0f;
+
+        // Retrieve the color at this point. Each channel value is an unsigned byte, so we need to
+        // apply `0xff` to convert the sign.
+        int colorX = x * colorWidth / depthWidth;
+        int colorHalfX = colorX / 2;
+        int channelValueY = colorPixelsY.get(colorY * rowStrideY + colorX * pixelStrideY) & 0xff;
+        int channelValueU =
+            colorPixelsU.get(colorHalfY * rowStrideU + colorHalfX * pixelStrideU) & 0xff;
+        int channelValueV =
+            colorPixelsV.get(colorHalfY * rowStrideV + colorHalfX * pixelStrideV) & 0xff;
+        PointCloudHelper.convertYuvToRgb(channelValueY, channelValueU, channelValueV, rgb);
+        colors[colorIndex++] = rgb[0];
+        colors[colorIndex++] = rgb[1];
+        colors[colorIndex++] = rgb[2];
+      }
+    }
+    return pointIndex / Renderer.POSITION_FLOATS_PER_POINT;
+  }
+
+  private static FloatBuffer allocateFloatBuffer(int size) {
+    return ByteBuffer.allocateDirect(size * Float.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+}
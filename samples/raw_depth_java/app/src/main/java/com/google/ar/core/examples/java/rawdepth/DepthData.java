@@ -17,40 +17,43 @@
 package com.google.ar.core.examples.java.rawdepth;
 
 import android.media.Image;
-import com.google.ar.core.Anchor;
 import com.google.ar.core.CameraIntrinsics;
 import com.google.ar.core.Frame;
-import com.google.ar.core.Session;
+import com.google.ar.core.Pose;
 import com.google.ar.core.exceptions.NotYetAvailableException;
 import java.nio.FloatBuffer;
 
 /**
  * Stores depth data from ARCore as a 3D pointcloud. Points are added by calling the Raw Depth API,
- * and reprojected into 3D space. The points are stored relative to an anchor created with each
- * instance. The color of the points are matched with the latest color image from the same frame.
+ * and reprojected into 3D space. The points are stored relative to the pose of the camera when the
+ * depth was acquired. The color of the points are matched with the latest color image from the
+ * same frame.
  */
 final class DepthData {
-  /** Buffer of point coordinates and confidence values. */
-  private FloatBuffer points;
+  /** Buffers of point coordinates, confidence values and RGB color values. */
+  private final DepthBackProjector.Output output;
 
-  /** Buffer of point RGB color values. */
-  private FloatBuffer colors;
+  /** The projector which owns the buffers, to which they are returned when released. */
+  private final DepthBackProjector projector;
 
-  /** The anchor to the 3D position of the camera at the point of depth acquisition. */
-  private final Anchor anchor;
+  /** The pose of the camera at the point of depth acquisition. */
+  private final Pose cameraPose;
 
   /** The timestamp in nanoseconds when the raw depth image was observed. */
   private long timestamp;
 
   private DepthData(
-      FloatBuffer points, FloatBuffer colors, long timestamp, Anchor cameraPoseAnchor) {
-    this.points = points;
-    this.colors = colors;
+      DepthBackProjector.Output output,
+      DepthBackProjector projector,
+      long timestamp,
+      Pose cameraPose) {
+    this.output = output;
+    this.projector = projector;
     this.timestamp = timestamp;
-    this.anchor = cameraPoseAnchor;
+    this.cameraPose = cameraPose;
   }
 
-  public static DepthData create(Session session, Frame frame) {
+  public static DepthData create(Frame frame, DepthBackProjector projector) {
     try (Image cameraImage = frame.acquireCameraImage();
         Image depthImage = frame.acquireRawDepthImage16Bits();
         Image confidenceImage = frame.acquireRawDepthConfidenceImage()) {
@@ -58,27 +61,24 @@ final class DepthData {
       // camera. To ensure smooth framerate, we cap the number of points each frame.
       final int maxNumberOfPointsToRender = 15000;
 
-      // To transform 2D depth pixels into 3D points we retrieve the intrinsic camera parameters
-      // corresponding to the depth image. See more information about the depth values at
-      // https://developers.google.com/ar/develop/java/depth/overview#understand-depth-values.
-      CameraIntrinsics intrinsics = frame.getCamera().getTextureIntrinsics();
-      FloatBuffer points =
-          PointCloudHelper.convertRawDepthImagesTo3dPointBuffer(
-              depthImage, confidenceImage, intrinsics, maxNumberOfPointsToRender);
-
       // To give each point a color from the RGB camera we need to look up the RGB pixel
       // corresponding to each depth pixel. RGB and depth images usually have different aspect
       // ratios. Here we calculate the CPU image region that corresponds to the area covered by the
       // depth image.
-      FloatBuffer imageRegionCoordinates =
-          PointCloudHelper.getImageCoordinatesForFullTexture(frame);
-
-      FloatBuffer colors =
-          PointCloudHelper.convertImageToColorBuffer(
-              cameraImage, depthImage, imageRegionCoordinates, maxNumberOfPointsToRender);
+      FloatBuffer imageRegionCoordinates = projector.getImageRegionCoordinates(frame);
 
-      Anchor cameraPoseAnchor = session.createAnchor(frame.getCamera().getPose());
-      return new DepthData(points, colors, depthImage.getTimestamp(), cameraPoseAnchor);
+      CameraIntrinsics intrinsics = frame.getCamera().getTextureIntrinsics();
+      DepthBackProjector.Output output =
+          projector.project(
+              depthImage,
+              confidenceImage,
+              cameraImage,
+              intrinsics,
+              imageRegionCoordinates,
+              maxNumberOfPointsToRender);
+
+      return new DepthData(
+          output, projector, depthImage.getTimestamp(), frame.getCamera().getPose());
     } catch (NotYetAvailableException e) {
       // This normally means that depth data is not available yet. This is normal so we will not
       // spam the logcat with this.
@@ -98,7 +98,7 @@ final class DepthData {
    * the frame that provided the point cloud.
    */
   public FloatBuffer getPoints() {
-    return points;
+    return output.points;
   }
 
   /**
@@ -108,12 +108,15 @@ final class DepthData {
    * blue image channels. The values for each color are in 0-1 range (inclusive).
    */
   public FloatBuffer getColors() {
-    return colors;
+    return output.colors;
   }
 
-  /** Returns the anchor corresponding to the camera pose where the depth data was acquired. */
-  public Anchor getAnchor() {
-    return anchor;
+  /**
+   * Returns the buffers to the {@link DepthBackProjector} for reuse. The depth data must not be
+   * used afterwards.
+   */
+  public void release() {
+    projector.recycle(output);
   }
 
   /**
@@ -121,7 +124,7 @@ final class DepthData {
    * the session coordinates.
    */
   public void getModelMatrix(float[] modelMatrix) {
-    anchor.getPose().toMatrix(modelMatrix, 0);
+    cameraPose.toMatrix(modelMatrix, 0);
   }
 
 }
@@ -65,6 +65,7 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
   private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
 
   private final Renderer renderer = new Renderer();
+  private final DepthBackProjector depthBackProjector = new DepthBackProjector();
 
   // This lock prevents accessing the frame images while Session is paused.
   private final Object frameInUseLock = new Object();
@@ -301,7 +302,7 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
 
         if (containsNewDepthData) {
           // Get Raw Depth data of the current frame.
-          final DepthData depth = DepthData.create(session, frame);
+          final DepthData depth = DepthData.create(frame, depthBackProjector);
 
           // Skip rendering the current frame if an exception arises during depth data processing.
           // For example, before depth estimation finishes initializing.
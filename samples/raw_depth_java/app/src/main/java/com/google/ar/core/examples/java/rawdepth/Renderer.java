@@ -22,9 +22,14 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
-/** Renders the data from Raw Depth API as 3D points. */
+/**
+ * Fuses the data from Raw Depth API into a {@link TsdfVolume} and renders its surface as 3D points.
+ */
 final class Renderer {
   private static final String TAG = Renderer.class.getSimpleName();
 
@@ -34,33 +39,39 @@ final class Renderer {
   public static final int BYTES_PER_FLOAT = Float.SIZE / 8;
   private static final int POSITION_BYTES_PER_POINT = BYTES_PER_FLOAT * POSITION_FLOATS_PER_POINT;
   private static final int COLOR_BYTES_PER_POINT = BYTES_PER_FLOAT * COLOR_FLOATS_PER_POINT;
-  private static final int INITIAL_BUFFER_POINTS = 1000;
+  private static final int MAX_POINTS = TsdfVolume.MAX_BLOCKS * TsdfVolume.MAX_POINTS_PER_BLOCK;
 
   // Shader names.
   private static final String VERTEX_SHADER_NAME = "shaders/depth_point_cloud.vert";
   private static final String FRAGMENT_SHADER_NAME = "shaders/depth_point_cloud.frag";
 
-  /**
-   * The list of pointcloud frames to render. Each item in the list represents a single raw depth
-   * frame, taken at different times and poses.
-   */
-  private ArrayList<DepthData> depthFrames = new ArrayList<DepthData>();
+  /** The volume into which all raw depth frames are fused. */
+  private final TsdfVolume volume = new TsdfVolume();
+
+  // The surface points of each block, extracted when it changes, in a fixed range per block.
+  private final float[] blockPositions = new float[MAX_POINTS * POSITION_FLOATS_PER_POINT];
+  private final float[] blockColors = new float[MAX_POINTS * COLOR_FLOATS_PER_POINT];
+  private final int[] blockPointCounts = new int[TsdfVolume.MAX_BLOCKS];
+  // The first point of each block in the vertex buffers, or -1 if it is not written yet.
+  private final int[] blockOffsets = new int[TsdfVolume.MAX_BLOCKS];
+  // Copies of the vertex buffers, in which the points of all blocks are packed in block order.
+  private final FloatBuffer positions = allocateFloatBuffer(MAX_POINTS * POSITION_FLOATS_PER_POINT);
+  private final FloatBuffer colors = allocateFloatBuffer(MAX_POINTS * COLOR_FLOATS_PER_POINT);
+  private int pointCount;
+  private final float[] cameraToWorld = new float[16];
+  private boolean hasDepth;
 
   private int positionAttribute;
   private int positionBuffer;
-  private int positionBufferSize;
 
   private int colorAttribute;
   private int colorBuffer;
-  private int colorBufferSize;
 
   private int programName;
   private int modelViewProjectionUniform;
   private int pointSizeUniform;
   private int confidenceThresholdUniform;
 
-  private int numPoints = 0;
-
   /**
    * The minimum confidence value of a depth image pixel to be rendered as a point. The initial
    * value is selected to remove only the most unreliable depth values. Low confidence points are
@@ -68,7 +79,9 @@ final class Renderer {
    */
   private float minConfidence = 0.1f;
 
-  public Renderer() {}
+  public Renderer() {
+    Arrays.fill(blockOffsets, -1);
+  }
 
   /**
    * Allocates and initializes OpenGL resources needed by the plane renderer. Must be called on the
@@ -84,13 +97,21 @@ final class Renderer {
     positionBuffer = buffers[0];
     colorBuffer = buffers[1];
 
+    // The buffers are allocated at their full size once, and the packed points are uploaded again
+    // since the contents of any previous GL context are gone.
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
-    positionBufferSize = INITIAL_BUFFER_POINTS * POSITION_BYTES_PER_POINT;
-    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, positionBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        MAX_POINTS * POSITION_BYTES_PER_POINT,
+        positions.rewind(),
+        GLES20.GL_DYNAMIC_DRAW);
 
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
-    colorBufferSize = INITIAL_BUFFER_POINTS * COLOR_BYTES_PER_POINT;
-    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, colorBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        MAX_POINTS * COLOR_BYTES_PER_POINT,
+        colors.rewind(),
+        GLES20.GL_DYNAMIC_DRAW);
 
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
@@ -119,21 +140,16 @@ final class Renderer {
   }
 
   /**
-   * Updates the OpenGL buffer contents to the provided point. Repeated calls with the same point
-   * cloud will be ignored.
+   * Fuses the provided depth data into the volume, and releases it. The surface of the volume is
+   * uploaded to the OpenGL buffers when it is next drawn.
    */
   public void update(DepthData depth) {
-    depthFrames.add(depth);
-
-    // We store and visualize multiple previous frames to create a denser map of the environment.
-    // Cap the total number of depth frames and anchors to avoid memory exhaustion (each depth frame
-    // consumes memory). ARCore consumes CPU cycles for each anchor that it tracks, and this cap
-    // avoids overloading the app rendering system.
-    final int maxFramesStored = 60;
-    while (depthFrames.size() > maxFramesStored) {
-      depthFrames.get(0).getAnchor().detach();
-      depthFrames.remove(0);
-    }
+    // All frames are fused into one volume of constant size, which builds a dense map of the whole
+    // scanned environment without keeping the frames or anchors for them.
+    depth.getModelMatrix(cameraToWorld);
+    volume.integrate(depth.getPoints(), depth.getColors(), cameraToWorld);
+    depth.release();
+    hasDepth = true;
   }
 
   /**
@@ -145,69 +161,115 @@ final class Renderer {
    *     com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}.
    */
   public void draw(float[] viewMatrix, float[] projectionMatrix) {
-    if (depthFrames.isEmpty()) {
+    if (!hasDepth) {
       return;
     }
 
     // Move the camera backwards by 1 meter, to help convey 3D depth of the point cloud.
     moveCameraAlongLocalZAxis(viewMatrix, -1f);
 
-    float[] modelMatrix = new float[16];
-    float[] modelView = new float[16];
     float[] modelViewProjection = new float[16];
 
     ShaderUtil.checkGLError(TAG, "Draw");
 
-    for (DepthData depthFrame : depthFrames) {
-      numPoints = depthFrame.getPoints().remaining() / POSITION_FLOATS_PER_POINT;
+    uploadChangedPoints();
+    if (pointCount == 0) {
+      return;
+    }
+
+    // The surface points are in world space, so no model matrix is needed.
+    Matrix.multiplyMM(modelViewProjection, 0, projectionMatrix, 0, viewMatrix, 0);
 
-      // Resize the position buffer if needed.
-      while (numPoints * POSITION_BYTES_PER_POINT > positionBufferSize) {
-        positionBufferSize *= 2;
-      }
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
-      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, positionBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
+    GLES20.glUseProgram(programName);
 
-      GLES20.glBufferSubData(
-          GLES20.GL_ARRAY_BUFFER, 0, numPoints * POSITION_BYTES_PER_POINT, depthFrame.getPoints());
+    GLES20.glEnableVertexAttribArray(positionAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
+    GLES20.glVertexAttribPointer(
+        positionAttribute, 4, GLES20.GL_FLOAT, false, POSITION_BYTES_PER_POINT, 0);
 
-      // Resize the color buffer if needed.
-      while (numPoints * COLOR_BYTES_PER_POINT > colorBufferSize) {
-        colorBufferSize *= 2;
-      }
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
-      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, colorBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
-      GLES20.glBufferSubData(
-          GLES20.GL_ARRAY_BUFFER, 0, numPoints * COLOR_BYTES_PER_POINT, depthFrame.getColors());
+    GLES20.glEnableVertexAttribArray(colorAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
+    GLES20.glVertexAttribPointer(
+        colorAttribute, 3, GLES20.GL_FLOAT, false, COLOR_BYTES_PER_POINT, 0);
 
-      depthFrame.getModelMatrix(modelMatrix);
+    GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
+    GLES20.glUniform1f(pointSizeUniform, 5.0f);
+    GLES20.glUniform1f(confidenceThresholdUniform, minConfidence);
 
-      Matrix.multiplyMM(modelView, 0, viewMatrix, 0, modelMatrix, 0);
-      Matrix.multiplyMM(modelViewProjection, 0, projectionMatrix, 0, modelView, 0);
+    GLES20.glDrawArrays(GLES20.GL_POINTS, 0, pointCount);
+    GLES20.glDisableVertexAttribArray(positionAttribute);
+    GLES20.glDisableVertexAttribArray(colorAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-      GLES20.glUseProgram(programName);
+    ShaderUtil.checkGLError(TAG, "Draw complete");
+  }
 
-      GLES20.glEnableVertexAttribArray(positionAttribute);
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
-      GLES20.glVertexAttribPointer(
-          positionAttribute, 4, GLES20.GL_FLOAT, false, POSITION_BYTES_PER_POINT, 0);
+  /**
+   * Extracts the surface points of the blocks changed since the last draw, and packs the points of
+   * all blocks in block order so that only live points are drawn. Blocks that changed, or moved
+   * because a block before them changed its number of points, are written again, and the range
+   * spanning them is uploaded with a single call per buffer.
+   */
+  private void uploadChangedPoints() {
+    int offset = 0;
+    int firstChangedPoint = -1;
+    int endChangedPoint = 0;
+    for (int block = 0; block < TsdfVolume.MAX_BLOCKS; ++block) {
+      boolean changed = updateBlock(block);
+      int count = blockPointCounts[block];
+      if (changed || blockOffsets[block] != offset) {
+        blockOffsets[block] = offset;
+        int firstPoint = block * TsdfVolume.MAX_POINTS_PER_BLOCK;
+        positions.position(offset * POSITION_FLOATS_PER_POINT);
+        positions.put(
+            blockPositions,
+            firstPoint * POSITION_FLOATS_PER_POINT,
+            count * POSITION_FLOATS_PER_POINT);
+        colors.position(offset * COLOR_FLOATS_PER_POINT);
+        colors.put(
+            blockColors, firstPoint * COLOR_FLOATS_PER_POINT, count * COLOR_FLOATS_PER_POINT);
+        if (firstChangedPoint < 0) {
+          firstChangedPoint = offset;
+        }
+        endChangedPoint = offset + count;
+      }
+      offset += count;
+    }
+    pointCount = offset;
+    if (firstChangedPoint < 0 || endChangedPoint == firstChangedPoint) {
+      return;
+    }
+    int changedPointCount = endChangedPoint - firstChangedPoint;
 
-      GLES20.glEnableVertexAttribArray(colorAttribute);
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
-      GLES20.glVertexAttribPointer(
-          colorAttribute, 4, GLES20.GL_FLOAT, false, COLOR_BYTES_PER_POINT, 0);
+    positions.position(firstChangedPoint * POSITION_FLOATS_PER_POINT);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
+    GLES20.glBufferSubData(
+        GLES20.GL_ARRAY_BUFFER,
+        firstChangedPoint * POSITION_BYTES_PER_POINT,
+        changedPointCount * POSITION_BYTES_PER_POINT,
+        positions);
 
-      GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
-      GLES20.glUniform1f(pointSizeUniform, 5.0f);
-      GLES20.glUniform1f(confidenceThresholdUniform, minConfidence);
+    colors.position(firstChangedPoint * COLOR_FLOATS_PER_POINT);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, colorBuffer);
+    GLES20.glBufferSubData(
+        GLES20.GL_ARRAY_BUFFER,
+        firstChangedPoint * COLOR_BYTES_PER_POINT,
+        changedPointCount * COLOR_BYTES_PER_POINT,
+        colors);
+  }
 
-      GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
-      GLES20.glDisableVertexAttribArray(positionAttribute);
-      GLES20.glDisableVertexAttribArray(colorAttribute);
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+  /**
+   * Extracts the surface points of the given block into its range of the block arrays if it
+   * changed, and returns whether it did.
+   */
+  private boolean updateBlock(int block) {
+    if (!volume.clearDirty(block)) {
+      return false;
     }
-
-    ShaderUtil.checkGLError(TAG, "Draw complete");
+    blockPointCounts[block] =
+        volume.extractSurfacePoints(
+            block, blockPositions, blockColors, block * TsdfVolume.MAX_POINTS_PER_BLOCK);
+    return true;
   }
 
   /** Returns the fraction of points that is currently rendered based on confidence. */
@@ -226,6 +288,12 @@ final class Renderer {
     minConfidence = 1f - pointAmount;
   }
 
+  private static FloatBuffer allocateFloatBuffer(int size) {
+    return ByteBuffer.allocateDirect(size * BYTES_PER_FLOAT)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
   /**
    * Translates the virtual camera along its local forward axis by a specified amount in meters.
    *
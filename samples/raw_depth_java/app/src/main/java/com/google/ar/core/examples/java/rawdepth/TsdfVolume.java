@@ -0,0 +1,334 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A truncated signed distance field (TSDF) into which raw depth frames are fused.
+ *
+ * <p>Space is divided into voxels, grouped into cubic blocks of {@link #BLOCK_SIZE} voxels along
+ * each edge, which are only allocated near observed surfaces. Each voxel stores the signed distance
+ * to the nearest surface along the camera rays, truncated to {@link #TRUNCATION_DISTANCE} and
+ * averaged over all observations weighted by their depth confidence, as well as the averaged
+ * color. Blocks are looked up in a {@link LongIntHashMap} by their coordinates, and their data is
+ * kept in flat arrays allocated once for {@link #MAX_BLOCKS} blocks, so memory stays constant
+ * however long the session.
+ * When the volume is nearly full, the blocks which are farthest from the camera and have not been
+ * observed for the longest time are evicted.
+ *
+ * <p>The surface is extracted per block as the voxels closest to the zero crossing of the distance
+ * field. Blocks changed by integration or eviction are marked as dirty, so that only their surface
+ * points need to be extracted and uploaded again.
+ */
+final class TsdfVolume {
+  /** Edge length of a voxel in meters. */
+  static final float VOXEL_SIZE = 0.04f;
+  /** Number of voxels along each edge of a block. */
+  static final int BLOCK_SIZE = 8;
+  /** Maximum number of blocks in the volume. */
+  static final int MAX_BLOCKS = 2048;
+  /** Maximum number of surface points extracted from a block. */
+  static final int MAX_POINTS_PER_BLOCK = 128;
+
+  private static final int VOXELS_PER_BLOCK = BLOCK_SIZE * BLOCK_SIZE * BLOCK_SIZE;
+  private static final int BLOCK_SHIFT = 3; // log2(BLOCK_SIZE)
+  private static final float TRUNCATION_DISTANCE = 3 * VOXEL_SIZE;
+  // Caps the accumulated weight so that the volume keeps adapting to changes in the scene.
+  private static final float MAX_WEIGHT = 32.0f;
+  // Voxels with less accumulated confidence are not extracted.
+  private static final float MIN_SURFACE_WEIGHT = 0.5f;
+  // Eviction starts above the high and stops below the low watermark, as fractions of MAX_BLOCKS.
+  private static final float EVICTION_HIGH_WATERMARK = 0.9f;
+  private static final float EVICTION_LOW_WATERMARK = 0.8f;
+  // How many frames without observations count as much as one meter of distance for eviction.
+  private static final float EVICTION_FRAMES_PER_METER = 90.0f;
+  // Bits per block coordinate in block keys.
+  private static final int BLOCK_COORDINATE_BITS = 21;
+  private static final long BLOCK_COORDINATE_MASK = (1L << BLOCK_COORDINATE_BITS) - 1;
+  private static final int NO_BLOCK = -1;
+
+  private final LongIntHashMap blocksByKey = new LongIntHashMap(MAX_BLOCKS);
+  private final float[] distances = new float[MAX_BLOCKS * VOXELS_PER_BLOCK];
+  private final float[] weights = new float[MAX_BLOCKS * VOXELS_PER_BLOCK];
+  // 8-bit RGB, packed as 0x00RRGGBB.
+  private final int[] colors = new int[MAX_BLOCKS * VOXELS_PER_BLOCK];
+  // Block coordinates of each allocated block.
+  private final int[] blockCoordinates = new int[MAX_BLOCKS * 3];
+  private final long[] blockKeys = new long[MAX_BLOCKS];
+  private final long[] blockLastUpdates = new long[MAX_BLOCKS];
+  private final boolean[] dirtyBlocks = new boolean[MAX_BLOCKS];
+  private final int[] freeBlocks = new int[MAX_BLOCKS];
+  private int freeBlockCount;
+  private final float[] evictionScores = new float[MAX_BLOCKS];
+  private final float[] sortedEvictionScores = new float[MAX_BLOCKS];
+  private long frameNumber;
+
+  // The block of the last voxel looked up, as consecutive samples along a ray mostly share blocks.
+  private long cachedBlockKey = -1;
+  private int cachedBlock = NO_BLOCK;
+
+  TsdfVolume() {
+    clear();
+  }
+
+  /**
+   * Fuses a depth frame into the volume.
+   *
+   * @param points Points in camera space with their confidence, see {@link DepthData#getPoints}
+   * @param pointColors Colors of the points, see {@link DepthData#getColors}
+   * @param cameraToWorld Column-major matrix transforming camera space into world space
+   */
+  void integrate(FloatBuffer points, FloatBuffer pointColors, float[] cameraToWorld) {
+    ++frameNumber;
+    float cameraX = cameraToWorld[12];
+    float cameraY = cameraToWorld[13];
+    float cameraZ = cameraToWorld[14];
+    evictIfNeeded(cameraX, cameraY, cameraZ);
+
+    int pointCount = points.remaining() / Renderer.POSITION_FLOATS_PER_POINT;
+    int pointsBase = points.position();
+    int colorsBase = pointColors.position();
+    for (int i = 0; i < pointCount; ++i) {
+      int p = pointsBase + i * Renderer.POSITION_FLOATS_PER_POINT;
+      float confidence = points.get(p + 3);
+      if (confidence <= 0) {
+        continue;
+      }
+      float x = points.get(p);
+      float y = points.get(p + 1);
+      float z = points.get(p + 2);
+      float worldX = cameraToWorld[0] * x + cameraToWorld[4] * y + cameraToWorld[8] * z + cameraX;
+      float worldY = cameraToWorld[1] * x + cameraToWorld[5] * y + cameraToWorld[9] * z + cameraY;
+      float worldZ = cameraToWorld[2] * x + cameraToWorld[6] * y + cameraToWorld[10] * z + cameraZ;
+      int c = colorsBase + i * Renderer.COLOR_FLOATS_PER_POINT;
+      integrateRay(
+          cameraX,
+          cameraY,
+          cameraZ,
+          worldX,
+          worldY,
+          worldZ,
+          confidence,
+          pointColors.get(c),
+          pointColors.get(c + 1),
+          pointColors.get(c + 2));
+    }
+  }
+
+  /**
+   * Clears the dirty flag of the given block and returns whether it was set, i.e. whether its
+   * surface points need to be extracted again.
+   */
+  boolean clearDirty(int block) {
+    boolean dirty = dirtyBlocks[block];
+    dirtyBlocks[block] = false;
+    return dirty;
+  }
+
+  /**
+   * Writes the surface points of the given block to the arrays, starting at the point with index
+   * {@code firstPoint}, in the format of {@link DepthData#getPoints} and {@link
+   * DepthData#getColors}. The confidence of a point is its accumulated weight relative to the
+   * maximum. Returns the number of points, at most {@link #MAX_POINTS_PER_BLOCK}; free blocks have
+   * none.
+   */
+  int extractSurfacePoints(int block, float[] points, float[] pointColors, int firstPoint) {
+    if (blockKeys[block] == -1) {
+      return 0;
+    }
+    int count = 0;
+    int voxelBase = block * VOXELS_PER_BLOCK;
+    float originX = blockCoordinates[block * 3] * BLOCK_SIZE * VOXEL_SIZE;
+    float originY = blockCoordinates[block * 3 + 1] * BLOCK_SIZE * VOXEL_SIZE;
+    float originZ = blockCoordinates[block * 3 + 2] * BLOCK_SIZE * VOXEL_SIZE;
+    // The zero crossing lies within half a voxel of the voxels whose distance is at most that.
+    float maxDistance = 0.5f * VOXEL_SIZE / TRUNCATION_DISTANCE;
+    for (int v = 0; v < VOXELS_PER_BLOCK && count < MAX_POINTS_PER_BLOCK; ++v) {
+      int voxel = voxelBase + v;
+      if (weights[voxel] < MIN_SURFACE_WEIGHT || Math.abs(distances[voxel]) > maxDistance) {
+        continue;
+      }
+      int vx = v & (BLOCK_SIZE - 1);
+      int vy = (v >> BLOCK_SHIFT) & (BLOCK_SIZE - 1);
+      int vz = v >> (2 * BLOCK_SHIFT);
+      int p = (firstPoint + count) * Renderer.POSITION_FLOATS_PER_POINT;
+      points[p] = originX + (vx + 0.5f) * VOXEL_SIZE;
+      points[p + 1] = originY + (vy + 0.5f) * VOXEL_SIZE;
+      points[p + 2] = originZ + (vz + 0.5f) * VOXEL_SIZE;
+      points[p + 3] = weights[voxel] / MAX_WEIGHT;
+      int c = (firstPoint + count) * Renderer.COLOR_FLOATS_PER_POINT;
+      int color = colors[voxel];
+      pointColors[c] = ((color >> 16) & 0xff) / 255.0f;
+      pointColors[c + 1] = ((color >> 8) & 0xff) / 255.0f;
+      pointColors[c + 2] = (color & 0xff) / 255.0f;
+      ++count;
+    }
+    return count;
+  }
+
+  /** Returns the number of allocated blocks. */
+  int getBlockCount() {
+    return MAX_BLOCKS - freeBlockCount;
+  }
+
+  /** Removes all blocks. */
+  void clear() {
+    blocksByKey.clear();
+    Arrays.fill(blockKeys, -1);
+    Arrays.fill(dirtyBlocks, true);
+    for (int i = 0; i < MAX_BLOCKS; ++i) {
+      freeBlocks[i] = MAX_BLOCKS - 1 - i;
+    }
+    freeBlockCount = MAX_BLOCKS;
+    cachedBlockKey = -1;
+    cachedBlock = NO_BLOCK;
+  }
+
+  /**
+   * Updates the voxels along the ray from the camera to the observed point, within the truncation
+   * distance on either side of the point.
+   */
+  private void integrateRay(
+      float cameraX,
+      float cameraY,
+      float cameraZ,
+      float x,
+      float y,
+      float z,
+      float confidence,
+      float red,
+      float green,
+      float blue) {
+    float dx = x - cameraX;
+    float dy = y - cameraY;
+    float dz = z - cameraZ;
+    float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (length <= TRUNCATION_DISTANCE) {
+      return;
+    }
+    dx /= length;
+    dy /= length;
+    dz /= length;
+    for (float t = -TRUNCATION_DISTANCE; t <= TRUNCATION_DISTANCE + 1e-6f; t += VOXEL_SIZE) {
+      int voxelX = (int) Math.floor((x + dx * t) / VOXEL_SIZE);
+      int voxelY = (int) Math.floor((y + dy * t) / VOXEL_SIZE);
+      int voxelZ = (int) Math.floor((z + dz * t) / VOXEL_SIZE);
+      int block =
+          getOrAllocateBlock(voxelX >> BLOCK_SHIFT, voxelY >> BLOCK_SHIFT, voxelZ >> BLOCK_SHIFT);
+      if (block == NO_BLOCK) {
+        continue;
+      }
+      int voxel =
+          block * VOXELS_PER_BLOCK
+              + (voxelX & (BLOCK_SIZE - 1))
+              + ((voxelY & (BLOCK_SIZE - 1)) << BLOCK_SHIFT)
+              + ((voxelZ & (BLOCK_SIZE - 1)) << (2 * BLOCK_SHIFT));
+      // Positive in front of the surface, negative behind it, normalized to [-1, 1].
+      float distance = -t / TRUNCATION_DISTANCE;
+      float weight = weights[voxel];
+      float newWeight = weight + confidence;
+      float blend = confidence / newWeight;
+      distances[voxel] += (distance - distances[voxel]) * blend;
+      colors[voxel] = blendColor(colors[voxel], red, green, blue, blend);
+      weights[voxel] = Math.min(newWeight, MAX_WEIGHT);
+      blockLastUpdates[block] = frameNumber;
+      dirtyBlocks[block] = true;
+    }
+  }
+
+  /** Blends a packed 8-bit color towards the given color in the [0, 1] range. */
+  private static int blendColor(int color, float red, float green, float blue, float blend) {
+    int r = blendChannel((color >> 16) & 0xff, red, blend);
+    int g = blendChannel((color >> 8) & 0xff, green, blend);
+    int b = blendChannel(color & 0xff, blue, blend);
+    return (r << 16) | (g << 8) | b;
+  }
+
+  private static int blendChannel(int channel, float value, float blend) {
+    return Math.round(channel + (value * 255.0f - channel) * blend);
+  }
+
+  private int getOrAllocateBlock(int blockX, int blockY, int blockZ) {
+    long key =
+        ((blockX & BLOCK_COORDINATE_MASK) << (2 * BLOCK_COORDINATE_BITS))
+            | ((blockY & BLOCK_COORDINATE_MASK) << BLOCK_COORDINATE_BITS)
+            | (blockZ & BLOCK_COORDINATE_MASK);
+    if (key == cachedBlockKey) {
+      return cachedBlock;
+    }
+    int block = blocksByKey.get(key, NO_BLOCK);
+    if (block == NO_BLOCK) {
+      if (freeBlockCount == 0) {
+        return NO_BLOCK;
+      }
+      block = freeBlocks[--freeBlockCount];
+      blocksByKey.put(key, block);
+      blockKeys[block] = key;
+      blockCoordinates[block * 3] = blockX;
+      blockCoordinates[block * 3 + 1] = blockY;
+      blockCoordinates[block * 3 + 2] = blockZ;
+      int voxelBase = block * VOXELS_PER_BLOCK;
+      Arrays.fill(distances, voxelBase, voxelBase + VOXELS_PER_BLOCK, 1.0f);
+      Arrays.fill(weights, voxelBase, voxelBase + VOXELS_PER_BLOCK, 0.0f);
+    }
+    cachedBlockKey = key;
+    cachedBlock = block;
+    return block;
+  }
+
+  /**
+   * Evicts the blocks with the highest eviction score, combining their distance from the camera
+   * and the time since they were last observed, if the volume is nearly full.
+   */
+  private void evictIfNeeded(float cameraX, float cameraY, float cameraZ) {
+    if (getBlockCount() < EVICTION_HIGH_WATERMARK * MAX_BLOCKS) {
+      return;
+    }
+    float halfBlock = 0.5f * BLOCK_SIZE * VOXEL_SIZE;
+    for (int block = 0; block < MAX_BLOCKS; ++block) {
+      if (blockKeys[block] == -1) {
+        evictionScores[block] = Float.NEGATIVE_INFINITY;
+        continue;
+      }
+      float dx = blockCoordinates[block * 3] * BLOCK_SIZE * VOXEL_SIZE + halfBlock - cameraX;
+      float dy = blockCoordinates[block * 3 + 1] * BLOCK_SIZE * VOXEL_SIZE + halfBlock - cameraY;
+      float dz = blockCoordinates[block * 3 + 2] * BLOCK_SIZE * VOXEL_SIZE + halfBlock - cameraZ;
+      float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+      long age = frameNumber - blockLastUpdates[block];
+      evictionScores[block] = distance + age / EVICTION_FRAMES_PER_METER;
+    }
+
+    // Evict every block scoring at least as high as the block at the eviction count from the top.
+    int evictionCount = getBlockCount() - (int) (EVICTION_LOW_WATERMARK * MAX_BLOCKS);
+    System.arraycopy(evictionScores, 0, sortedEvictionScores, 0, MAX_BLOCKS);
+    Arrays.sort(sortedEvictionScores);
+    float threshold = sortedEvictionScores[MAX_BLOCKS - evictionCount];
+    for (int block = 0; block < MAX_BLOCKS && evictionCount > 0; ++block) {
+      if (blockKeys[block] != -1 && evictionScores[block] >= threshold) {
+        blocksByKey.remove(blockKeys[block]);
+        blockKeys[block] = -1;
+        freeBlocks[freeBlockCount++] = block;
+        dirtyBlocks[block] = true;
+        --evictionCount;
+      }
+    }
+    cachedBlockKey = -1;
+    cachedBlock = NO_BLOCK;
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.media.Image;
+import com.google.ar.core.CameraIntrinsics;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DepthBackProjectorTest {
+  private static final int POINT_LIMIT = 15000;
+  private static final int COLOR_WIDTH = 640;
+  private static final int COLOR_HEIGHT = 480;
+  // The rows of the CPU image covered by the depth image, as if the depth image had a wider aspect
+  // ratio than the CPU image.
+  private static final int COLOR_MIN_Y = 60;
+  private static final int COLOR_MAX_Y = 420;
+  // Rows of the planes are padded, as they may be on devices.
+  private static final int ROW_PADDING = 16;
+
+  /** The planes of a synthetic frame, and the images and intrinsics which expose them. */
+  private static class TestFrame {
+    final int depthWidth;
+    final int depthHeight;
+    final short[] depth;
+    final byte[] confidence;
+    final Image depthImage;
+    final Image confidenceImage;
+    final Image colorImage;
+    final CameraIntrinsics intrinsics;
+    final FloatBuffer imageCoords;
+
+    TestFrame(int depthWidth, int depthHeight) {
+      this.depthWidth = depthWidth;
+      this.depthHeight = depthHeight;
+      depth = new short[depthWidth * depthHeight];
+      confidence = new byte[depthWidth * depthHeight];
+      for (int y = 0; y < depthHeight; ++y) {
+        for (int x = 0; x < depthWidth; ++x) {
+          // Every seventh pixel has no depth estimate. Some depths exceed the range of a short.
+          int i = y * depthWidth + x;
+          depth[i] = (short) (i % 7 == 0 ? 0 : 300 + (x * 131 + y * 17) % 65000);
+          confidence[i] = (byte) (x + 3 * y);
+        }
+      }
+
+      ByteBuffer depthBuffer =
+          ByteBuffer.allocateDirect(depth.length * 2).order(ByteOrder.nativeOrder());
+      depthBuffer.asShortBuffer().put(depth);
+      depthImage =
+          createImage(depthWidth, depthHeight, createPlane(depthBuffer, depthWidth * 2, 2));
+
+      int confidenceRowStride = depthWidth + ROW_PADDING;
+      ByteBuffer confidenceBuffer = ByteBuffer.allocateDirect(confidenceRowStride * depthHeight);
+      for (int y = 0; y < depthHeight; ++y) {
+        confidenceBuffer.position(y * confidenceRowStride);
+        confidenceBuffer.put(confidence, y * depthWidth, depthWidth);
+      }
+      confidenceImage =
+          createImage(
+              depthWidth, depthHeight, createPlane(confidenceBuffer, confidenceRowStride, 1));
+
+      // A YUV_420_888 image with interleaved chroma planes, as most devices produce.
+      int rowStrideY = COLOR_WIDTH + ROW_PADDING;
+      int rowStrideUv = COLOR_WIDTH + ROW_PADDING;
+      ByteBuffer y = ByteBuffer.allocateDirect(rowStrideY * COLOR_HEIGHT);
+      ByteBuffer uv = ByteBuffer.allocateDirect(rowStrideUv * COLOR_HEIGHT / 2);
+      for (int row = 0; row < COLOR_HEIGHT; ++row) {
+        for (int column = 0; column < COLOR_WIDTH; ++column) {
+          y.put(row * rowStrideY + column, (byte) getY(column, row));
+        }
+      }
+      for (int row = 0; row < COLOR_HEIGHT / 2; ++row) {
+        for (int column = 0; column < COLOR_WIDTH / 2; ++column) {
+          uv.put(row * rowStrideUv + column * 2, (byte) getU(column, row));
+          uv.put(row * rowStrideUv + column * 2 + 1, (byte) getV(column, row));
+        }
+      }
+      ByteBuffer u = ((ByteBuffer) uv.duplicate().position(0)).slice();
+      ByteBuffer v = ((ByteBuffer) uv.duplicate().position(1)).slice();
+      colorImage =
+          createImage(
+              COLOR_WIDTH,
+              COLOR_HEIGHT,
+              createPlane(y, rowStrideY, 1),
+              createPlane(u, rowStrideUv, 2),
+              createPlane(v, rowStrideUv, 2));
+
+      intrinsics = mock(CameraIntrinsics.class);
+      when(intrinsics.getImageDimensions()).thenReturn(new int[] {1920, 1080});
+      when(intrinsics.getFocalLength()).thenReturn(new float[] {1500f, 1480f});
+      when(intrinsics.getPrincipalPoint()).thenReturn(new float[] {950f, 545f});
+
+      imageCoords = FloatBuffer.allocate(PointCloudHelper.FULL_TEXTURE_COORDS_SIZE);
+      imageCoords.put(new float[] {0f, COLOR_MIN_Y, 0f, COLOR_MAX_Y}).put(new float[4]).flip();
+    }
+
+    DepthBackProjector.Output project(DepthBackProjector projector) {
+      return projector.project(
+          depthImage, confidenceImage, colorImage, intrinsics, imageCoords, POINT_LIMIT);
+    }
+  }
+
+  @Test
+  public void project_matchesReference_smallDepthImage() {
+    assertMatchesReference(new TestFrame(160, 120));
+  }
+
+  @Test
+  public void project_matchesReference_largeDepthImage() {
+    assertMatchesReference(new TestFrame(640, 480));
+  }
+
+  @Test
+  public void project_matchesReference_singleTile() {
+    // Few enough rows to be processed on the calling thread.
+    assertMatchesReference(new TestFrame(64, 8));
+  }
+
+  @Test
+  public void project_skipsPixelsWithoutDepth() {
+    TestFrame frame = new TestFrame(160, 120);
+    ByteBuffer depthBuffer = frame.depthImage.getPlanes()[0].getBuffer();
+    for (int i = 0; i < depthBuffer.capacity(); ++i) {
+      depthBuffer.put(i, (byte) 0);
+    }
+    depthBuffer.order(ByteOrder.nativeOrder()).putShort(2 * (40 * 160 + 80), (short) 1000);
+
+    DepthBackProjector.Output output = frame.project(new DepthBackProjector());
+
+    assertEquals(Renderer.POSITION_FLOATS_PER_POINT, output.points.remaining());
+    assertEquals(Renderer.COLOR_FLOATS_PER_POINT, output.colors.remaining());
+    assertEquals(-1f, output.points.get(2), 0f);
+  }
+
+  @Test
+  public void recycle_reusesOutputOfSameResolution() {
+    DepthBackProjector projector = new DepthBackProjector();
+    TestFrame frame = new TestFrame(160, 120);
+    DepthBackProjector.Output output = frame.project(projector);
+    projector.recycle(output);
+
+    assertSame(output, frame.project(projector));
+  }
+
+  @Test
+  public void recycle_dropsOutputOfOtherResolution() {
+    DepthBackProjector projector = new DepthBackProjector();
+    DepthBackProjector.Output output = new TestFrame(160, 120).project(projector);
+    TestFrame largeFrame = new TestFrame(640, 480);
+    largeFrame.project(projector);
+    projector.recycle(output);
+
+    assertNotSame(output, largeFrame.project(projector));
+  }
+
+  /**
+   * Compares the output of {@link DepthBackProjector} with a straightforward back-projection of
+   * the same pixels, done one pixel after the other in row-major order.
+   */
+  private static void assertMatchesReference(TestFrame frame) {
+    int step =
+        PointCloudHelper.calculateImageSubsamplingStep(
+            frame.depthWidth, frame.depthHeight, POINT_LIMIT);
+    float fx = 1500f * frame.depthWidth / 1920;
+    float fy = 1480f * frame.depthHeight / 1080;
+    float cx = 950f * frame.depthWidth / 1920;
+    float cy = 545f * frame.depthHeight / 1080;
+    float[] rgb = new float[3];
+
+    DepthBackProjector.Output output = frame.project(new DepthBackProjector());
+
+    int pointCount = 0;
+    for (int y = 0; y < frame.depthHeight; y += step) {
+      for (int x = 0; x < frame.depthWidth; x += step) {
+        int depthMillimeters = frame.depth[y * frame.depthWidth + x] & 0xffff;
+        if (depthMillimeters == 0) {
+          continue;
+        }
+        String point = "Point at " + x + ", " + y;
+        float depthMeters = depthMillimeters / 1000.0f;
+        int p = pointCount * Renderer.POSITION_FLOATS_PER_POINT;
+        assertEquals(point, depthMeters * (x - cx) / fx, output.points.get(p), 1e-6f);
+        assertEquals(point, depthMeters * (cy - y) / fy, output.points.get(p + 1), 1e-6f);
+        assertEquals(point, -depthMeters, output.points.get(p + 2), 0f);
+        assertEquals(
+            point,
+            (frame.confidence[y * frame.depthWidth + x] & 0xff) / 255.0f,
+            output.points.get(p + 3),
+            0f);
+
+        int colorX = x * COLOR_WIDTH / frame.depthWidth;
+        int colorY = COLOR_MIN_Y + y * (COLOR_MAX_Y - COLOR_MIN_Y) / frame.depthHeight;
+        PointCloudHelper.convertYuvToRgb(
+            getY(colorX, colorY), getU(colorX / 2, colorY / 2), getV(colorX / 2, colorY / 2), rgb);
+        int c = pointCount * Renderer.COLOR_FLOATS_PER_POINT;
+        assertEquals(point, rgb[0], output.colors.get(c), 0f);
+        assertEquals(point, rgb[1], output.colors.get(c + 1), 0f);
+        assertEquals(point, rgb[2], output.colors.get(c + 2), 0f);
+        ++pointCount;
+      }
+    }
+    assertEquals(pointCount * Renderer.POSITION_FLOATS_PER_POINT, output.points.remaining());
+    assertEquals(pointCount * Renderer.COLOR_FLOATS_PER_POINT, output.colors.remaining());
+  }
+
+  private static int getY(int x, int y) {
+    return (x + 2 * y) & 0xff;
+  }
+
+  private static int getU(int x, int y) {
+    return (3 * x + y) & 0xff;
+  }
+
+  private static int getV(int x, int y) {
+    return (x * y) & 0xff;
+  }
+
+  private static Image createImage(int width, int height, Image.Plane... planes) {
+    Image image = mock(Image.class);
+    when(image.getWidth()).thenReturn(width);
+    when(image.getHeight()).thenReturn(height);
+    when(image.getPlanes()).thenReturn(planes);
+    return image;
+  }
+
+  private static Image.Plane createPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+    Image.Plane plane = mock(Image.Plane.class);
+    buffer.rewind();
+    when(plane.getBuffer()).thenReturn(buffer);
+    when(plane.getRowStride()).thenReturn(rowStride);
+    when(plane.getPixelStride()).thenReturn(pixelStride);
+    return plane;
+  }
+}
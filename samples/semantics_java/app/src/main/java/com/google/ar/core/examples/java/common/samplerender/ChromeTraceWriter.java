@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes {@link RenderSpan}s as a trace in the <a
+ * href="https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU">Chrome
+ * trace event format</a>, which can be opened with {@code chrome://tracing} or <a
+ * href="https://ui.perfetto.dev">Perfetto</a>.
+ *
+ * <p>CPU and GPU times are shown as two separate tracks. Timer queries only measure how long the
+ * GPU took, not when it started, so each GPU span is placed at the start of the corresponding CPU
+ * span.
+ */
+public class ChromeTraceWriter {
+  private static final int PROCESS_ID = 1;
+  private static final int CPU_TRACK_ID = 1;
+  private static final int GPU_TRACK_ID = 2;
+
+  private ChromeTraceWriter() {}
+
+  /** Writes the given spans to {@code file}, replacing its contents. */
+  public static void writeToFile(List<RenderSpan> spans, File file) throws IOException {
+    try (Writer writer =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8))) {
+      write(spans, writer);
+    }
+  }
+
+  /** Writes the given spans to {@code writer} as a JSON object. Does not close the writer. */
+  public static void write(List<RenderSpan> spans, Writer writer) throws IOException {
+    writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+    writeTrackName(writer, CPU_TRACK_ID, "CPU");
+    writer.write(",\n");
+    writeTrackName(writer, GPU_TRACK_ID, "GPU");
+    for (RenderSpan span : spans) {
+      writer.write(",\n");
+      writeSpan(writer, span, CPU_TRACK_ID, span.getCpuDurationNanos());
+      if (span.getGpuDurationNanos() != RenderSpan.UNKNOWN_DURATION) {
+        writer.write(",\n");
+        writeSpan(writer, span, GPU_TRACK_ID, span.getGpuDurationNanos());
+      }
+    }
+    writer.write("\n]}\n");
+  }
+
+  private static void writeTrackName(Writer writer, int trackId, String name) throws IOException {
+    writer.write(
+        String.format(
+            Locale.US,
+            "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d,"
+                + "\"args\":{\"name\":\"%s\"}}",
+            PROCESS_ID,
+            trackId,
+            name));
+  }
+
+  private static void writeSpan(Writer writer, RenderSpan span, int trackId, long durationNanos)
+      throws IOException {
+    // Trace event times are in microseconds.
+    writer.write(
+        String.format(
+            Locale.US,
+            "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,"
+                + "\"pid\":%d,\"tid\":%d,\"args\":{\"frame\":%d}}",
+            escape(span.getName()),
+            trackId == CPU_TRACK_ID ? "cpu" : "gpu",
+            span.getCpuStartNanos() / 1000.0,
+            durationNanos / 1000.0,
+            PROCESS_ID,
+            trackId,
+            span.getFrameNumber()));
+  }
+
+  /** Returns {@code value} escaped for use within a JSON string. */
+  private static String escape(String value) {
+    StringBuilder builder = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format(Locale.US, "\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The OpenGL ES 3.0 functions and constants used by SampleRender, through which all of its classes
+ * issue GL calls, check for GL errors and log.
+ *
+ * <p>The methods have the same signatures and semantics as those of {@code
+ * android.opengl.GLES30}, and the constants have the same values. {@link AndroidGLBackend} forwards
+ * the calls to GLES30 and logs to logcat. A {@link RecordingGLBackend}, which depends on no Android
+ * classes, may be used instead to run SampleRender without a GPU, e.g. to measure the CPU overhead
+ * of rendering on a host machine.
+ *
+ * <p>Each {@link SampleRender} issues its calls to its own backend, see {@link
+ * SampleRender#getBackend}, so renderers with different backends may be used in the same process.
+ */
+public abstract class GLBackend {
+  // The GL constants used by SampleRender, with the same values as those of GLES30 and GLES11Ext.
+  public static final int GL_NO_ERROR = 0;
+  public static final int GL_FALSE = 0;
+  public static final int GL_TRUE = 1;
+  public static final int GL_NONE = 0;
+  public static final int GL_ZERO = 0;
+  public static final int GL_ONE = 1;
+  public static final int GL_POINTS = 0x0000;
+  public static final int GL_LINES = 0x0001;
+  public static final int GL_LINE_LOOP = 0x0002;
+  public static final int GL_LINE_STRIP = 0x0003;
+  public static final int GL_TRIANGLES = 0x0004;
+  public static final int GL_TRIANGLE_STRIP = 0x0005;
+  public static final int GL_TRIANGLE_FAN = 0x0006;
+  public static final int GL_DEPTH_BUFFER_BIT = 0x00000100;
+  public static final int GL_COLOR_BUFFER_BIT = 0x00004000;
+  public static final int GL_SRC_COLOR = 0x0300;
+  public static final int GL_ONE_MINUS_SRC_COLOR = 0x0301;
+  public static final int GL_SRC_ALPHA = 0x0302;
+  public static final int GL_ONE_MINUS_SRC_ALPHA = 0x0303;
+  public static final int GL_DST_ALPHA = 0x0304;
+  public static final int GL_ONE_MINUS_DST_ALPHA = 0x0305;
+  public static final int GL_DST_COLOR = 0x0306;
+  public static final int GL_ONE_MINUS_DST_COLOR = 0x0307;
+  public static final int GL_CONSTANT_COLOR = 0x8001;
+  public static final int GL_ONE_MINUS_CONSTANT_COLOR = 0x8002;
+  public static final int GL_CONSTANT_ALPHA = 0x8003;
+  public static final int GL_ONE_MINUS_CONSTANT_ALPHA = 0x8004;
+  public static final int GL_INVALID_ENUM = 0x0500;
+  public static final int GL_INVALID_VALUE = 0x0501;
+  public static final int GL_INVALID_OPERATION = 0x0502;
+  public static final int GL_OUT_OF_MEMORY = 0x0505;
+  public static final int GL_INVALID_FRAMEBUFFER_OPERATION = 0x0506;
+  public static final int GL_CULL_FACE = 0x0B44;
+  public static final int GL_DEPTH_TEST = 0x0B71;
+  public static final int GL_BLEND = 0x0BE2;
+  public static final int GL_TEXTURE_2D = 0x0DE1;
+  public static final int GL_UNSIGNED_BYTE = 0x1401;
+  public static final int GL_UNSIGNED_SHORT = 0x1403;
+  public static final int GL_UNSIGNED_INT = 0x1405;
+  public static final int GL_FLOAT = 0x1406;
+  public static final int GL_HALF_FLOAT = 0x140B;
+  public static final int GL_DEPTH_COMPONENT = 0x1902;
+  public static final int GL_RGB = 0x1907;
+  public static final int GL_RGBA = 0x1908;
+  public static final int GL_VENDOR = 0x1F00;
+  public static final int GL_RENDERER = 0x1F01;
+  public static final int GL_VERSION = 0x1F02;
+  public static final int GL_EXTENSIONS = 0x1F03;
+  public static final int GL_NEAREST = 0x2600;
+  public static final int GL_LINEAR = 0x2601;
+  public static final int GL_LINEAR_MIPMAP_LINEAR = 0x2703;
+  public static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+  public static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+  public static final int GL_TEXTURE_WRAP_S = 0x2802;
+  public static final int GL_TEXTURE_WRAP_T = 0x2803;
+  public static final int GL_REPEAT = 0x2901;
+  public static final int GL_RGBA8 = 0x8058;
+  public static final int GL_CLAMP_TO_EDGE = 0x812F;
+  public static final int GL_TEXTURE_MAX_LEVEL = 0x813D;
+  public static final int GL_RG = 0x8227;
+  public static final int GL_RG8 = 0x822B;
+  public static final int GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+  public static final int GL_MIRRORED_REPEAT = 0x8370;
+  public static final int GL_TEXTURE0 = 0x84C0;
+  public static final int GL_TEXTURE_CUBE_MAP = 0x8513;
+  public static final int GL_TEXTURE_CUBE_MAP_POSITIVE_X = 0x8515;
+  public static final int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+  public static final int GL_QUERY_RESULT = 0x8866;
+  public static final int GL_QUERY_RESULT_AVAILABLE = 0x8867;
+  public static final int GL_RGBA16F = 0x881A;
+  public static final int GL_RGB16F = 0x881B;
+  public static final int GL_TEXTURE_COMPARE_MODE = 0x884C;
+  public static final int GL_ARRAY_BUFFER = 0x8892;
+  public static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+  public static final int GL_STREAM_DRAW = 0x88E0;
+  public static final int GL_DYNAMIC_DRAW = 0x88E8;
+  public static final int GL_FRAGMENT_SHADER = 0x8B30;
+  public static final int GL_VERTEX_SHADER = 0x8B31;
+  public static final int GL_COMPILE_STATUS = 0x8B81;
+  public static final int GL_LINK_STATUS = 0x8B82;
+  public static final int GL_SRGB8_ALPHA8 = 0x8C43;
+  public static final int GL_DEPTH_COMPONENT32F = 0x8CAC;
+  public static final int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+  public static final int GL_MAX_COLOR_ATTACHMENTS = 0x8CDF;
+  public static final int GL_COLOR_ATTACHMENT0 = 0x8CE0;
+  public static final int GL_COLOR_ATTACHMENT1 = 0x8CE1;
+  public static final int GL_COLOR_ATTACHMENT2 = 0x8CE2;
+  public static final int GL_COLOR_ATTACHMENT3 = 0x8CE3;
+  public static final int GL_COLOR_ATTACHMENT4 = 0x8CE4;
+  public static final int GL_COLOR_ATTACHMENT5 = 0x8CE5;
+  public static final int GL_DEPTH_ATTACHMENT = 0x8D00;
+  public static final int GL_FRAMEBUFFER = 0x8D40;
+  public static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
+  public static final int GL_COPY_READ_BUFFER = 0x8F36;
+  public static final int GL_COPY_WRITE_BUFFER = 0x8F37;
+  public static final int GL_SYNC_GPU_COMMANDS_COMPLETE = 0x9117;
+  public static final int GL_ALREADY_SIGNALED = 0x911A;
+  public static final int GL_CONDITION_SATISFIED = 0x911C;
+  public static final int GL_MAP_WRITE_BIT = 0x0002;
+  public static final int GL_MAP_INVALIDATE_RANGE_BIT = 0x0004;
+  public static final int GL_MAP_UNSYNCHRONIZED_BIT = 0x0020;
+
+  // Log priorities, with the same values as those of android.util.Log.
+  public static final int LOG_INFO = 4;
+  public static final int LOG_WARN = 5;
+  public static final int LOG_ERROR = 6;
+
+  /** Logs a message with the given priority, e.g. {@link #LOG_WARN}. */
+  public void log(int priority, String tag, String message) {
+    log(priority, tag, message, /*throwable=*/ null);
+  }
+
+  /**
+   * Logs a message with the given priority, e.g. {@link #LOG_WARN}, and the stack trace of {@code
+   * throwable} unless it is null. Unlike the GL functions, may be called from any thread.
+   */
+  public abstract void log(int priority, String tag, String message, Throwable throwable);
+
+  /** Returns a description of a GL error code, as returned by {@link #glGetError}. */
+  public abstract String getErrorString(int error);
+
+  /** Returns the exception to throw for a GL error, with the given description. */
+  public abstract RuntimeException newGLException(int error, String message);
+
+  /** Throws the exception returned by {@link #newGLException} if a GL error occurred. */
+  public void maybeThrowGLException(String reason, String api) {
+    List<Integer> errorCodes = getGlErrors();
+    if (errorCodes != null) {
+      throw newGLException(errorCodes.get(0), formatErrorMessage(reason, api, errorCodes));
+    }
+  }
+
+  /** Logs a message with the given priority if a GL error occurred. */
+  public void maybeLogGLError(int priority, String tag, String reason, String api) {
+    List<Integer> errorCodes = getGlErrors();
+    if (errorCodes != null) {
+      log(priority, tag, formatErrorMessage(reason, api, errorCodes));
+    }
+  }
+
+  private String formatErrorMessage(String reason, String api, List<Integer> errorCodes) {
+    StringBuilder builder = new StringBuilder(String.format("%s: %s: ", reason, api));
+    Iterator<Integer> iterator = errorCodes.iterator();
+    while (iterator.hasNext()) {
+      int errorCode = iterator.next();
+      builder.append(String.format("%s (%d)", getErrorString(errorCode), errorCode));
+      if (iterator.hasNext()) {
+        builder.append(", ");
+      }
+    }
+    return builder.toString();
+  }
+
+  private List<Integer> getGlErrors() {
+    int errorCode = glGetError();
+    // Shortcut for no errors
+    if (errorCode == GL_NO_ERROR) {
+      return null;
+    }
+    List<Integer> errorCodes = new ArrayList<>();
+    errorCodes.add(errorCode);
+    while (true) {
+      errorCode = glGetError();
+      if (errorCode == GL_NO_ERROR) {
+        break;
+      }
+      errorCodes.add(errorCode);
+    }
+    return errorCodes;
+  }
+
+  public abstract void glActiveTexture(int texture);
+
+  public abstract void glAttachShader(int program, int shader);
+
+  public abstract void glBeginQuery(int target, int id);
+
+  public abstract void glBindBuffer(int target, int buffer);
+
+  public abstract void glBindFramebuffer(int target, int framebuffer);
+
+  public abstract void glBindTexture(int target, int texture);
+
+  public abstract void glBindVertexArray(int array);
+
+  public abstract void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha);
+
+  public abstract void glBufferData(int target, int size, Buffer data, int usage);
+
+  public abstract void glBufferSubData(int target, int offset, int size, Buffer data);
+
+  public abstract int glCheckFramebufferStatus(int target);
+
+  public abstract void glClear(int mask);
+
+  public abstract void glClearColor(float red, float green, float blue, float alpha);
+
+  public abstract int glClientWaitSync(long sync, int flags, long timeout);
+
+  public abstract void glCompileShader(int shader);
+
+  public abstract void glCompressedTexImage2D(
+      int target,
+      int level,
+      int internalformat,
+      int width,
+      int height,
+      int border,
+      int imageSize,
+      Buffer data);
+
+  public abstract void glCopyBufferSubData(
+      int readTarget, int writeTarget, int readOffset, int writeOffset, int size);
+
+  public abstract int glCreateProgram();
+
+  public abstract int glCreateShader(int type);
+
+  public abstract void glDeleteBuffers(int n, int[] buffers, int offset);
+
+  public abstract void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+
+  public abstract void glDeleteProgram(int program);
+
+  public abstract void glDeleteQueries(int n, int[] ids, int offset);
+
+  public abstract void glDeleteShader(int shader);
+
+  public abstract void glDeleteSync(long sync);
+
+  public abstract void glDeleteTextures(int n, int[] textures, int offset);
+
+  public abstract void glDeleteVertexArrays(int n, int[] arrays, int offset);
+
+  public abstract void glDepthMask(boolean flag);
+
+  public abstract void glDisable(int cap);
+
+  public abstract void glDrawArrays(int mode, int first, int count);
+
+  public abstract void glDrawArraysInstanced(int mode, int first, int count, int instanceCount);
+
+  public abstract void glDrawBuffers(int n, int[] bufs, int offset);
+
+  public abstract void glDrawElements(int mode, int count, int type, int offset);
+
+  public abstract void glDrawElementsInstanced(
+      int mode, int count, int type, int indicesOffset, int instanceCount);
+
+  public abstract void glEnable(int cap);
+
+  public abstract void glEnableVertexAttribArray(int index);
+
+  public abstract void glEndQuery(int target);
+
+  public abstract long glFenceSync(int condition, int flags);
+
+  public abstract void glFramebufferTexture2D(
+      int target, int attachment, int textarget, int texture, int level);
+
+  public abstract void glGenBuffers(int n, int[] buffers, int offset);
+
+  public abstract void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+  public abstract void glGenQueries(int n, int[] ids, int offset);
+
+  public abstract void glGenTextures(int n, int[] textures, int offset);
+
+  public abstract void glGenVertexArrays(int n, int[] arrays, int offset);
+
+  public abstract void glGenerateMipmap(int target);
+
+  public abstract int glGetError();
+
+  public abstract void glGetIntegerv(int pname, int[] params, int offset);
+
+  public abstract void glGetProgramBinary(
+      int program,
+      int bufSize,
+      int[] length,
+      int lengthOffset,
+      int[] binaryFormat,
+      int binaryFormatOffset,
+      Buffer binary);
+
+  public abstract String glGetProgramInfoLog(int program);
+
+  public abstract void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+  public abstract void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+
+  public abstract String glGetShaderInfoLog(int shader);
+
+  public abstract void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+  public abstract String glGetString(int name);
+
+  public abstract int glGetUniformLocation(int program, String name);
+
+  public abstract void glLinkProgram(int program);
+
+  public abstract Buffer glMapBufferRange(int target, int offset, int length, int access);
+
+  public abstract void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+
+  public abstract void glProgramParameteri(int program, int pname, int value);
+
+  public abstract void glShaderSource(int shader, String string);
+
+  public abstract void glTexImage2D(
+      int target,
+      int level,
+      int internalformat,
+      int width,
+      int height,
+      int border,
+      int format,
+      int type,
+      Buffer pixels);
+
+  public abstract void glTexParameteri(int target, int pname, int param);
+
+  public abstract void glUniform1fv(int location, int count, float[] v, int offset);
+
+  public abstract void glUniform1i(int location, int x);
+
+  public abstract void glUniform1iv(int location, int count, int[] v, int offset);
+
+  public abstract void glUniform2fv(int location, int count, float[] v, int offset);
+
+  public abstract void glUniform3fv(int location, int count, float[] v, int offset);
+
+  public abstract void glUniform4fv(int location, int count, float[] v, int offset);
+
+  public abstract void glUniformMatrix2fv(
+      int location, int count, boolean transpose, float[] value, int offset);
+
+  public abstract void glUniformMatrix3fv(
+      int location, int count, boolean transpose, float[] value, int offset);
+
+  public abstract void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] value, int offset);
+
+  public abstract boolean glUnmapBuffer(int target);
+
+  public abstract void glUseProgram(int program);
+
+  public abstract void glVertexAttribDivisor(int index, int divisor);
+
+  public abstract void glVertexAttribPointer(
+      int indx, int size, int type, boolean normalized, int stride, int offset);
+
+  public abstract void glViewport(int x, int y, int width, int height);
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+/**
+ * The time spent in one render pass of one frame, as measured by a {@link RenderPassTimer}.
+ *
+ * <p>CPU times are {@link System#nanoTime} values, i.e. they are only meaningful relative to each
+ * other. The GPU duration is the time the GPU spent executing the commands issued during the pass,
+ * which is unknown if the device does not support timer queries.
+ */
+public class RenderSpan {
+  /** The value of {@link #getGpuDurationNanos} if the GPU duration is unknown. */
+  public static final long UNKNOWN_DURATION = -1;
+
+  private final String name;
+  private final long frameNumber;
+  private final long cpuStartNanos;
+  private final long cpuDurationNanos;
+  private final long gpuDurationNanos;
+
+  /** Constructs a {@link RenderSpan}. */
+  public RenderSpan(
+      String name,
+      long frameNumber,
+      long cpuStartNanos,
+      long cpuDurationNanos,
+      long gpuDurationNanos) {
+    if (cpuDurationNanos < 0) {
+      throw new IllegalArgumentException("CPU duration must not be negative");
+    }
+    this.name = name;
+    this.frameNumber = frameNumber;
+    this.cpuStartNanos = cpuStartNanos;
+    this.cpuDurationNanos = cpuDurationNanos;
+    this.gpuDurationNanos = gpuDurationNanos;
+  }
+
+  /** Returns the name of the render pass. */
+  public String getName() {
+    return name;
+  }
+
+  /** Returns the number of the frame the pass was rendered in, counting from zero. */
+  public long getFrameNumber() {
+    return frameNumber;
+  }
+
+  /** Returns the {@link System#nanoTime} at which the pass began. */
+  public long getCpuStartNanos() {
+    return cpuStartNanos;
+  }
+
+  /** Returns the time between the beginning and the end of the pass on the CPU. */
+  public long getCpuDurationNanos() {
+    return cpuDurationNanos;
+  }
+
+  /** Returns the time the GPU spent on the pass, or {@link #UNKNOWN_DURATION}. */
+  public long getGpuDurationNanos() {
+    return gpuDurationNanos;
+  }
+}
@@ -56,6 +56,7 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -107,7 +108,8 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
     surfaceView.setOnTouchListener(tapHelper);
 
     // Set up renderer.
-    render = new SampleRender(surfaceView, this, getAssets());
+    render =
+        new SampleRender(surfaceView, this, getAssets(), new File(getCacheDir(), "shaders"));
 
     setupSemanticsColorMapLegend();
 
@@ -0,0 +1,145 @@
+# Copyright 2020 Google LLC
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Converts a Wavefront OBJ file to the binary mesh format of the samples.
+
+The samples load ".mesh" files by memory-mapping them and uploading the
+attribute and index data directly, instead of parsing OBJ text on the GL
+thread. The conversion matches what ObjUtils.convertToRenderable does at load
+time: faces are triangulated, and each distinct combination of position,
+texture coordinate and normal becomes one vertex.
+
+All values are little-endian. The file consists of:
+
+  uint32     magic, "MESH"
+  uint32     version, currently 1
+  uint32     number of vertices V
+  uint32     number of indices I
+  uint32     bytes per index, 2 if V <= 65536 and 4 otherwise
+  uint32     reserved, 0
+  float32[3] minimum of the positions
+  float32[3] maximum of the positions
+  float32    positions[3 * V]
+  float32    texture coordinates[2 * V]
+  float32    normals[3 * V]
+  uint16 or uint32 indices[I], forming triangles
+
+Each attribute is stored as a contiguous block, so that it can be uploaded as
+it is to the vertex buffer it is drawn from.
+"""
+import argparse
+import struct
+
+MAGIC = b'MESH'
+VERSION = 1
+
+
+def resolve_index(index, count):
+  """Converts a 1-based, possibly negative OBJ index to a 0-based one."""
+  index = int(index)
+  return index - 1 if index > 0 else count + index
+
+
+def read_obj(path):
+  """Returns the positions, texture coordinates, normals and triangles."""
+  positions = []
+  tex_coords = []
+  normals = []
+  triangles = []
+  with open(path, 'r') as obj_file:
+    for line in obj_file:
+      fields = line.split()
+      if not fields:
+        continue
+      if fields[0] == 'v':
+        positions.append(tuple(float(x) for x in fields[1:4]))
+      elif fields[0] == 'vt':
+        tex_coords.append(tuple(float(x) for x in fields[1:3]))
+      elif fields[0] == 'vn':
+        normals.append(tuple(float(x) for x in fields[1:4]))
+      elif fields[0] == 'f':
+        corners = []
+        for corner in fields[1:]:
+          parts = corner.split('/') + ['', '']
+          corners.append((
+              resolve_index(parts[0], len(positions)),
+              resolve_index(parts[1], len(tex_coords)) if parts[1] else None,
+              resolve_index(parts[2], len(normals)) if parts[2] else None,
+          ))
+        # Triangulate polygons as a fan, like ObjUtils.triangulate.
+        for i in range(1, len(corners) - 1):
+          triangles.append((corners[0], corners[i], corners[i + 1]))
+  return positions, tex_coords, normals, triangles
+
+
+def convert(positions, tex_coords, normals, triangles):
+  """Returns the single-indexed vertex attributes and indices."""
+  vertex_indices = {}
+  vertex_positions = []
+  vertex_tex_coords = []
+  vertex_normals = []
+  indices = []
+  for triangle in triangles:
+    for corner in triangle:
+      index = vertex_indices.get(corner)
+      if index is None:
+        index = len(vertex_positions)
+        vertex_indices[corner] = index
+        position, tex_coord, normal = corner
+        vertex_positions.append(positions[position])
+        vertex_tex_coords.append(
+            tex_coords[tex_coord] if tex_coord is not None else (0.0, 0.0))
+        vertex_normals.append(
+            normals[normal] if normal is not None else (0.0, 0.0, 0.0))
+      indices.append(index)
+  return vertex_positions, vertex_tex_coords, vertex_normals, indices
+
+
+def write_mesh(path, positions, tex_coords, normals, indices):
+  vertex_count = len(positions)
+  index_size = 2 if vertex_count <= 0x10000 else 4
+  if positions:
+    bounds_min = [min(p[i] for p in positions) for i in range(3)]
+    bounds_max = [max(p[i] for p in positions) for i in range(3)]
+  else:
+    bounds_min = bounds_max = [0.0, 0.0, 0.0]
+  with open(path, 'wb') as mesh_file:
+    mesh_file.write(MAGIC)
+    mesh_file.write(
+        struct.pack('<5I', VERSION, vertex_count, len(indices), index_size, 0))
+    mesh_file.write(struct.pack('<6f', *(bounds_min + bounds_max)))
+    for attribute in (positions, tex_coords, normals):
+      for values in attribute:
+        mesh_file.write(struct.pack('<%df' % len(values), *values))
+    index_format = '<%d%s' % (len(indices), 'H' if index_size == 2 else 'I')
+    mesh_file.write(struct.pack(index_format, *indices))
+
+
+def main():
+  parser = argparse.ArgumentParser(
+      description='Convert a Wavefront OBJ file to a binary mesh file.')
+  parser.add_argument('input', help='input OBJ file')
+  parser.add_argument(
+      '-o', '--output', dest='output', required=True, help='output file')
+
+  args = parser.parse_args()
+
+  positions, tex_coords, normals, indices = convert(*read_obj(args.input))
+  write_mesh(args.output, positions, tex_coords, normals, indices)
+  print('Wrote %d vertices and %d indices to %s' %
+        (len(positions), len(indices), args.output))
+
+
+if __name__ == '__main__':
+  main()